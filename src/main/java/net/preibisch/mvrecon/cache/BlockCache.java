@@ -0,0 +1,360 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.cache;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * A process-wide, byte-budgeted LRU cache of image blocks. Image loaders and lazily computed
+ * (cached) images create their caches with {@link #newLoaderCache(String, ToLongFunction)};
+ * all of them share one budget, so the memory used for caching is controlled by a single
+ * value relative to the maximal heap size (-Xmx).
+ * <p>
+ * The cache holds strong references to the most recently used blocks up to the budget. Evicted
+ * blocks are still softly referenced by their {@link SharedLoaderCache} and only reloaded if the
+ * garbage collector cleared them. Hits, misses, evictions and the bytes held are tracked per
+ * loader name.
+ * <p>
+ * A hit only updates the access time of the block and takes no lock. When the budget is exceeded,
+ * one thread evicts the least recently used blocks (by access time) while the others continue,
+ * so the budget can be exceeded briefly.
+ * <p>
+ * The strong references are dropped when a pipeline is done ({@link #clear()}, or
+ * {@link SharedLoaderCache#invalidateAll()} for one cache), when the garbage collector runs
+ * low on memory (it clears soft references first), and for caches that are not referenced
+ * anymore (the blocks do not keep their cache alive).
+ */
+public class BlockCache
+{
+	/**
+	 * the fraction of the maximal heap size that is used for the shared cache
+	 */
+	public static double memoryFraction = 0.25;
+
+	/**
+	 * if false, all caches are created as before (independent soft-reference or bounded caches)
+	 */
+	public static boolean enabled = true;
+
+	/**
+	 * an eviction frees this fraction of the budget in addition, so that not every access that
+	 * exceeds the budget needs to sort all blocks
+	 */
+	public static double evictionSlack = 0.05;
+
+	private static BlockCache instance = null;
+
+	public static synchronized BlockCache getInstance()
+	{
+		if ( instance == null )
+			instance = new BlockCache( (long)( Runtime.getRuntime().maxMemory() * memoryFraction ) );
+
+		return instance;
+	}
+
+	private volatile long maxBytes;
+	private final AtomicLong currentBytes = new AtomicLong();
+
+	private final ConcurrentHashMap< Key, Entry > lru = new ConcurrentHashMap<>( 1024 );
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	// cleared by the garbage collector when memory runs low, then all strong references are dropped
+	private final AtomicReference< SoftReference< Object > > memoryPressure = new AtomicReference<>( new SoftReference<>( new Object() ) );
+
+	private final Map< String, LoaderStatistics > statistics = new ConcurrentHashMap<>();
+
+	public BlockCache( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param name - the name used for the statistics (several caches can share a name, e.g. one per view)
+	 * @param sizeInBytes - computes the size of a value in bytes
+	 * @return a new cache that is accounted in this budget
+	 */
+	public < K, V > SharedLoaderCache< K, V > newLoaderCache( final String name, final ToLongFunction< ? super V > sizeInBytes )
+	{
+		return new SharedLoaderCache<>( this, statistics.computeIfAbsent( name, LoaderStatistics::new ), sizeInBytes );
+	}
+
+	/**
+	 * @param name - the name used for the statistics
+	 * @return a new cache for the cells of a CachedCellImg that is accounted in this budget
+	 */
+	public < A > SharedLoaderCache< Long, Cell< A > > newCellCache( final String name )
+	{
+		return newLoaderCache( name, BlockCache::cellSizeInBytes );
+	}
+
+	public long getMaxBytes() { return maxBytes; }
+
+	public long getCurrentBytes() { return currentBytes.get(); }
+
+	/**
+	 * @return the number of blocks that are currently strongly referenced
+	 */
+	public int getNumBlocks() { return lru.size(); }
+
+	public void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public List< LoaderStatistics > getStatistics() { return new ArrayList<>( statistics.values() ); }
+
+	/**
+	 * Drops the strong references to all blocks (they are still softly referenced), call when a pipeline is done.
+	 */
+	public void clear()
+	{
+		for ( final Map.Entry< Key, Entry > e : lru.entrySet() )
+			remove( e.getKey(), e.getValue() );
+	}
+
+	public void printStatistics()
+	{
+		IOFunctions.println( "Shared block cache: " + ( getCurrentBytes() / ( 1024 * 1024 ) ) + " of " + ( getMaxBytes() / ( 1024 * 1024 ) ) + " MB used." );
+
+		for ( final LoaderStatistics s : getStatistics() )
+			IOFunctions.println( "\t" + s );
+	}
+
+	/**
+	 * Marks the value as most recently used, adds it if necessary and evicts least recently used blocks if the budget is exceeded.
+	 */
+	protected < V > void access( final SharedLoaderCache< ?, V > owner, final Object key, final V value )
+	{
+		checkMemoryPressure();
+
+		final Key k = new Key( owner, key );
+		final Entry e = lru.get( k );
+
+		if ( e != null && e.value == value )
+		{
+			e.lastAccess = System.nanoTime();
+			return;
+		}
+
+		// new, or the value was reloaded after the garbage collector cleared it
+		final Entry entry = new Entry( owner.statistics, value, owner.sizeInBytes.applyAsLong( value ) );
+		final Entry previous = lru.put( k, entry );
+
+		add( entry.statistics, entry.size );
+
+		if ( previous != null )
+			add( previous.statistics, -previous.size );
+
+		if ( currentBytes.get() > maxBytes )
+			evict();
+	}
+
+	/**
+	 * Drops the strong references to all blocks of one cache.
+	 */
+	protected void release( final SharedLoaderCache< ?, ? > owner )
+	{
+		for ( final Map.Entry< Key, Entry > e : lru.entrySet() )
+			if ( e.getKey().owner.get() == owner )
+				remove( e.getKey(), e.getValue() );
+	}
+
+	/**
+	 * If the garbage collector cleared the soft references because memory is low, drop all strong references
+	 * (only one thread does it, the others continue)
+	 */
+	private void checkMemoryPressure()
+	{
+		final SoftReference< Object > sentinel = memoryPressure.get();
+
+		if ( sentinel.get() == null && memoryPressure.compareAndSet( sentinel, new SoftReference<>( new Object() ) ) )
+		{
+			IOFunctions.println( "Shared block cache: memory is low, dropping " + ( getCurrentBytes() / ( 1024 * 1024 ) ) + " MB of cached blocks." );
+			clear();
+		}
+	}
+
+	private boolean remove( final Key k, final Entry e )
+	{
+		// only if it was not replaced in the meantime
+		if ( !lru.remove( k, e ) )
+			return false;
+
+		add( e.statistics, -e.size );
+		return true;
+	}
+
+	private void add( final LoaderStatistics statistics, final long size )
+	{
+		currentBytes.addAndGet( size );
+		statistics.bytes.addAndGet( size );
+	}
+
+	private void evict()
+	{
+		// another thread is evicting already
+		if ( !evictionLock.tryLock() )
+			return;
+
+		try
+		{
+			if ( currentBytes.get() <= maxBytes )
+				return;
+
+			// blocks of caches that were garbage collected are not used anymore
+			for ( final Map.Entry< Key, Entry > e : lru.entrySet() )
+				if ( e.getKey().owner.get() == null )
+					remove( e.getKey(), e.getValue() );
+
+			if ( currentBytes.get() <= maxBytes )
+				return;
+
+			final long target = maxBytes - (long)( maxBytes * evictionSlack );
+
+			// snapshot of the access times, they keep changing while we sort
+			final ArrayList< Candidate > candidates = new ArrayList<>( lru.size() );
+
+			for ( final Map.Entry< Key, Entry > e : lru.entrySet() )
+				candidates.add( new Candidate( e.getKey(), e.getValue() ) );
+
+			candidates.sort( Comparator.comparingLong( c -> c.lastAccess ) );
+
+			for ( final Candidate c : candidates )
+			{
+				if ( currentBytes.get() <= target )
+					break;
+
+				if ( remove( c.key, c.entry ) )
+					c.entry.statistics.evictions.increment();
+			}
+		}
+		finally
+		{
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the size of the data of a cell in bytes
+	 */
+	public static long cellSizeInBytes( final Cell< ? > cell )
+	{
+		final Object data = cell.getData();
+
+		if ( data instanceof ArrayDataAccess )
+		{
+			final ArrayDataAccess< ? > access = ( ArrayDataAccess< ? > ) data;
+			final Object array = access.getCurrentStorageArray();
+			final int length = access.getArrayLength();
+
+			if ( array instanceof byte[] || array instanceof boolean[] )
+				return length;
+			else if ( array instanceof short[] || array instanceof char[] )
+				return 2L * length;
+			else if ( array instanceof long[] || array instanceof double[] )
+				return 8L * length;
+			else
+				return 4L * length;
+		}
+
+		// unknown access, assume 32 bit per pixel
+		return 4L * cell.size();
+	}
+
+	private static class Key
+	{
+		// weak, the blocks must not keep their cache (and everything it references) alive
+		final WeakReference< SharedLoaderCache< ?, ? > > owner;
+		final Object key;
+		final int hashCode;
+
+		Key( final SharedLoaderCache< ?, ? > owner, final Object key )
+		{
+			this.owner = new WeakReference<>( owner );
+			this.key = key;
+			this.hashCode = 31 * System.identityHashCode( owner ) + key.hashCode();
+		}
+
+		@Override
+		public int hashCode() { return hashCode; }
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( this == o )
+				return true;
+
+			if ( !( o instanceof Key ) )
+				return false;
+
+			final Key other = ( Key ) o;
+			final SharedLoaderCache< ?, ? > cache = owner.get();
+
+			return cache != null && cache == other.owner.get() && key.equals( other.key );
+		}
+	}
+
+	private static class Entry
+	{
+		final LoaderStatistics statistics;
+		final Object value;
+		final long size;
+		volatile long lastAccess = System.nanoTime();
+
+		Entry( final LoaderStatistics statistics, final Object value, final long size )
+		{
+			this.statistics = statistics;
+			this.value = value;
+			this.size = size;
+		}
+	}
+
+	private static class Candidate
+	{
+		final Key key;
+		final Entry entry;
+		final long lastAccess;
+
+		Candidate( final Key key, final Entry entry )
+		{
+			this.key = key;
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit/miss/eviction counts and the bytes currently held in the {@link BlockCache} by all caches of one name.
+ */
+public class LoaderStatistics
+{
+	final String name;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final AtomicLong bytes = new AtomicLong();
+
+	public LoaderStatistics( final String name )
+	{
+		this.name = name;
+	}
+
+	public String getName() { return name; }
+	public long getHits() { return hits.sum(); }
+	public long getMisses() { return misses.sum(); }
+	public long getEvictions() { return evictions.sum(); }
+	public long getBytes() { return bytes.get(); }
+
+	public double getHitRate()
+	{
+		final long h = getHits();
+		final long total = h + getMisses();
+
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + ": " + ( getBytes() / ( 1024 * 1024 ) ) + " MB, hits=" + getHits() + ", misses=" + getMisses() +
+				", hit rate=" + String.format( "%.1f", 100 * getHitRate() ) + "%, evictions=" + getEvictions();
+	}
+}
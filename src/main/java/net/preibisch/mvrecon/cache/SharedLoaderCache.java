@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.cache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
+
+/**
+ * A {@link SoftRefLoaderCache} whose recently used values are strongly referenced by the shared
+ * {@link BlockCache} as long as they fit into its byte budget. Create with
+ * {@link BlockCache#newLoaderCache(String, ToLongFunction)}.
+ */
+public class SharedLoaderCache< K, V > extends SoftRefLoaderCache< K, V >
+{
+	final BlockCache blockCache;
+	final LoaderStatistics statistics;
+	final ToLongFunction< ? super V > sizeInBytes;
+
+	protected SharedLoaderCache( final BlockCache blockCache, final LoaderStatistics statistics, final ToLongFunction< ? super V > sizeInBytes )
+	{
+		this.blockCache = blockCache;
+		this.statistics = statistics;
+		this.sizeInBytes = sizeInBytes;
+	}
+
+	@Override
+	public V get( final K key, final CacheLoader< ? super K, ? extends V > loader ) throws ExecutionException
+	{
+		V value = getIfPresent( key );
+
+		if ( value != null )
+		{
+			statistics.hits.increment();
+		}
+		else
+		{
+			statistics.misses.increment();
+			value = super.get( key, loader );
+		}
+
+		blockCache.access( this, key, value );
+
+		return value;
+	}
+
+	@Override
+	public void invalidateAll()
+	{
+		super.invalidateAll();
+		blockCache.release( this );
+	}
+
+	public LoaderStatistics getStatistics() { return statistics; }
+}
@@ -38,6 +38,11 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
@@ -64,6 +69,7 @@ import net.imglib2.FinalDimensions;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.CZITileOrAngleRefiner;
 import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.NikonND2TileOrAngleRefiner;
 import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.TileOrAngleRefiner;
@@ -976,80 +982,36 @@ public class FileListDatasetDefinitionUtil
 				reader.setId( file.getAbsolutePath() );
 			}
 
-		// only use the 'master' file of a group in grouped data
-		final File currentFile = new File( reader.getCurrentFile() );
+			// only use the 'master' file of a group in grouped data
+			final File currentFile = new File( reader.getCurrentFile() );
 
-		for (int i = 0 ; i < reader.getSeriesCount(); i++)
-		{
-			reader.setSeries( i );
-			MetadataRetrieve meta = (MetadataRetrieve)reader.getMetadataStore();
-
-			if (!reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1 ){
-				IOFunctions.println( new Date(System.currentTimeMillis()) + ": WARNING: Uncertain XZY/XZT order in File " + file.getAbsolutePath() + 
-						", Image " + i);
-				IOFunctions.println( new Date(System.currentTimeMillis()) + ": Assuming XYZ. For XYT, please resave the data as "
-						+ "separate 2D images for each time point or set the metadata for the third dimesion." );
-			}
-
-			double sizeX = 1;
-			double sizeY = 1;
-			double sizeZ = 1;
-			
-			Length pszX = null;
-			try {
-				pszX = meta.getPixelsPhysicalSizeX( i );
-			}
-			catch (IndexOutOfBoundsException e)
-			{				
-			}
-
-			//System.out.println( pszX );
-			sizeX = pszX != null ? pszX.value().doubleValue() : 1 ;
-			
-			Length pszY = null;
-			try {
-				pszY = meta.getPixelsPhysicalSizeY( i );
-			}
-			catch (IndexOutOfBoundsException e)
-			{				
-			}
-			sizeY = pszY != null ? pszY.value().doubleValue() : 1 ;
-			
-			Length pszZ = null;
-			try {
-				pszZ = meta.getPixelsPhysicalSizeZ( i );
-			}
-			catch (IndexOutOfBoundsException e)
-			{				
-			}
-			sizeZ = pszZ != null ? pszZ.value().doubleValue() : 1 ;
-
-			// get view dimensions
-			int dimX = reader.getSizeX();
-			int dimY = reader.getSizeY();
-			// FIX for XYT stacks that should be XYZ (default if order is not certain)
-			// assume time points are actually z planes
-			int dimZ  = (!reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1 ) ? reader.getSizeT() : reader.getSizeZ();
-
-			// get pixel units from size
-			String unit = pszX != null ? pszX.unit().getSymbol() : "pixels";
-			
-			FinalVoxelDimensions finalVoxelDimensions = new FinalVoxelDimensions( unit, sizeX, sizeY, sizeZ );
-			FinalDimensions finalDimensions = new FinalDimensions( dimX, dimY, dimZ );
-			
-			for (int j = 0; j < reader.getSizeC(); j++)
-			{
-				FileMapEntry key = new FileMapEntry( currentFile, i, j );
-				dimensionMaps.put( key, new ValuePair<>( finalDimensions, finalVoxelDimensions ) );
-			}
+			addDimensions( currentFile, FileScanResult.scanDimensions( file, reader ), dimensionMaps );
 
+			reader.close();
 		}
+		catch ( FormatException | IOException e ){ e.printStackTrace(); }
+	}
+
+	protected static void addDimensions( final File currentFile, final List< FileScanResult.SeriesDimensions > dimensions, final Map< FileMapEntry, Pair< Dimensions, VoxelDimensions > > dimensionMaps )
+	{
+		for ( final FileScanResult.SeriesDimensions d : dimensions )
+		{
+			final FinalDimensions finalDimensions = FileScanResult.dimensions( d );
+			final FinalVoxelDimensions finalVoxelDimensions = FileScanResult.voxelDimensions( d );
 
-		reader.close();
+			for (int j = 0; j < d.numChannels; j++)
+				dimensionMaps.put( new FileMapEntry( currentFile, d.series, j ), new ValuePair<>( finalDimensions, finalVoxelDimensions ) );
 		}
-		catch ( FormatException | IOException e ){ e.printStackTrace(); }
 	}
 
+	/**
+	 * Scans the files in parallel (one Bio-Formats reader per thread), using and updating the persistent {@link FileScanCache}
+	 * if {@link FileScanCache#useCache} is set. The results are merged in the order of the sorted files, so the outcome is
+	 * the same as scanning file by file.
+	 *
+	 * @param files - the files
+	 * @param state - the detection state to fill
+	 */
 	public static void detectViewsInFiles(List<File> files,
 										 FileListViewDetectionState state)
 	{
@@ -1057,32 +1019,37 @@ public class FileListDatasetDefinitionUtil
 		List<String> usedFiles = new ArrayList<>();
 		
 		Collections.sort( files );
-		
+
+		final FileScanCache cache = FileScanCache.useCache ? FileScanCache.load() : null;
+		final Map< File, FileScanResult > results = scanFiles( files, cache );
+
 		for (File file : files)
 			if (!usedFiles.contains( file.getAbsolutePath() ))
 			{
-				ImageReader reader = BioformatsReaderUtils.createImageReaderWithSetupHooks();
-				reader.setMetadataStore( new OMEXMLMetadataImpl() );
-				detectViewsInFile( 	file,
-									multiplicityMapInner,
-									state,
-									usedFiles,
-									reader);
-
-				detectDimensionsInFile (file, state.getDimensionMap(), reader);
-				
-				try
-				{
-					reader.close();
-				}
-				catch ( IOException e )
-				{
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+				FileScanResult result = results.get( file );
+
+				// skipped during the parallel scan because another file of its group was scanned (or the scan failed)
+				if ( result == null )
+					result = scanFile( file, cache );
+
+				addScanResult( result, multiplicityMapInner, state, usedFiles );
 			}
-		
-		
+
+		if ( cache != null )
+			cache.save();
+
+		mergeMultiplicities( multiplicityMapInner, state );
+	}
+
+	/**
+	 * Combines the multiplicities found in the single files into the multiplicities of the detection state.
+	 *
+	 * @param multiplicityMapInner - the multiplicities per file
+	 * @param state - the detection state
+	 */
+	public static void mergeMultiplicities(Map<File, Map<Class<? extends Entity>, CheckResult>> multiplicityMapInner,
+										 FileListViewDetectionState state)
+	{
 		for (Map<Class<? extends Entity>, CheckResult> cr : multiplicityMapInner.values())
 		{
 			for (Class<? extends Entity> cl : cr.keySet() )
@@ -1103,6 +1070,97 @@ public class FileListDatasetDefinitionUtil
 	
 	
 	
+	protected static Map< File, FileScanResult > scanFiles( final List< File > files, final FileScanCache cache )
+	{
+		final Map< File, FileScanResult > results = new ConcurrentHashMap<>();
+
+		// files used by an already scanned file (grouped formats) do not need to be scanned again
+		final Set< String > claimed = ConcurrentHashMap.newKeySet();
+
+		final ThreadLocal< ImageReader > readers = ThreadLocal.withInitial( () ->
+		{
+			final ImageReader reader = BioformatsReaderUtils.createImageReaderWithSetupHooks();
+			reader.setMetadataStore( new OMEXMLMetadataImpl() );
+			return reader;
+		});
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final File file : files )
+			tasks.add( () ->
+			{
+				if ( claimed.contains( file.getAbsolutePath() ) )
+					return null;
+
+				try
+				{
+					FileScanResult result = cache == null ? null : cache.get( file );
+
+					if ( result != null )
+						IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Using cached metadata for file " + file.getAbsolutePath() );
+					else
+					{
+						// a fresh metadata store per file, the reader is reused
+						readers.get().setMetadataStore( new OMEXMLMetadataImpl() );
+						result = FileScanResult.scan( file, readers.get(), tileOrAngleRefiners );
+
+						if ( cache != null && result.rgbChannelCount <= 1 )
+							cache.put( result );
+					}
+
+					claimed.addAll( Arrays.asList( result.usedFiles ) );
+					results.put( file, result );
+				}
+				catch ( Exception e )
+				{
+					// will be scanned again serially, which reports the error
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Scanning '" + file + "' failed: " + e );
+				}
+
+				return null;
+			});
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.min( Threads.numThreads(), Math.max( 1, files.size() ) ) );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to scan files: " + e );
+			e.printStackTrace();
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return results;
+	}
+
+	protected static FileScanResult scanFile( final File file, final FileScanCache cache )
+	{
+		final ImageReader reader = BioformatsReaderUtils.createImageReaderWithSetupHooks();
+		reader.setMetadataStore( new OMEXMLMetadataImpl() );
+
+		try
+		{
+			final FileScanResult result = FileScanResult.scan( file, reader, tileOrAngleRefiners );
+
+			if ( cache != null && result.rgbChannelCount <= 1 )
+				cache.put( result );
+
+			return result;
+		}
+		catch ( FormatException | IOException e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "Could not read file '" + file.getAbsolutePath() + "': " + e, e );
+		}
+	}
+
 	public static void detectViewsInFile(final File file,
 										 Map<File, Map<Class<? extends Entity>, CheckResult>> multiplicityMap,
 										 FileListViewDetectionState state,
@@ -1116,49 +1174,55 @@ public class FileListDatasetDefinitionUtil
 			reader.setMetadataStore( new OMEXMLMetadataImpl());
 		}
 
-		IOFunctions.println("" + new Date(System.currentTimeMillis()) + ": Investigating file " + file.getAbsolutePath() );
+		final FileScanResult result;
 
 		try
 		{
-			if ( reader.getCurrentFile() == null || !Arrays.asList( reader.getUsedFiles() ).contains( file.getAbsolutePath() ))
-				reader.setId( file.getAbsolutePath() );
+			result = FileScanResult.scan( file, reader, tileOrAngleRefiners );
 		}
 		catch ( FormatException | IOException e )
 		{
 			e.printStackTrace();
+			throw new RuntimeException( "Could not read file '" + file.getAbsolutePath() + "': " + e, e );
 		}
 
+		addScanResult( result, multiplicityMap, state, usedFiles );
+	}
+
+	/**
+	 * Merges the scan of one file into the detection state (and its dimension map).
+	 */
+	public static void addScanResult(final FileScanResult result,
+										 Map<File, Map<Class<? extends Entity>, CheckResult>> multiplicityMap,
+										 FileListViewDetectionState state,
+										 List<String> usedFiles)
+	{
 		// use the master file of group from now on (in case we opened another file before)
-		final File currentFile = new File( reader.getCurrentFile() );
+		final File currentFile = new File( result.currentFile );
 
-		if (reader.getRGBChannelCount() > 1)
+		if (result.rgbChannelCount > 1)
 		{
 			IOFunctions.println("RGB images are not supported at the moment. Please re-save as Composite (Open in Fiji > Image > Color > Make Composite > Save ). Quitting.");
 			throw new IllegalArgumentException("RGB images are not supported at the moment. Please re-save as Composite. Quitting.");
 		}
 
-		usedFiles.addAll( Arrays.asList( reader.getUsedFiles() ));
+		usedFiles.addAll( Arrays.asList( result.usedFiles ));
 
 		// the format we use employs grouped files
-		if (reader.getUsedFiles().length > 1)
+		if (result.usedFiles.length > 1)
 			state.setGroupedFormat( true );
 
 		// populate grouped format file usage map
-		for (int i = 0; i < reader.getSeriesCount(); i ++)
-		{
-			reader.setSeries( i );
-			for (String usedFileI : reader.getSeriesUsedFiles())
-				state.getGroupUsageMap().put( usedFileI , new ValuePair< File, Integer >( currentFile, i ));
-		}
+		for ( final Entry< String, Integer > usage : result.groupUsage.entrySet() )
+			state.getGroupUsageMap().put( usage.getKey(), new ValuePair< File, Integer >( currentFile, usage.getValue() ));
+
+		addDimensions( currentFile, result.dimensions, state.getDimensionMap() );
 
 		// for each entity class, create a map from identifying object to series
 		Map<Class<? extends Entity>, Map< ? extends Object, List< Pair< Integer, Integer > > >> infoMap = new HashMap<>();
 
-		// predict tiles and angles, refine info with format specific refiner
-		List< TileOrAngleInfo > predictTilesAndAngles = predictTilesAndAngles( reader);
-		TileOrAngleRefiner refiner = tileOrAngleRefiners.get( ((ImageReader)reader).getReader().getClass() );
-		if (refiner != null)
-			refiner.refineTileOrAngleInfo( reader, predictTilesAndAngles );
+		// tiles and angles, refined with format specific refiner
+		List< TileOrAngleInfo > predictTilesAndAngles = result.tilesAndAngles;
 
 		// map to tileMap and angleMap
 		Pair< Map< TileInfo, List< Pair< Integer, Integer > > >, Map< AngleInfo, List< Pair< Integer, Integer > > > > mapTilesAngles = mapTilesAndAnglesToSeries( predictTilesAndAngles );
@@ -1168,7 +1232,7 @@ public class FileListDatasetDefinitionUtil
 		infoMap.put( Angle.class, angleMap );
 
 		// predict and map timepoints, channels, illuminations
-		List< Pair< Integer, List< ChannelOrIlluminationInfo > > > predictTPChannelsIllum = predictTimepointsChannelsAndIllums( reader );
+		List< Pair< Integer, List< ChannelOrIlluminationInfo > > > predictTPChannelsIllum = result.timepointsChannelsAndIllums();
 		Pair< Map< Integer, List< Pair< Integer, Integer > > >, Pair< Map< ChannelInfo, List< Pair< Integer, Integer > > >, Map< Integer, List< Pair< Integer, Integer > > > > > mapTimepointsChannelsIlluminations = mapTimepointsChannelsAndIlluminations(predictTPChannelsIllum);
 		infoMap.put(TimePoint.class, mapTimepointsChannelsIlluminations.getA());
 		infoMap.put(Channel.class, mapTimepointsChannelsIlluminations.getB().getA());
@@ -1288,8 +1352,6 @@ public class FileListDatasetDefinitionUtil
 		if(!state.getAmbiguousIllumChannel() && channelIllumAmbiguous)
 			state.setAmbiguousIllumChannel(true);
 
-		//reader.close();
-
 	}
 	
 	public static void main(String[] args)
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.datasetmanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import loci.formats.FormatTools;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.util.BioformatsReaderUtils;
+
+/**
+ * Persistent cache of {@link FileScanResult}s, keyed by the absolute path of the scanned file and the options of the
+ * reader setup hooks (e.g. CZI autostitching). An entry is only used if the file and all other files used by the reader
+ * still have the same size and modification time, so re-defining a dataset or adding files only scans what changed.
+ * The whole cache is discarded if the Bio-Formats version changes, entries of files that no longer exist are removed
+ * when saving, and only the {@link #maxEntries} most recently used entries are kept. Stored as JSON in {@link #defaultCacheFile}.
+ */
+public class FileScanCache
+{
+	// increase if the content of FileScanResult changes
+	public static int currentVersion = 2;
+
+	public static boolean useCache = true;
+
+	// the least recently used entries are dropped beyond this
+	public static int maxEntries = 50000;
+	public static String defaultCacheFile = new File( new File( System.getProperty( "user.home" ), ".multiview-reconstruction" ), "bioformats-scan-cache.json" ).getAbsolutePath();
+
+	public int version = currentVersion;
+	public String bioformatsVersion = FormatTools.VERSION;
+	// in the order of use, least recently used first
+	public LinkedHashMap< String, FileScanResult > entries = new LinkedHashMap<>();
+
+	/**
+	 * @param file - the file
+	 * @return the cached result if it is up to date, otherwise null
+	 */
+	public synchronized FileScanResult get( final File file )
+	{
+		final String key = key( file.getAbsolutePath() );
+		final FileScanResult result = entries.get( key );
+
+		if ( result == null )
+			return null;
+
+		if ( !result.isUpToDate() )
+		{
+			entries.remove( key );
+			return null;
+		}
+
+		// most recently used
+		entries.remove( key );
+		entries.put( key, result );
+
+		return result;
+	}
+
+	public synchronized void put( final FileScanResult result )
+	{
+		final String key = key( result.file );
+
+		entries.remove( key );
+		entries.put( key, result );
+
+		trim();
+	}
+
+	/**
+	 * @param file - the absolute path of the file
+	 * @return the key of the file, results of readers that were set up differently are kept apart
+	 */
+	protected static String key( final String file )
+	{
+		return file + " " + BioformatsReaderUtils.describeSetupHookOptions();
+	}
+
+	/**
+	 * Removes the entries of files that no longer exist.
+	 *
+	 * @return the number of removed entries
+	 */
+	public synchronized int prune()
+	{
+		final int size = entries.size();
+
+		entries.values().removeIf( result -> result.file == null || !new File( result.file ).exists() );
+
+		return size - entries.size();
+	}
+
+	/**
+	 * Removes the least recently used entries beyond {@link #maxEntries}.
+	 *
+	 * @return the number of removed entries
+	 */
+	public synchronized int trim()
+	{
+		int removed = 0;
+
+		for ( final Iterator< String > it = entries.keySet().iterator(); it.hasNext() && entries.size() > Math.max( 0, maxEntries ); ++removed )
+		{
+			it.next();
+			it.remove();
+		}
+
+		return removed;
+	}
+
+	/**
+	 * @return the cache stored in {@link #defaultCacheFile}, or an empty cache if it does not exist or cannot be read
+	 */
+	public static FileScanCache load()
+	{
+		final Path file = new File( defaultCacheFile ).toPath();
+
+		if ( !Files.exists( file ) )
+			return new FileScanCache();
+
+		try ( final Reader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) )
+		{
+			final FileScanCache cache = gson().fromJson( reader, FileScanCache.class );
+
+			if ( cache == null || cache.version != currentVersion || cache.entries == null )
+				return new FileScanCache();
+
+			if ( !FormatTools.VERSION.equals( cache.bioformatsVersion ) )
+			{
+				IOFunctions.println( "Bio-Formats scan cache '" + file + "' was written by Bio-Formats " + cache.bioformatsVersion + ", ignoring it." );
+				return new FileScanCache();
+			}
+
+			return cache;
+		}
+		catch ( Exception e )
+		{
+			IOFunctions.println( "Could not read Bio-Formats scan cache '" + file + "', ignoring it: " + e );
+			return new FileScanCache();
+		}
+	}
+
+	public synchronized void save()
+	{
+		final Path file = new File( defaultCacheFile ).getAbsoluteFile().toPath();
+
+		prune();
+		trim();
+
+		Path tmp = null;
+
+		try
+		{
+			Files.createDirectories( file.getParent() );
+
+			// write to a unique temporary file in the same directory first, so concurrent runs never see (or write into) a partial cache
+			tmp = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".tmp" );
+
+			try ( final Writer writer = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) )
+			{
+				gson().toJson( this, writer );
+			}
+
+			Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING );
+			tmp = null;
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Could not write Bio-Formats scan cache '" + file + "': " + e );
+		}
+		finally
+		{
+			if ( tmp != null )
+			{
+				try { Files.deleteIfExists( tmp ); } catch ( IOException e ) {}
+			}
+		}
+	}
+
+	// e.g. wavelengths or locations can be NaN
+	protected static Gson gson()
+	{
+		return new GsonBuilder().serializeSpecialFloatingPointValues().create();
+	}
+}
@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.datasetmanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.meta.MetadataRetrieve;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.ChannelOrIlluminationInfo;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.TileOrAngleInfo;
+import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.TileOrAngleRefiner;
+import ome.units.quantity.Length;
+
+/**
+ * Everything {@link FileListDatasetDefinitionUtil} needs to know about one file, as read by Bio-Formats.
+ * Scanning (which needs an {@link IFormatReader}) is separated from merging the results into the
+ * {@link FileListViewDetectionState}, so files can be scanned in parallel and the results cached
+ * (see {@link FileScanCache}). All fields are public to be (de)serialized by Gson.
+ */
+public class FileScanResult
+{
+	public static class SeriesDimensions
+	{
+		public int series, numChannels;
+		public long[] dimensions;
+		public String unit;
+		public double[] voxelSize;
+	}
+
+	// the file that was scanned and the 'master' file of the group (in case of grouped formats)
+	public String file, currentFile;
+
+	// all files used by the reader, with their size and modification time when they were scanned
+	public String[] usedFiles;
+	public long[] sizes, lastModified;
+
+	public int rgbChannelCount;
+
+	// used file of a series -> series (grouped formats)
+	public LinkedHashMap< String, Integer > groupUsage = new LinkedHashMap<>();
+
+	public List< TileOrAngleInfo > tilesAndAngles;
+
+	// timepoint -> channels and illuminations, as returned by predictTimepointsChannelsAndIllums
+	public List< Integer > timepoints = new ArrayList<>();
+	public List< List< ChannelOrIlluminationInfo > > channelsAndIllums = new ArrayList<>();
+
+	public List< SeriesDimensions > dimensions;
+
+	public List< Pair< Integer, List< ChannelOrIlluminationInfo > > > timepointsChannelsAndIllums()
+	{
+		final ArrayList< Pair< Integer, List< ChannelOrIlluminationInfo > > > list = new ArrayList<>();
+
+		for ( int i = 0; i < timepoints.size(); ++i )
+			list.add( new ValuePair<>( timepoints.get( i ), channelsAndIllums.get( i ) ) );
+
+		return list;
+	}
+
+	/**
+	 * @return true if the file and all other files used by the reader are unchanged since the scan
+	 */
+	public boolean isUpToDate()
+	{
+		if ( usedFiles == null || sizes == null || lastModified == null || !Arrays.asList( usedFiles ).contains( file ) )
+			return false;
+
+		for ( int i = 0; i < usedFiles.length; ++i )
+		{
+			final File f = new File( usedFiles[ i ] );
+
+			if ( !f.exists() || f.length() != sizes[ i ] || f.lastModified() != lastModified[ i ] )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Scans a file, the reader is closed afterwards.
+	 *
+	 * @param file - the file
+	 * @param reader - the reader to use
+	 * @param refiners - format-specific refiners of tile and angle information
+	 * @return the scan result
+	 * @throws FormatException if Bio-Formats cannot read the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static FileScanResult scan(
+			final File file,
+			final IFormatReader reader,
+			final Map< Class< ? extends IFormatReader >, TileOrAngleRefiner > refiners ) throws FormatException, IOException
+	{
+		IOFunctions.println("" + new Date(System.currentTimeMillis()) + ": Investigating file " + file.getAbsolutePath() );
+
+		try
+		{
+			if ( reader.getCurrentFile() == null || !Arrays.asList( reader.getUsedFiles() ).contains( file.getAbsolutePath() ))
+				reader.setId( file.getAbsolutePath() );
+
+			final FileScanResult result = new FileScanResult();
+
+			result.file = file.getAbsolutePath();
+			result.currentFile = reader.getCurrentFile();
+			result.usedFiles = reader.getUsedFiles();
+			result.sizes = new long[ result.usedFiles.length ];
+			result.lastModified = new long[ result.usedFiles.length ];
+
+			for ( int i = 0; i < result.usedFiles.length; ++i )
+			{
+				final File f = new File( result.usedFiles[ i ] );
+				result.sizes[ i ] = f.length();
+				result.lastModified[ i ] = f.lastModified();
+			}
+
+			result.rgbChannelCount = reader.getRGBChannelCount();
+
+			// RGB is not supported, FileListDatasetDefinitionUtil will complain
+			if ( result.rgbChannelCount > 1 )
+				return result;
+
+			for ( int i = 0; i < reader.getSeriesCount(); i ++ )
+			{
+				reader.setSeries( i );
+				for ( final String usedFileI : reader.getSeriesUsedFiles() )
+					result.groupUsage.put( usedFileI, i );
+			}
+
+			// predict tiles and angles, refine info with format specific refiner
+			result.tilesAndAngles = FileListDatasetDefinitionUtil.predictTilesAndAngles( reader );
+
+			final IFormatReader formatReader = reader instanceof ImageReader ? ((ImageReader)reader).getReader() : reader;
+			final TileOrAngleRefiner refiner = refiners.get( formatReader.getClass() );
+
+			if ( refiner != null )
+				refiner.refineTileOrAngleInfo( reader, result.tilesAndAngles );
+
+			for ( final Pair< Integer, List< ChannelOrIlluminationInfo > > tp : FileListDatasetDefinitionUtil.predictTimepointsChannelsAndIllums( reader ) )
+			{
+				result.timepoints.add( tp.getA() );
+				result.channelsAndIllums.add( tp.getB() );
+			}
+
+			result.dimensions = scanDimensions( file, reader );
+
+			return result;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param file - the file (for warnings)
+	 * @param reader - a reader that has the file open
+	 * @return dimensions and voxel size of all series
+	 */
+	public static List< SeriesDimensions > scanDimensions( final File file, final IFormatReader reader )
+	{
+		final ArrayList< SeriesDimensions > dims = new ArrayList<>();
+
+		for (int i = 0 ; i < reader.getSeriesCount(); i++)
+		{
+			reader.setSeries( i );
+			MetadataRetrieve meta = (MetadataRetrieve)reader.getMetadataStore();
+
+			if (!reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1 ){
+				IOFunctions.println( new Date(System.currentTimeMillis()) + ": WARNING: Uncertain XZY/XZT order in File " + file.getAbsolutePath() +
+						", Image " + i);
+				IOFunctions.println( new Date(System.currentTimeMillis()) + ": Assuming XYZ. For XYT, please resave the data as "
+						+ "separate 2D images for each time point or set the metadata for the third dimesion." );
+			}
+
+			final Length pszX = physicalSize( meta, i, 0 );
+			final Length pszY = physicalSize( meta, i, 1 );
+			final Length pszZ = physicalSize( meta, i, 2 );
+
+			final SeriesDimensions d = new SeriesDimensions();
+
+			d.series = i;
+			d.numChannels = reader.getSizeC();
+
+			// FIX for XYT stacks that should be XYZ (default if order is not certain)
+			// assume time points are actually z planes
+			final int dimZ  = (!reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1 ) ? reader.getSizeT() : reader.getSizeZ();
+
+			d.dimensions = new long[] { reader.getSizeX(), reader.getSizeY(), dimZ };
+
+			// get pixel units from size
+			d.unit = pszX != null ? pszX.unit().getSymbol() : "pixels";
+			d.voxelSize = new double[] {
+					pszX != null ? pszX.value().doubleValue() : 1,
+					pszY != null ? pszY.value().doubleValue() : 1,
+					pszZ != null ? pszZ.value().doubleValue() : 1 };
+
+			dims.add( d );
+		}
+
+		return dims;
+	}
+
+	public static FinalDimensions dimensions( final SeriesDimensions d ) { return new FinalDimensions( d.dimensions ); }
+
+	public static FinalVoxelDimensions voxelDimensions( final SeriesDimensions d ) { return new FinalVoxelDimensions( d.unit, d.voxelSize ); }
+
+	private static Length physicalSize( final MetadataRetrieve meta, final int series, final int d )
+	{
+		try
+		{
+			if ( d == 0 )
+				return meta.getPixelsPhysicalSizeX( series );
+			else if ( d == 1 )
+				return meta.getPixelsPhysicalSizeY( series );
+			else
+				return meta.getPixelsPhysicalSizeZ( series );
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			return null;
+		}
+	}
+}
@@ -39,6 +39,7 @@ import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.cache.BlockCache;
 import net.preibisch.mvrecon.fiji.plugin.fusion.DeconvolutionGUI;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
@@ -159,7 +160,7 @@ public class Image_Deconvolution implements PlugIn
 			if ( decon.getInputImgCacheType() == ImgDataType.CACHED )
 			{
 				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching fused input images ... " );
-				fusion.cacheImages();
+				fusion.cacheImages( decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
 			}
 			else if ( decon.getInputImgCacheType() == ImgDataType.PRECOMPUTED )
 			{
@@ -170,14 +171,14 @@ public class Image_Deconvolution implements PlugIn
 			if ( decon.getWeightCacheType() == ImgDataType.CACHED )
 			{
 				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Caching weight images ... " );
-				fusion.cacheUnnormalizedWeights();
-				fusion.cacheNormalizedWeights();
+				fusion.cacheUnnormalizedWeights( decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
+				fusion.cacheNormalizedWeights( decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
 			}
 			if ( decon.getWeightCacheType() == ImgDataType.PRECOMPUTED )
 			{
 				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Precomputing weight images ... " );
 				// we cache the unnormalized ones so the copying is efficient
-				fusion.cacheUnnormalizedWeights();
+				fusion.cacheUnnormalizedWeights( decon.getCacheBlockSize(), decon.getCacheMaxNumBlocks() );
 				fusion.copyNormalizedWeights( decon.getCopyFactory() );
 			}
 
@@ -270,6 +271,9 @@ public class Image_Deconvolution implements PlugIn
 				IOFunctions.println( "Out of memory.  Use smaller blocks, virtual/cached inputs, and check \"Edit > Options > Memory & Threads\"" );
 				IOFunctions.println( "Your java instance has access to a total amount of RAM of: " + Runtime.getRuntime().maxMemory() / (1024*1024) );
 
+				if ( BlockCache.enabled )
+					BlockCache.getInstance().clear();
+
 				service.shutdown();
 
 				return false;
@@ -280,6 +284,14 @@ public class Image_Deconvolution implements PlugIn
 
 		exporter.finish();
 
+		if ( BlockCache.enabled )
+		{
+			BlockCache.getInstance().printStatistics();
+
+			// the pipeline is done, do not keep its blocks
+			BlockCache.getInstance().clear();
+		}
+
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
 
 		return true;
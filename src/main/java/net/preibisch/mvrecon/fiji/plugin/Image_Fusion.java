@@ -54,6 +54,7 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.cache.BlockCache;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
@@ -62,6 +63,7 @@ import net.preibisch.mvrecon.process.export.Calibrateable;
 import net.preibisch.mvrecon.process.export.ImgExport;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.blk.BlkAffineFusion;
+import net.preibisch.mvrecon.process.fusion.blk.BlkNonRigidFusion;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyAffineFusion;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyNonRigidFusion;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
@@ -201,7 +203,8 @@ public class Image_Fusion implements PlugIn
 
 			if ( fusion.getNonRigidParameters().isActive() )
 			{
-				lazy = LazyNonRigidFusion.init(
+//				lazy = LazyNonRigidFusion.init(
+				lazy = BlkNonRigidFusion.init(
 						conv,
 						spimData.getSequenceDescription().getImgLoader(),
 						registrations,
@@ -296,6 +299,14 @@ public class Image_Fusion implements PlugIn
 		
 		taskExecutor.shutdown();
 
+		if ( BlockCache.enabled )
+		{
+			BlockCache.getInstance().printStatistics();
+
+			// the pipeline is done, do not keep its blocks
+			BlockCache.getInstance().clear();
+		}
+
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): DONE." );
 
 		return true;
@@ -160,7 +160,7 @@ public class Image_Quality implements PlugIn
 				}
 
 				final FRCRealRandomAccessible< FloatType > frc =
-						FRCTools.computeFRC( viewId, imgLoader, quality.getFRCStepSize(), quality.getFFTSize(), quality.getUseRelativeFRC() );
+						FRCTools.computeFRC( viewId, imgLoader, quality.getFRCStepSize(), quality.getFFTSize(), quality.getUseRelativeFRC(), quality.getUse3DFRC() );
 
 				data.add( new ValuePair<>( frc.getRandomAccessibleInterval(), transform ) );
 			}
@@ -106,6 +106,7 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.InterestPointGroupingMinDistance;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SpatialIndexOverlap;
 
 /**
 *
@@ -368,6 +369,7 @@ public class Interest_Point_Registration implements PlugIn
 				if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
 				{
 					final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+					globalOptParameters.configure( cs );
 
 					models = GlobalOpt.computeTiles(
 									model,
@@ -378,10 +380,13 @@ public class Interest_Point_Registration implements PlugIn
 				}
 				else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
 				{
+					final SimpleIterativeConvergenceStrategy ics = new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold );
+					globalOptParameters.configure( ics );
+
 					models = GlobalOptIterative.computeTiles(
 									model,
 									pmc,
-									new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
+									ics,
 									new MaxErrorLinkRemoval(),
 									removedInconsistentPairs,
 									fixedViews,
@@ -389,16 +394,20 @@ public class Interest_Point_Registration implements PlugIn
 				}
 				else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
 				{
+					final SimpleIterativeConvergenceStrategy csStrong = new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ); // if it's simple, both will be Double.MAX
+					final ConvergenceStrategy csWeak = new ConvergenceStrategy( Double.MAX_VALUE );
+					globalOptParameters.configure( csStrong, csWeak );
+
 					models = GlobalOptTwoRound.computeTiles(
 							model,
 							pmc,
-							new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
+							csStrong,
 							new MaxErrorLinkRemoval(),
 							removedInconsistentPairs,
 							new MetaDataWeakLinkFactory(
 									registrations,
 									new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
-							new ConvergenceStrategy( Double.MAX_VALUE ),
+							csWeak,
 							fixedViews,
 							subset.getGroups() );
 				}
@@ -467,6 +476,7 @@ public class Interest_Point_Registration implements PlugIn
 				if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_SIMPLE )
 				{
 					final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+					globalOptParameters.configure( cs );
 
 					models = GlobalOpt.computeTiles(
 									model,
@@ -477,10 +487,13 @@ public class Interest_Point_Registration implements PlugIn
 				}
 				else if ( globalOptParameters.method == GlobalOptType.ONE_ROUND_ITERATIVE )
 				{
+					final SimpleIterativeConvergenceStrategy ics = new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold );
+					globalOptParameters.configure( ics );
+
 					models = GlobalOptIterative.computeTiles(
 									model,
 									pmc,
-									new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ),
+									ics,
 									new MaxErrorLinkRemoval(),
 									removedInconsistentPairs,
 									fixedViews,
@@ -488,17 +501,21 @@ public class Interest_Point_Registration implements PlugIn
 				}
 				else //if ( globalOptParameters.method == GlobalOptType.TWO_ROUND_SIMPLE || globalOptParameters.method == GlobalOptType.TWO_ROUND_ITERATIVE )
 				{
+					final SimpleIterativeConvergenceStrategy csStrong = new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ); // if it's simple, both will be Double.MAX
+					final ConvergenceStrategy csWeak = new ConvergenceStrategy( Double.MAX_VALUE );
+					globalOptParameters.configure( csStrong, csWeak );
+
 					// TODO: returns HashMap< ViewId, AffineModel3D>????
 					models = GlobalOptTwoRound.computeTiles(
 							model,
 							pmc,
-							new SimpleIterativeConvergenceStrategy( Double.MAX_VALUE, globalOptParameters.relativeThreshold, globalOptParameters.absoluteThreshold ), // if it's simple, both will be Double.MAX
+							csStrong,
 							new MaxErrorLinkRemoval(),
 							removedInconsistentPairs,
 							new MetaDataWeakLinkFactory(
 									registrations,
 									new SimpleBoundingBoxOverlap<>( viewSetups, registrations ) ),
-							new ConvergenceStrategy( Double.MAX_VALUE ),
+							csWeak,
 							fixedViews,
 							groups );
 				}
@@ -619,8 +636,17 @@ public class Interest_Point_Registration implements PlugIn
 
 	public void identifySubsets( final PairwiseSetup< ViewId > setup, final OverlapDetection< ViewId > overlapDetection )
 	{
-		IOFunctions.println( "Defined pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
-		IOFunctions.println( "Removed " + setup.removeNonOverlappingPairs( overlapDetection ).size() + " pairs because they do not overlap (Strategy='" + overlapDetection.getClass().getSimpleName() + "')" );
+		if ( overlapDetection instanceof SpatialIndexOverlap )
+		{
+			// only generates candidate pairs that overlap
+			IOFunctions.println( "Defined overlapping pairs (Strategy='" + overlapDetection.getClass().getSimpleName() + "'), removed " + setup.definePairs( overlapDetection ).size() + " redundant view pairs." );
+		}
+		else
+		{
+			IOFunctions.println( "Defined pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
+			IOFunctions.println( "Removed " + setup.removeNonOverlappingPairs( overlapDetection ).size() + " pairs because they do not overlap (Strategy='" + overlapDetection.getClass().getSimpleName() + "')" );
+		}
+
 		setup.reorderPairs();
 		setup.detectSubsets();
 		setup.sortSubsets();
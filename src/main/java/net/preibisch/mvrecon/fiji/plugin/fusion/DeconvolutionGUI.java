@@ -26,6 +26,7 @@ import java.awt.Choice;
 import java.awt.Label;
 import java.awt.TextField;
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -51,6 +52,7 @@ import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Util;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.cache.BlockCache;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.plugin.util.PluginHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
@@ -170,6 +172,9 @@ public class DeconvolutionGUI implements FusionExportInterface
 	public static int defaultImgExportAlgorithm = 0;
 	public static String defaultPsiStartFile = "";
 	public static boolean defaultPreciseAvgMax = true;
+	public static boolean defaultOutOfCore = false;
+	public static String defaultScratchDirectory = "";
+	public static int defaultPsiMemoryMB = 4096;
 
 
 	protected int boundingBox = defaultBB;
@@ -208,6 +213,9 @@ public class DeconvolutionGUI implements FusionExportInterface
 	protected long[] maxBlock = null;
 	protected String psiStartFile = "";
 	protected boolean preciseAvgMax = true;
+	protected boolean outOfCore = defaultOutOfCore;
+	protected String scratchDirectory = defaultScratchDirectory;
+	protected int psiMemoryMB = defaultPsiMemoryMB;
 
 	protected NonRigidParametersGUI nrgui;
 
@@ -298,6 +306,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 	public int getPsiCopyBlockSize() { return psiCopyBlockSize; }
 	public ImgFactory< FloatType > getBlockFactory() { return blockFactory; }
 	public ImgFactory< FloatType > getPsiFactory() { return psiFactory; }
+	public boolean isOutOfCore() { return outOfCore; }
 	public ImgFactory< FloatType > getCopyFactory() { return copyFactory; }
 	public ComputeBlockThreadFactory< ? > getComputeBlockThreadFactory() { return computeFactory; }
 	public boolean isMultiplicative() { return mul; } //TODO: maybe this actually multiplicative (cannot remove remove blocks, psf must be the same size)
@@ -387,6 +396,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 		gd.addChoice( "Compute_on", computationOnChoice, computationOnChoice[ defaultComputeOnIndex ] );
 		if ( !PluginHelper.isHeadless() ) computeOnChoice = (Choice)gd.getChoices().lastElement();
 		gd.addCheckbox( "Adjust_blending & grouping parameters", defaultAdjustBlending );
+		gd.addCheckbox( "Out-of-core deconvolved image (stored on disk, cached in memory)", defaultOutOfCore );
 
 		gd.addMessage( "" );
 
@@ -448,6 +458,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 		blockSizeIndex = defaultBlockSizeIndex = gd.getNextChoiceIndex();
 		computeOnIndex = defaultComputeOnIndex = gd.getNextChoiceIndex();
 		adjustBlending = defaultAdjustBlending = gd.getNextBoolean();
+		outOfCore = defaultOutOfCore = gd.getNextBoolean();
 		splittingType = defaultSplittingType = gd.getNextChoiceIndex();
 		imgExport = defaultImgExportAlgorithm = gd.getNextChoiceIndex();
 
@@ -473,7 +484,21 @@ public class DeconvolutionGUI implements FusionExportInterface
 		if ( !getBlocks() )
 			return false;
 
-		psiFactory = new CellImgFactory<>( psiCopyBlockSize );
+		if ( outOfCore )
+		{
+			if ( !getOutOfCore() )
+				return false;
+
+			psiFactory = MultiViewDeconvolution.createOutOfCorePsiFactory(
+					psiCopyBlockSize,
+					psiMemoryMB * 1024l * 1024l,
+					scratchDirectory.trim().length() == 0 ? null : Paths.get( scratchDirectory.trim() ) );
+		}
+		else
+		{
+			psiFactory = new CellImgFactory<>( psiCopyBlockSize );
+		}
+
 		copyFactory = new CellImgFactory<>( psiCopyBlockSize );
 
 		if ( !getBlendingAndGrouping() )
@@ -503,6 +528,8 @@ public class DeconvolutionGUI implements FusionExportInterface
 		IOFunctions.println( "Cache block size: " + cacheBlockSize );
 		IOFunctions.println( "Cache max num blocks: " + cacheMaxNumBlocks );
 		IOFunctions.println( "Deconvolved/Copy block size: " + psiCopyBlockSize );
+		IOFunctions.println( "Out-of-core deconvolved image: " + outOfCore );
+		if ( outOfCore ) IOFunctions.println( "Scratch directory: '" + scratchDirectory + "', memory for deconvolved image: " + psiMemoryMB + " MB" );
 		IOFunctions.println( "Compute on: " + computationOnChoice[ computeOnIndex ] );
 		IOFunctions.println( "ComputeBlockThread Factory: " + computeFactory.getClass().getSimpleName() + ": " + computeFactory );
 		IOFunctions.println( "Blending range: " + blendingRange );
@@ -579,6 +606,25 @@ public class DeconvolutionGUI implements FusionExportInterface
 		return true;
 	}
 
+	protected boolean getOutOfCore()
+	{
+		GenericDialogPlus gd = new GenericDialogPlus( "Out-of-core deconvolved image" );
+		gd.addDirectoryField( "Scratch_directory", defaultScratchDirectory, 80 );
+		gd.addMessage( "Note: leave empty to use the system temp directory, it must have enough space for the entire deconvolved image.", GUIHelper.smallStatusFont );
+		gd.addNumericField( "Memory_for_deconvolved_image (MB)", defaultPsiMemoryMB, 0 );
+		gd.addMessage( "Note: blocks of the deconvolved image that do not fit are paged to the scratch directory.", GUIHelper.smallStatusFont );
+
+		gd.showDialog();
+
+		if ( gd.wasCanceled() )
+			return false;
+
+		defaultScratchDirectory = scratchDirectory = gd.getNextString();
+		defaultPsiMemoryMB = psiMemoryMB = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+
+		return true;
+	}
+
 	protected boolean getDebug()
 	{
 		if ( debugMode )
@@ -642,7 +688,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 			{
 				gd.addNumericField( "Cache_block_size", defaultCacheBlockSize, 0 );
 				gd.addNumericField( "Cache_max num blocks", defaultCacheMaxNumBlocks, 0 );
-				gd.addMessage( "Note: these values define the cache parameters for input images & weights", GUIHelper.smallStatusFont );
+				gd.addMessage( "Note: these values define the cache parameters for input images & weights,\n0 blocks means the shared cache budget is used (" + BlockCache.memoryFraction * 100 + "% of the memory)", GUIHelper.smallStatusFont );
 			}
 
 			gd.showDialog();
@@ -663,7 +709,7 @@ public class DeconvolutionGUI implements FusionExportInterface
 			if ( cacheTypeInputImg == 1 || cacheTypeWeights == 1 )
 			{
 				this.cacheBlockSize = defaultCacheBlockSize = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
-				this.cacheMaxNumBlocks = defaultCacheMaxNumBlocks = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+				this.cacheMaxNumBlocks = defaultCacheMaxNumBlocks = Math.max( 0, (int)Math.round( gd.getNextNumber() ) );
 			}
 		}
 		else
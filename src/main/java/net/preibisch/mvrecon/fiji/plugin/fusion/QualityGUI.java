@@ -56,6 +56,7 @@ public class QualityGUI implements FusionExportInterface
 	public static boolean defaultUseRelativeFRC = true;
 	public static int defaultFFTSize = 512;
 	public static int defaultFRCStepSize = 20;
+	public static boolean defaultUse3DFRC = false;
 
 	public static String[] splittingTypes = new String[]{
 			"Each timepoint & channel",
@@ -78,6 +79,7 @@ public class QualityGUI implements FusionExportInterface
 	protected boolean useRelativeFRC = defaultUseRelativeFRC;
 	protected int fftSize = defaultFFTSize;
 	protected int frcStepSize = defaultFRCStepSize;
+	protected boolean use3DFRC = defaultUse3DFRC;
 	protected int imgExport = defaultImgExportAlgorithm;
 
 	static
@@ -144,6 +146,7 @@ public class QualityGUI implements FusionExportInterface
 	public boolean getUseRelativeFRC() { return useRelativeFRC; }
 	public int getFFTSize() { return fftSize; }
 	public int getFRCStepSize() { return frcStepSize; }
+	public boolean getUse3DFRC() { return use3DFRC; }
 
 	@Override
 	public int getSplittingType() { return splittingType; }
@@ -187,6 +190,7 @@ public class QualityGUI implements FusionExportInterface
 		gd.addCheckbox( "Relative_FRC", defaultUseRelativeFRC );
 		gd.addNumericField( "FRC_FFT_Size", defaultFFTSize, 0 );
 		gd.addNumericField( "FRC_Stepsize (z)", defaultFRCStepSize, 0 );
+		gd.addCheckbox( "Use_3D_FRC (fourier shell correlation in blocks)", defaultUse3DFRC );
 		gd.addMessage( "" );
 
 		gd.addMessage( "" );
@@ -250,6 +254,7 @@ public class QualityGUI implements FusionExportInterface
 		useRelativeFRC = defaultUseRelativeFRC = gd.getNextBoolean();
 		fftSize = defaultFFTSize = Math.max( 16, (int)Math.round( gd.getNextNumber() ) );
 		frcStepSize = defaultFRCStepSize = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+		use3DFRC = defaultUse3DFRC = gd.getNextBoolean();
 
 		splittingType = defaultSplittingType = gd.getNextChoiceIndex();
 		imgExport = defaultImgExportAlgorithm = gd.getNextChoiceIndex();
@@ -262,6 +267,7 @@ public class QualityGUI implements FusionExportInterface
 		IOFunctions.println( "Relative FRC: " + useRelativeFRC );
 		IOFunctions.println( "FRC FFT Size: " + fftSize );
 		IOFunctions.println( "FRC Step Size (z): " + frcStepSize );
+		IOFunctions.println( "3D FRC: " + use3DFRC );
 		IOFunctions.println( "Split by: " + splittingTypes[ getSplittingType() ] );
 		IOFunctions.println( "Image Export: " + imgExportDescriptions[ imgExport ] );
 		IOFunctions.println( "ImgLoader.isVirtual(): " + isImgLoaderVirtual() );
@@ -23,6 +23,12 @@
 package net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global;
 
 import ij.gui.GenericDialog;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.IterativeConvergenceStrategy;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.ConcurrentTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.LeastSquaresTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SerialTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.TileSolver;
 
 public class GlobalOptimizationParameters
 {
@@ -36,6 +42,9 @@ public class GlobalOptimizationParameters
 	public static double defaultAbsoluteError = absoluteBase;
 
 	public static boolean defaultExpertGrouping = false;
+	public static int defaultSolver = 0;
+	public static boolean defaultWarmStart = false;
+	public static int defaultLinksPerRound = 1;
 
 	public enum GlobalOptType
 	{
@@ -45,6 +54,19 @@ public class GlobalOptimizationParameters
 		TWO_ROUND_ITERATIVE
 	}
 
+	public enum SolverType
+	{
+		SERIAL,
+		CONCURRENT,
+		LEAST_SQUARES
+	}
+
+	public final static String[] solverDescriptions = {
+			"Serial (single-threaded, 'classic option')",
+			"Concurrent (multi-threaded, deterministic)",
+			"Sparse least-squares (direct, exact for translation & affine models)"
+	};
+
 	private final static String[] methodDescriptions = {
 			"One-Round",
 			"One-Round with iterative dropping of bad links",
@@ -66,6 +88,9 @@ public class GlobalOptimizationParameters
 	public double relativeThreshold;
 	public double absoluteThreshold;
 	public boolean showExpertGrouping;
+	public SolverType solver = SolverType.SERIAL;
+	public boolean warmStart = defaultWarmStart;
+	public int linksPerRound = defaultLinksPerRound;
 
 	public GlobalOptimizationParameters()
 	{
@@ -80,14 +105,62 @@ public class GlobalOptimizationParameters
 		this.showExpertGrouping = showExpertGrouping;
 	}
 
+	public GlobalOptimizationParameters(double relativeThreshold, double absoluteThreshold, GlobalOptType method, boolean showExpertGrouping, SolverType solver)
+	{
+		this( relativeThreshold, absoluteThreshold, method, showExpertGrouping );
+		this.solver = solver;
+	}
+
+	/**
+	 * @return a new instance of the selected solver for the tile optimization
+	 */
+	public TileSolver createSolver()
+	{
+		if ( solver == SolverType.CONCURRENT )
+			return new ConcurrentTileSolver();
+		else if ( solver == SolverType.LEAST_SQUARES )
+			return new LeastSquaresTileSolver();
+		else
+			return new SerialTileSolver();
+	}
+
+	/**
+	 * Sets the selected solver (and link removal options) on all convergence strategies
+	 *
+	 * @param strategies - the convergence strategies
+	 */
+	public void configure( final ConvergenceStrategy... strategies )
+	{
+		for ( final ConvergenceStrategy cs : strategies )
+		{
+			cs.setSolver( createSolver() );
+
+			if ( cs instanceof IterativeConvergenceStrategy )
+			{
+				( (IterativeConvergenceStrategy)cs ).setWarmStart( warmStart );
+				( (IterativeConvergenceStrategy)cs ).setLinksPerRound( linksPerRound );
+			}
+		}
+	}
+
 	public static void addSimpleParametersToDialog( final GenericDialog gd )
 	{
 		gd.addChoice( "Global_optimization_strategy", methodDescriptionsSimple, methodDescriptionsSimple[ defaultSimple ] );
+		gd.addChoice( "Global_optimization_solver", solverDescriptions, solverDescriptions[ defaultSolver ] );
 	}
 
 	public static GlobalOptimizationParameters parseSimpleParametersFromDialog( final GenericDialog gd )
 	{
-		return getGlobalOptimizationParametersForSelection( defaultSimple = gd.getNextChoiceIndex() );
+		final int selected = defaultSimple = gd.getNextChoiceIndex();
+		final SolverType solver = SolverType.values()[ defaultSolver = gd.getNextChoiceIndex() ];
+
+		final GlobalOptimizationParameters params = getGlobalOptimizationParametersForSelection( selected );
+
+		// the full options dialog has its own solver choice (pre-selected with this one)
+		if ( params != null && selected != 6 )
+			params.solver = solver;
+
+		return params;
 	}
 
 	public static GlobalOptimizationParameters getGlobalOptimizationParametersForSelection( final int selected )
@@ -149,6 +222,9 @@ public class GlobalOptimizationParameters
 		gd.addChoice( "Global_optimization_strategy", methodDescriptions, methodDescriptions[ defaultGlobalOpt ] );
 		gd.addNumericField( "relative error threshold (for handling wrong links)", 2.5, 3 );
 		gd.addNumericField( "absolute error threshold (for handling wrong links)", 3.5, 3 );
+		gd.addChoice( "Global_optimization_solver", solverDescriptions, solverDescriptions[ defaultSolver ] );
+		gd.addCheckbox( "Warm_start after removing links (only re-optimize affected tiles)", defaultWarmStart );
+		gd.addNumericField( "Links_removed_per_round", defaultLinksPerRound, 0 );
 		if (askForGrouping )
 			gd.addCheckbox( "show_expert_grouping_options", defaultExpertGrouping );
 		gd.showDialog();
@@ -159,6 +235,9 @@ public class GlobalOptimizationParameters
 		double relTh = gd.getNextNumber();
 		double absTh = gd.getNextNumber();
 		final int methodIdx = defaultGlobalOpt = gd.getNextChoiceIndex();
+		final SolverType solver = SolverType.values()[ defaultSolver = gd.getNextChoiceIndex() ];
+		final boolean warmStart = defaultWarmStart = gd.getNextBoolean();
+		final int linksPerRound = defaultLinksPerRound = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
 		final boolean expertGrouping = askForGrouping ? gd.getNextBoolean() : false;
 
 		final GlobalOptType method;
@@ -174,6 +253,10 @@ public class GlobalOptimizationParameters
 		else
 			method = GlobalOptType.TWO_ROUND_ITERATIVE;
 
-		return new GlobalOptimizationParameters(relTh, absTh, method, expertGrouping);
+		final GlobalOptimizationParameters params = new GlobalOptimizationParameters(relTh, absTh, method, expertGrouping, solver);
+		params.warmStart = warmStart;
+		params.linksPerRound = linksPerRound;
+
+		return params;
 	}
 }
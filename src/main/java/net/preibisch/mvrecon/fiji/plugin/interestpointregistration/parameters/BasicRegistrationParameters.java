@@ -28,6 +28,7 @@ import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.Pair
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.AllAgainstAllOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SpatialIndexOverlap;
 
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.sequence.ViewId;
@@ -52,6 +53,9 @@ public class BasicRegistrationParameters
 	public enum OverlapType { ALL_AGAINST_ALL, OVERLAPPING_ONLY };
 	public enum InterestPointOverlapType { ALL, OVERLAPPING_ONLY };
 
+	// find overlapping views using a spatial index instead of testing all pairs
+	public static boolean useSpatialIndex = true;
+
 	public PairwiseGUI pwr;
 	public RegistrationType registrationType;
 	public OverlapType overlapType;
@@ -65,6 +69,8 @@ public class BasicRegistrationParameters
 	{
 		if ( overlapType == OverlapType.ALL_AGAINST_ALL )
 			return new AllAgainstAllOverlap<>( 3 );
+		else if ( useSpatialIndex )
+			return new SpatialIndexOverlap<>( spimData );
 		else
 			return new SimpleBoundingBoxOverlap<>( spimData );
 	}
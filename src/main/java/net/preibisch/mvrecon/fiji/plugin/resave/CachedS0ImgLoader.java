@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin.resave;
+
+import java.util.Map;
+
+import bdv.export.ExportMipmapInfo;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+
+/**
+ * Wraps an {@link BasicImgLoader} so that every full resolution image it returns is cached in blocks
+ * (aligned to the s0 chunks of the export). When the scale pyramid is computed from s0 only
+ * (see {@link Generic_Resave_HDF5.LoopBack2d}), all lower resolutions are then computed from the
+ * blocks in memory instead of re-reading (and re-converting) the input for every level.
+ * <p>
+ * Every view has its own cache (not the shared {@link net.preibisch.mvrecon.cache.BlockCache}, where
+ * the blocks of a large view would be evicted before the next level needs them), bounded to the blocks
+ * of the view and to {@link #maxMemoryFraction} of the heap.
+ */
+public class CachedS0ImgLoader implements BasicImgLoader
+{
+	// minimal edge length of a cached block, multiples of the chunk size
+	public static int minBlockSize = 64;
+
+	// the fraction of the maximal heap size one view may use for its cached blocks
+	public static double maxMemoryFraction = 0.5;
+
+	final BasicImgLoader imgLoader;
+	final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo;
+
+	public CachedS0ImgLoader( final BasicImgLoader imgLoader, final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo )
+	{
+		this.imgLoader = imgLoader;
+		this.perSetupExportMipmapInfo = perSetupExportMipmapInfo;
+	}
+
+	@Override
+	public BasicSetupImgLoader< ? > getSetupImgLoader( final int setupId )
+	{
+		final BasicSetupImgLoader< ? > setupImgLoader = imgLoader.getSetupImgLoader( setupId );
+
+		// only NativeTypes can be cached
+		if ( !( setupImgLoader.getImageType() instanceof NativeType ) )
+			return setupImgLoader;
+
+		return new CachedSetupImgLoader<>( Cast.unchecked( setupImgLoader ), blockSize( perSetupExportMipmapInfo.get( setupId ) ) );
+	}
+
+	protected static int[] blockSize( final ExportMipmapInfo mipmapInfo )
+	{
+		final int[] chunkSize = mipmapInfo.getSubdivisions()[ 0 ];
+		final int[] blockSize = new int[ chunkSize.length ];
+
+		for ( int d = 0; d < chunkSize.length; ++d )
+			blockSize[ d ] = chunkSize[ d ] * Math.max( 1, ( minBlockSize + chunkSize[ d ] - 1 ) / chunkSize[ d ] );
+
+		return blockSize;
+	}
+
+	/**
+	 * @return the number of blocks of the image, or less if they do not fit into {@link #maxMemoryFraction} of the heap
+	 */
+	protected static long maxNumBlocks( final RandomAccessibleInterval< ? > img, final NativeType< ? > type, final int[] blockSize )
+	{
+		long numBlocks = 1;
+
+		for ( int d = 0; d < img.numDimensions(); ++d )
+			numBlocks *= ( img.dimension( d ) + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+		final long bytesPerPixel = type instanceof RealType ? Math.max( 1, ( ( RealType< ? > ) type ).getBitsPerPixel() / 8 ) : 4;
+		final long bytesPerBlock = Intervals.numElements( blockSize ) * bytesPerPixel;
+		final long maxBlocks = Math.max( 1, (long)( Runtime.getRuntime().maxMemory() * maxMemoryFraction ) / bytesPerBlock );
+
+		// bounded caches are limited to Integer.MAX_VALUE - 1 entries
+		return Math.min( Integer.MAX_VALUE - 1, Math.min( numBlocks, maxBlocks ) );
+	}
+
+	protected static class CachedSetupImgLoader< T extends NativeType< T > > implements BasicSetupImgLoader< T >
+	{
+		final BasicSetupImgLoader< T > setupImgLoader;
+		final int[] blockSize;
+
+		public CachedSetupImgLoader( final BasicSetupImgLoader< T > setupImgLoader, final int[] blockSize )
+		{
+			this.setupImgLoader = setupImgLoader;
+			this.blockSize = blockSize;
+		}
+
+		@Override
+		public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
+		{
+			final RandomAccessibleInterval< T > img = setupImgLoader.getImage( timepointId, hints );
+
+			// the cache lives as long as the export holds on to the image, i.e. one view
+			return FusionTools.cacheRandomAccessibleInterval( img, maxNumBlocks( img, getImageType(), blockSize ), getImageType(), blockSize );
+		}
+
+		@Override
+		public T getImageType()
+		{
+			return setupImgLoader.getImageType();
+		}
+	}
+}
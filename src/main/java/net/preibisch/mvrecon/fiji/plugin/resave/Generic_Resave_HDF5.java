@@ -27,11 +27,16 @@ import java.awt.Checkbox;
 import java.awt.TextField;
 import java.awt.event.ItemEvent;
 import java.io.File;
+import java.io.PrintStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileFilter;
@@ -45,6 +50,7 @@ import bdv.export.SubTaskProgressWriter;
 import bdv.export.WriteSequenceToHdf5;
 import bdv.img.hdf5.Hdf5ImageLoader;
 import bdv.img.hdf5.Partition;
+import bdv.spimdata.SequenceDescriptionMinimal;
 import bdv.spimdata.SpimDataMinimal;
 import bdv.spimdata.XmlIoSpimDataMinimal;
 import fiji.util.gui.GenericDialogPlus;
@@ -76,6 +82,12 @@ public class Generic_Resave_HDF5 implements PlugIn
 	public static int defaultConvertChoice = 1;
 	public static double defaultMin = 0, defaultMax = 5;
 
+	// number of partition files (split hdf5) that are written concurrently, each with its own writer
+	public static int defaultParallelPartitions = 1;
+
+	// compute all resolution levels from s0 blocks cached in memory instead of re-reading the input
+	public static boolean defaultDownsampleInMemory = false;
+
 	public static void main( final String[] args )
 	{
 		new Generic_Resave_HDF5().run( null );
@@ -99,6 +111,9 @@ public class Generic_Resave_HDF5 implements PlugIn
 		double min = Double.NaN;
 		double max = Double.NaN;
 
+		int numParallelPartitions = defaultParallelPartitions;
+		boolean downsampleInMemory = defaultDownsampleInMemory;
+
 		public ParametersResaveHDF5(
 				final boolean setMipmapManual, final int[][] resolutions, final int[][] subdivisions,
 				final File seqFile, final File hdf5File,
@@ -135,6 +150,8 @@ public class Generic_Resave_HDF5 implements PlugIn
 		public void setSetupsPerPartition( final int setupsPerPartition ) { this.setupsPerPartition = setupsPerPartition; }
 		public void setMin( final double min ) { this.min = min; }
 		public void setMax( final double max ) { this.max = max; }
+		public void setNumParallelPartitions( final int numParallelPartitions ) { this.numParallelPartitions = numParallelPartitions; }
+		public void setDownsampleInMemory( final boolean downsampleInMemory ) { this.downsampleInMemory = downsampleInMemory; }
 
 		public File getSeqFile() { return seqFile; }
 		public File getHDF5File() { return hdf5File; }
@@ -149,6 +166,8 @@ public class Generic_Resave_HDF5 implements PlugIn
 		public int getConvertChoice() { return convertChoice; }
 		public double getMin() { return min; }
 		public double getMax() { return max; }
+		public int getNumParallelPartitions() { return numParallelPartitions; }
+		public boolean getDownsampleInMemory() { return downsampleInMemory; }
 	}
 
 	@Override
@@ -240,18 +259,49 @@ public class Generic_Resave_HDF5 implements PlugIn
 		final ArrayList< Partition > partitions = getPartitions( spimData, params );
 		AbstractSequenceDescription< ?, ?, ? > seq = spimData.getSequenceDescription();
 
-		final LoopbackHeuristic lbh = new DefaultLoopbackHeuristic();
+		final LoopbackHeuristic lbh;
+
+		if ( params.downsampleInMemory )
+		{
+			// every level is computed from the full resolution, which is kept in memory blockwise
+			lbh = new LoopBack2d();
+			seq = new SequenceDescriptionMinimal(
+					seq.getTimePoints(),
+					seq.getViewSetups(),
+					new CachedS0ImgLoader( seq.getImgLoader(), perSetupExportMipmapInfo ),
+					seq.getMissingViews() );
+		}
+		else
+		{
+			lbh = new DefaultLoopbackHeuristic();
+		}
 
 		if ( partitions != null )
 		{
+			final ArrayList< Integer > toProcess = new ArrayList<>();
+
 			for ( int i = 0; i < partitions.size(); ++i )
-			{
-				final Partition partition = partitions.get( i );
-				final ProgressWriter p = new SubTaskProgressWriter( progressWriter, 0, 0.95 * i / partitions.size() );
-				progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
 				if ( !params.onlyRunSingleJob || params.jobId == i + 1 )
-					WriteSequenceToHdf5.writeHdf5PartitionFile( seq, perSetupExportMipmapInfo, params.deflate, partition, lbh, null, Threads.numThreads(), p );
+					toProcess.add( i );
+
+			final int numParallelPartitions = Math.max( 1, Math.min( params.numParallelPartitions, toProcess.size() ) );
+
+			if ( numParallelPartitions == 1 )
+			{
+				for ( int i = 0; i < partitions.size(); ++i )
+				{
+					final Partition partition = partitions.get( i );
+					final ProgressWriter p = new SubTaskProgressWriter( progressWriter, 0, 0.95 * i / partitions.size() );
+					progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
+					if ( toProcess.contains( i ) )
+						WriteSequenceToHdf5.writeHdf5PartitionFile( seq, perSetupExportMipmapInfo, params.deflate, partition, lbh, null, Threads.numThreads(), p );
+				}
 			}
+			else
+			{
+				writeHdf5PartitionFilesParallel( seq, perSetupExportMipmapInfo, params.deflate, partitions, toProcess, lbh, numParallelPartitions, progressWriter );
+			}
+
 			if ( !params.onlyRunSingleJob || params.jobId == 0 )
 				WriteSequenceToHdf5.writeHdf5PartitionLinkFile( seq, perSetupExportMipmapInfo, partitions, params.hdf5File );
 		}
@@ -262,6 +312,109 @@ public class Generic_Resave_HDF5 implements PlugIn
 		}
 	}
 
+	/**
+	 * Writes several partition files concurrently. Every partition has its own HDF5 writer thread that is fed
+	 * through a bounded queue by its own cell-creator threads (see {@link WriteSequenceToHdf5}), the available
+	 * threads are distributed among the partitions that are written at the same time.
+	 *
+	 * @param seq - the sequence description
+	 * @param perSetupExportMipmapInfo - the mipmap settings
+	 * @param deflate - compress or not
+	 * @param partitions - all partitions
+	 * @param toProcess - the indices of the partitions to write
+	 * @param lbh - the loopback heuristic
+	 * @param numParallelPartitions - how many partitions are written at the same time
+	 * @param progressWriter - the progress of all partitions combined
+	 */
+	public static void writeHdf5PartitionFilesParallel(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo,
+			final boolean deflate,
+			final List< Partition > partitions,
+			final List< Integer > toProcess,
+			final LoopbackHeuristic lbh,
+			final int numParallelPartitions,
+			final ProgressWriter progressWriter )
+	{
+		final int numCellCreatorThreads = Math.max( 1, Threads.numThreads() / numParallelPartitions );
+		final double[] progress = new double[ toProcess.size() ];
+
+		progressWriter.out().println( "writing " + toProcess.size() + " partitions, " + numParallelPartitions + " in parallel using " + numCellCreatorThreads + " threads each." );
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int j = 0; j < toProcess.size(); ++j )
+		{
+			final int i = toProcess.get( j );
+			final ProgressWriter p = new PartitionProgressWriter( progressWriter, progress, j, 0.95 );
+
+			tasks.add( () ->
+			{
+				progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
+				WriteSequenceToHdf5.writeHdf5PartitionFile( seq, perSetupExportMipmapInfo, deflate, partitions.get( i ), lbh, null, numCellCreatorThreads, p );
+				progressWriter.out().printf( "finished partition %d / %d\n", ( i + 1 ), partitions.size() );
+				return null;
+			});
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService( numParallelPartitions );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to write HDF5 partitions: " + e, e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Reports the mean progress of all partitions that are written concurrently.
+	 */
+	protected static class PartitionProgressWriter implements ProgressWriter
+	{
+		final ProgressWriter progressWriter;
+		final double[] progress;
+		final int index;
+		final double max;
+
+		public PartitionProgressWriter( final ProgressWriter progressWriter, final double[] progress, final int index, final double max )
+		{
+			this.progressWriter = progressWriter;
+			this.progress = progress;
+			this.index = index;
+			this.max = max;
+		}
+
+		@Override
+		public PrintStream out() { return progressWriter.out(); }
+
+		@Override
+		public PrintStream err() { return progressWriter.err(); }
+
+		@Override
+		public void setProgress( final double completionRatio )
+		{
+			double sum = 0;
+
+			synchronized ( progress )
+			{
+				progress[ index ] = completionRatio;
+
+				for ( final double p : progress )
+					sum += p;
+			}
+
+			progressWriter.setProgress( max * sum / progress.length );
+		}
+	}
+
 	public static < T extends AbstractSpimData< A >, A extends AbstractSequenceDescription< ?, ?, ? super ImgLoader > > void writeXML(
 			final T spimData,
 			final XmlIoAbstractSpimData< A, T > io,
@@ -394,7 +547,8 @@ public class Generic_Resave_HDF5 implements PlugIn
 
 			gd.addMessage( "" );
 			gd.addCheckbox( "use_deflate_compression", lastDeflate );
-
+			gd.addNumericField( "partitions_written_in_parallel", defaultParallelPartitions, 0 );
+			gd.addCheckbox( "compute_all_resolutions_from_full_resolution_in_memory", defaultDownsampleInMemory );
 
 			if ( askForXMLPath )
 			{
@@ -426,6 +580,8 @@ public class Generic_Resave_HDF5 implements PlugIn
 						gd.getNextNumber();
 						gd.getNextNumber();
 						gd.getNextBoolean();
+						gd.getNextNumber();
+						gd.getNextBoolean();
 						if ( askForXMLPath )
 							gd.getNextString();
 						if ( !is16bit )
@@ -474,6 +630,8 @@ public class Generic_Resave_HDF5 implements PlugIn
 			lastTimepointsPerPartition = ( int ) gd.getNextNumber();
 			lastSetupsPerPartition = ( int ) gd.getNextNumber();
 			lastDeflate = gd.getNextBoolean();
+			defaultParallelPartitions = Math.max( 1, ( int ) gd.getNextNumber() );
+			defaultDownsampleInMemory = gd.getNextBoolean();
 			if ( askForXMLPath )
 				lastExportPath = gd.getNextString();
 			if ( !is16bit )
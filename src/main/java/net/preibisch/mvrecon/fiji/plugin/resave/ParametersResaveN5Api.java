@@ -52,6 +52,13 @@ public class ParametersResaveN5Api
 	public static int defaultFormat = 0; // ZARR
 	public static int defaultNumThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
 
+	// write all resolution levels from in-memory super-blocks of s0 instead of reading s0 ... sN-1 back from storage
+	// (off by default until headless/export/TestResaveSinglePass has confirmed it is identical to reading back)
+	public static boolean defaultSinglePass = false;
+
+	// the fraction of the maximal heap size that all super-blocks (one per thread) may use together
+	public static double defaultSinglePassMemoryFraction = 0.5;
+
 	public URI xmlURI, n5URI;
 
 	public int[] blockSizeFactor;
@@ -61,6 +68,7 @@ public class ParametersResaveN5Api
 	public Compression compression;
 	public StorageFormat format = StorageFormat.ZARR;
 	public int numCellCreatorThreads = 1;
+	public boolean singlePass = defaultSinglePass;
 
 	public static URI createN5URIfromXMLURI( final URI xmlURI )
 	{
@@ -153,6 +161,8 @@ public class ParametersResaveN5Api
 				+ "For optimal performance, the size in XY is as large as each XY plane, as usually entire planes must be read.", GUIHelper.smallStatusFont );
 		gdp.addMessage( "Max dimensions of the images that will be re-saved: " + Arrays.toString( maxDimensions ), GUIHelper.smallStatusFont, Color.red );
 		gdp.addNumericField( "Number_of_threads (CPUs:" + Runtime.getRuntime().availableProcessors() + ")", defaultNumThreads, 0 );
+		gdp.addCheckbox( "Compute_all_resolution_levels_in_a_single_pass", defaultSinglePass );
+		gdp.addMessage( "Reads each region of the input once and downsamples it in memory, instead of re-reading s0 ... sN-1 from the output.", GUIHelper.smallStatusFont );
 
 		if ( askForPaths )
 		{
@@ -180,6 +190,7 @@ public class ParametersResaveN5Api
 
 		n5params.blockSizeFactor = new int[] { blockSizeFactorX, blockSizeFactorY, blockSizeFactorZ };
 		n5params.numCellCreatorThreads = defaultNumThreads = Math.max( 1, (int)Math.round( gdp.getNextNumber() ) );
+		n5params.singlePass = defaultSinglePass = gdp.getNextBoolean();
 
 		if ( askForPaths )
 		{
@@ -203,43 +203,116 @@ public class Resave_N5Api implements PlugIn
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		IJ.showProgress( progress.get(), grid.size() );
 
-		//
-		// Save full resolution dataset (s0)
-		//
 		final ForkJoinPool myPool = new ForkJoinPool( n5Params.numCellCreatorThreads );
 
-		time = System.currentTimeMillis();
+		// the first level that is computed by reading the previous level back from storage
+		final int firstLevelFromStorage;
 
-		try
+		if ( n5Params.singlePass )
 		{
-			myPool.submit(() -> grid.parallelStream().forEach(
-					gridBlock -> 
-					{
-						N5ApiTools.resaveS0Block(
-							data,
-							n5Writer,
-							n5Params.format,
-							dataTypes.get( N5ApiTools.gridBlockToViewId( gridBlock ).getViewSetupId() ),
-							N5ApiTools.gridToDatasetBdv( 0, n5Params.format ), // a function mapping the gridblock to the dataset name for level 0 and N5
-							gridBlock );
-
-						IJ.showProgress( progress.incrementAndGet(), grid.size() );
-					})).get();
+			//
+			// Save s0 ... sK from super-blocks that are read once and downsampled in memory
+			//
+			int bytesPerPixel = 1;
+			for ( final DataType dataType : dataTypes.values() )
+				bytesPerPixel = Math.max( bytesPerPixel, N5ApiTools.bytesPerPixel( dataType ) );
+
+			// every thread holds one super-block
+			final long maxBytesPerThread = (long)( Runtime.getRuntime().maxMemory() * ParametersResaveN5Api.defaultSinglePassMemoryFraction / n5Params.numCellCreatorThreads );
+
+			// bigger super-blocks for coarser levels, but at least one per thread (e.g. if there are only a few views)
+			final int lastLevel = N5ApiTools.superBlockLastLevel(
+					downsamplings,
+					blockSize,
+					computeBlockSize,
+					bytesPerPixel,
+					maxBytesPerThread,
+					vidsToResave.stream().map( viewId -> dimensions.get( viewId.getViewSetupId() ) ).collect( Collectors.toList() ),
+					n5Params.numCellCreatorThreads );
+			final int[] superBlockSize = N5ApiTools.superBlockSize( blockSize, computeBlockSize, downsamplings[ lastLevel ] );
+
+			final List<long[][]> superBlocks =
+					vidsToResave.stream().map( viewId ->
+							N5ApiTools.assembleJobs(
+									viewId,
+									dimensions.get( viewId.getViewSetupId() ),
+									blockSize,
+									superBlockSize ) ).flatMap(List::stream).collect( Collectors.toList() );
+
+			IOFunctions.println( "Writing s0 ... s" + lastLevel + " in a single pass, super-block size: " + Arrays.toString( superBlockSize ) + ", number of super-blocks: " + superBlocks.size() );
+			IJ.showProgress( progress.get(), superBlocks.size() );
+
+			time = System.currentTimeMillis();
+
+			try
+			{
+				myPool.submit(() -> superBlocks.parallelStream().forEach(
+						gridBlock ->
+						{
+							N5ApiTools.resaveSuperBlock(
+									data,
+									n5Writer,
+									n5Params.format,
+									viewIdToMrInfo.get( N5ApiTools.gridBlockToViewId( gridBlock ) ),
+									lastLevel,
+									blockSize,
+									gridBlock );
+
+							IJ.showProgress( progress.incrementAndGet(), superBlocks.size() );
+						})).get();
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				IOFunctions.println( "Failed to write s0 ... s" + lastLevel + " for " + n5Params.format + " '" + n5Params.n5URI + "'. Error: " + e );
+				e.printStackTrace();
+				return null;
+			}
+
+			IJ.showProgress( progress.getAndSet( 0 ), superBlocks.size() );
+			IOFunctions.println( "Saved levels s0 ... s" + lastLevel + ", took: " + (System.currentTimeMillis() - time ) + " ms." );
+
+			firstLevelFromStorage = lastLevel + 1;
 		}
-		catch (InterruptedException | ExecutionException e)
+		else
 		{
-			IOFunctions.println( "Failed to write s0 for " + n5Params.format + " '" + n5Params.n5URI + "'. Error: " + e );
-			e.printStackTrace();
-			return null;
-		}
+			//
+			// Save full resolution dataset (s0)
+			//
+			time = System.currentTimeMillis();
 
-		IJ.showProgress( progress.getAndSet( 0 ), grid.size() );
-		IOFunctions.println( "Saved level s0, took: " + (System.currentTimeMillis() - time ) + " ms." );
+			try
+			{
+				myPool.submit(() -> grid.parallelStream().forEach(
+						gridBlock -> 
+						{
+							N5ApiTools.resaveS0Block(
+								data,
+								n5Writer,
+								n5Params.format,
+								dataTypes.get( N5ApiTools.gridBlockToViewId( gridBlock ).getViewSetupId() ),
+								N5ApiTools.gridToDatasetBdv( 0, n5Params.format ), // a function mapping the gridblock to the dataset name for level 0 and N5
+								gridBlock );
+
+							IJ.showProgress( progress.incrementAndGet(), grid.size() );
+						})).get();
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				IOFunctions.println( "Failed to write s0 for " + n5Params.format + " '" + n5Params.n5URI + "'. Error: " + e );
+				e.printStackTrace();
+				return null;
+			}
+
+			IJ.showProgress( progress.getAndSet( 0 ), grid.size() );
+			IOFunctions.println( "Saved level s0, took: " + (System.currentTimeMillis() - time ) + " ms." );
+
+			firstLevelFromStorage = 1;
+		}
 
 		//
-		// Save remaining downsampling levels (s1 ... sN)
+		// Save remaining downsampling levels (sK+1 ... sN)
 		//
-		for ( int level = 1; level < downsamplings.length; ++level )
+		for ( int level = firstLevelFromStorage; level < downsamplings.length; ++level )
 		{
 			final int s = level;
 
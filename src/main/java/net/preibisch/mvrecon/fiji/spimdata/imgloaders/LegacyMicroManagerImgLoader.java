@@ -23,6 +23,8 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -38,7 +40,11 @@ import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.nio.ShortBufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
@@ -52,6 +58,10 @@ import util.ImgLib2Tools;
 
 public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 {
+	// map the files and use the 16-bit planes directly as cells instead of copying them,
+	// the images are read-only then (writing throws a ReadOnlyBufferException), see mappedImage()
+	public static boolean defaultMemoryMapped = false;
+
 	final File mmFile;
 	final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
 
@@ -117,6 +127,66 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 		}
 	}
 
+	/**
+	 * Each plane is a cell that directly wraps the memory-mapped file (16-bit only, the reader has to be memory-mapped).
+	 * The image remains valid after the reader is closed. It is read-only, writing to it throws a
+	 * {@link java.nio.ReadOnlyBufferException}, so only use it for images that are not modified.
+	 *
+	 * @param vd - the view
+	 * @param r - the memory-mapped reader
+	 * @return the image
+	 * @throws IOException if the planes cannot be resolved
+	 */
+	@SuppressWarnings("unchecked")
+	final public static Img< UnsignedShortType > mappedImage( final BasicViewDescription< ? > vd, final MultipageTiffReader r ) throws IOException
+	{
+		final int w = r.width();
+		final int h = r.height();
+		final int d = r.depth();
+
+		final int t = vd.getTimePoint().getId();
+		final int a = vd.getViewSetup().getAttribute( Angle.class ).getId();
+		final int c = vd.getViewSetup().getAttribute( Channel.class ).getId();
+		final int i = vd.getViewSetup().getAttribute( Illumination.class ).getId();
+
+		final Cell< ShortBufferAccess >[] cells = new Cell[ d ];
+		ByteBuffer emptyPlane = null;
+		ArrayList< Integer > slices = null;
+
+		for ( int z = 0; z < d; ++z )
+		{
+			final String label = MultipageTiffReader.generateLabel( r.interleavedId( c, a ), z, t, i );
+			ByteBuffer plane = r.readPlaneBuffer( label );
+
+			if ( plane == null || plane.capacity() < 2L * w * h )
+			{
+				if ( slices == null )
+					slices = new ArrayList<Integer>();
+				slices.add( z );
+
+				// leave the slice empty
+				if ( emptyPlane == null )
+					emptyPlane = ByteBuffer.allocate( 2 * w * h );
+
+				plane = emptyPlane;
+			}
+
+			cells[ z ] = new Cell<>( new int[] { w, h, 1 }, new long[] { 0, 0, z }, new ShortBufferAccess( plane, true ) );
+		}
+
+		if ( slices != null )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): WARNING!!! " + slices.size() + " DROPPED FRAME(s) in timepoint="  + t + " viewsetup=" + vd.getViewSetupId() + " following slices:" );
+
+			for ( final int z : slices )
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): slice=" + z );
+		}
+
+		final CellGrid grid = new CellGrid( new long[] { w, h, d }, new int[] { w, h, 1 } );
+
+		return new LazyCellImg<>( grid, new UnsignedShortType(), index -> cells[ (int)index ] );
+	}
+
 	@Override
 	public RandomAccessibleInterval< FloatType > getFloatImage( final ViewId view, final boolean normalize )
 	{
@@ -131,7 +201,7 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 	{
 		try
 		{
-			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
+			final MultipageTiffReader r = new MultipageTiffReader( mmFile, defaultMemoryMapped );
 
 			final long w = r.width();
 			final long h = r.height();
@@ -141,12 +211,19 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 
 			final Img< UnsignedShortType > img;
 
-			if ( fitsIntoArrayImg( w, h, d ) )
-				img = ArrayImgs.unsignedShorts( w, d, h );
+			if ( r.isMemoryMapped() && r.getByteDepth() == 2 && !r.isRGB() )
+			{
+				img = mappedImage( vd, r );
+			}
 			else
-				img = new CellImgFactory<>( new UnsignedShortType() ).create( new long[] { w, h, d }  );
+			{
+				if ( fitsIntoArrayImg( w, h, d ) )
+					img = ArrayImgs.unsignedShorts( w, h, d );
+				else
+					img = new CellImgFactory<>( new UnsignedShortType() ).create( new long[] { w, h, d }  );
 
-			populateImage( img, vd, r );
+				populateImage( img, vd, r );
+			}
 
 			updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
 
@@ -54,7 +54,10 @@ import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -119,11 +122,27 @@ public class MultipageTiffReader
 
 	private HashMap< String, Pair< Long, FileChannel > > indexMap_;
 
+	// size of the memory-mapped regions of each file, planes that cross a region border are mapped individually
+	public static int mappedRegionSize = 1 << 30;
+
+	private boolean memoryMapped = false;
+	private HashMap< FileChannel, MappedByteBuffer[] > mappedFiles;
+
 	/*
 	 * This constructor is used for opening datasets that have already been
 	 * saved
 	 */
 	public MultipageTiffReader( final File file ) throws IOException
+	{
+		this( file, false );
+	}
+
+	/*
+	 * If memoryMapped is true, the files are mapped once and planes are
+	 * returned as slices of the mapped files (see readPlaneBuffer), no data
+	 * is copied
+	 */
+	public MultipageTiffReader( final File file, final boolean memoryMapped ) throws IOException
 	{
 		this.files = new ArrayList< File >();
 		this.raFiles = new ArrayList< RandomAccessFile >();
@@ -198,6 +217,110 @@ public class MultipageTiffReader
 			e.printStackTrace();
 			throw new IOException( "Reading of dataset unsuccessful for file: " + this.files.get( i ).getName() );
 		}
+
+		if ( memoryMapped )
+			mapFiles();
+	}
+
+	private void mapFiles() throws IOException
+	{
+		this.mappedFiles = new HashMap< FileChannel, MappedByteBuffer[] >();
+
+		for ( final FileChannel fileChannel : this.fileChannels )
+		{
+			final long size = fileChannel.size();
+			final MappedByteBuffer[] regions = new MappedByteBuffer[ (int)( ( size + mappedRegionSize - 1 ) / mappedRegionSize ) ];
+
+			for ( int r = 0; r < regions.length; ++r )
+			{
+				final long start = (long)r * mappedRegionSize;
+				regions[ r ] = fileChannel.map( MapMode.READ_ONLY, start, Math.min( mappedRegionSize, size - start ) );
+			}
+
+			mappedFiles.put( fileChannel, regions );
+		}
+
+		this.memoryMapped = true;
+	}
+
+	private ByteBuffer mappedSlice( final long position, final int length, final FileChannel fileChannel ) throws IOException
+	{
+		final MappedByteBuffer[] regions = mappedFiles.get( fileChannel );
+		final int r = (int)( position / mappedRegionSize );
+		final int offset = (int)( position - (long)r * mappedRegionSize );
+
+		final ByteBuffer slice;
+
+		if ( r < regions.length && offset + length <= regions[ r ].capacity() )
+		{
+			final ByteBuffer region = regions[ r ].duplicate();
+			region.position( offset );
+			region.limit( offset + length );
+			slice = region.slice();
+		}
+		else
+		{
+			slice = fileChannel.map( MapMode.READ_ONLY, position, length );
+		}
+
+		return slice.order( byteOrder_ );
+	}
+
+	public boolean isMemoryMapped() { return memoryMapped; }
+
+	public int getByteDepth()
+	{
+		if ( byteDepth_ == 0 )
+			getRGBAndByteDepth( summaryMetadata_ );
+
+		return byteDepth_;
+	}
+
+	public boolean isRGB()
+	{
+		getByteDepth();
+		return rgb_;
+	}
+
+	/**
+	 * @param label - the label of the plane (see generateLabel)
+	 * @return the pixels of the plane in the byte order of the file, a read-only slice of the mapped file if memory-mapped, or null if the label is not present
+	 * @throws IOException if the plane cannot be read
+	 */
+	public ByteBuffer readPlaneBuffer( final String label ) throws IOException
+	{
+		final Pair< Long, FileChannel > entry = indexMap_.get( label );
+
+		if ( entry == null || entry.getB() == null )
+			return null;
+
+		final IFDData data = readIFD( entry.getA(), entry.getB() );
+
+		return readPixels( data, entry.getB() );
+	}
+
+	/**
+	 * @param label - the label of the plane (see generateLabel)
+	 * @return the pixels of a 16-bit plane, a view on the mapped file if memory-mapped, or null if the label is not present
+	 * @throws IOException if the plane cannot be read
+	 */
+	public ShortBuffer readPlaneShorts( final String label ) throws IOException
+	{
+		final ByteBuffer buffer = readPlaneBuffer( label );
+
+		return buffer == null ? null : buffer.asShortBuffer();
+	}
+
+	private ByteBuffer readPixels( final IFDData data, final FileChannel fileChannel ) throws IOException
+	{
+		if ( memoryMapped )
+			return mappedSlice( data.pixelOffset, (int)data.bytesPerImage, fileChannel );
+
+		final ByteBuffer pixelBuffer = ByteBuffer.allocate( (int)data.bytesPerImage ).order( byteOrder_ );
+		fileChannel.read( pixelBuffer, data.pixelOffset );
+		pixelBuffer.rewind();
+
+		return pixelBuffer;
 	}
 
 	public String getPixelType()
@@ -421,6 +544,9 @@ public class MultipageTiffReader
 
 	private ByteBuffer readIntoBuffer( final long position, final int length, final FileChannel fileChannel_ ) throws IOException
 	{
+		if ( memoryMapped )
+			return mappedSlice( position, length, fileChannel_ );
+
 		final ByteBuffer buffer = ByteBuffer.allocate(length).order( byteOrder_ );
 		fileChannel_.read( buffer, position );
 		return buffer;
@@ -511,7 +637,12 @@ public class MultipageTiffReader
 
 	private String getString(ByteBuffer buffer) {
 		try {
-			return new String(buffer.array(), "UTF-8");
+			if ( buffer.hasArray() )
+				return new String(buffer.array(), "UTF-8");
+
+			final byte[] bytes = new byte[ buffer.capacity() ];
+			buffer.duplicate().get( bytes );
+			return new String(bytes, "UTF-8");
 		} catch (UnsupportedEncodingException ex) {
 			IOFunctions.println(ex);
 			return "";
@@ -520,10 +651,8 @@ public class MultipageTiffReader
 
 	private Pair< Object, HashMap< String, Object > > readTaggedImage( final IFDData data, final FileChannel fileChannel ) throws IOException
 	{
-		final ByteBuffer pixelBuffer = ByteBuffer.allocate( (int)data.bytesPerImage).order( byteOrder_ );
-		final ByteBuffer mdBuffer = ByteBuffer.allocate( (int)data.mdLength).order( byteOrder_ );
-		fileChannel.read( pixelBuffer, data.pixelOffset );
-		fileChannel.read( mdBuffer, data.mdOffset );
+		final ByteBuffer pixelBuffer = readPixels( data, fileChannel );
+		final ByteBuffer mdBuffer = readIntoBuffer( data.mdOffset, (int)data.mdLength, fileChannel );
 
 		final HashMap< String, Object > md = parseJSONSimple( getString( mdBuffer ) );
 
@@ -539,13 +668,24 @@ public class MultipageTiffReader
 		{
 			if (byteDepth_ == 1)
 			{
-				return new ValuePair<Object, HashMap< String, Object >>( pixelBuffer.array(), md );
+				final byte[] pix;
+
+				if ( pixelBuffer.hasArray() )
+				{
+					pix = pixelBuffer.array();
+				}
+				else
+				{
+					pix = new byte[ pixelBuffer.capacity() ];
+					pixelBuffer.get( pix );
+				}
+
+				return new ValuePair<Object, HashMap< String, Object >>( pix, md );
 			}
 			else
 			{
 				final short[] pix = new short[ pixelBuffer.capacity() / 2 ];
-				for ( int i = 0; i < pix.length; ++i )
-					pix[ i ] = pixelBuffer.getShort( i * 2 );
+				pixelBuffer.asShortBuffer().get( pix );
 
 				return new ValuePair<Object, HashMap< String, Object >>( pix, md );
 			}
@@ -599,6 +739,10 @@ public class MultipageTiffReader
 		if ( raFile != null )
 			raFile.close();
 		this.raFiles.clear();
+
+		// slices that were handed out keep their mapping alive
+		this.mappedFiles = null;
+		this.memoryMapped = false;
 	}
 
 	public void setApplyAxis( final boolean apply ) { this.applyAxis = apply; }
@@ -41,9 +41,12 @@ import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.Memoizer;
+import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
 import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.basictypeaccess.AccessFlags;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.ShortType;
@@ -52,6 +55,8 @@ import net.imglib2.type.numeric.integer.UnsignedIntType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Cast;
+import net.preibisch.mvrecon.cache.BlockCache;
+import util.Lazy;
 
 class VirtualRAIFactoryLOCI
 {
@@ -115,7 +120,7 @@ class VirtualRAIFactoryLOCI
 		switch ( pixelType )
 		{
 		case FormatTools.UINT8:
-			return Cast.unchecked( factory.create( dims, new UnsignedByteType(),
+			return Cast.unchecked( create( factory, dims, cellDims, new UnsignedByteType(),
 					cell -> {
 						final int z = ( int ) cell.min( 2 );
 						final ByteBuffer bytes = readIntoBuffer( threadLocalReader.get(), file, series, channel, timepoint, z );
@@ -123,7 +128,7 @@ class VirtualRAIFactoryLOCI
 						bytes.get( ( byte[] ) cell.getStorageArray() );
 					} ) );
 		case FormatTools.UINT16:
-			return Cast.unchecked( factory.create( dims, new UnsignedShortType(),
+			return Cast.unchecked( create( factory, dims, cellDims, new UnsignedShortType(),
 					cell -> {
 						final int z = ( int ) cell.min( 2 );
 						final ByteBuffer bytes = readIntoBuffer( threadLocalReader.get(), file, series, channel, timepoint, z );
@@ -132,7 +137,7 @@ class VirtualRAIFactoryLOCI
 						shorts.get( ( short[] ) cell.getStorageArray() );
 					} ) );
 		case FormatTools.INT16:
-			return Cast.unchecked( factory.create( dims, new ShortType(),
+			return Cast.unchecked( create( factory, dims, cellDims, new ShortType(),
 					cell -> {
 						final int z = ( int ) cell.min( 2 );
 						final ByteBuffer bytes = readIntoBuffer( threadLocalReader.get(), file, series, channel, timepoint, z );
@@ -141,7 +146,7 @@ class VirtualRAIFactoryLOCI
 						shorts.get( ( short[] ) cell.getStorageArray() );
 					} ) );
 		case FormatTools.UINT32:
-			return Cast.unchecked( factory.create( dims, new UnsignedIntType(),
+			return Cast.unchecked( create( factory, dims, cellDims, new UnsignedIntType(),
 					cell -> {
 						final int z = ( int ) cell.min( 2 );
 						final ByteBuffer bytes = readIntoBuffer( threadLocalReader.get(), file, series, channel, timepoint, z );
@@ -150,7 +155,7 @@ class VirtualRAIFactoryLOCI
 						ints.get( ( int[] ) cell.getStorageArray() );
 					} ) );
 		case FormatTools.FLOAT:
-			return Cast.unchecked( factory.create( dims, new FloatType(),
+			return Cast.unchecked( create( factory, dims, cellDims, new FloatType(),
 					cell -> {
 						final int z = ( int ) cell.min( 2 );
 						final ByteBuffer bytes = readIntoBuffer( threadLocalReader.get(), file, series, channel, timepoint, z );
@@ -163,6 +168,22 @@ class VirtualRAIFactoryLOCI
 		}
 	}
 
+	/**
+	 * the cells (z-planes) are accounted in the shared {@link BlockCache} if it is enabled
+	 */
+	private static < T extends NativeType< T > > RandomAccessibleInterval< T > create(
+			final ReadOnlyCachedCellImgFactory factory,
+			final long[] dims,
+			final int[] cellDims,
+			final T type,
+			final CellLoader< T > loader )
+	{
+		if ( BlockCache.enabled )
+			return Lazy.createImg( "FileMapImgLoaderLOCI2", new FinalInterval( dims ), cellDims, type, AccessFlags.setOf(), loader );
+		else
+			return factory.create( dims, type, loader );
+	}
+
 	private static ByteBuffer readIntoBuffer(
 			final IFormatReader reader,
 			final File file,
@@ -22,29 +22,67 @@
  */
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders.smartspim;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import ij.ImageJ;
 import ij.ImagePlus;
 import net.imglib2.Cursor;
-import net.imglib2.FinalDimensions;
-import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.cache.BlockCache;
 import net.preibisch.mvrecon.fiji.datasetmanager.SmartSPIM;
 import net.preibisch.mvrecon.fiji.datasetmanager.SmartSPIM.SmartSPIMMetaData;
 import util.Lazy;
 import util.URITools;
 
-public class LazySmartSpimLoader implements Consumer<RandomAccessibleInterval<UnsignedShortType>>
+/**
+ * Loads the z-planes of one SmartSPIM tile. Each plane is one cell, which is decoded directly into its short[]
+ * by the {@link TiffPlaneReader} (falling back to ImageJ for TIFFs it does not support). While a plane is loaded,
+ * the next {@link #defaultPrefetchPlanes} planes are read ahead on a small, shared I/O pool. Planes that are read
+ * ahead go into the cell cache (planes that are cached already are skipped), so memory is bounded by the cache and
+ * a plane that is requested while it is read ahead is not read twice.
+ */
+public class LazySmartSpimLoader implements Consumer<RandomAccessibleInterval<UnsignedShortType>>, CacheLoader< Long, Cell< ShortArray > >
 {
+	// how many planes are read ahead (0 disables prefetching), and how many threads are used for it
+	public static int defaultPrefetchPlanes = 4;
+	public static int defaultIOThreads = 4;
+
+	private static ExecutorService ioService;
+
 	final SmartSPIMMetaData metadata;
 	final int channel, xTile, yTile;
+	final URI imageDir;
+	final int width, height, numPlanes;
+
+	// the cache of the cells (planes), null if the loader is used without a cache
+	LoaderCache< Long, Cell< ShortArray > > cache = null;
+
+	// planes that are being read ahead
+	final Set< Integer > prefetching = ConcurrentHashMap.newKeySet();
+
+	// after the first failure we always use ImageJ for this tile
+	volatile boolean useImageJ = false;
 
 	public LazySmartSpimLoader(
 			final SmartSPIMMetaData metadata,
@@ -56,29 +94,155 @@ public class LazySmartSpimLoader implements Consumer<RandomAccessibleInterval<Un
 		this.channel = channel;
 		this.xTile = xTile;
 		this.yTile = yTile;
+
+		this.imageDir = metadata.folderFor(
+				metadata.channels.get( channel ),
+				metadata.xTileLocations.get( xTile ),
+				metadata.yTileLocations.get( yTile ) );
+
+		this.width = (int)metadata.dimensions[ 0 ];
+		this.height = (int)metadata.dimensions[ 1 ];
+		this.numPlanes = metadata.sortedFileNames.size();
 	}
 
 	@Override
-	public void accept( final RandomAccessibleInterval< UnsignedShortType > output )
+	public Cell< ShortArray > get( final Long key ) throws IOException
 	{
-		//System.out.println( "loading z=" + output.min( 2 ));
+		// one cell per plane
+		final int z = key.intValue();
 
-		final ImagePlus imp = metadata.loadImage(
-				metadata.channels.get( channel ),
-				metadata.xTileLocations.get( xTile ),
-				metadata.yTileLocations.get( yTile ),
-				metadata.sortedFileNames.get( (int)output.min( 2 )) );
+		prefetch( z );
 
-		final short[] pixels = (short[])imp.getProcessor().getPixels();
-		final Img<UnsignedShortType> img = ArrayImgs.unsignedShorts( pixels, metadata.dimensions[ 0 ], metadata.dimensions[ 1 ] );
+		return cell( z, readPlane( z ) );
+	}
+
+	protected Cell< ShortArray > cell( final int z, final short[] pixels )
+	{
+		return new Cell<>( new int[] { width, height, 1 }, new long[] { 0, 0, z }, new ShortArray( pixels ) );
+	}
+
+	@Override
+	public void accept( final RandomAccessibleInterval< UnsignedShortType > output )
+	{
+		final short[] pixels;
+
+		try
+		{
+			pixels = loadPlane( (int)output.min( 2 ) );
+		}
+		catch ( IOException e )
+		{
+			throw new RuntimeException( e );
+		}
 
 		final Cursor<UnsignedShortType> out = Views.flatIterable( output ).cursor();
-		final Cursor<UnsignedShortType> in = Views.flatIterable( img ).cursor();
+		final Cursor<UnsignedShortType> in = Views.flatIterable( ArrayImgs.unsignedShorts( pixels, width, height ) ).cursor();
 
 		while ( in.hasNext() )
 			out.next().set( in.next() );
 	}
 
+	/**
+	 * @param z - the plane
+	 * @return the pixels of the plane (from the cache if possible), and schedules reading the next planes
+	 * @throws IOException if the plane cannot be loaded
+	 */
+	public short[] loadPlane( final int z ) throws IOException
+	{
+		if ( cache == null )
+			return readPlane( z );
+
+		try
+		{
+			return cache.get( (long)z, this ).getData().getCurrentStorageArray();
+		}
+		catch ( ExecutionException e )
+		{
+			throw new IOException( "Failed to load z=" + z + ": " + e.getCause(), e );
+		}
+	}
+
+	/**
+	 * Reads the next planes into the cache, unless they are cached or read ahead already (e.g. by another
+	 * thread reading this tile). Planes that were read ahead are never cancelled, they stay in the cache.
+	 *
+	 * @param z - the plane that is loaded
+	 */
+	protected void prefetch( final int z )
+	{
+		if ( defaultPrefetchPlanes <= 0 || cache == null )
+			return;
+
+		final int last = Math.min( numPlanes - 1, z + defaultPrefetchPlanes );
+
+		for ( int p = z + 1; p <= last; ++p )
+		{
+			final int plane = p;
+
+			if ( cache.getIfPresent( (long)plane ) != null || !prefetching.add( plane ) )
+				continue;
+
+			ioService().submit( () ->
+			{
+				try
+				{
+					// a loader that does not read ahead itself
+					cache.get( (long)plane, key -> cell( plane, readPlane( plane ) ) );
+				}
+				catch ( ExecutionException e )
+				{
+					IOFunctions.println( "Prefetching z=" + plane + " failed (" + e.getCause() + "), it is loaded again when requested." );
+				}
+				finally
+				{
+					prefetching.remove( plane );
+				}
+
+				return null;
+			} );
+		}
+	}
+
+	protected short[] readPlane( final int z ) throws IOException
+	{
+		final String fileName = metadata.sortedFileNames.get( z );
+
+		if ( !useImageJ )
+		{
+			try
+			{
+				return TiffPlaneReader.read( new File( imageDir.resolve( fileName ) ).toPath(), width, height );
+			}
+			catch ( UnsupportedOperationException e )
+			{
+				IOFunctions.println( "Cannot read '" + fileName + "' directly (" + e.getMessage() + "), using ImageJ." );
+				useImageJ = true;
+			}
+		}
+
+		final ImagePlus imp = SmartSPIMMetaData.loadImage( imageDir, fileName );
+
+		if ( imp.getProcessor() == null )
+			throw new IOException( "Failed to load '" + imageDir.resolve( fileName ) + "'." );
+
+		return (short[])imp.getProcessor().getPixels();
+	}
+
+	protected static synchronized ExecutorService ioService()
+	{
+		if ( ioService == null )
+		{
+			ioService = Executors.newFixedThreadPool( Math.max( 1, defaultIOThreads ), r ->
+			{
+				final Thread t = new Thread( r, "SmartSPIM prefetch" );
+				t.setDaemon( true );
+				return t;
+			} );
+		}
+
+		return ioService;
+	}
+
 	public static final RandomAccessibleInterval< UnsignedShortType > init(
 			final SmartSPIMMetaData meta,
 			final int channel,
@@ -88,13 +252,15 @@ public class LazySmartSpimLoader implements Consumer<RandomAccessibleInterval<Un
 		final LazySmartSpimLoader lazyLoader =
 				new LazySmartSpimLoader( meta, channel, xTile, yTile );
 
+		final CellGrid grid = new CellGrid( meta.dimensions, new int[] { (int)meta.dimensions[ 0 ], (int)meta.dimensions[ 1 ], 1 } );
+
+		lazyLoader.cache = BlockCache.enabled ? BlockCache.getInstance().newCellCache( "SmartSPIM" ) : new SoftRefLoaderCache<>();
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final Cache<Long, Cell<?>> cache = (Cache)lazyLoader.cache.withLoader( lazyLoader );
+
 		final RandomAccessibleInterval< UnsignedShortType > stack =
-						Lazy.process(
-								new FinalInterval( new FinalDimensions( meta.dimensions ) ),
-								new int[] { (int)meta.dimensions[ 0 ], (int)meta.dimensions[ 1 ], 1 },
-								new UnsignedShortType(),
-								AccessFlags.setOf(),
-								lazyLoader );
+				Lazy.createImg( grid, cache, new UnsignedShortType(), AccessFlags.setOf() );
 
 		return stack;
 	}
@@ -0,0 +1,395 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.smartspim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Minimal reader for the first plane of a 16-bit grayscale TIFF (classic or BigTIFF) that is stored
+ * in strips, either uncompressed or LZW compressed (with or without horizontal predictor), as written
+ * by the SmartSPIM. The strips are read with a {@link FileChannel} and decoded straight into a short[],
+ * without going through ImageJ.
+ * <p>
+ * Everything else (tiles, other bit depths, multiple samples, other compressions) is reported as an
+ * {@link UnsupportedOperationException} so the caller can fall back to a general reader.
+ */
+public class TiffPlaneReader
+{
+	// tags
+	final static int IMAGE_WIDTH = 256, IMAGE_LENGTH = 257, BITS_PER_SAMPLE = 258, COMPRESSION = 259,
+			STRIP_OFFSETS = 273, SAMPLES_PER_PIXEL = 277, ROWS_PER_STRIP = 278, STRIP_BYTE_COUNTS = 279,
+			PREDICTOR = 317, TILE_WIDTH = 322, SAMPLE_FORMAT = 339;
+
+	// compression
+	final static int NONE = 1, LZW = 5;
+
+	/**
+	 * @param file - the TIFF file
+	 * @param width - expected width
+	 * @param height - expected height
+	 * @return the pixels of the first plane
+	 * @throws IOException if the file cannot be read
+	 */
+	public static short[] read( final Path file, final int width, final int height ) throws IOException
+	{
+		final short[] pixels = new short[ width * height ];
+		read( file, width, height, pixels );
+		return pixels;
+	}
+
+	/**
+	 * @param file - the TIFF file
+	 * @param width - expected width
+	 * @param height - expected height
+	 * @param target - the output, at least width*height long
+	 * @throws IOException if the file cannot be read
+	 */
+	public static void read( final Path file, final int width, final int height, final short[] target ) throws IOException
+	{
+		try ( final FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+		{
+			// header
+			final ByteBuffer header = read( channel, 0, 16, ByteOrder.LITTLE_ENDIAN );
+
+			final ByteOrder order;
+
+			if ( header.get( 0 ) == 'I' && header.get( 1 ) == 'I' )
+				order = ByteOrder.LITTLE_ENDIAN;
+			else if ( header.get( 0 ) == 'M' && header.get( 1 ) == 'M' )
+				order = ByteOrder.BIG_ENDIAN;
+			else
+				throw new IOException( "Not a TIFF file: " + file );
+
+			header.order( order );
+
+			final int magic = header.getShort( 2 ) & 0xffff;
+			final boolean bigTiff;
+			final long ifdOffset;
+
+			if ( magic == 42 )
+			{
+				bigTiff = false;
+				ifdOffset = header.getInt( 4 ) & 0xffffffffL;
+			}
+			else if ( magic == 43 )
+			{
+				bigTiff = true;
+				ifdOffset = header.getLong( 8 );
+			}
+			else
+			{
+				throw new IOException( "Not a TIFF file (magic=" + magic + "): " + file );
+			}
+
+			// first IFD
+			final int entrySize = bigTiff ? 20 : 12;
+			final int countSize = bigTiff ? 8 : 2;
+			final ByteBuffer countBuffer = read( channel, ifdOffset, countSize, order );
+			final int numEntries = (int)( bigTiff ? countBuffer.getLong( 0 ) : countBuffer.getShort( 0 ) & 0xffff );
+			final ByteBuffer ifd = read( channel, ifdOffset + countSize, numEntries * entrySize, order );
+
+			long w = -1, h = -1, bits = 1, compression = NONE, samples = 1, rowsPerStrip = Long.MAX_VALUE, predictor = 1, sampleFormat = 1;
+			long[] stripOffsets = null, stripByteCounts = null;
+
+			for ( int e = 0; e < numEntries; ++e )
+			{
+				final int pos = e * entrySize;
+				final int tag = ifd.getShort( pos ) & 0xffff;
+
+				switch ( tag )
+				{
+					case IMAGE_WIDTH: w = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case IMAGE_LENGTH: h = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case BITS_PER_SAMPLE: bits = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case COMPRESSION: compression = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case SAMPLES_PER_PIXEL: samples = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case ROWS_PER_STRIP: rowsPerStrip = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case PREDICTOR: predictor = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case SAMPLE_FORMAT: sampleFormat = values( channel, ifd, pos, bigTiff, order )[ 0 ]; break;
+					case STRIP_OFFSETS: stripOffsets = values( channel, ifd, pos, bigTiff, order ); break;
+					case STRIP_BYTE_COUNTS: stripByteCounts = values( channel, ifd, pos, bigTiff, order ); break;
+					case TILE_WIDTH: throw new UnsupportedOperationException( "Tiled TIFFs are not supported: " + file );
+					default: break;
+				}
+			}
+
+			if ( w != width || h != height )
+				throw new IOException( "Unexpected dimensions " + w + "x" + h + " (expected " + width + "x" + height + "): " + file );
+
+			if ( bits != 16 || samples != 1 || sampleFormat == 3 )
+				throw new UnsupportedOperationException( "Only 16-bit grayscale TIFFs are supported (bits=" + bits + ", samples=" + samples + "): " + file );
+
+			if ( compression != NONE && compression != LZW )
+				throw new UnsupportedOperationException( "Unsupported TIFF compression " + compression + ": " + file );
+
+			if ( predictor != 1 && !( predictor == 2 && compression == LZW ) )
+				throw new UnsupportedOperationException( "Unsupported TIFF predictor " + predictor + ": " + file );
+
+			if ( stripOffsets == null )
+				throw new IOException( "TIFF has no strip offsets: " + file );
+
+			final int rows = (int)Math.min( rowsPerStrip, height );
+			final int numStrips = ( height + rows - 1 ) / rows;
+
+			if ( stripOffsets.length < numStrips || ( compression == LZW && ( stripByteCounts == null || stripByteCounts.length < numStrips ) ) )
+				throw new IOException( "TIFF has not enough strips: " + file );
+
+			byte[] decoded = null;
+
+			for ( int s = 0; s < numStrips; ++s )
+			{
+				final int firstRow = s * rows;
+				final int numRows = Math.min( rows, height - firstRow );
+				final int numBytes = numRows * width * 2;
+
+				final ByteBuffer strip;
+
+				if ( compression == NONE )
+				{
+					strip = read( channel, stripOffsets[ s ], numBytes, order );
+				}
+				else
+				{
+					final ByteBuffer compressed = read( channel, stripOffsets[ s ], (int)stripByteCounts[ s ], order );
+
+					if ( decoded == null || decoded.length < numBytes )
+						decoded = new byte[ numBytes ];
+
+					lzwDecode( compressed.array(), compressed.limit(), decoded, numBytes );
+					strip = ByteBuffer.wrap( decoded, 0, numBytes ).order( order );
+				}
+
+				strip.asShortBuffer().get( target, firstRow * width, numRows * width );
+			}
+
+			if ( predictor == 2 )
+			{
+				for ( int y = 0; y < height; ++y )
+				{
+					final int o = y * width;
+
+					for ( int x = 1; x < width; ++x )
+						target[ o + x ] += target[ o + x - 1 ];
+				}
+			}
+		}
+	}
+
+	protected static long[] values(
+			final FileChannel channel,
+			final ByteBuffer ifd,
+			final int pos,
+			final boolean bigTiff,
+			final ByteOrder order ) throws IOException
+	{
+		final int type = ifd.getShort( pos + 2 ) & 0xffff;
+		final long count = bigTiff ? ifd.getLong( pos + 4 ) : ifd.getInt( pos + 4 ) & 0xffffffffL;
+		final int valuePos = pos + ( bigTiff ? 12 : 8 );
+
+		final int typeSize;
+
+		switch ( type )
+		{
+			case 1: typeSize = 1; break; // BYTE
+			case 3: typeSize = 2; break; // SHORT
+			case 4: typeSize = 4; break; // LONG
+			case 16: typeSize = 8; break; // LONG8
+			default: throw new UnsupportedOperationException( "Unsupported TIFF field type " + type );
+		}
+
+		final long numBytes = count * typeSize;
+		final ByteBuffer data;
+		final int offset;
+
+		if ( numBytes <= ( bigTiff ? 8 : 4 ) )
+		{
+			data = ifd;
+			offset = valuePos;
+		}
+		else
+		{
+			final long dataOffset = bigTiff ? ifd.getLong( valuePos ) : ifd.getInt( valuePos ) & 0xffffffffL;
+			data = read( channel, dataOffset, (int)numBytes, order );
+			offset = 0;
+		}
+
+		final long[] values = new long[ (int)count ];
+
+		for ( int i = 0; i < count; ++i )
+		{
+			final int p = offset + i * typeSize;
+
+			switch ( typeSize )
+			{
+				case 1: values[ i ] = data.get( p ) & 0xff; break;
+				case 2: values[ i ] = data.getShort( p ) & 0xffff; break;
+				case 4: values[ i ] = data.getInt( p ) & 0xffffffffL; break;
+				default: values[ i ] = data.getLong( p ); break;
+			}
+		}
+
+		return values;
+	}
+
+	protected static ByteBuffer read( final FileChannel channel, final long position, final int length, final ByteOrder order ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( length ).order( order );
+
+		long pos = position;
+
+		while ( buffer.hasRemaining() )
+		{
+			final int r = channel.read( buffer, pos );
+
+			if ( r < 0 )
+			{
+				// the header might be longer than a tiny file, everything else must be complete
+				if ( position == 0 && buffer.position() >= 8 )
+					break;
+
+				throw new EOFException( "Unexpected end of TIFF file at " + pos );
+			}
+
+			pos += r;
+		}
+
+		buffer.flip();
+		buffer.limit( length );
+
+		return buffer;
+	}
+
+	/**
+	 * Decodes a TIFF LZW strip (MSB-first codes, 9-12 bits, early change).
+	 *
+	 * @param in - the compressed data
+	 * @param inLength - number of valid bytes in in
+	 * @param out - the output
+	 * @param outLength - the expected number of decoded bytes, excess data is ignored
+	 * @return the number of decoded bytes
+	 */
+	public static int lzwDecode( final byte[] in, final int inLength, final byte[] out, final int outLength )
+	{
+		final int[] prefix = new int[ 4096 ];
+		final byte[] suffix = new byte[ 4096 ];
+		final byte[] first = new byte[ 4096 ];
+		final int[] length = new int[ 4096 ];
+
+		for ( int i = 0; i < 256; ++i )
+		{
+			prefix[ i ] = -1;
+			suffix[ i ] = first[ i ] = (byte)i;
+			length[ i ] = 1;
+		}
+
+		int next = 258, bits = 9, old = -1, o = 0;
+		int ip = 0, bitCount = 0;
+		long bitBuffer = 0;
+
+		while ( o < outLength )
+		{
+			while ( bitCount < bits )
+			{
+				if ( ip >= inLength )
+					return o;
+
+				bitBuffer = ( bitBuffer << 8 ) | ( in[ ip++ ] & 0xff );
+				bitCount += 8;
+			}
+
+			final int code = (int)( ( bitBuffer >>> ( bitCount - bits ) ) & ( ( 1 << bits ) - 1 ) );
+			bitCount -= bits;
+
+			if ( code == 257 ) // end of information
+				break;
+
+			if ( code == 256 ) // clear
+			{
+				next = 258;
+				bits = 9;
+				old = -1;
+				continue;
+			}
+
+			if ( code > next || ( old == -1 && code >= next ) )
+				throw new IllegalStateException( "Corrupt LZW data, code " + code + " is not in the table (" + next + ")." );
+
+			if ( old == -1 )
+			{
+				o = write( code, prefix, suffix, length, out, o, outLength );
+				old = code;
+				continue;
+			}
+
+			final byte newSuffix;
+
+			if ( code < next )
+			{
+				o = write( code, prefix, suffix, length, out, o, outLength );
+				newSuffix = first[ code ];
+			}
+			else
+			{
+				// the code is not yet in the table, it is string(old) + first(old)
+				o = write( old, prefix, suffix, length, out, o, outLength );
+				if ( o < outLength )
+					out[ o ] = first[ old ];
+				++o;
+				newSuffix = first[ old ];
+			}
+
+			if ( next < 4096 )
+			{
+				prefix[ next ] = old;
+				suffix[ next ] = newSuffix;
+				first[ next ] = first[ old ];
+				length[ next ] = length[ old ] + 1;
+				++next;
+
+				if ( next == ( 1 << bits ) - 1 && bits < 12 )
+					++bits;
+			}
+
+			old = code;
+		}
+
+		return Math.min( o, outLength );
+	}
+
+	private static int write( final int code, final int[] prefix, final byte[] suffix, final int[] length, final byte[] out, final int o, final int outLength )
+	{
+		final int len = length[ code ];
+
+		for ( int k = len - 1, c = code; k >= 0; --k, c = prefix[ c ] )
+			if ( o + k < outLength )
+				out[ o + k ] = suffix[ c ];
+
+		return o + len;
+	}
+}
@@ -26,4 +26,9 @@ import loci.formats.IFormatReader;
 
 public interface BioformatsReaderSetupHook {
 	public void runSetup(IFormatReader reader);
+
+	/**
+	 * @return the options this hook sets, e.g. to invalidate cached metadata if they change
+	 */
+	public default String describeOptions() { return ""; }
 }
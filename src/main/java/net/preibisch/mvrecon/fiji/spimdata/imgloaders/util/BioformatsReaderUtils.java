@@ -23,6 +23,8 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders.util;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
@@ -46,4 +48,17 @@ public class BioformatsReaderUtils {
 
 		return reader;
 	}
+
+	/**
+	 * @return the options set by all setup hooks (sorted by reader), identical as long as the readers are set up the same way
+	 */
+	public static String describeSetupHookOptions()
+	{
+		final TreeMap<String, String> options = new TreeMap<>();
+
+		for (final Map.Entry<Class<? extends IFormatReader>, BioformatsReaderSetupHook> e : setupHooks.entrySet())
+			options.put(e.getKey().getSimpleName(), e.getValue().describeOptions());
+
+		return options.toString();
+	}
 }
@@ -53,6 +53,12 @@ public class CZIReaderSetupHook implements BioformatsReaderSetupHook {
 		this.relativePositions = relativePositions;
 	}
 
+	@Override
+	public String describeOptions()
+	{
+		return ZeissCZIReader.ALLOW_AUTOSTITCHING_KEY + "=" + allowAutostitch + "," + ZeissCZIReader.RELATIVE_POSITIONS_KEY + "=" + relativePositions;
+	}
+
 	@Override
 	public void runSetup(IFormatReader reader) {
 
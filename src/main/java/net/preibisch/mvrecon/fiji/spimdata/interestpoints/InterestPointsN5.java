@@ -25,14 +25,20 @@ package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
 import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.IntToLongFunction;
 
+import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
 import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
@@ -55,10 +61,29 @@ public class InterestPointsN5 extends InterestPoints
 	public static int defaultBlockSize = 300_000;
 	public static final String baseN5 = "interestpoints.n5";
 
+	/**
+	 * If true (default), new correspondences are stored as one dataset per corresponding (ViewId, label)
+	 * (version 2.0.0), so that saving only appends the correspondences of (ViewId, label)
+	 * pairs that changed. Otherwise all correspondences of a (ViewId, label) are stored
+	 * in a single dataset (version 1.0.0). Both versions can always be loaded.
+	 * <p>
+	 * Note: version 2.0.0 cannot be read by older versions of BigStitcher and BigStitcher-Spark.
+	 * Existing 1.0.0 correspondences are never converted implicitly, only by calling
+	 * {@link #convertCorrespondencesToIncremental()}; set this to false to write 1.0.0 for new data.
+	 */
+	public static boolean incrementalCorrespondences = true;
+
 	final String n5path;
 	ArrayList< InterestPoint > interestPoints;
 	ArrayList< CorrespondingInterestPoints > correspondingInterestPoints;
 
+	// for each corresponding (ViewId, label) key (see idMapKey), the sorted, packed (detectionId, correspondingDetectionId)
+	// pairs that are currently stored on disc, used to only rewrite what changed
+	HashMap< String, long[] > storedCorrespondences;
+
+	// the interest points as loaded by getPackedInterestPoints(), as long as they are not in memory as a list
+	PackedInterestPoints packedInterestPoints;
+
 	protected InterestPointsN5( final URI baseDir, final String n5path )
 	{
 		super(baseDir);
@@ -67,6 +92,15 @@ public class InterestPointsN5 extends InterestPoints
 
 	public String getN5path() { return n5path; }
 
+	@Override
+	public void setBaseDir( final URI baseDir )
+	{
+		super.setBaseDir( baseDir );
+
+		// nothing is stored at the new location yet
+		this.storedCorrespondences = null;
+	}
+
 	@Override
 	public String getXMLRepresentation() {
 		// a hack so that windows does not put its backslashes in
@@ -96,6 +130,24 @@ public class InterestPointsN5 extends InterestPoints
 		return list;
 	}
 
+	/**
+	 * The table loaded from disc is kept, so repeated calls do not read the N5 again.
+	 * It is shared between callers and must not be modified.
+	 *
+	 * @param offHeap - store the coordinates off-heap
+	 * @return - the interest points in columnar form (see {@link PackedInterestPoints}), loaded directly from disc if they are not in memory, null if they could not be loaded
+	 */
+	public synchronized PackedInterestPoints getPackedInterestPoints( final boolean offHeap )
+	{
+		if ( this.interestPoints != null )
+			return PackedInterestPoints.fromList( this.interestPoints, offHeap );
+
+		if ( this.packedInterestPoints == null || this.packedInterestPoints.offHeap != offHeap )
+			this.packedInterestPoints = loadPackedInterestPoints( offHeap );
+
+		return this.packedInterestPoints;
+	}
+
 	/**
 	 * @return - the list of corresponding interest points (copied), tries to load from disc if null
 	 */
@@ -115,6 +167,8 @@ public class InterestPointsN5 extends InterestPoints
 	@Override
 	protected void setInterestPointsLocal( final List< InterestPoint > list )
 	{
+		this.packedInterestPoints = null;
+
 		if ( list.getClass().isInstance( ArrayList.class ))
 			this.interestPoints = (ArrayList<InterestPoint>)list;
 		else
@@ -130,6 +184,78 @@ public class InterestPointsN5 extends InterestPoints
 			this.correspondingInterestPoints = new ArrayList<>( list );
 	}
 
+	/**
+	 * Replace the correspondences with one (ViewId, label), keeping all others.
+	 * Only the correspondences with this (ViewId, label) will be rewritten when saving.
+	 *
+	 * @param correspondingViewId - the corresponding view
+	 * @param correspondingLabel - the label of the corresponding interest points
+	 * @param list - the new correspondences (all must be with correspondingViewId, correspondingLabel), empty to remove them
+	 */
+	public synchronized void setCorrespondingInterestPoints(
+			final ViewId correspondingViewId,
+			final String correspondingLabel,
+			final List< CorrespondingInterestPoints > list )
+	{
+		if ( this.correspondingInterestPoints == null )
+			loadCorrespondences();
+
+		if ( this.correspondingInterestPoints == null )
+			this.correspondingInterestPoints = new ArrayList<>();
+
+		final ArrayList< CorrespondingInterestPoints > newList = new ArrayList<>();
+
+		for ( final CorrespondingInterestPoints cip : this.correspondingInterestPoints )
+			if ( !cip.getCorrespondingViewId().equals( correspondingViewId ) || !cip.getCorrespodingLabel().equals( correspondingLabel ) )
+				newList.add( cip );
+
+		newList.addAll( list );
+
+		setCorrespondingInterestPoints( newList );
+	}
+
+	/**
+	 * Remove all correspondences with one (ViewId, label).
+	 */
+	public void removeCorrespondingInterestPoints( final ViewId correspondingViewId, final String correspondingLabel )
+	{
+		setCorrespondingInterestPoints( correspondingViewId, correspondingLabel, new ArrayList<>() );
+	}
+
+	protected static String idMapKey( final ViewId viewId, final String label )
+	{
+		return viewId.getTimePointId() + "," + viewId.getViewSetupId() + "," + label;
+	}
+
+	/**
+	 * @return for each (ViewId, label) key, the sorted (detectionId, correspondingDetectionId) pairs packed into one long each
+	 */
+	protected static HashMap< String, long[] > packCorrespondences( final List< CorrespondingInterestPoints > list )
+	{
+		final HashMap< String, ArrayList< CorrespondingInterestPoints > > grouped = new HashMap<>();
+
+		for ( final CorrespondingInterestPoints cip : list )
+			grouped.computeIfAbsent( idMapKey( cip.getCorrespondingViewId(), cip.getCorrespodingLabel() ), k -> new ArrayList<>() ).add( cip );
+
+		final HashMap< String, long[] > packed = new HashMap<>();
+
+		for ( final Entry< String, ArrayList< CorrespondingInterestPoints > > entry : grouped.entrySet() )
+		{
+			final long[] pairs = new long[ entry.getValue().size() ];
+
+			for ( int i = 0; i < pairs.length; ++i )
+			{
+				final CorrespondingInterestPoints cip = entry.getValue().get( i );
+				pairs[ i ] = ( ( long ) cip.getDetectionId() << 32 ) | ( cip.getCorrespondingDetectionId() & 0xffffffffL );
+			}
+
+			Arrays.sort( pairs );
+			packed.put( entry.getKey(), pairs );
+		}
+
+		return packed;
+	}
+
 	public String ipDataset() { return new File( getN5path(), "interestpoints" ).getPath(); }
 	public String corrDataset() { return new File( getN5path(), "correspondences" ).getPath(); }
 
@@ -190,32 +316,11 @@ public class InterestPointsN5 extends InterestPoints
 
 			final int n = list.get( 0 ).getL().length;
 
-			// 1 x N array (which is a 2D array)
-			final FunctionRandomAccessible< UnsignedLongType > id =
-					new FunctionRandomAccessible<>(
-							2,
-							(location, value) -> value.set( list.get( location.getIntPosition( 1 ) ).id ),
-							UnsignedLongType::new );
-
-			// DIM x N array (which is a 2D array)
-			final FunctionRandomAccessible< DoubleType > loc =
-					new FunctionRandomAccessible<>(
-							2,
-							(location, value) ->
-							{
-								final InterestPoint ip = list.get( location.getIntPosition( 1 ) );
-								value.set( ip.getL()[ location.getIntPosition( 0 ) ] );
-							},
-							DoubleType::new );
-
-			final RandomAccessibleInterval< UnsignedLongType > idData =
-					Views.interval( id, new long[] { 0, 0 }, new long[] { 0, list.size() - 1 } );
-
-			final RandomAccessibleInterval< DoubleType > locData =
-					Views.interval( loc, new long[] { 0, 0 }, new long[] { n - 1, list.size() - 1 } );
-
-			N5Utils.save( idData, n5Writer, idDataset, new int[] { 1, defaultBlockSize }, new GzipCompression() );
-			N5Utils.save( locData, n5Writer, locDataset, new int[] { (int)locData.dimension( 0 ), defaultBlockSize }, new GzipCompression() );
+			// 1 x N array (which is a 2D array), DIM x N array (which is a 2D array)
+			writeColumns(
+					n5Writer, idDataset, locDataset, list.size(), n,
+					i -> list.get( i ).id,
+					( i, d ) -> list.get( i ).getL()[ d ] );
 
 			n5Writer.close();
 
@@ -244,6 +349,10 @@ public class InterestPointsN5 extends InterestPoints
 		if ( list == null )
 			return false;
 
+		// only write 2.0.0 if asked for, and never silently convert existing 1.0.0 correspondences
+		if ( incrementalCorrespondences && !"1.0.0".equals( storedCorrespondencesVersion() ) )
+			return saveCorrespondingInterestPointsIncremental( list );
+
 		final String dataset = corrDataset();
 
 		try
@@ -347,6 +456,158 @@ public class InterestPointsN5 extends InterestPoints
 
 			n5Writer.close();
 
+			storedCorrespondences = null;
+			modifiedCorrespondingInterestPoints = false;
+		}
+		catch (Exception e)
+		{
+			IOFunctions.println("Couldn't write corresponding interestpoints to N5 '" + URITools.appendName( baseDir, baseN5 ) + "/" + dataset + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Explicitly converts the stored correspondences to version 2.0.0 (see {@link #incrementalCorrespondences}),
+	 * which cannot be read by older versions of BigStitcher and BigStitcher-Spark.
+	 *
+	 * @return true if successful
+	 */
+	public synchronized boolean convertCorrespondencesToIncremental()
+	{
+		if ( this.correspondingInterestPoints == null && !loadCorrespondences() )
+			return false;
+
+		return saveCorrespondingInterestPointsIncremental( this.correspondingInterestPoints );
+	}
+
+	/**
+	 * @return the version of the stored correspondences, or null if there are none
+	 */
+	protected String storedCorrespondencesVersion()
+	{
+		try
+		{
+			final N5Reader n5 = URITools.instantiateN5Reader( StorageFormat.N5, URITools.toURI( URITools.appendName( baseDir, baseN5 ) ) );
+			final String version = n5.exists( corrDataset() ) ? n5.getAttribute( corrDataset(), "correspondences", String.class ) : null;
+			n5.close();
+
+			return version;
+		}
+		catch ( Exception e )
+		{
+			// no container yet
+			return null;
+		}
+	}
+
+	/**
+	 * Saves correspondences as one 2 x N dataset (detectionId, correspondingDetectionId) per corresponding (ViewId, label)
+	 * (version 2.0.0). The idMap only grows, i.e. ids are never re-assigned, and only the datasets of (ViewId, label)
+	 * pairs whose correspondences changed since they were loaded or saved are appended to (if correspondences were only added),
+	 * rewritten or removed.
+	 */
+	protected boolean saveCorrespondingInterestPointsIncremental( final List< CorrespondingInterestPoints > list )
+	{
+		final String dataset = corrDataset();
+
+		try
+		{
+			final N5Writer n5Writer = URITools.instantiateN5Writer( StorageFormat.N5, URITools.toURI( URITools.appendName( baseDir, baseN5 ) ) );
+
+			final HashMap< String, Long > idMap = new HashMap<>();
+			HashMap< String, long[] > stored = this.storedCorrespondences;
+
+			if ( n5Writer.exists( dataset ) && "2.0.0".equals( n5Writer.getAttribute( dataset, "correspondences", String.class ) ) )
+			{
+				idMap.putAll( readIdMap( n5Writer, dataset ) );
+
+				// we do not know what is on disc, rewrite all
+				if ( stored == null )
+					stored = new HashMap<>();
+			}
+			else
+			{
+				// no or old (1.0.0) correspondences, rewrite all
+				if ( n5Writer.exists( dataset ) )
+					n5Writer.remove( dataset );
+
+				n5Writer.createGroup( dataset );
+				n5Writer.setAttribute( dataset, "correspondences", "2.0.0" );
+
+				stored = new HashMap<>();
+			}
+
+			final HashMap< String, long[] > packed = packCorrespondences( list );
+
+			int written = 0, removed = 0;
+
+			// (ViewId, label) pairs that do not have correspondences anymore
+			for ( final Entry< String, Long > entry : new ArrayList<>( idMap.entrySet() ) )
+			{
+				if ( !packed.containsKey( entry.getKey() ) )
+				{
+					final String pairDataset = corrDataset( dataset, entry.getValue() );
+
+					if ( n5Writer.exists( pairDataset ) )
+						n5Writer.remove( pairDataset );
+
+					idMap.remove( entry.getKey() );
+					++removed;
+				}
+			}
+
+			long nextId = idMap.values().stream().mapToLong( Long::longValue ).max().orElse( -1 ) + 1;
+
+			for ( final Entry< String, long[] > entry : packed.entrySet() )
+			{
+				final Long existingId = idMap.get( entry.getKey() );
+
+				if ( existingId != null && Arrays.equals( stored.get( entry.getKey() ), entry.getValue() ) )
+					continue;
+
+				final long id;
+
+				if ( existingId == null )
+				{
+					id = nextId++;
+					idMap.put( entry.getKey(), id );
+				}
+				else
+				{
+					id = existingId;
+				}
+
+				final String pairDataset = corrDataset( dataset, id );
+				final long[] storedPairs = stored.get( entry.getKey() );
+				final long[] pairs = entry.getValue();
+
+				if ( existingId != null && storedPairs != null && n5Writer.exists( pairDataset ) && isSubset( storedPairs, pairs ) )
+				{
+					// only new correspondences, append them
+					appendPairs( n5Writer, pairDataset, difference( pairs, storedPairs ) );
+				}
+				else
+				{
+					if ( n5Writer.exists( pairDataset ) )
+						n5Writer.remove( pairDataset );
+
+					n5Writer.createDataset( pairDataset, new long[] { 2, pairs.length }, new int[] { 2, defaultBlockSize }, DataType.UINT64, new GzipCompression() );
+					writePairs( n5Writer, pairDataset, 0, pairs );
+				}
+
+				++written;
+			}
+
+			n5Writer.setAttribute( dataset, "idMap", idMap );
+
+			n5Writer.close();
+
+			IOFunctions.println( "Saved: " + URITools.appendName( baseDir, baseN5 ) + "/" + dataset + " (" + written + " (ViewId, label) pairs written, " + removed + " removed, " + ( packed.size() - written ) + " unchanged)" );
+
+			this.storedCorrespondences = packed;
 			modifiedCorrespondingInterestPoints = false;
 		}
 		catch (Exception e)
@@ -359,6 +620,305 @@ public class InterestPointsN5 extends InterestPoints
 		return true;
 	}
 
+	/**
+	 * Appends packed (detectionId, correspondingDetectionId) pairs to an existing 2 x N dataset, only the last
+	 * (partially filled) block of the existing data is rewritten.
+	 */
+	protected static void appendPairs( final N5Writer n5Writer, final String pairDataset, final long[] pairs )
+	{
+		if ( pairs.length == 0 )
+			return;
+
+		final long oldSize = n5Writer.getDatasetAttributes( pairDataset ).getDimensions()[ 1 ];
+
+		// write the blocks first, so an interrupted append leaves the dataset at its old size
+		writePairs( n5Writer, pairDataset, oldSize, pairs );
+
+		n5Writer.setAttribute( pairDataset, DatasetAttributes.DIMENSIONS_KEY, new long[] { 2, oldSize + pairs.length } );
+	}
+
+	/**
+	 * Writes packed pairs into a 2 x N dataset starting at position oldSize, the existing part of a partially
+	 * filled block is kept.
+	 */
+	protected static void writePairs( final N5Writer n5Writer, final String pairDataset, final long oldSize, final long[] pairs )
+	{
+		final DatasetAttributes attributes = n5Writer.getDatasetAttributes( pairDataset );
+		final int blockLength = attributes.getBlockSize()[ 1 ];
+		final long newSize = oldSize + pairs.length;
+
+		for ( long b = oldSize / blockLength; b * blockLength < newSize; ++b )
+		{
+			final long blockStart = b * blockLength;
+			final int length = (int)Math.min( blockLength, newSize - blockStart );
+			final long[] data = new long[ length * 2 ];
+
+			// the existing part of the last block
+			final int existing = (int)Math.max( 0, Math.min( length, oldSize - blockStart ) );
+
+			if ( existing > 0 )
+			{
+				final long[] old = (long[])readBlock( n5Writer, pairDataset, attributes, b ).getData();
+				System.arraycopy( old, 0, data, 0, existing * 2 );
+			}
+
+			for ( int i = existing; i < length; ++i )
+			{
+				final long pair = pairs[ (int)( blockStart + i - oldSize ) ];
+				data[ i * 2 ] = pair >>> 32;
+				data[ i * 2 + 1 ] = pair & 0xffffffffL;
+			}
+
+			n5Writer.writeBlock( pairDataset, attributes, new LongArrayDataBlock( new int[] { 2, length }, new long[] { 0, b }, data ) );
+		}
+	}
+
+	/**
+	 * @return true if all elements of the sorted array a are contained in the sorted array b
+	 */
+	protected static boolean isSubset( final long[] a, final long[] b )
+	{
+		int j = 0;
+
+		for ( final long v : a )
+		{
+			while ( j < b.length && b[ j ] < v )
+				++j;
+
+			if ( j == b.length || b[ j ] != v )
+				return false;
+
+			++j;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return all elements of the sorted array a that are not contained in the sorted array b
+	 */
+	protected static long[] difference( final long[] a, final long[] b )
+	{
+		final long[] diff = new long[ a.length ];
+		int n = 0, j = 0;
+
+		for ( final long v : a )
+		{
+			while ( j < b.length && b[ j ] < v )
+				++j;
+
+			if ( j < b.length && b[ j ] == v )
+				++j;
+			else
+				diff[ n++ ] = v;
+		}
+
+		return Arrays.copyOf( diff, n );
+	}
+
+	/**
+	 * Reads block (0, b) of a 2D (2 x N or DIM x N) dataset.
+	 *
+	 * @throws IllegalStateException if the block does not exist, i.e. the dataset is incomplete
+	 */
+	protected static DataBlock< ? > readBlock( final N5Reader n5, final String dataset, final DatasetAttributes attributes, final long b )
+	{
+		final DataBlock< ? > block = n5.readBlock( dataset, attributes, 0, b );
+
+		if ( block == null )
+			throw new IllegalStateException( "Block " + b + " of dataset '" + dataset + "' (size " + attributes.getDimensions()[ 1 ] + ") is missing, the interest points/correspondences are incomplete." );
+
+		return block;
+	}
+
+	protected static String corrDataset( final String dataset, final long id )
+	{
+		return dataset + "/data_" + id;
+	}
+
+	protected static Map< String, Long > readIdMap( final N5Reader n5, final String dataset )
+	{
+		@SuppressWarnings("unchecked")
+		final Map< String, Object > raw = n5.getAttribute( dataset, "idMap", Map.class );
+
+		final HashMap< String, Long > idMap = new HashMap<>();
+
+		if ( raw != null )
+			for ( final Entry< String, Object > entry : raw.entrySet() )
+				idMap.put( entry.getKey(), Math.round( ( ( Number ) entry.getValue() ).doubleValue() ) ); // a long maybe loaded as a double
+
+		return idMap;
+	}
+
+	/**
+	 * Loads correspondences stored as one dataset per corresponding (ViewId, label) (version 2.0.0).
+	 */
+	protected boolean loadCorrespondencesIncremental( final N5Reader n5, final String dataset )
+	{
+		final Map< String, Long > idMap = readIdMap( n5, dataset );
+
+		final ArrayList< CorrespondingInterestPoints > correspondingInterestPoints = new ArrayList<>();
+
+		for ( final Entry< String, Long > entry : idMap.entrySet() )
+		{
+			final String key = entry.getKey();
+			final int firstComma = key.indexOf( "," );
+			final int secondComma = key.indexOf( ",", firstComma + 1 );
+			final int tp = Integer.parseInt( key.substring( 0, firstComma ) );
+			final int setup = Integer.parseInt( key.substring( firstComma + 1, secondComma ) );
+			final String label = key.substring( secondComma + 1 );
+
+			final String pairDataset = corrDataset( dataset, entry.getValue() );
+
+			if ( !n5.exists( pairDataset ) )
+				continue;
+
+			final DatasetAttributes attributes = n5.getDatasetAttributes( pairDataset );
+			final int size = (int)attributes.getDimensions()[ 1 ];
+			final int blockLength = attributes.getBlockSize()[ 1 ];
+
+			for ( int b = 0; b * (long)blockLength < size; ++b )
+			{
+				final long[] data = (long[])readBlock( n5, pairDataset, attributes, b ).getData();
+
+				for ( int i = 0; i < data.length / 2 && b * blockLength + i < size; ++i )
+					correspondingInterestPoints.add( new CorrespondingInterestPoints( (int)data[ i * 2 ], tp, setup, label, (int)data[ i * 2 + 1 ] ) );
+			}
+		}
+
+		System.out.println( "Version: 2.0.0, " + idMap.size() + " correspondence codes" );
+
+		this.correspondingInterestPoints = correspondingInterestPoints;
+		this.storedCorrespondences = packCorrespondences( correspondingInterestPoints );
+		modifiedCorrespondingInterestPoints = false;
+
+		return true;
+	}
+
+	/**
+	 * Writes ids (1 x N) and locations (DIM x N) block by block, directly from primitive arrays.
+	 */
+	protected static void writeColumns(
+			final N5Writer n5Writer,
+			final String idDataset,
+			final String locDataset,
+			final int size,
+			final int n,
+			final IntToLongFunction id,
+			final IntIntToDoubleFunction loc )
+	{
+		n5Writer.createDataset( idDataset, new long[] { 1, size }, new int[] { 1, defaultBlockSize }, DataType.UINT64, new GzipCompression() );
+		n5Writer.createDataset( locDataset, new long[] { n, size }, new int[] { n, defaultBlockSize }, DataType.FLOAT64, new GzipCompression() );
+
+		final DatasetAttributes idAttributes = n5Writer.getDatasetAttributes( idDataset );
+		final DatasetAttributes locAttributes = n5Writer.getDatasetAttributes( locDataset );
+
+		for ( int b = 0; b * (long)defaultBlockSize < size; ++b )
+		{
+			final int offset = b * defaultBlockSize;
+			final int blockLength = Math.min( defaultBlockSize, size - offset );
+
+			final long[] ids = new long[ blockLength ];
+			final double[] locs = new double[ blockLength * n ];
+
+			for ( int i = 0; i < blockLength; ++i )
+			{
+				ids[ i ] = id.applyAsLong( offset + i );
+
+				for ( int d = 0; d < n; ++d )
+					locs[ i * n + d ] = loc.applyAsDouble( offset + i, d );
+			}
+
+			n5Writer.writeBlock( idDataset, idAttributes, new LongArrayDataBlock( new int[] { 1, blockLength }, new long[] { 0, b }, ids ) );
+			n5Writer.writeBlock( locDataset, locAttributes, new DoubleArrayDataBlock( new int[] { n, blockLength }, new long[] { 0, b }, locs ) );
+		}
+	}
+
+	@FunctionalInterface
+	protected interface IntIntToDoubleFunction
+	{
+		double applyAsDouble( int i, int d );
+	}
+
+	/**
+	 * Loads the interest points block by block directly into a {@link PackedInterestPoints}, without creating per-point objects.
+	 *
+	 * @param offHeap - store the coordinates off-heap
+	 * @return the table or null if it could not be loaded
+	 */
+	protected PackedInterestPoints loadPackedInterestPoints( final boolean offHeap )
+	{
+		try
+		{
+			final N5Reader n5 = URITools.instantiateN5Reader( StorageFormat.N5, URITools.toURI( URITools.appendName( baseDir, baseN5 ) ) );
+
+			final String dataset = ipDataset();
+
+			if (!n5.exists(dataset))
+			{
+				IOFunctions.println( "InterestPointsN5.loadPackedInterestPoints(): dataset '" + URITools.appendName( baseDir, baseN5 ) + "/" + dataset + "' does not exist, cannot load interestpoints." );
+				return null;
+			}
+
+			final String type = n5.getAttribute(dataset, "type", String.class );
+
+			if ( !type.equals("list") )
+			{
+				IOFunctions.println( "unsupported point cloud type: " + type );
+				return null;
+			}
+
+			final String idDataset = dataset + "/id";
+			final String locDataset = dataset + "/loc";
+
+			final DatasetAttributes idAttributes = n5.getDatasetAttributes( idDataset );
+			final DatasetAttributes locAttributes = n5.getDatasetAttributes( locDataset );
+
+			// empty lists are saved as 1D datasets of size 0
+			final int n = locAttributes.getNumDimensions() < 2 ? 0 : (int)locAttributes.getDimensions()[ 0 ];
+			final int size = idAttributes.getNumDimensions() < 2 ? 0 : (int)idAttributes.getDimensions()[ 1 ];
+
+			// empty list
+			if ( n == 0 || size == 0 )
+			{
+				n5.close();
+				return new PackedInterestPoints( 3, 0, offHeap );
+			}
+
+			final PackedInterestPoints table = new PackedInterestPoints( n, size, offHeap );
+
+			final int idBlockLength = idAttributes.getBlockSize()[ 1 ];
+			final int locBlockLength = locAttributes.getBlockSize()[ 1 ];
+
+			for ( int b = 0; b * (long)idBlockLength < size; ++b )
+			{
+				final long[] ids = (long[])readBlock( n5, idDataset, idAttributes, b ).getData();
+				final int offset = b * idBlockLength;
+				for ( int i = 0; i < ids.length && offset + i < size; ++i )
+					table.ids[ offset + i ] = (int)ids[ i ];
+			}
+
+			for ( int b = 0; b * (long)locBlockLength < size; ++b )
+			{
+				final double[] locs = (double[])readBlock( n5, locDataset, locAttributes, b ).getData();
+				final int offset = b * locBlockLength * n;
+				final int length = Math.min( locs.length, size * n - offset );
+				for ( int i = 0; i < length; ++i )
+					table.local.put( offset + i, locs[ i ] );
+			}
+
+			n5.close();
+
+			return table;
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "InterestPointsN5.loadPackedInterestPoints(): " + e );
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	@Override
 	protected boolean loadInterestPoints()
 	{
@@ -493,6 +1053,13 @@ public class InterestPointsN5 extends InterestPoints
 
 			final String version = n5.getAttribute(dataset, "correspondences", String.class );
 
+			if ( "2.0.0".equals( version ) )
+			{
+				final boolean success = loadCorrespondencesIncremental( n5, dataset );
+				n5.close();
+				return success;
+			}
+
 			@SuppressWarnings("unchecked")
 			final Map< String, Long > idMap = n5.getAttribute(dataset, "idMap", Map.class ); // to store ID (viewId.getTimePointId() + "," + viewId.getViewSetupId() + "," + label)
 
@@ -564,6 +1131,7 @@ public class InterestPointsN5 extends InterestPoints
 			}
 
 			this.correspondingInterestPoints = correspondingInterestPoints;
+			this.storedCorrespondences = null; // stored as version 1.0.0, will be rewritten completely
 			modifiedCorrespondingInterestPoints = false;
 
 			n5.close();
@@ -645,6 +1213,8 @@ public class InterestPointsN5 extends InterestPoints
 	
 			n5Writer.close();
 
+			storedCorrespondences = null;
+
 			return true;
 		}
 		catch ( Exception e )
@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.realtransform.AffineGet;
+
+/**
+ * Columnar storage of interest points: ids, local and (optionally) world coordinates
+ * are stored in flat primitive arrays instead of one {@link InterestPoint} object
+ * (with two {@code double[]}) per point. Coordinates can be stored off-heap.
+ * <p>
+ * Individual points are accessed through re-usable flyweight {@link Ref}s,
+ * {@link #toList()} creates {@link InterestPoint}s for code that needs them.
+ */
+public class PackedInterestPoints
+{
+	final int n;
+	final int size;
+
+	final int[] ids;
+
+	// flattened, point-major: (x0,y0,z0,x1,y1,z1,...)
+	final DoubleBuffer local;
+	DoubleBuffer world;
+
+	final boolean offHeap;
+
+	public PackedInterestPoints( final int numDimensions, final int size, final boolean offHeap )
+	{
+		this.n = numDimensions;
+		this.size = size;
+		this.offHeap = offHeap;
+		this.ids = new int[ size ];
+		this.local = allocate( numDimensions * size, offHeap );
+		this.world = null;
+	}
+
+	public static PackedInterestPoints fromList( final List< ? extends InterestPoint > list, final boolean offHeap )
+	{
+		final int n = list.size() == 0 ? 3 : list.get( 0 ).getL().length;
+		final PackedInterestPoints table = new PackedInterestPoints( n, list.size(), offHeap );
+
+		for ( int i = 0; i < list.size(); ++i )
+			table.set( i, list.get( i ).getId(), list.get( i ).getL() );
+
+		return table;
+	}
+
+	/**
+	 * @return new {@link InterestPoint}s (world coordinates are set if available)
+	 */
+	public List< InterestPoint > toList()
+	{
+		final ArrayList< InterestPoint > list = new ArrayList<>( size );
+		final double[] w = new double[ n ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final InterestPoint p = new InterestPoint( ids[ i ], getL( i, new double[ n ] ) );
+
+			if ( world != null )
+			{
+				getW( i, w );
+				for ( int d = 0; d < n; ++d )
+					p.getW()[ d ] = w[ d ];
+			}
+
+			list.add( p );
+		}
+
+		return list;
+	}
+
+	public int size() { return size; }
+	public int numDimensions() { return n; }
+	public boolean isOffHeap() { return offHeap; }
+	public boolean hasWorldCoordinates() { return world != null; }
+
+	public int getId( final int i ) { return ids[ i ]; }
+	public double getL( final int i, final int d ) { return local.get( i * n + d ); }
+	public double getW( final int i, final int d ) { return ( world == null ? local : world ).get( i * n + d ); }
+
+	public double[] getL( final int i, final double[] l )
+	{
+		for ( int d = 0; d < n; ++d )
+			l[ d ] = local.get( i * n + d );
+		return l;
+	}
+
+	public double[] getW( final int i, final double[] w )
+	{
+		final DoubleBuffer src = ( world == null ) ? local : world;
+		for ( int d = 0; d < n; ++d )
+			w[ d ] = src.get( i * n + d );
+		return w;
+	}
+
+	public void set( final int i, final int id, final double[] l )
+	{
+		ids[ i ] = id;
+		for ( int d = 0; d < n; ++d )
+			local.put( i * n + d, l[ d ] );
+	}
+
+	/**
+	 * Compute world coordinates by applying {@code transform} to the local coordinates of all points.
+	 */
+	public void transform( final AffineGet transform )
+	{
+		if ( world == null )
+			world = allocate( n * size, offHeap );
+
+		final double[] l = new double[ n ];
+		final double[] w = new double[ n ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			getL( i, l );
+			transform.apply( l, w );
+			for ( int d = 0; d < n; ++d )
+				world.put( i * n + d, w[ d ] );
+		}
+	}
+
+	/**
+	 * @return a new flyweight, pointing to point 0
+	 */
+	public Ref ref() { return new Ref(); }
+
+	/**
+	 * @return a view of all points as {@link RealLocalizable}s (world coordinates if available, otherwise local), a new flyweight is created for every {@code get}
+	 */
+	public List< RealLocalizable > positions()
+	{
+		return new AbstractList< RealLocalizable >()
+		{
+			@Override
+			public RealLocalizable get( final int i ) { return new Ref().setIndex( i ); }
+
+			@Override
+			public int size() { return size; }
+		};
+	}
+
+	/**
+	 * A flyweight view on one point of the table (world coordinates if available, otherwise local).
+	 */
+	public class Ref implements RealLocalizable
+	{
+		private int i = 0;
+
+		public Ref setIndex( final int i )
+		{
+			this.i = i;
+			return this;
+		}
+
+		public int getIndex() { return i; }
+		public int getId() { return ids[ i ]; }
+		public double getL( final int d ) { return PackedInterestPoints.this.getL( i, d ); }
+		public double getW( final int d ) { return PackedInterestPoints.this.getW( i, d ); }
+
+		public InterestPoint toInterestPoint() { return new InterestPoint( ids[ i ], PackedInterestPoints.this.getL( i, new double[ n ] ) ); }
+
+		@Override
+		public int numDimensions() { return n; }
+
+		@Override
+		public double getDoublePosition( final int d ) { return getW( d ); }
+
+		@Override
+		public float getFloatPosition( final int d ) { return ( float ) getW( d ); }
+
+		@Override
+		public void localize( final double[] position )
+		{
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = getW( d );
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = ( float ) getW( d );
+		}
+	}
+
+	private static DoubleBuffer allocate( final int length, final boolean offHeap )
+	{
+		if ( offHeap )
+			return ByteBuffer.allocateDirect( Math.multiplyExact( length, Double.BYTES ) ).order( ByteOrder.nativeOrder() ).asDoubleBuffer();
+		else
+			return DoubleBuffer.wrap( new double[ length ] );
+	}
+}
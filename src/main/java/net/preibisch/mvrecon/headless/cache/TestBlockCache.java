@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.cache;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.cache.BlockCache;
+import net.preibisch.mvrecon.cache.LoaderStatistics;
+import net.preibisch.mvrecon.cache.SharedLoaderCache;
+
+/**
+ * Accesses several caches of one {@link BlockCache} from many threads with a budget that is much
+ * smaller than the number of blocks (so blocks are evicted all the time), while other threads
+ * invalidate single caches and clear the whole cache. Afterwards the bytes held must match the
+ * blocks held, in total and per loader name, the hits and misses must match the number of accesses,
+ * and the budget must be respected.
+ */
+public class TestBlockCache
+{
+	public static void main( String[] args ) throws Exception
+	{
+		for ( int seed = 0; seed < 5; ++seed )
+			test( seed, 8, 20000, 1000, 1024, 200 );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": shared block cache accounting is consistent." );
+	}
+
+	public static void test(
+			final long seed,
+			final int numThreads,
+			final int numAccessesPerThread,
+			final int numKeys,
+			final int blockSizeInBytes,
+			final int budgetInBlocks ) throws Exception
+	{
+		final long budget = (long)budgetInBlocks * blockSizeInBytes;
+		final BlockCache blockCache = new BlockCache( budget );
+
+		// two caches share the name "a", so their statistics are combined
+		final List< SharedLoaderCache< Long, long[] > > caches = new ArrayList<>();
+		caches.add( blockCache.newLoaderCache( "a", v -> 8L * v.length ) );
+		caches.add( blockCache.newLoaderCache( "a", v -> 8L * v.length ) );
+		caches.add( blockCache.newLoaderCache( "b", v -> 8L * v.length ) );
+		caches.add( blockCache.newLoaderCache( "c", v -> 8L * v.length ) );
+
+		final AtomicLong numAccesses = new AtomicLong();
+		final AtomicLong numLoads = new AtomicLong();
+
+		final ExecutorService service = Executors.newFixedThreadPool( numThreads + 1 );
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+
+		for ( int t = 0; t < numThreads; ++t )
+		{
+			final Random rnd = new Random( seed * 1000 + t );
+
+			futures.add( service.submit( () ->
+			{
+				for ( int i = 0; i < numAccessesPerThread; ++i )
+				{
+					final SharedLoaderCache< Long, long[] > cache = caches.get( rnd.nextInt( caches.size() ) );
+
+					// mostly a small set of hot keys, so there are hits as well
+					final long key = rnd.nextDouble() < 0.7 ? rnd.nextInt( budgetInBlocks / 4 ) : rnd.nextInt( numKeys );
+
+					final long[] value = cache.get( key, k -> { numLoads.incrementAndGet(); return new long[ blockSizeInBytes / 8 ]; } );
+
+					if ( value.length != blockSizeInBytes / 8 )
+						throw new RuntimeException( "wrong value for key " + key );
+
+					numAccesses.incrementAndGet();
+				}
+
+				return null;
+			} ) );
+		}
+
+		// invalidate single caches and clear everything while the others access it
+		final Random rnd = new Random( seed );
+
+		futures.add( service.submit( () ->
+		{
+			for ( int i = 0; i < 50; ++i )
+			{
+				if ( i % 10 == 0 )
+					blockCache.clear();
+				else
+					caches.get( rnd.nextInt( caches.size() ) ).invalidateAll();
+
+				Thread.sleep( 1 );
+			}
+
+			return null;
+		} ) );
+
+		for ( final Future< ? > future : futures )
+			future.get();
+
+		service.shutdown();
+
+		// the last eviction might have been skipped because another thread was evicting already
+		blockCache.setMaxBytes( budget );
+
+		final long hits = sum( blockCache, true );
+		final long misses = sum( blockCache, false );
+		long bytes = 0, evictions = 0;
+
+		for ( final LoaderStatistics s : blockCache.getStatistics() )
+		{
+			bytes += s.getBytes();
+			evictions += s.getEvictions();
+		}
+
+		IOFunctions.println(
+				"seed=" + seed + ": accesses=" + numAccesses.get() + ", loads=" + numLoads.get() + ", hits=" + hits + ", misses=" + misses +
+				", evictions=" + evictions + ", blocks=" + blockCache.getNumBlocks() + ", bytes=" + blockCache.getCurrentBytes() + " (budget " + budget + ")" );
+
+		for ( final LoaderStatistics s : blockCache.getStatistics() )
+			IOFunctions.println( "\t" + s );
+
+		if ( hits + misses != numAccesses.get() )
+			throw new RuntimeException( "hits (" + hits + ") + misses (" + misses + ") != accesses (" + numAccesses.get() + ")" );
+
+		if ( blockCache.getCurrentBytes() != (long)blockCache.getNumBlocks() * blockSizeInBytes )
+			throw new RuntimeException( "bytes held (" + blockCache.getCurrentBytes() + ") do not match the blocks held (" + blockCache.getNumBlocks() + ")" );
+
+		if ( bytes != blockCache.getCurrentBytes() )
+			throw new RuntimeException( "bytes per loader name (" + bytes + ") do not add up to the bytes held (" + blockCache.getCurrentBytes() + ")" );
+
+		if ( blockCache.getCurrentBytes() > budget )
+			throw new RuntimeException( "budget exceeded: " + blockCache.getCurrentBytes() + " > " + budget );
+
+		if ( evictions == 0 )
+			throw new RuntimeException( "nothing was evicted, the test did not exceed the budget" );
+
+		// releasing one cache only drops its blocks
+		final long bytesB = statistics( blockCache, "b" ).getBytes();
+		caches.get( 2 ).invalidateAll();
+
+		if ( statistics( blockCache, "b" ).getBytes() != 0 || blockCache.getCurrentBytes() != bytes - bytesB )
+			throw new RuntimeException( "invalidateAll() did not release exactly the blocks of its cache" );
+
+		blockCache.clear();
+
+		if ( blockCache.getCurrentBytes() != 0 || blockCache.getNumBlocks() != 0 )
+			throw new RuntimeException( "clear() left " + blockCache.getNumBlocks() + " blocks (" + blockCache.getCurrentBytes() + " bytes)" );
+
+		for ( final LoaderStatistics s : blockCache.getStatistics() )
+			if ( s.getBytes() != 0 )
+				throw new RuntimeException( "clear() left " + s.getBytes() + " bytes for " + s.getName() );
+	}
+
+	protected static long sum( final BlockCache blockCache, final boolean hits )
+	{
+		long sum = 0;
+
+		for ( final LoaderStatistics s : blockCache.getStatistics() )
+			sum += hits ? s.getHits() : s.getMisses();
+
+		return sum;
+	}
+
+	protected static LoaderStatistics statistics( final BlockCache blockCache, final String name )
+	{
+		for ( final LoaderStatistics s : blockCache.getStatistics() )
+			if ( s.getName().equals( name ) )
+				return s;
+
+		throw new RuntimeException( "no statistics for " + name );
+	}
+}
@@ -73,6 +73,10 @@ import util.URITools;
 
 public class TestDeconvolution
 {
+	// run sequential vs. pipelined block processing first
+	public static boolean benchmarkPipeline = false;
+	public static int benchmarkIterations = 5;
+
 	public static void main( String[] args ) throws SpimDataException
 	{
 		new ImageJ();
@@ -225,6 +229,9 @@ public class TestDeconvolution
 
 			final DeconViews views = new DeconViews( deconViews, service );
 
+			if ( benchmarkPipeline )
+				benchmarkPipeline( views, psiInitFactory, cptf, psiFactory );
+
 			final MultiViewDeconvolution< ? > decon = new MultiViewDeconvolutionSeq( views, numIterations, psiInitFactory, cptf, psiFactory );
 			if ( !decon.initWasSuccessful() )
 				return;
@@ -253,6 +260,38 @@ public class TestDeconvolution
 		}
 	}
 
+	/**
+	 * Compares the sequential and the pipelined block processing of {@link MultiViewDeconvolutionSeq}
+	 * on the same input (wall time and number of temporary block images allocated per iteration)
+	 */
+	public static void benchmarkPipeline(
+			final DeconViews views,
+			final PsiInitFactory psiInitFactory,
+			final ComputeBlockThreadFactory< ComputeBlockSeqThread > cptf,
+			final ImgFactory< FloatType > psiFactory )
+	{
+		final boolean pipelined = MultiViewDeconvolutionSeq.pipelined;
+		final long[] times = new long[ 2 ];
+
+		for ( int i = 0; i < 2; ++i )
+		{
+			MultiViewDeconvolutionSeq.pipelined = ( i == 1 );
+
+			final MultiViewDeconvolution< ? > decon = new MultiViewDeconvolutionSeq( views, benchmarkIterations, psiInitFactory, cptf, psiFactory );
+			if ( !decon.initWasSuccessful() )
+				return;
+
+			final long time = System.currentTimeMillis();
+			decon.runIterations();
+			times[ i ] = System.currentTimeMillis() - time;
+		}
+
+		MultiViewDeconvolutionSeq.pipelined = pipelined;
+
+		IOFunctions.println( "Sequential: " + benchmarkIterations + " iterations took " + times[ 0 ] + " ms (" + ( times[ 0 ] / benchmarkIterations ) + " ms/iteration)" );
+		IOFunctions.println( "Pipelined: " + benchmarkIterations + " iterations took " + times[ 1 ] + " ms (" + ( times[ 1 ] / benchmarkIterations ) + " ms/iteration)" );
+	}
+
 	public static < V extends ViewId > void displayDebug( final ProcessInputImages< V > fusion )
 	{
 		int i = 0;
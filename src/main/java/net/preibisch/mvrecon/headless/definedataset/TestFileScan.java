@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.definedataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import loci.formats.ImageReader;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.CheckResult;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListViewDetectionState;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileScanCache;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2.FileMapEntry;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.util.BioformatsReaderUtils;
+
+/**
+ * Writes a small dataset (ImageJ hyperstacks of different sizes and calibrations, two channels each) and
+ * compares the views detected by scanning the files serially with one reader (as before), in parallel
+ * without the {@link FileScanCache}, and in parallel with a cache that is empty, filled, partially outdated
+ * (a file was re-written) and trimmed to fewer entries than files.
+ */
+public class TestFileScan
+{
+	public static void main( String[] args ) throws IOException
+	{
+		final Path dir = Files.createTempDirectory( "TestFileScan" );
+
+		final boolean useCache = FileScanCache.useCache;
+		final String cacheFile = FileScanCache.defaultCacheFile;
+		final int maxEntries = FileScanCache.maxEntries;
+
+		try
+		{
+			FileScanCache.defaultCacheFile = dir.resolve( "cache" ).resolve( "scan-cache.json" ).toString();
+
+			final ArrayList< File > files = new ArrayList<>();
+
+			for ( int i = 0; i < 8; ++i )
+				files.add( write( dir, "tile" + i + ".tif", 32 + i * 3, 24 + i, 3 + i % 2, 0.5 + i * 0.1 ) );
+
+			final FileListViewDetectionState serial = detectSerial( files );
+
+			FileScanCache.useCache = false;
+			compare( "parallel", serial, detectParallel( files ) );
+
+			FileScanCache.useCache = true;
+			compare( "parallel, empty cache", serial, detectParallel( files ) );
+			checkCache( dir, files.size() );
+			compare( "parallel, filled cache", serial, detectParallel( files ) );
+
+			// re-write one file with other dimensions, its entry is outdated
+			final File changed = write( dir, "tile3.tif", 51, 17, 4, 0.7 );
+			changed.setLastModified( System.currentTimeMillis() + 2000 );
+
+			final FileListViewDetectionState serialChanged = detectSerial( files );
+			compare( "parallel, partially outdated cache", serialChanged, detectParallel( files ) );
+			checkCache( dir, files.size() );
+
+			FileScanCache.maxEntries = 3;
+			compare( "parallel, trimmed cache", serialChanged, detectParallel( files ) );
+			checkCache( dir, 3 );
+			compare( "parallel, cache with fewer entries than files", serialChanged, detectParallel( files ) );
+		}
+		finally
+		{
+			FileScanCache.useCache = useCache;
+			FileScanCache.defaultCacheFile = cacheFile;
+			FileScanCache.maxEntries = maxEntries;
+
+			delete( dir.toFile() );
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": serial, parallel and cached scans detect the same views." );
+	}
+
+	public static FileListViewDetectionState detectSerial( final List< File > files )
+	{
+		final FileListViewDetectionState state = new FileListViewDetectionState();
+		final Map< File, Map< Class< ? extends Entity >, CheckResult > > multiplicityMap = new HashMap<>();
+		final List< String > usedFiles = new ArrayList<>();
+
+		final ImageReader reader = BioformatsReaderUtils.createImageReaderWithSetupHooks();
+		reader.setMetadataStore( new OMEXMLMetadataImpl() );
+
+		final ArrayList< File > sorted = new ArrayList<>( files );
+		Collections.sort( sorted );
+
+		for ( final File file : sorted )
+			if ( !usedFiles.contains( file.getAbsolutePath() ) )
+				FileListDatasetDefinitionUtil.detectViewsInFile( file, multiplicityMap, state, usedFiles, reader );
+
+		FileListDatasetDefinitionUtil.mergeMultiplicities( multiplicityMap, state );
+
+		return state;
+	}
+
+	public static FileListViewDetectionState detectParallel( final List< File > files )
+	{
+		final FileListViewDetectionState state = new FileListViewDetectionState();
+		FileListDatasetDefinitionUtil.detectViewsInFiles( new ArrayList<>( files ), state );
+		return state;
+	}
+
+	public static void compare( final String description, final FileListViewDetectionState expected, final FileListViewDetectionState actual )
+	{
+		if ( !expected.getMultiplicityMap().equals( actual.getMultiplicityMap() ) )
+			throw new RuntimeException( description + ": multiplicities differ, " + actual.getMultiplicityMap() + " instead of " + expected.getMultiplicityMap() );
+
+		for ( final Class< ? extends Entity > cl : Arrays.asList( Angle.class, TimePoint.class, Illumination.class, Tile.class, Channel.class ) )
+			if ( !expected.getAccumulateMap( cl ).equals( actual.getAccumulateMap( cl ) ) )
+				throw new RuntimeException( description + ": " + cl.getSimpleName() + "s differ, " + actual.getAccumulateMap( cl ) + " instead of " + expected.getAccumulateMap( cl ) );
+
+		if ( !expected.getGroupedFormat().equals( actual.getGroupedFormat() ) || !expected.getGroupUsageMap().equals( actual.getGroupUsageMap() ) )
+			throw new RuntimeException( description + ": grouped files differ" );
+
+		final Map< FileMapEntry, Pair< Dimensions, VoxelDimensions > > dimA = expected.getDimensionMap();
+		final Map< FileMapEntry, Pair< Dimensions, VoxelDimensions > > dimB = actual.getDimensionMap();
+
+		if ( !dimA.keySet().equals( dimB.keySet() ) )
+			throw new RuntimeException( description + ": views differ, " + dimB.keySet().size() + " instead of " + dimA.keySet().size() );
+
+		for ( final FileMapEntry view : dimA.keySet() )
+		{
+			final Pair< Dimensions, VoxelDimensions > a = dimA.get( view );
+			final Pair< Dimensions, VoxelDimensions > b = dimB.get( view );
+
+			if ( !Arrays.equals( Intervals.dimensionsAsLongArray( a.getA() ), Intervals.dimensionsAsLongArray( b.getA() ) ) ||
+					!a.getB().unit().equals( b.getB().unit() ) ||
+					!Arrays.equals( a.getB().dimensionsAsDoubleArray(), b.getB().dimensionsAsDoubleArray() ) )
+				throw new RuntimeException( description + ": dimensions of " + view.file() + ", series " + view.series() + ", channel " + view.channel() + " differ" );
+		}
+
+		IOFunctions.println( description + ": " + dimA.size() + " views, same as the serial scan." );
+	}
+
+	/**
+	 * The cache was written completely, with the expected number of entries, and no temporary file is left
+	 */
+	public static void checkCache( final Path dir, final int expectedEntries ) throws IOException
+	{
+		final int numEntries = FileScanCache.load().entries.size();
+
+		if ( numEntries != expectedEntries )
+			throw new RuntimeException( "cache has " + numEntries + " entries instead of " + expectedEntries );
+
+		final File[] cacheFiles = dir.resolve( "cache" ).toFile().listFiles();
+
+		if ( cacheFiles == null || cacheFiles.length != 1 )
+			throw new RuntimeException( "expected only the cache file in " + dir.resolve( "cache" ) + ": " + Arrays.toString( cacheFiles ) );
+	}
+
+	public static File write( final Path dir, final String name, final int width, final int height, final int depth, final double pixelSize )
+	{
+		final int numChannels = 2;
+		final ImageStack stack = new ImageStack( width, height );
+
+		for ( int z = 0; z < depth; ++z )
+			for ( int c = 0; c < numChannels; ++c )
+			{
+				final short[] pixels = new short[ width * height ];
+
+				for ( int i = 0; i < pixels.length; ++i )
+					pixels[ i ] = (short)( i + z * 10 + c * 1000 );
+
+				stack.addSlice( new ShortProcessor( width, height, pixels, null ) );
+			}
+
+		final ImagePlus imp = new ImagePlus( name, stack );
+		imp.setDimensions( numChannels, depth, 1 );
+		imp.setOpenAsHyperStack( true );
+		imp.getCalibration().pixelWidth = imp.getCalibration().pixelHeight = pixelSize;
+		imp.getCalibration().pixelDepth = 2 * pixelSize;
+		imp.getCalibration().setUnit( "um" );
+
+		final File file = dir.resolve( name ).toFile();
+
+		if ( !new FileSaver( imp ).saveAsTiff( file.getAbsolutePath() ) )
+			throw new RuntimeException( "Could not write " + file );
+
+		return file;
+	}
+
+	protected static void delete( final File file )
+	{
+		final File[] children = file.listFiles();
+
+		if ( children != null )
+			for ( final File child : children )
+				delete( child );
+
+		file.delete();
+	}
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.definedataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.smartspim.TiffPlaneReader;
+
+/**
+ * Writes 16-bit TIFFs with ImageJ (uncompressed) and Bio-Formats (uncompressed, LZW, LZW with horizontal
+ * predictor, several strips, classic and BigTIFF) in both byte orders and compares them to what
+ * {@link TiffPlaneReader} reads. The images contain smooth and noisy regions and have odd sizes, so the
+ * LZW code width grows up to 12 bits, the table is cleared and strips end in the middle of a row of codes.
+ */
+public class TestTiffPlaneReader
+{
+	public static void main( String[] args ) throws IOException, FormatException
+	{
+		final Path dir = Files.createTempDirectory( "TestTiffPlaneReader" );
+
+		int numTested = 0;
+
+		try
+		{
+			for ( final int[] size : new int[][] { { 1, 1 }, { 67, 45 }, { 301, 211 }, { 1024, 37 } } )
+			{
+				final short[] pixels = pixels( size[ 0 ], size[ 1 ], size[ 0 ] * 31 + size[ 1 ] );
+
+				for ( final boolean littleEndian : new boolean[] { true, false } )
+				{
+					test( writeImageJ( dir, pixels, size[ 0 ], size[ 1 ], littleEndian ), pixels, size[ 0 ], size[ 1 ] );
+					++numTested;
+
+					for ( final boolean bigTiff : new boolean[] { false, true } )
+						for ( final int rowsPerStrip : new int[] { 1, 16, size[ 1 ] } )
+						{
+							test( writeBioFormats( dir, pixels, size[ 0 ], size[ 1 ], littleEndian, bigTiff, TiffCompression.UNCOMPRESSED, 1, rowsPerStrip ), pixels, size[ 0 ], size[ 1 ] );
+							test( writeBioFormats( dir, pixels, size[ 0 ], size[ 1 ], littleEndian, bigTiff, TiffCompression.LZW, 1, rowsPerStrip ), pixels, size[ 0 ], size[ 1 ] );
+							test( writeBioFormats( dir, pixels, size[ 0 ], size[ 1 ], littleEndian, bigTiff, TiffCompression.LZW, 2, rowsPerStrip ), pixels, size[ 0 ], size[ 1 ] );
+							numTested += 3;
+						}
+				}
+			}
+		}
+		finally
+		{
+			for ( final File file : dir.toFile().listFiles() )
+				file.delete();
+
+			Files.deleteIfExists( dir );
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": TiffPlaneReader read " + numTested + " TIFFs correctly." );
+	}
+
+	public static void test( final Path file, final short[] expected, final int width, final int height ) throws IOException
+	{
+		final short[] actual = TiffPlaneReader.read( file, width, height );
+
+		if ( !Arrays.equals( expected, actual ) )
+		{
+			int i = 0;
+			while ( expected[ i ] == actual[ i ] )
+				++i;
+
+			throw new RuntimeException( file.getFileName() + ": pixel " + ( i % width ) + "," + ( i / width ) + " is " + ( actual[ i ] & 0xffff ) + " instead of " + ( expected[ i ] & 0xffff ) );
+		}
+
+		IOFunctions.println( file.getFileName() + ": ok." );
+	}
+
+	/**
+	 * @return a gradient (left half) and noise over the full 16-bit range (right half)
+	 */
+	public static short[] pixels( final int width, final int height, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final short[] pixels = new short[ width * height ];
+
+		for ( int y = 0; y < height; ++y )
+			for ( int x = 0; x < width; ++x )
+				pixels[ y * width + x ] = (short)( x < width / 2 ? 100 + x * 3 + y * 7 : rnd.nextInt( 65536 ) );
+
+		return pixels;
+	}
+
+	public static Path writeImageJ( final Path dir, final short[] pixels, final int width, final int height, final boolean littleEndian )
+	{
+		final Path file = dir.resolve( "imagej-" + width + "x" + height + "-" + ( littleEndian ? "II" : "MM" ) + ".tif" );
+		final boolean intelByteOrder = Prefs.intelByteOrder;
+
+		try
+		{
+			Prefs.intelByteOrder = littleEndian;
+
+			if ( !new FileSaver( new ImagePlus( "", new ShortProcessor( width, height, pixels.clone(), null ) ) ).saveAsTiff( file.toString() ) )
+				throw new RuntimeException( "ImageJ could not write " + file );
+		}
+		finally
+		{
+			Prefs.intelByteOrder = intelByteOrder;
+		}
+
+		return file;
+	}
+
+	public static Path writeBioFormats(
+			final Path dir,
+			final short[] pixels,
+			final int width,
+			final int height,
+			final boolean littleEndian,
+			final boolean bigTiff,
+			final TiffCompression compression,
+			final int predictor,
+			final int rowsPerStrip ) throws IOException, FormatException
+	{
+		final Path file = dir.resolve(
+				"bioformats-" + width + "x" + height + "-" + ( littleEndian ? "II" : "MM" ) + ( bigTiff ? "-bigtiff" : "" ) + "-" +
+				compression.getCodecName().replaceAll( "[^a-zA-Z0-9]", "" ) + "-predictor" + predictor + "-rows" + rowsPerStrip + ".tif" );
+
+		final ByteBuffer buffer = ByteBuffer.allocate( pixels.length * 2 ).order( littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+		buffer.asShortBuffer().put( pixels );
+
+		final IFD ifd = new IFD();
+		ifd.put( IFD.LITTLE_ENDIAN, littleEndian );
+		ifd.put( IFD.IMAGE_WIDTH, (long)width );
+		ifd.put( IFD.IMAGE_LENGTH, (long)height );
+		ifd.put( IFD.ROWS_PER_STRIP, new long[] { rowsPerStrip } );
+		ifd.put( IFD.COMPRESSION, compression.getCode() );
+
+		if ( predictor != 1 )
+			ifd.put( IFD.PREDICTOR, predictor );
+
+		final TiffSaver saver = new TiffSaver( file.toString() );
+
+		try
+		{
+			saver.setLittleEndian( littleEndian );
+			saver.setBigTiff( bigTiff );
+			saver.writeHeader();
+			saver.writeImage( buffer.array(), ifd, 0, FormatTools.UINT16, true );
+		}
+		finally
+		{
+			saver.close();
+		}
+
+		return file;
+	}
+}
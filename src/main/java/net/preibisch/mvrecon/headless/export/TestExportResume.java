@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.n5api.ExportManifest;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
+
+/**
+ * Simulates an export that is killed after a number of blocks and then resumed
+ * with the {@link ExportManifest}, for N5 and HDF5. Checks that setting up the
+ * pyramid again keeps the blocks that were already written, that only the missing
+ * blocks are written when resuming, and that the result is identical to an
+ * uninterrupted export.
+ */
+public class TestExportResume
+{
+	@FunctionalInterface
+	public interface WriterFactory
+	{
+		N5Writer open() throws IOException;
+	}
+
+	final static int[] blockSize = new int[] { 32, 32, 16 };
+	final static int[] computeBlockSize = new int[] { 64, 64, 32 };
+	final static int[][] downsamplings = new int[][] { { 1, 1, 1 }, { 2, 2, 1 }, { 4, 4, 2 } };
+
+	public static void main( String[] args ) throws IOException
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( 211, 173, 67 );
+
+		final Random rnd = new Random( 42 );
+		for ( final UnsignedShortType t : img )
+			t.set( rnd.nextInt( 4096 ) );
+
+		final File dir = Files.createTempDirectory( "resume" ).toFile();
+
+		testResume( img, () -> new N5FSWriter( new File( dir, "reference.n5" ).getAbsolutePath() ), () -> new N5FSWriter( new File( dir, "resumed.n5" ).getAbsolutePath() ), 5 );
+		testResume( img, () -> new N5HDF5Writer( new File( dir, "reference.h5" ).getAbsolutePath() ), () -> new N5HDF5Writer( new File( dir, "resumed.h5" ).getAbsolutePath() ), 5 );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": resumed exports are identical to the uninterrupted exports." );
+	}
+
+	public static void testResume(
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final WriterFactory reference,
+			final WriterFactory resumed,
+			final int killAfter ) throws IOException
+	{
+		final List< long[][] > grid = N5ApiTools.assembleJobs( img.dimensionsAsLongArray(), blockSize, computeBlockSize );
+
+		// uninterrupted export
+		try ( final N5Writer n5 = reference.open() )
+		{
+			export( img, n5, false, Integer.MAX_VALUE );
+		}
+
+		// export that is killed after killAfter blocks of s0
+		try ( final N5Writer n5 = resumed.open() )
+		{
+			export( img, n5, false, killAfter );
+		}
+
+		// resume, setting up the datasets again like the export does
+		try ( final N5Writer n5 = resumed.open() )
+		{
+			final MultiResolutionLevelInfo[] mrInfo = setup( n5, img.dimensionsAsLongArray() );
+			final ExportManifest manifest = new ExportManifest( n5, mrInfo[ 0 ].dataset, "", img.dimensionsAsLongArray(), computeBlockSize, true );
+
+			if ( manifest.numCompleted() != killAfter )
+				throw new RuntimeException( "Manifest lost: expected " + killAfter + " completed blocks, but found " + manifest.numCompleted() );
+
+			// the blocks written before the kill must still be there
+			final RandomAccessibleInterval< UnsignedShortType > s0 = N5Utils.open( n5, mrInfo[ 0 ].dataset );
+
+			for ( int i = 0; i < killAfter; ++i )
+				if ( numDifferent( Views.offsetInterval( img, grid.get( i )[ 0 ], grid.get( i )[ 1 ] ), Views.offsetInterval( s0, grid.get( i )[ 0 ], grid.get( i )[ 1 ] ) ) > 0 )
+					throw new RuntimeException( "Block " + i + " that was written before the kill was lost when setting up the datasets again." );
+
+			final int written = export( img, n5, true, Integer.MAX_VALUE );
+
+			if ( written != grid.size() - killAfter )
+				throw new RuntimeException( "Expected to write " + ( grid.size() - killAfter ) + " blocks of s0 when resuming, but wrote " + written );
+		}
+
+		// compare all levels
+		try ( final N5Writer n5Reference = reference.open(); final N5Writer n5Resumed = resumed.open() )
+		{
+			for ( int level = 0; level < downsamplings.length; ++level )
+			{
+				final String dataset = "s" + level;
+				final long numDifferent = numDifferent( N5Utils.open( n5Reference, dataset ), N5Utils.open( n5Resumed, dataset ) );
+
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + n5Resumed.getClass().getSimpleName() + " s" + level + ": " + numDifferent + " different pixels." );
+
+				if ( numDifferent > 0 )
+					throw new RuntimeException( "s" + level + " differs between the resumed and the uninterrupted export." );
+			}
+		}
+	}
+
+	protected static MultiResolutionLevelInfo[] setup( final N5Writer n5, final long[] dimensions )
+	{
+		return N5ApiTools.setupMultiResolutionPyramid(
+				n5, level -> "s" + level, DataType.UINT16, dimensions, new RawCompression(), blockSize, downsamplings );
+	}
+
+	/**
+	 * Exports s0 ... sN like ExportN5Api (without streaming), stops after maxBlocks blocks of s0.
+	 *
+	 * @return the number of blocks of s0 that were written
+	 */
+	protected static int export(
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final N5Writer n5,
+			final boolean resume,
+			final int maxBlocks )
+	{
+		final MultiResolutionLevelInfo[] mrInfo = setup( n5, img.dimensionsAsLongArray() );
+
+		final ExportManifest[] manifests = new ExportManifest[ mrInfo.length ];
+		for ( int level = 0; level < mrInfo.length; ++level )
+			manifests[ level ] = new ExportManifest( n5, mrInfo[ level ].dataset, "", mrInfo[ level ].dimensions, computeBlockSize, resume );
+
+		int written = 0;
+
+		for ( final long[][] gridBlock : N5ApiTools.assembleJobs( img.dimensionsAsLongArray(), blockSize, computeBlockSize ) )
+		{
+			if ( manifests[ 0 ].isComplete( gridBlock ) )
+				continue;
+
+			if ( written == maxBlocks )
+			{
+				// killed, only what was flushed so far survives
+				manifests[ 0 ].flush();
+				return written;
+			}
+
+			N5Utils.saveBlock( Views.offsetInterval( img, gridBlock[ 0 ], gridBlock[ 1 ] ), n5, mrInfo[ 0 ].dataset, gridBlock[ 2 ] );
+			manifests[ 0 ].markComplete( gridBlock );
+			++written;
+		}
+
+		manifests[ 0 ].flush();
+
+		for ( int level = 1; level < mrInfo.length; ++level )
+		{
+			for ( final long[][] gridBlock : N5ApiTools.assembleJobs( mrInfo[ level ].dimensions, blockSize, computeBlockSize ) )
+			{
+				if ( manifests[ level ].isComplete( gridBlock ) )
+					continue;
+
+				N5ApiTools.writeDownsampledBlock( n5, mrInfo[ level ], mrInfo[ level - 1 ], gridBlock );
+				manifests[ level ].markComplete( gridBlock );
+			}
+
+			manifests[ level ].flush();
+		}
+
+		return written;
+	}
+
+	protected static long numDifferent(
+			final RandomAccessibleInterval< UnsignedShortType > a,
+			final RandomAccessibleInterval< UnsignedShortType > b )
+	{
+		if ( !Intervals.equals( a, b ) )
+			throw new RuntimeException( "dimensions differ." );
+
+		final Cursor< UnsignedShortType > cA = Views.flatIterable( a ).cursor();
+		final Cursor< UnsignedShortType > cB = Views.flatIterable( b ).cursor();
+
+		long numDifferent = 0;
+
+		while ( cA.hasNext() )
+			if ( cA.next().get() != cB.next().get() )
+				++numDifferent;
+
+		return numDifferent;
+	}
+}
@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.StorageFormat;
+
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.MissingViews;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.SetupImgLoader;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.plugin.resave.ParametersResaveN5Api;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
+
+/**
+ * Resaves a small multi-view dataset (odd dimensions, a multiple of the super-block size, empty regions)
+ * as N5 in a single pass ({@link N5ApiTools#resaveSuperBlock}, used if {@link ParametersResaveN5Api#defaultSinglePass}
+ * is set) for every possible last in-memory level, and compares every level of every view against the
+ * resave that reads each level back from storage ({@link N5ApiTools#writeDownsampledBlock}). The super-blocks
+ * have seams inside the views at all levels, the last pixels of odd dimensions are dropped when downsampling,
+ * and empty blocks are skipped by saveNonEmptyBlock when splitting a super-block into dataset blocks.
+ */
+public class TestResaveSinglePass
+{
+	final static int[] blockSize = new int[] { 16, 16, 8 };
+	final static int[] computeBlockSize = new int[] { 32, 32, 16 };
+	final static int[][] downsamplings = new int[][] { { 1, 1, 1 }, { 2, 2, 1 }, { 4, 4, 2 }, { 8, 8, 4 } };
+
+	public static void main( String[] args ) throws IOException
+	{
+		final SpimData2 data = dataset( new long[][] { { 211, 173, 67 }, { 97, 131, 29 }, { 128, 64, 32 } } );
+		final List< ViewId > viewIds = new ArrayList<>( data.getSequenceDescription().getViewDescriptions().keySet() );
+
+		final File dir = Files.createTempDirectory( "resaveSinglePass" ).toFile();
+
+		long numDifferent = 0;
+
+		try ( final N5Writer reference = new N5FSWriter( new File( dir, "readback.n5" ).getAbsolutePath() ) )
+		{
+			resaveReadBack( data, viewIds, reference );
+
+			for ( int lastLevel = 0; lastLevel < downsamplings.length; ++lastLevel )
+			{
+				try ( final N5Writer n5 = new N5FSWriter( new File( dir, "singlepass-s" + lastLevel + ".n5" ).getAbsolutePath() ) )
+				{
+					resaveSinglePass( data, viewIds, n5, lastLevel );
+					numDifferent += compare( data, viewIds, reference, n5, "last in-memory level s" + lastLevel );
+				}
+			}
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": total number of different pixels: " + numDifferent );
+
+		if ( numDifferent > 0 )
+			throw new RuntimeException( "Single-pass resave differs from the read-back resave." );
+	}
+
+	/**
+	 * s0 block by block, then every level computed from the previous level read back from storage (as Resave_N5Api without single pass)
+	 */
+	public static void resaveReadBack( final SpimData2 data, final List< ViewId > viewIds, final N5Writer n5 )
+	{
+		final HashMap< ViewId, MultiResolutionLevelInfo[] > mrInfos = setup( data, viewIds, n5 );
+
+		final List< long[][] > grid = new ArrayList<>();
+
+		for ( final ViewId viewId : viewIds )
+			grid.addAll( N5ApiTools.assembleJobs( viewId, dimensions( data, viewId ), blockSize, computeBlockSize ) );
+
+		grid.parallelStream().forEach( gridBlock ->
+				N5ApiTools.resaveS0Block( data, n5, StorageFormat.N5, DataType.UINT16, N5ApiTools.gridToDatasetBdv( 0, StorageFormat.N5 ), gridBlock ) );
+
+		writeFromStorage( viewIds, n5, mrInfos, 1 );
+	}
+
+	/**
+	 * s0 ... s[lastLevel] from in-memory super-blocks, the remaining levels read back from storage (as Resave_N5Api with single pass)
+	 */
+	public static void resaveSinglePass( final SpimData2 data, final List< ViewId > viewIds, final N5Writer n5, final int lastLevel )
+	{
+		final HashMap< ViewId, MultiResolutionLevelInfo[] > mrInfos = setup( data, viewIds, n5 );
+		final int[] superBlockSize = N5ApiTools.superBlockSize( blockSize, computeBlockSize, downsamplings[ lastLevel ] );
+
+		final List< long[][] > superBlocks = new ArrayList<>();
+
+		for ( final ViewId viewId : viewIds )
+			superBlocks.addAll( N5ApiTools.assembleJobs( viewId, dimensions( data, viewId ), blockSize, superBlockSize ) );
+
+		IOFunctions.println( "s0 ... s" + lastLevel + " in memory, super-block size: " + Arrays.toString( superBlockSize ) + ", number of super-blocks: " + superBlocks.size() );
+
+		superBlocks.parallelStream().forEach( gridBlock ->
+				N5ApiTools.resaveSuperBlock( data, n5, StorageFormat.N5, mrInfos.get( N5ApiTools.gridBlockToViewId( gridBlock ) ), lastLevel, blockSize, gridBlock ) );
+
+		writeFromStorage( viewIds, n5, mrInfos, lastLevel + 1 );
+	}
+
+	protected static void writeFromStorage( final List< ViewId > viewIds, final N5Writer n5, final HashMap< ViewId, MultiResolutionLevelInfo[] > mrInfos, final int firstLevel )
+	{
+		for ( int level = firstLevel; level < downsamplings.length; ++level )
+		{
+			final int s = level;
+			final List< long[][] > allBlocks = new ArrayList<>();
+
+			for ( final ViewId viewId : viewIds )
+				allBlocks.addAll( N5ApiTools.assembleJobs( viewId, mrInfos.get( viewId )[ s ] ) );
+
+			allBlocks.parallelStream().forEach( gridBlock ->
+			{
+				final MultiResolutionLevelInfo[] mrInfo = mrInfos.get( N5ApiTools.gridBlockToViewId( gridBlock ) );
+				N5ApiTools.writeDownsampledBlock( n5, mrInfo[ s ], mrInfo[ s - 1 ], gridBlock );
+			});
+		}
+	}
+
+	protected static HashMap< ViewId, MultiResolutionLevelInfo[] > setup( final SpimData2 data, final List< ViewId > viewIds, final N5Writer n5 )
+	{
+		final HashMap< ViewId, MultiResolutionLevelInfo[] > mrInfos = new HashMap<>();
+
+		for ( final ViewId viewId : viewIds )
+			mrInfos.put( viewId, N5ApiTools.setupBdvDatasetsN5( n5, viewId, DataType.UINT16, dimensions( data, viewId ), new RawCompression(), blockSize, downsamplings ) );
+
+		return mrInfos;
+	}
+
+	protected static long compare( final SpimData2 data, final List< ViewId > viewIds, final N5Writer reference, final N5Writer n5, final String description )
+	{
+		long numDifferent = 0;
+
+		for ( final ViewId viewId : viewIds )
+			for ( int level = 0; level < downsamplings.length; ++level )
+			{
+				final String dataset = N5ApiTools.viewIdToDatasetBdv( level, StorageFormat.N5 ).apply( viewId );
+
+				final RandomAccessibleInterval< UnsignedShortType > a = N5Utils.open( reference, dataset );
+				final RandomAccessibleInterval< UnsignedShortType > b = N5Utils.open( n5, dataset );
+
+				final long different = TestExportResume.numDifferent( a, b );
+
+				IOFunctions.println( description + ", view " + Group.pvid( viewId ) + ", s" + level + " " + Arrays.toString( a.dimensionsAsLongArray() ) + ": " + different + " different pixels." );
+
+				numDifferent += different;
+			}
+
+		return numDifferent;
+	}
+
+	protected static long[] dimensions( final SpimData2 data, final ViewId viewId )
+	{
+		return data.getSequenceDescription().getViewDescription( viewId ).getViewSetup().getSize().dimensionsAsLongArray();
+	}
+
+	/**
+	 * One timepoint, one view per dimension. The left third of every view (in x) and a slab in z are empty,
+	 * the rest is noise, so differences at seams and dropped pixels cannot average out.
+	 */
+	public static SpimData2 dataset( final long[][] dimensions )
+	{
+		final HashMap< Integer, ViewSetup > setups = new HashMap<>();
+		final HashMap< Integer, ArrayImg< UnsignedShortType, ShortArray > > images = new HashMap<>();
+		final HashMap< ViewId, ViewRegistration > registrations = new HashMap<>();
+		final VoxelDimensions voxelSize = new FinalVoxelDimensions( "px", 1, 1, 1 );
+
+		for ( int setupId = 0; setupId < dimensions.length; ++setupId )
+		{
+			final long[] dim = dimensions[ setupId ];
+			final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( dim );
+			final short[] pixels = img.update( null ).getCurrentStorageArray();
+			final Random rnd = new Random( setupId );
+
+			int i = 0;
+			for ( long z = 0; z < dim[ 2 ]; ++z )
+				for ( long y = 0; y < dim[ 1 ]; ++y )
+					for ( long x = 0; x < dim[ 0 ]; ++x, ++i )
+						if ( x >= dim[ 0 ] / 3 && ( z < 8 || z >= 16 ) )
+							pixels[ i ] = (short)( 1 + rnd.nextInt( 65535 ) );
+
+			images.put( setupId, img );
+			setups.put( setupId, new ViewSetup( setupId, "setup " + setupId, new FinalDimensions( dim ), voxelSize, new Tile( setupId ), new Channel( 0 ), new Angle( 0 ), new Illumination( 0 ) ) );
+			registrations.put( new ViewId( 0, setupId ), new ViewRegistration( 0, setupId, new AffineTransform3D() ) );
+		}
+
+		final ImgLoader imgLoader = setupId -> new SetupImgLoader< UnsignedShortType >()
+		{
+			@Override
+			public RandomAccessibleInterval< UnsignedShortType > getImage( final int timepointId, final ImgLoaderHint... hints ) { return images.get( setupId ); }
+
+			@Override
+			public UnsignedShortType getImageType() { return new UnsignedShortType(); }
+
+			@Override
+			public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
+			{
+				return Converters.convert( (RandomAccessibleInterval< UnsignedShortType >) images.get( setupId ), ( in, out ) -> out.set( in.get() ), new FloatType() );
+			}
+
+			@Override
+			public Dimensions getImageSize( final int timepointId ) { return new FinalDimensions( images.get( setupId ).dimensionsAsLongArray() ); }
+
+			@Override
+			public VoxelDimensions getVoxelSize( final int timepointId ) { return voxelSize; }
+		};
+
+		final SequenceDescription sd = new SequenceDescription( new TimePoints( Arrays.asList( new TimePoint( 0 ) ) ), setups, imgLoader, new MissingViews( new ArrayList<>() ) );
+
+		return new SpimData2(
+				new File( "." ).toURI(), sd, new ViewRegistrations( registrations ),
+				new ViewInterestPoints(), new BoundingBoxes(), new PointSpreadFunctions(), new StitchingResults(), new IntensityAdjustments() );
+	}
+}
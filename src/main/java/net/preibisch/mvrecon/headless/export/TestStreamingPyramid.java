@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
+import net.preibisch.mvrecon.process.n5api.StreamingPyramid;
+
+/**
+ * Writes the same image as a multi-resolution pyramid with {@link StreamingPyramid}
+ * and with the read-back path ({@link N5ApiTools#writeDownsampledBlock}), and
+ * compares all levels. Also checks that no block of s0 is computed twice, and that
+ * a failing job does not abort the export.
+ */
+public class TestStreamingPyramid
+{
+	final static int[] blockSize = new int[] { 32, 32, 16 };
+	final static int[] computeBlockSize = new int[] { 64, 64, 32 };
+	final static int[][] downsamplings = new int[][] { { 1, 1, 1 }, { 2, 2, 1 }, { 4, 4, 2 }, { 8, 8, 4 } };
+
+	public static void main( String[] args ) throws IOException, InterruptedException, ExecutionException
+	{
+		// odd dimensions, so that the last blocks of each level are truncated
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( 301, 223, 97 );
+
+		// smooth structure plus noise, and an empty region so that saveNonEmptyBlock skips blocks
+		final Random rnd = new Random( 42 );
+		final Cursor< UnsignedShortType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			if ( c.getIntPosition( 0 ) < 150 )
+				c.get().set( ( int )( 1000 + 500 * Math.sin( c.getIntPosition( 0 ) / 7.0 ) * Math.cos( c.getIntPosition( 1 ) / 11.0 ) + rnd.nextInt( 100 ) ) );
+		}
+
+		final File readBack = Files.createTempDirectory( "readback" ).toFile();
+		final File streaming = Files.createTempDirectory( "streaming" ).toFile();
+		final File streamingFailure = Files.createTempDirectory( "streamingfailure" ).toFile();
+
+		final ForkJoinPool pool = new ForkJoinPool( 4 );
+
+		try ( final N5Writer n5ReadBack = new N5FSWriter( readBack.getAbsolutePath() );
+				final N5Writer n5Streaming = new N5FSWriter( streaming.getAbsolutePath() );
+				final N5Writer n5StreamingFailure = new N5FSWriter( streamingFailure.getAbsolutePath() ) )
+		{
+			final MultiResolutionLevelInfo[] mrInfo = writeReadBack( img, n5ReadBack, pool );
+
+			// a tiny cache so blocks are evicted, the counting converter detects re-computation of s0
+			final LongAdder s0Reads = new LongAdder();
+			final int numFailed = writeStreaming( countReads( img, s0Reads ), n5Streaming, 8, -1, pool );
+
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": s0 pixels computed=" + s0Reads.sum() + ", s0 pixels=" + Intervals.numElements( img ) );
+
+			if ( numFailed != 0 )
+				throw new RuntimeException( numFailed + " jobs failed." );
+
+			if ( s0Reads.sum() != Intervals.numElements( img ) )
+				throw new RuntimeException( "Blocks of s0 were computed more than once." );
+
+			compare( n5ReadBack, n5Streaming, mrInfo, 0 );
+
+			// one s0 job fails to write, all other jobs and all coarser levels must still be written
+			final int numFailed2 = writeStreaming( img, n5StreamingFailure, 8, 5, pool );
+
+			if ( numFailed2 != 1 )
+				throw new RuntimeException( "Expected one failed job, but got " + numFailed2 );
+
+			compare( n5ReadBack, n5StreamingFailure, mrInfo, 1 );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": all levels are identical." );
+	}
+
+	protected static MultiResolutionLevelInfo[] setup( final N5Writer n5, final long[] dimensions )
+	{
+		return N5ApiTools.setupMultiResolutionPyramid(
+				n5, level -> "s" + level, DataType.UINT16, dimensions, new RawCompression(), blockSize, downsamplings );
+	}
+
+	protected static MultiResolutionLevelInfo[] writeReadBack(
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final N5Writer n5,
+			final ForkJoinPool pool ) throws InterruptedException, ExecutionException
+	{
+		final MultiResolutionLevelInfo[] mrInfo = setup( n5, img.dimensionsAsLongArray() );
+
+		final List< long[][] > grid = N5ApiTools.assembleJobs( img.dimensionsAsLongArray(), blockSize, computeBlockSize );
+
+		pool.submit( () -> grid.parallelStream().forEach( gridBlock ->
+				N5Utils.saveBlock( Views.offsetInterval( img, gridBlock[ 0 ], gridBlock[ 1 ] ), n5, mrInfo[ 0 ].dataset, gridBlock[ 2 ] ) ) ).get();
+
+		for ( int level = 1; level < mrInfo.length; ++level )
+		{
+			final int s = level;
+			final List< long[][] > levelGrid = N5ApiTools.assembleJobs( mrInfo[ s ].dimensions, blockSize, computeBlockSize );
+
+			pool.submit( () -> levelGrid.parallelStream().forEach( gridBlock ->
+					N5ApiTools.writeDownsampledBlock( n5, mrInfo[ s ], mrInfo[ s - 1 ], gridBlock ) ) ).get();
+		}
+
+		return mrInfo;
+	}
+
+	protected static int writeStreaming(
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final N5Writer n5,
+			final long maxCacheSize,
+			final int failingS0Job,
+			final ForkJoinPool pool ) throws InterruptedException, ExecutionException
+	{
+		final MultiResolutionLevelInfo[] mrInfo = setup( n5, img.dimensionsAsLongArray() );
+		final long[][] failingGridBlock = failingS0Job < 0 ? null :
+			N5ApiTools.assembleJobs( img.dimensionsAsLongArray(), blockSize, computeBlockSize ).get( failingS0Job );
+
+		return StreamingPyramid.write(
+				img,
+				mrInfo,
+				blockSize,
+				computeBlockSize,
+				maxCacheSize,
+				( level, levelImg, gridBlock ) ->
+				{
+					if ( level == 0 && failingGridBlock != null && Arrays.equals( gridBlock[ 0 ], failingGridBlock[ 0 ] ) )
+						throw new IOException( "simulated failure" );
+
+					final RandomAccessibleInterval< UnsignedShortType > sourceGridBlock = Views.offsetInterval( levelImg, gridBlock[ 0 ], gridBlock[ 1 ] );
+
+					if ( level == 0 )
+						N5Utils.saveBlock( sourceGridBlock, n5, mrInfo[ level ].dataset, gridBlock[ 2 ] );
+					else
+						N5Utils.saveNonEmptyBlock( sourceGridBlock, n5, mrInfo[ level ].dataset, gridBlock[ 2 ], new UnsignedShortType() );
+				},
+				pool );
+	}
+
+	protected static RandomAccessibleInterval< UnsignedShortType > countReads(
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final LongAdder reads )
+	{
+		return Converters.convert( img, ( i, o ) -> { reads.increment(); o.set( i ); }, new UnsignedShortType() );
+	}
+
+	protected static void compare(
+			final N5Writer n5A,
+			final N5Writer n5B,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final int firstLevel )
+	{
+		for ( int level = firstLevel; level < mrInfo.length; ++level )
+		{
+			final RandomAccessibleInterval< UnsignedShortType > a = N5Utils.open( n5A, mrInfo[ level ].dataset );
+			final RandomAccessibleInterval< UnsignedShortType > b = N5Utils.open( n5B, mrInfo[ level ].dataset );
+
+			if ( !Intervals.equals( a, b ) )
+				throw new RuntimeException( "s" + level + ": dimensions differ." );
+
+			final Cursor< UnsignedShortType > cA = Views.flatIterable( a ).cursor();
+			final Cursor< UnsignedShortType > cB = Views.flatIterable( b ).cursor();
+
+			long numDifferent = 0;
+
+			while ( cA.hasNext() )
+				if ( cA.next().get() != cB.next().get() )
+					++numDifferent;
+
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": s" + level + " " + mrInfo[ level ].dataset + ": " + numDifferent + " different pixels." );
+
+			if ( numDifferent > 0 )
+				throw new RuntimeException( "s" + level + " differs between the streaming and the read-back pyramid." );
+		}
+	}
+}
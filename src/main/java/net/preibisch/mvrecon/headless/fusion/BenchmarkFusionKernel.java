@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.fusion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval;
+import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval.Fusion;
+import net.preibisch.mvrecon.process.fusion.transformed.FusionKernel;
+
+/**
+ * Compares the per-pixel virtual fusion (FusedRandomAccess*) with the block-wise {@link FusionKernel}
+ * on synthetic, partially overlapping and transformed views. Checks that both give identical results
+ * and reports the throughput for AVG (with and without weights), MAX and FIRST_WINS.
+ */
+public class BenchmarkFusionKernel
+{
+	public static void main( String[] args )
+	{
+		final int numViews = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 6;
+		final int cellSize = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 128;
+		final int iterations = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 5;
+
+		final Random rnd = new Random( 23 );
+		final long[] viewSize = new long[] { 256, 256, 128 };
+
+		final List< RandomAccessible< FloatType > > images = new ArrayList<>();
+		final List< RandomAccessible< FloatType > > weights = new ArrayList<>();
+
+		for ( int v = 0; v < numViews; ++v )
+		{
+			// views are shifted along x so that only some of them overlap each cell
+			final AffineTransform3D t = new AffineTransform3D();
+			t.rotate( 2, 0.05 * v );
+			t.translate( v * viewSize[ 0 ] / 3.0, rnd.nextDouble() * 10, rnd.nextDouble() * 10 );
+
+			images.add( transform( random( viewSize, rnd, 0, 1000 ), t ) );
+			weights.add( transform( random( viewSize, rnd, 0.1f, 1 ), t ) );
+		}
+
+		final Interval cell = new FinalInterval( new long[] { 64, 32, 16 }, new long[] { 64 + cellSize - 1, 32 + cellSize - 1, 16 + cellSize - 1 } );
+		final int numPixels = (int)Intervals.numElements( cell );
+
+		System.out.println( numViews + " views, cell " + cellSize + "^3 (" + numPixels + " px), " + iterations + " iterations" );
+
+		for ( final Fusion fusion : Fusion.values() )
+		{
+			benchmark( fusion, images, weights, cell, iterations );
+
+			if ( fusion == Fusion.AVG )
+				benchmark( fusion, images, null, cell, iterations );
+		}
+	}
+
+	protected static void benchmark(
+			final Fusion fusion,
+			final List< RandomAccessible< FloatType > > images,
+			final List< RandomAccessible< FloatType > > weights,
+			final Interval cell,
+			final int iterations )
+	{
+		final FusedRandomAccessibleInterval fused = new FusedRandomAccessibleInterval( cell, fusion, images, weights );
+		final int numPixels = (int)Intervals.numElements( cell );
+
+		final float[] perPixel = new float[ numPixels ];
+		final float[] kernel = new float[ numPixels ];
+
+		final FusionKernel fusionKernel = new FusionKernel( fused );
+
+		// warm-up
+		copyPerPixel( fused, perPixel );
+		fusionKernel.fuse( cell, kernel );
+
+		long timePerPixel = 0, timeKernel = 0;
+
+		for ( int i = 0; i < iterations; ++i )
+		{
+			long t = System.nanoTime();
+			copyPerPixel( fused, perPixel );
+			timePerPixel += System.nanoTime() - t;
+
+			t = System.nanoTime();
+			fusionKernel.fuse( cell, kernel );
+			timeKernel += System.nanoTime() - t;
+		}
+
+		int differences = 0;
+
+		for ( int k = 0; k < numPixels; ++k )
+			if ( Float.floatToIntBits( perPixel[ k ] ) != Float.floatToIntBits( kernel[ k ] ) )
+				++differences;
+
+		final double mpxPerPixel = ( (double)numPixels * iterations ) / ( timePerPixel / 1000.0 );
+		final double mpxKernel = ( (double)numPixels * iterations ) / ( timeKernel / 1000.0 );
+
+		System.out.println(
+				fusion + ( weights == null && fusion == Fusion.AVG ? " (no weights)" : "" ) + ": " +
+				"per-pixel " + String.format( "%.2f", mpxPerPixel ) + " Mpx/s, " +
+				"kernel " + String.format( "%.2f", mpxKernel ) + " Mpx/s, " +
+				"speedup " + String.format( "%.2f", mpxKernel / mpxPerPixel ) + "x, " +
+				"differences " + differences );
+	}
+
+	protected static void copyPerPixel( final FusedRandomAccessibleInterval fused, final float[] target )
+	{
+		final Cursor< FloatType > c = Views.flatIterable( fused ).cursor();
+
+		for ( int k = 0; k < target.length; ++k )
+			target[ k ] = c.next().get();
+	}
+
+	protected static ArrayImg< FloatType, FloatArray > random( final long[] dim, final Random rnd, final float min, final float max )
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( dim );
+
+		for ( final FloatType t : img )
+			t.set( min + rnd.nextFloat() * ( max - min ) );
+
+		return img;
+	}
+
+	protected static RandomAccessible< FloatType > transform( final ArrayImg< FloatType, FloatArray > img, final AffineTransform3D t )
+	{
+		// outside the view the value is 0, i.e. no weight
+		return RealViews.affine( Views.interpolate( Views.extendZero( img ), new NLinearInterpolatorFactory<>() ), t );
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.fusion;
+
+import static net.imglib2.algorithm.blocks.transform.Transform.Interpolation.NLINEAR;
+
+import java.util.Date;
+import java.util.Random;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockAlgoUtils;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.algorithm.blocks.transform.Transform;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.fusion.blk.Affine2D;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformedInputRandomAccess2d;
+
+/**
+ * Compares the 2D transform of {@link Affine2D#flatten} (block-based fusion of
+ * 2D views) against the 3D registration as applied by the lazy path in
+ * {@link TransformedInputRandomAccess2d}, for registrations that couple Z into
+ * XY (rotations around X/Y, translation in Z).
+ */
+public class TestAffine2D
+{
+	public static void main( String[] args )
+	{
+		final Random rnd = new Random( 42 );
+
+		double maxDiff = 0;
+
+		for ( int i = 0; i < 20; ++i )
+			maxDiff = Math.max( maxDiff, testFlatten( randomTransform( rnd ), rnd ) );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": overall max difference=" + maxDiff );
+
+		if ( maxDiff > 1e-3 )
+			throw new RuntimeException( "Affine2D.flatten() does not match the lazy 2D path (max difference=" + maxDiff + ")" );
+	}
+
+	public static double testFlatten( final AffineTransform3D transform, final Random rnd )
+	{
+		final int w = 157, h = 121;
+
+		// single-plane view as it comes from the ImgLoader
+		final ArrayImg< FloatType, FloatArray > img3d = ArrayImgs.floats( w, h, 1 );
+		for ( final FloatType t : img3d )
+			t.set( rnd.nextFloat() * 255 );
+
+		// block-based path
+		final RandomAccessibleInterval< FloatType > img2d = Views.hyperSlice( img3d, 2, 0 );
+		final BlockSupplier< FloatType > blocks = BlockSupplier.of( Views.extendBorder( img2d ) )
+				.andThen( Transform.affine( Affine2D.flatten( transform ), NLINEAR ) );
+		final RandomAccess< FloatType > blk = BlockAlgoUtils.cellImg( blocks, new long[] { w, h }, new int[] { 64, 64 } ).randomAccess();
+
+		// lazy path
+		final TransformedInputRandomAccess2d< FloatType > lazy = new TransformedInputRandomAccess2d<>(
+				img3d, transform, new NLinearInterpolatorFactory<>(), false, 0, new FloatType(), new long[] { 0, 0, 0 } );
+
+		final double[] s = new double[ 3 ];
+		final double[] t = new double[ 3 ];
+
+		double maxDiff = 0;
+		long count = 0;
+
+		for ( int y = 0; y < h; ++y )
+			for ( int x = 0; x < w; ++x )
+			{
+				s[ 0 ] = x;
+				s[ 1 ] = y;
+				transform.applyInverse( t, s );
+
+				// the lazy path only interpolates strictly inside the image
+				if ( t[ 0 ] <= 0 || t[ 1 ] <= 0 || t[ 0 ] >= w - 1 || t[ 1 ] >= h - 1 )
+					continue;
+
+				lazy.setPosition( new int[] { x, y, 0 } );
+				blk.setPosition( new int[] { x, y } );
+
+				maxDiff = Math.max( maxDiff, Math.abs( lazy.get().get() - blk.get().get() ) );
+				++count;
+			}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": compared " + count + " pixels, max difference=" + maxDiff );
+
+		return maxDiff;
+	}
+
+	protected static AffineTransform3D randomTransform( final Random rnd )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.scale( 0.8 + rnd.nextDouble() * 0.4, 0.8 + rnd.nextDouble() * 0.4, 2.0 + rnd.nextDouble() );
+		transform.rotate( 0, rnd.nextDouble() * 0.5 - 0.25 );
+		transform.rotate( 1, rnd.nextDouble() * 0.5 - 0.25 );
+		transform.rotate( 2, rnd.nextDouble() * Math.PI );
+		transform.translate( rnd.nextDouble() * 40 - 20, rnd.nextDouble() * 40 - 20, rnd.nextDouble() * 100 - 50 );
+
+		return transform;
+	}
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.fusion;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import ij.ImageJ;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.imageplus.ImagePlusImgFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI.FusionType;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.headless.boundingbox.TestBoundingBox;
+import net.preibisch.mvrecon.process.export.DisplayImage;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.blk.BlkAffineFusion;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import net.preibisch.simulation.imgloader.SimulatedBeadsImgLoader;
+
+/**
+ * Compares content-based fusion of {@link BlkAffineFusion} (blk ContentBased weights) against the
+ * {@code ContentBasedRealRandomAccessible} path of {@link FusionTools#fuseVirtual} (LazyAffineFusion).
+ */
+public class TestBlkContentBased
+{
+	public static void main( String[] args )
+	{
+		new ImageJ();
+
+		// generate 4 views with 1000 corresponding beads, single timepoint
+		SpimData2 spimData = SpimData2.convert( SimulatedBeadsImgLoader.spimdataExample( new int[]{ 0, 90, 135 } ) );
+
+		testBlkContentBased( spimData, FusionType.AVG_CONTENT );
+		testBlkContentBased( spimData, FusionType.AVG_BLEND_CONTENT );
+	}
+
+	public static double testBlkContentBased( final SpimData2 spimData, final FusionType fusionType )
+	{
+		Interval bb = TestBoundingBox.testBoundingBox( spimData, false );
+
+		// select views to process
+		final List< ViewId > viewIds = new ArrayList< ViewId >();
+		viewIds.addAll( spimData.getSequenceDescription().getViewDescriptions().values() );
+
+		// filter not present ViewIds
+		final List< ViewId > removed = SpimData2.filterMissingViews( spimData, viewIds );
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Removed " +  removed.size() + " views because they are not present." );
+
+		// adjust registrations
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						viewIds,
+						spimData.getViewRegistrations().getViewRegistrations(),
+						Double.NaN,
+						Double.NaN );
+
+		final RandomAccessibleInterval< FloatType > virtual =
+				FusionTools.fuseVirtual(
+						spimData.getSequenceDescription().getImgLoader(),
+						registrations,
+						spimData.getSequenceDescription().getViewDescriptions(),
+						viewIds, fusionType, 1, bb, null );
+
+		final RandomAccessibleInterval< FloatType > blk =
+				BlkAffineFusion.init(
+						null,
+						spimData.getSequenceDescription().getImgLoader(),
+						viewIds,
+						registrations,
+						spimData.getSequenceDescription().getViewDescriptions(),
+						fusionType,
+						1,
+						null,
+						bb,
+						new FloatType(),
+						new int[] { 64, 64, 64 } );
+
+		final RandomAccessibleInterval< FloatType > fusedImg = FusionTools.copyImg( virtual, new ImagePlusImgFactory<>( new FloatType() ), new FloatType(), null, true );
+		final RandomAccessibleInterval< FloatType > fusedBlkImg = FusionTools.copyImg( blk, new ImagePlusImgFactory<>( new FloatType() ), new FloatType(), null, true );
+
+		final Cursor< FloatType > c = Views.flatIterable( fusedImg ).cursor();
+		final Cursor< FloatType > cBlk = Views.flatIterable( fusedBlkImg ).cursor();
+
+		double maxDiff = 0;
+		double sumDiff = 0;
+		long count = 0;
+
+		while ( c.hasNext() )
+		{
+			final double diff = Math.abs( c.next().get() - cBlk.next().get() );
+			maxDiff = Math.max( maxDiff, diff );
+			sumDiff += diff;
+			++count;
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + fusionType + ": max difference=" + maxDiff + ", mean difference=" + ( sumDiff / count ) );
+
+		DisplayImage.getImagePlusInstance( fusedImg, false, "Fused (" + fusionType + ")", 0, 255 ).show();
+		DisplayImage.getImagePlusInstance( fusedBlkImg, false, "Fused Blk (" + fusionType + ")", 0, 255 ).show();
+
+		return maxDiff;
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.fusion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.collect.Sets;
+
+import ij.ImageJ;
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.imageplus.ImagePlusImgFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI.FusionType;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.headless.boundingbox.TestBoundingBox;
+import net.preibisch.mvrecon.process.deconvolution.DeconViews;
+import net.preibisch.mvrecon.process.export.DisplayImage;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.blk.BlkNonRigidFusion;
+import net.preibisch.mvrecon.process.fusion.lazy.LazyNonRigidFusion;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import util.URITools;
+
+/**
+ * Compares non-rigid fusion of {@link BlkNonRigidFusion} against
+ * {@link LazyNonRigidFusion} for all fusion types that the block-based
+ * path supports. Needs a dataset with corresponding interest points
+ * (see {@link TestNonRigid}).
+ */
+public class TestBlkNonRigid
+{
+	public static void main( String[] args ) throws SpimDataException
+	{
+		new ImageJ();
+
+		final String xml = args.length > 0 ? args[ 0 ] : "/Users/preibischs/Documents/Microscopy/SPIM/HisYFP-SPIM/dataset.xml";
+		final String bbTitle = args.length > 1 ? args[ 1 ] : "My Bounding Box";
+		final String label = args.length > 2 ? args[ 2 ] : "nuclei";
+
+		final SpimData2 spimData = new XmlIoSpimData2().load( URITools.toURI( xml ) );
+
+		for ( final FusionType fusionType : new FusionType[] { FusionType.AVG, FusionType.AVG_BLEND, FusionType.MAX, FusionType.FIRST_LOW, FusionType.FIRST_HIGH } )
+			testBlkNonRigid( spimData, bbTitle, Arrays.asList( label ), fusionType, false );
+	}
+
+	public static double testBlkNonRigid(
+			final SpimData2 spimData,
+			final String bbTitle,
+			final List< String > labels,
+			final FusionType fusionType,
+			final boolean display )
+	{
+		Interval boundingBox = TestBoundingBox.getBoundingBox( spimData, bbTitle );
+
+		if ( boundingBox == null )
+			return Double.NaN;
+
+		IOFunctions.println( BoundingBox.getBoundingBoxDescription( (BoundingBox)boundingBox ) );
+
+		// select views to process
+		final List< ViewId > viewsToFuse = new ArrayList< ViewId >(); // fuse
+		final List< ViewId > viewsToUse = new ArrayList< ViewId >(); // used to compute the non-rigid transform
+
+		viewsToUse.addAll( spimData.getSequenceDescription().getViewDescriptions().values() );
+		viewsToFuse.addAll( spimData.getSequenceDescription().getViewDescriptions().values() );
+
+		// filter not present ViewIds
+		SpimData2.filterMissingViews( spimData, viewsToUse );
+		SpimData2.filterMissingViews( spimData, viewsToFuse );
+
+		final long[] controlPointDistance = new long[] { 10, 10, 10 };
+		final double alpha = 1.0;
+		final boolean virtualGrid = false;
+		final int interpolation = 1;
+
+		// adjust registrations
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						Sets.union( new HashSet<>( viewsToFuse ), new HashSet<>( viewsToUse ) ),
+						spimData.getViewRegistrations().getViewRegistrations(),
+						Double.NaN,
+						Double.NaN );
+
+		final ExecutorService service = DeconViews.createExecutorService();
+
+		final RandomAccessibleInterval< FloatType > lazy =
+				LazyNonRigidFusion.init(
+						null,
+						spimData.getSequenceDescription().getImgLoader(),
+						registrations,
+						spimData.getViewInterestPoints().getViewInterestPoints(),
+						spimData.getSequenceDescription().getViewDescriptions(),
+						viewsToFuse,
+						viewsToUse,
+						labels,
+						fusionType,
+						false,
+						controlPointDistance,
+						alpha,
+						virtualGrid,
+						interpolation,
+						null,
+						service,
+						boundingBox,
+						new FloatType(),
+						new int[] { 64, 64, 64 } );
+
+		final RandomAccessibleInterval< FloatType > blk =
+				BlkNonRigidFusion.init(
+						null,
+						spimData.getSequenceDescription().getImgLoader(),
+						registrations,
+						spimData.getViewInterestPoints().getViewInterestPoints(),
+						spimData.getSequenceDescription().getViewDescriptions(),
+						viewsToFuse,
+						viewsToUse,
+						labels,
+						fusionType,
+						false,
+						controlPointDistance,
+						alpha,
+						virtualGrid,
+						interpolation,
+						null,
+						service,
+						boundingBox,
+						new FloatType(),
+						new int[] { 64, 64, 64 } );
+
+		final RandomAccessibleInterval< FloatType > fusedImg = FusionTools.copyImg( lazy, new ImagePlusImgFactory<>( new FloatType() ), new FloatType(), null, true );
+		final RandomAccessibleInterval< FloatType > fusedBlkImg = FusionTools.copyImg( blk, new ImagePlusImgFactory<>( new FloatType() ), new FloatType(), null, true );
+
+		service.shutdown();
+
+		final Cursor< FloatType > c = Views.flatIterable( fusedImg ).cursor();
+		final Cursor< FloatType > cBlk = Views.flatIterable( fusedBlkImg ).cursor();
+
+		double maxDiff = 0;
+		double sumDiff = 0;
+		long count = 0;
+
+		while ( c.hasNext() )
+		{
+			final double diff = Math.abs( c.next().get() - cBlk.next().get() );
+			maxDiff = Math.max( maxDiff, diff );
+			sumDiff += diff;
+			++count;
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + fusionType + ": max difference=" + maxDiff + ", mean difference=" + ( sumDiff / count ) );
+
+		if ( display )
+		{
+			DisplayImage.getImagePlusInstance( fusedImg, false, "Lazy Non-rigid (" + fusionType + ")", 0, 255 ).show();
+			DisplayImage.getImagePlusInstance( fusedBlkImg, false, "Blk Non-rigid (" + fusionType + ")", 0, 255 ).show();
+		}
+
+		return maxDiff;
+	}
+}
@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.fusion;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import net.preibisch.mvrecon.process.export.FusionJob;
+import net.preibisch.mvrecon.process.export.FusionJobWorker;
+
+/**
+ * Two {@link FusionJobWorker}s claim the ranges and the pyramid lock of one job in a temporary directory,
+ * first with fresh locks, then with stale locks. Every lock must be owned by exactly one worker.
+ */
+public class TestFusionJobWorkerLocks
+{
+	public static int numRanges = 200;
+
+	public static void main( String[] args ) throws Exception
+	{
+		final Path dir = Files.createTempDirectory( "fusionjob" );
+
+		try
+		{
+			final FusionJob job = new FusionJob();
+			job.grid = new long[ numRanges ][][];
+			job.blocksPerRange = 1;
+
+			for ( int i = 0; i < numRanges; ++i )
+				job.grid[ i ] = new long[][] { { i, 0, 0 }, { 1, 1, 1 }, { i, 0, 0 } };
+
+			final Path jobFile = dir.resolve( "fused.json" );
+			job.save( jobFile );
+
+			final LockWorker w1 = new LockWorker( jobFile );
+			final LockWorker w2 = new LockWorker( jobFile );
+
+			// fresh locks
+			check( "fresh", claimAll( w1, w2 ) );
+
+			// both workers died, all locks are stale now
+			final long old = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis( 10 );
+
+			try ( final Stream< Path > locks = Files.list( FusionJobWorker.lockDirectory( jobFile ) ) )
+			{
+				for ( final Path lock : (Iterable< Path >)locks::iterator )
+					Files.setLastModifiedTime( lock, FileTime.fromMillis( old ) );
+			}
+
+			check( "stale", claimAll( w1, w2 ) );
+
+			// re-claimed locks are fresh again
+			final boolean[][] again = claimAll( w1, w2 );
+
+			for ( int i = 0; i <= numRanges; ++i )
+				if ( again[ 0 ][ i ] || again[ 1 ][ i ] )
+					throw new RuntimeException( "lock " + i + " was claimed although it is not stale." );
+
+			System.out.println( "All locks were claimed by exactly one worker." );
+		}
+		finally
+		{
+			try ( final Stream< Path > files = Files.walk( dir ) )
+			{
+				files.sorted( Comparator.reverseOrder() ).forEach( f -> f.toFile().delete() );
+			}
+		}
+	}
+
+	/**
+	 * @return for both workers which ranges (0 ... numRanges-1) and whether the pyramid lock (numRanges) they own
+	 */
+	public static boolean[][] claimAll( final LockWorker w1, final LockWorker w2 ) throws Exception
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( 2 );
+		final CyclicBarrier barrier = new CyclicBarrier( 2 );
+
+		try
+		{
+			final List< Future< boolean[] > > futures = new ArrayList<>();
+
+			for ( final LockWorker w : new LockWorker[] { w1, w2 } )
+				futures.add( service.submit( () ->
+				{
+					final boolean[] owns = new boolean[ numRanges + 1 ];
+
+					// start at the same time to maximize contention
+					barrier.await();
+
+					for ( int range = 0; range < numRanges; ++range )
+						owns[ range ] = w.claimRange( range );
+
+					owns[ numRanges ] = w.claimPyramid();
+
+					return owns;
+				} ) );
+
+			return new boolean[][] { futures.get( 0 ).get(), futures.get( 1 ).get() };
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	public static void check( final String title, final boolean[][] owns )
+	{
+		for ( int i = 0; i <= numRanges; ++i )
+			if ( owns[ 0 ][ i ] == owns[ 1 ][ i ] )
+				throw new RuntimeException( title + ": lock " + i + " is owned by " + ( owns[ 0 ][ i ] ? "both workers" : "no worker" ) + "." );
+
+		System.out.println( title + ": ok." );
+	}
+
+	public static class LockWorker extends FusionJobWorker
+	{
+		final Path jobFile;
+
+		public LockWorker( final Path jobFile ) throws IOException
+		{
+			super( jobFile, 1 );
+			this.jobFile = jobFile;
+		}
+
+		public boolean claimRange( final int range ) throws IOException
+		{
+			return claim( range );
+		}
+
+		public boolean claimPyramid() throws IOException
+		{
+			return claimLock( lockDirectory( jobFile ).resolve( pyramidLock ) );
+		}
+	}
+}
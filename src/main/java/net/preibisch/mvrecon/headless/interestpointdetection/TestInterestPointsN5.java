@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.interestpointdetection;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsN5;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.PackedInterestPoints;
+
+/**
+ * Round-trip of interest points and correspondences through {@link InterestPointsN5}:
+ * save, append correspondences, remove the correspondences with one (ViewId, label),
+ * rewrite with a partially removed list, and load again from disc after every step.
+ * A small block size makes sure appends start in a partially filled block.
+ */
+public class TestInterestPointsN5
+{
+	public static void main( String[] args ) throws IOException
+	{
+		InterestPointsN5.defaultBlockSize = 97;
+
+		final URI baseDir = Files.createTempDirectory( "interestpoints" ).toUri();
+		final ViewId viewId = new ViewId( 0, 0 );
+		final ViewId viewIdA = new ViewId( 0, 1 );
+		final ViewId viewIdB = new ViewId( 0, 2 );
+		final String label = "beads";
+
+		final Random rnd = new Random( 42 );
+
+		// interest points
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+		for ( int i = 0; i < 1000; ++i )
+			points.add( new InterestPoint( i, new double[] { rnd.nextDouble() * 1000, rnd.nextDouble() * 1000, rnd.nextDouble() * 100 } ) );
+
+		final InterestPoints ipl = InterestPoints.newInstance( baseDir, viewId, label );
+		ipl.setInterestPoints( points );
+		ipl.setCorrespondingInterestPoints( new ArrayList<>() );
+		check( ipl.saveInterestPoints( false ), "saving interest points" );
+
+		final InterestPointsN5 loadedPoints = ( InterestPointsN5 ) InterestPoints.instantiatefromXML( baseDir, ipl.getXMLRepresentation() );
+		final PackedInterestPoints table = loadedPoints.getPackedInterestPoints( false );
+		check( table != null && table.size() == points.size(), "loading packed interest points" );
+		check( keys( table.toList() ).equals( keys( points ) ), "interest points differ after loading" );
+		check( keys( loadedPoints.getInterestPointsCopy() ).equals( keys( points ) ), "interest points (list) differ after loading" );
+
+		// initial correspondences
+		final ArrayList< CorrespondingInterestPoints > corr = new ArrayList<>();
+		addRandom( corr, viewIdA, label, 250, rnd );
+		addRandom( corr, viewIdB, label, 130, rnd );
+
+		ipl.setCorrespondingInterestPoints( corr );
+		roundTrip( baseDir, ipl, corr, "initial save" );
+
+		check( "2.0.0".equals( new N5FSReader( new File( new File( baseDir ), InterestPointsN5.baseN5 ).getAbsolutePath() ).getAttribute(
+				( ( InterestPointsN5 ) ipl ).corrDataset(), "correspondences", String.class ) ), "new correspondences are not stored as version 2.0.0" );
+
+		// append to (viewIdA, label), starting inside a partially filled block
+		final ArrayList< CorrespondingInterestPoints > appended = new ArrayList<>( corr );
+		addRandom( appended, viewIdA, label, 180, rnd );
+
+		ipl.setCorrespondingInterestPoints( appended );
+		roundTrip( baseDir, ipl, appended, "append" );
+
+		// remove all correspondences with (viewIdB, label)
+		( ( InterestPointsN5 ) ipl ).setCorrespondingInterestPoints( viewIdB, label, new ArrayList<>() );
+		final ArrayList< CorrespondingInterestPoints > removed = new ArrayList<>();
+		for ( final CorrespondingInterestPoints c : appended )
+			if ( !c.getCorrespondingViewId().equals( viewIdB ) )
+				removed.add( c );
+
+		roundTrip( baseDir, ipl, removed, "remove (ViewId, label)" );
+
+		// remove some correspondences of (viewIdA, label), which needs a rewrite
+		final ArrayList< CorrespondingInterestPoints > partial = new ArrayList<>();
+		for ( int i = 0; i < removed.size(); ++i )
+			if ( i % 3 != 0 )
+				partial.add( removed.get( i ) );
+
+		ipl.setCorrespondingInterestPoints( partial );
+		roundTrip( baseDir, ipl, partial, "partial removal" );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": all round-trips successful." );
+	}
+
+	protected static void roundTrip(
+			final URI baseDir,
+			final InterestPoints ipl,
+			final List< CorrespondingInterestPoints > expected,
+			final String step )
+	{
+		check( ipl.saveCorrespondingInterestPoints( false ), step + ": saving correspondences" );
+
+		final InterestPoints loaded = InterestPoints.instantiatefromXML( baseDir, ipl.getXMLRepresentation() );
+		final List< CorrespondingInterestPoints > loadedCorr = loaded.getCorrespondingInterestPointsCopy();
+
+		check( loadedCorr != null && loadedCorr.size() == expected.size(), step + ": expected " + expected.size() + " correspondences, loaded " + ( loadedCorr == null ? null : loadedCorr.size() ) );
+		check( corrKeys( loadedCorr ).equals( corrKeys( expected ) ), step + ": correspondences differ after loading" );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + step + ": " + loadedCorr.size() + " correspondences ok." );
+	}
+
+	protected static void addRandom(
+			final List< CorrespondingInterestPoints > list,
+			final ViewId correspondingViewId,
+			final String label,
+			final int count,
+			final Random rnd )
+	{
+		final TreeSet< String > existing = corrKeys( list );
+
+		for ( int i = 0; i < count; )
+		{
+			final CorrespondingInterestPoints c = new CorrespondingInterestPoints( rnd.nextInt( 1000 ), correspondingViewId, label, rnd.nextInt( 1000 ) );
+
+			if ( existing.add( corrKey( c ) ) )
+			{
+				list.add( c );
+				++i;
+			}
+		}
+	}
+
+	protected static TreeSet< String > keys( final List< InterestPoint > points )
+	{
+		final TreeSet< String > keys = new TreeSet<>();
+		for ( final InterestPoint p : points )
+			keys.add( p.getId() + ":" + p.getL()[ 0 ] + "," + p.getL()[ 1 ] + "," + p.getL()[ 2 ] );
+		return keys;
+	}
+
+	protected static String corrKey( final CorrespondingInterestPoints c )
+	{
+		return c.getDetectionId() + "," + c.getCorrespondingViewId().getTimePointId() + "," + c.getCorrespondingViewId().getViewSetupId() + "," + c.getCorrespodingLabel() + "," + c.getCorrespondingDetectionId();
+	}
+
+	protected static TreeSet< String > corrKeys( final List< CorrespondingInterestPoints > list )
+	{
+		final TreeSet< String > keys = new TreeSet<>();
+		for ( final CorrespondingInterestPoints c : list )
+			keys.add( corrKey( c ) );
+		return keys;
+	}
+
+	protected static void check( final boolean condition, final String message )
+	{
+		if ( !condition )
+			throw new RuntimeException( message );
+	}
+}
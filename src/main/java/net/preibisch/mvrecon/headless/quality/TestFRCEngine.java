@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.quality;
+
+import java.util.Random;
+
+import ij.process.FloatProcessor;
+import net.imglib2.Cursor;
+import net.imglib2.Point;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.quality.FRC;
+import net.preibisch.mvrecon.process.quality.FRCEngine;
+import net.preibisch.mvrecon.process.quality.FRCRealRandomAccessible;
+
+/**
+ * Compares the 2D FRC curves and integrals of {@link FRCEngine} to the ImageJ FHT path
+ * ({@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}) on a fixed synthetic image.
+ */
+public class TestFRCEngine
+{
+	// maximal absolute difference of a single FRC value
+	public static double maxCurveError = 1e-3;
+
+	// maximal relative difference of the FRC integral
+	public static double maxIntegralError = 1e-3;
+
+	public static void main( String[] args )
+	{
+		final RandomAccessible< FloatType > img = Views.extendMirrorSingle( createImage( 256, 256, 16, 4711 ) );
+
+		// even, odd and non power of two sizes
+		for ( final int length : new int[] { 64, 100, 127, 128 } )
+			for ( final Point l : new Point[] { new Point( 128, 128, 5 ), new Point( 60, 190, 10 ), new Point( 10, 10, 2 ) } )
+				compare( img, l, length );
+
+		System.out.println( "FRCEngine matches the FHT path." );
+	}
+
+	public static void compare( final RandomAccessible< FloatType > img, final Point l, final int length )
+	{
+		final int x = l.getIntPosition( 0 );
+		final int y = l.getIntPosition( 1 );
+		final int z = l.getIntPosition( 2 );
+
+		final FloatProcessor fp1 = FRCRealRandomAccessible.getFloatProcessor( img, x, y, z - 1, length );
+		final FloatProcessor fp2 = FRCRealRandomAccessible.getFloatProcessor( img, x, y, z + 1, length );
+
+		final double[][] curveFHT = new FRC().calculateFrcCurve( fp1, fp2 );
+		final double[][] curveEngine = new FRCEngine().calculateFrcCurve( img, x, y, z - 1, z + 1, length );
+
+		if ( curveFHT.length != curveEngine.length )
+			throw new RuntimeException( "length=" + length + ", " + l + ": curve length differs, FHT=" + curveFHT.length + ", engine=" + curveEngine.length );
+
+		double maxError = 0;
+
+		for ( int i = 0; i < curveFHT.length; ++i )
+		{
+			if ( curveFHT[ i ][ 0 ] != curveEngine[ i ][ 0 ] || curveFHT[ i ][ 2 ] != curveEngine[ i ][ 2 ] )
+				throw new RuntimeException( "length=" + length + ", " + l + ": radius or sample count of ring " + i + " differs." );
+
+			maxError = Math.max( maxError, Math.abs( curveFHT[ i ][ 1 ] - curveEngine[ i ][ 1 ] ) );
+		}
+
+		final double integralFHT = FRCRealRandomAccessible.computeFRC( img, l, length );
+		final double integralEngine = new FRCEngine().computeFRC( img, l, length, false );
+		final double integralError = Math.abs( integralFHT - integralEngine ) / Math.max( 1e-10, Math.abs( integralFHT ) );
+
+		System.out.println( "length=" + length + ", " + l + ": max curve error=" + maxError + ", integral FHT=" + integralFHT + ", engine=" + integralEngine );
+
+		if ( maxError > maxCurveError )
+			throw new RuntimeException( "length=" + length + ", " + l + ": FRC curves differ by " + maxError );
+
+		if ( integralError > maxIntegralError )
+			throw new RuntimeException( "length=" + length + ", " + l + ": FRC integrals differ by " + integralError );
+	}
+
+	/**
+	 * @return a reproducible image of blurred blobs plus noise, the blobs are shared by neighboring planes
+	 */
+	public static ArrayImg< FloatType, FloatArray > createImage( final int w, final int h, final int d, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( w, h, d );
+
+		final int numBlobs = 200;
+		final double[][] blobs = new double[ numBlobs ][];
+
+		for ( int i = 0; i < numBlobs; ++i )
+			blobs[ i ] = new double[] { rnd.nextDouble() * w, rnd.nextDouble() * h, rnd.nextDouble() * d, 1 + rnd.nextDouble() * 4, 50 + rnd.nextDouble() * 200 };
+
+		final Cursor< FloatType > c = img.localizingCursor();
+
+		while ( c.hasNext() )
+		{
+			final FloatType t = c.next();
+
+			double v = 10 + rnd.nextGaussian() * 5;
+
+			for ( final double[] b : blobs )
+			{
+				final double dx = c.getDoublePosition( 0 ) - b[ 0 ];
+				final double dy = c.getDoublePosition( 1 ) - b[ 1 ];
+				final double dz = ( c.getDoublePosition( 2 ) - b[ 2 ] ) * 2;
+
+				v += b[ 4 ] * Math.exp( -( dx * dx + dy * dy + dz * dz ) / ( 2 * b[ 3 ] * b[ 3 ] ) );
+			}
+
+			t.set( (float)v );
+		}
+
+		return img;
+	}
+}
@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.registration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import mpicbg.models.TranslationModel3D;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.ConcurrentTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.LeastSquaresTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SerialTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SolverStatistics;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.TileSolver;
+
+/**
+ * Solves synthetic grids of tiles with known translations or affines with {@link LeastSquaresTileSolver}
+ * and with TileConfiguration.optimize (i.e. {@link SerialTileSolver}). Without noise the least-squares
+ * solution must be the ground truth, with noise its error must not be larger than the one of the
+ * iterative optimization. If {@link #benchmark} is set, the solvers are timed on a grid of 5041 tiles.
+ */
+public class TestLeastSquaresTileSolver
+{
+	public static boolean benchmark = false;
+
+	// tiles of 100x100x50 pixels on a 90 pixel grid, i.e. 10 pixels overlap
+	public static double tileSize = 100, tileDepth = 50, gridSpacing = 90;
+	public static int pointsPerPair = 20;
+
+	public static void main( String[] args ) throws Exception
+	{
+		for ( final boolean affine : new boolean[] { false, true } )
+		{
+			test( 6, 5, affine, 0.0, 1 );
+			test( 8, 7, affine, 0.5, 2 );
+			test( 10, 10, affine, 1.0, 3 );
+		}
+
+		System.out.println( "LeastSquaresTileSolver matches the ground truth and TileConfiguration.optimize." );
+
+		if ( benchmark )
+			for ( final boolean affine : new boolean[] { false, true } )
+				benchmark( 71, 71, affine, 0.5, 4 );
+	}
+
+	public static void test( final int nx, final int ny, final boolean affine, final double noise, final long seed ) throws Exception
+	{
+		final String title = nx + "x" + ny + ( affine ? " affine" : " translation" ) + ", noise=" + noise;
+
+		final ArrayList< AffineTransform3D > groundTruth = groundTruth( nx, ny, affine, new Random( seed ) );
+
+		final TileConfiguration tcLS = new TileConfiguration();
+		final List< Tile< ? > > tilesLS = createTiles( nx, ny, affine, noise, groundTruth, new Random( seed ), tcLS );
+		final SolverStatistics statsLS = new LeastSquaresTileSolver().solve( tcLS, tilesLS, new ConvergenceStrategy( 0.0, 100000, 1000 ) );
+
+		final TileConfiguration tcIt = new TileConfiguration();
+		final List< Tile< ? > > tilesIt = createTiles( nx, ny, affine, noise, groundTruth, new Random( seed ), tcIt );
+		final SolverStatistics statsIt = new SerialTileSolver().solve( tcIt, tilesIt, new ConvergenceStrategy( 0.0, 100000, 1000 ) );
+
+		final double errorLS = maxDeviation( tilesLS, groundTruth );
+		final double errorIt = maxDeviation( tilesIt, groundTruth );
+		final double diff = maxDeviation( tilesLS, tilesIt );
+
+		System.out.println( title + ": least-squares avg error=" + statsLS.getAvgError() + " (" + statsLS.getTimeMillis() + " ms, max deviation from ground truth=" + errorLS + "px), " +
+				"iterative avg error=" + statsIt.getAvgError() + " (" + statsIt.getTimeMillis() + " ms, max deviation from ground truth=" + errorIt + "px), max difference=" + diff + "px" );
+
+		if ( noise == 0 && errorLS > 1e-3 )
+			throw new RuntimeException( title + ": least-squares solution deviates from the ground truth by " + errorLS + "px" );
+
+		if ( statsLS.getAvgError() > statsIt.getAvgError() * 1.01 + 1e-3 )
+			throw new RuntimeException( title + ": least-squares error " + statsLS.getAvgError() + " is larger than the iterative error " + statsIt.getAvgError() );
+
+		if ( diff > 0.5 )
+			throw new RuntimeException( title + ": least-squares and iterative solutions differ by " + diff + "px" );
+	}
+
+	public static void benchmark( final int nx, final int ny, final boolean affine, final double noise, final long seed ) throws Exception
+	{
+		final ArrayList< AffineTransform3D > groundTruth = groundTruth( nx, ny, affine, new Random( seed ) );
+
+		for ( final TileSolver solver : new TileSolver[] { new LeastSquaresTileSolver(), new ConcurrentTileSolver(), new SerialTileSolver() } )
+		{
+			final TileConfiguration tc = new TileConfiguration();
+			final List< Tile< ? > > tiles = createTiles( nx, ny, affine, noise, groundTruth, new Random( seed ), tc );
+
+			final SolverStatistics stats = solver.solve( tc, tiles, new ConvergenceStrategy( 0.0, 10000, 200 ) );
+
+			System.out.println( nx * ny + " tiles" + ( affine ? " affine" : " translation" ) + ": " + stats + ", max deviation from ground truth=" + maxDeviation( tiles, groundTruth ) + "px" );
+		}
+	}
+
+	/**
+	 * @return the transformations of all tiles (local to world), a grid with random offsets and, if affine, random small linear distortions
+	 */
+	public static ArrayList< AffineTransform3D > groundTruth( final int nx, final int ny, final boolean affine, final Random rnd )
+	{
+		final ArrayList< AffineTransform3D > groundTruth = new ArrayList<>();
+
+		for ( int y = 0; y < ny; ++y )
+			for ( int x = 0; x < nx; ++x )
+			{
+				final AffineTransform3D t = new AffineTransform3D();
+
+				if ( affine )
+					for ( int r = 0; r < 3; ++r )
+						for ( int c = 0; c < 3; ++c )
+							t.set( ( r == c ? 1.0 : 0.0 ) + rnd.nextGaussian() * 0.01, r, c );
+
+				t.set( x * gridSpacing + rnd.nextGaussian() * 3, 0, 3 );
+				t.set( y * gridSpacing + rnd.nextGaussian() * 3, 1, 3 );
+				t.set( rnd.nextGaussian() * 3, 2, 3 );
+
+				groundTruth.add( t );
+			}
+
+		return groundTruth;
+	}
+
+	/**
+	 * Creates one tile per grid position, connects neighbors (including diagonals) with point matches in their
+	 * overlap and initializes the models with the nominal grid position. The first tile is fixed at the ground truth.
+	 */
+	public static List< Tile< ? > > createTiles(
+			final int nx,
+			final int ny,
+			final boolean affine,
+			final double noise,
+			final List< AffineTransform3D > groundTruth,
+			final Random rnd,
+			final TileConfiguration tc ) throws Exception
+	{
+		final ArrayList< Tile< ? > > tiles = new ArrayList<>();
+
+		for ( int y = 0; y < ny; ++y )
+			for ( int x = 0; x < nx; ++x )
+			{
+				final AffineTransform3D init = new AffineTransform3D();
+				init.set( x * gridSpacing, 0, 3 );
+				init.set( y * gridSpacing, 1, 3 );
+
+				final AffineTransform3D t = tiles.size() == 0 ? groundTruth.get( 0 ) : init;
+
+				if ( affine )
+				{
+					final AffineModel3D model = new AffineModel3D();
+					model.set( t.get( 0, 0 ), t.get( 0, 1 ), t.get( 0, 2 ), t.get( 0, 3 ), t.get( 1, 0 ), t.get( 1, 1 ), t.get( 1, 2 ), t.get( 1, 3 ), t.get( 2, 0 ), t.get( 2, 1 ), t.get( 2, 2 ), t.get( 2, 3 ) );
+					tiles.add( new Tile<>( model ) );
+				}
+				else
+				{
+					final TranslationModel3D model = new TranslationModel3D();
+					model.set( t.get( 0, 3 ), t.get( 1, 3 ), t.get( 2, 3 ) );
+					tiles.add( new Tile<>( model ) );
+				}
+			}
+
+		for ( int y = 0; y < ny; ++y )
+			for ( int x = 0; x < nx; ++x )
+				for ( final int[] n : new int[][] { { 1, 0 }, { 0, 1 }, { 1, 1 }, { -1, 1 } } )
+				{
+					final int x2 = x + n[ 0 ];
+					final int y2 = y + n[ 1 ];
+
+					if ( x2 < 0 || x2 >= nx || y2 >= ny )
+						continue;
+
+					final int a = y * nx + x;
+					final int b = y2 * nx + x2;
+
+					final AffineTransform3D invA = groundTruth.get( a ).inverse();
+					final AffineTransform3D invB = groundTruth.get( b ).inverse();
+
+					// the nominal overlap in world coordinates
+					final double minX = Math.max( x, x2 ) * gridSpacing, maxX = Math.min( x, x2 ) * gridSpacing + tileSize;
+					final double minY = Math.max( y, y2 ) * gridSpacing, maxY = Math.min( y, y2 ) * gridSpacing + tileSize;
+
+					final ArrayList< PointMatch > matches = new ArrayList<>();
+
+					for ( int i = 0; i < pointsPerPair; ++i )
+					{
+						final double[] world = new double[] { minX + rnd.nextDouble() * ( maxX - minX ), minY + rnd.nextDouble() * ( maxY - minY ), rnd.nextDouble() * tileDepth };
+						final double[] pA = new double[ 3 ];
+						final double[] pB = new double[ 3 ];
+
+						invA.apply( world, pA );
+
+						for ( int d = 0; d < 3; ++d )
+							world[ d ] += rnd.nextGaussian() * noise;
+
+						invB.apply( world, pB );
+
+						matches.add( new PointMatch( new Point( pA ), new Point( pB ) ) );
+					}
+
+					tiles.get( a ).connect( tiles.get( b ), matches );
+				}
+
+		tc.addTiles( tiles );
+		tc.fixTile( tiles.get( 0 ) );
+
+		return tiles;
+	}
+
+	/**
+	 * @return the maximal distance of the corners of all tiles transformed by the models of the tiles and by the ground truth
+	 */
+	public static double maxDeviation( final List< Tile< ? > > tiles, final List< AffineTransform3D > groundTruth )
+	{
+		double max = 0;
+
+		for ( int i = 0; i < tiles.size(); ++i )
+			for ( final double[] corner : corners() )
+			{
+				final double[] p = corner.clone();
+				final double[] q = new double[ 3 ];
+
+				tiles.get( i ).getModel().applyInPlace( p );
+				groundTruth.get( i ).apply( corner, q );
+
+				max = Math.max( max, distance( p, q ) );
+			}
+
+		return max;
+	}
+
+	/**
+	 * @return the maximal distance of the corners of all tiles transformed by the models of both tile lists
+	 */
+	public static double maxDeviation( final List< Tile< ? > > tilesA, final List< Tile< ? > > tilesB )
+	{
+		double max = 0;
+
+		for ( int i = 0; i < tilesA.size(); ++i )
+			for ( final double[] corner : corners() )
+			{
+				final double[] p = corner.clone();
+				final double[] q = corner.clone();
+
+				tilesA.get( i ).getModel().applyInPlace( p );
+				tilesB.get( i ).getModel().applyInPlace( q );
+
+				max = Math.max( max, distance( p, q ) );
+			}
+
+		return max;
+	}
+
+	protected static double[][] corners()
+	{
+		final double[][] corners = new double[ 8 ][];
+
+		for ( int i = 0; i < 8; ++i )
+			corners[ i ] = new double[] { ( i & 1 ) * tileSize, ( ( i >> 1 ) & 1 ) * tileSize, ( ( i >> 2 ) & 1 ) * tileDepth };
+
+		return corners;
+	}
+
+	protected static double distance( final double[] p, final double[] q )
+	{
+		return Math.sqrt( ( p[ 0 ] - q[ 0 ] ) * ( p[ 0 ] - q[ 0 ] ) + ( p[ 1 ] - q[ 1 ] ) * ( p[ 1 ] - q[ 1 ] ) + ( p[ 2 ] - q[ 2 ] ) * ( p[ 2 ] - q[ 2 ] ) );
+	}
+}
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.registration;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm.RGLDMMatcher;
+
+/**
+ * Compares the correspondence candidates of {@link RGLDMMatcher} with the indexed (KD-tree) search
+ * against the exhaustive search, with and without a limited search radius, on seeded point clouds
+ * (a rotated, translated and jittered copy with missing and additional points). Also reports the
+ * speed-up of the indexed search.
+ */
+public class TestRGLDMIndexedSearch
+{
+	public static void main( String[] args )
+	{
+		final boolean defaultUseIndexedSearch = RGLDMMatcher.useIndexedSearch;
+
+		long numDifferent = 0;
+
+		try
+		{
+			for ( int seed = 0; seed < 10; ++seed )
+			{
+				numDifferent += compare( seed, 2000, 3, 1, 3.0, Double.MAX_VALUE, false, 0 );
+				numDifferent += compare( seed, 2000, 3, 1, 3.0, Double.MAX_VALUE, true, 50 );
+				numDifferent += compare( seed, 2000, 3, 2, 2.0, 100, false, 0 );
+			}
+
+			// regular grid, many (almost) identical descriptors
+			numDifferent += compareGrid( 3, 1, 3.0 );
+		}
+		finally
+		{
+			RGLDMMatcher.useIndexedSearch = defaultUseIndexedSearch;
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": total number of different correspondences: " + numDifferent );
+
+		if ( numDifferent > 0 )
+			throw new RuntimeException( "Indexed and exhaustive search are not equivalent." );
+	}
+
+	public static long compare(
+			final long seed,
+			final int numPoints,
+			final int numNeighbors,
+			final int redundancy,
+			final double ratioOfDistance,
+			final double differenceThreshold,
+			final boolean limitSearchRadius,
+			final double searchRadius )
+	{
+		final Random rnd = new Random( seed );
+
+		final ArrayList< InterestPoint > listA = new ArrayList<>();
+		final ArrayList< InterestPoint > listB = new ArrayList<>();
+
+		final AffineTransform3D t = new AffineTransform3D();
+		t.rotate( 0, rnd.nextDouble() * 0.2 );
+		t.rotate( 2, rnd.nextDouble() * 0.2 );
+		t.translate( rnd.nextDouble() * 20, rnd.nextDouble() * 20, rnd.nextDouble() * 5 );
+
+		final double[] w = new double[ 3 ];
+		int idB = 0;
+
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			final double[] l = new double[] { rnd.nextDouble() * 500, rnd.nextDouble() * 500, rnd.nextDouble() * 100 };
+			listA.add( new InterestPoint( i, l ) );
+
+			// 10% missing in B
+			if ( rnd.nextDouble() < 0.1 )
+				continue;
+
+			t.apply( l, w );
+			listB.add( new InterestPoint( idB++, new double[] { w[ 0 ] + rnd.nextGaussian() * 0.5, w[ 1 ] + rnd.nextGaussian() * 0.5, w[ 2 ] + rnd.nextGaussian() * 0.5 } ) );
+		}
+
+		// 10% additional points in B
+		for ( int i = 0; i < numPoints / 10; ++i )
+			listB.add( new InterestPoint( idB++, new double[] { rnd.nextDouble() * 500, rnd.nextDouble() * 500, rnd.nextDouble() * 100 } ) );
+
+		return compare( "seed=" + seed + ", limitSearchRadius=" + limitSearchRadius + ", redundancy=" + redundancy,
+				listA, listB, numNeighbors, redundancy, ratioOfDistance, differenceThreshold, limitSearchRadius, searchRadius );
+	}
+
+	public static long compareGrid(
+			final int numNeighbors,
+			final int redundancy,
+			final double ratioOfDistance )
+	{
+		final ArrayList< InterestPoint > listA = new ArrayList<>();
+		final ArrayList< InterestPoint > listB = new ArrayList<>();
+
+		int id = 0;
+		for ( int z = 0; z < 5; ++z )
+			for ( int y = 0; y < 12; ++y )
+				for ( int x = 0; x < 12; ++x )
+				{
+					listA.add( new InterestPoint( id, new double[] { x * 10, y * 10, z * 10 } ) );
+					listB.add( new InterestPoint( id++, new double[] { x * 10 + 3, y * 10 + 3, z * 10 } ) );
+				}
+
+		return compare( "grid", listA, listB, numNeighbors, redundancy, ratioOfDistance, Double.MAX_VALUE, false, 0 );
+	}
+
+	protected static long compare(
+			final String description,
+			final ArrayList< InterestPoint > listA,
+			final ArrayList< InterestPoint > listB,
+			final int numNeighbors,
+			final int redundancy,
+			final double ratioOfDistance,
+			final double differenceThreshold,
+			final boolean limitSearchRadius,
+			final double searchRadius )
+	{
+		RGLDMMatcher.useIndexedSearch = false;
+		long time = System.currentTimeMillis();
+		final HashSet< String > exhaustive = pairs( new RGLDMMatcher< InterestPoint >().extractCorrespondenceCandidates(
+				listA, listB, numNeighbors, redundancy, ratioOfDistance, differenceThreshold, limitSearchRadius, searchRadius ) );
+		final long timeExhaustive = System.currentTimeMillis() - time;
+
+		RGLDMMatcher.useIndexedSearch = true;
+		time = System.currentTimeMillis();
+		final HashSet< String > indexed = pairs( new RGLDMMatcher< InterestPoint >().extractCorrespondenceCandidates(
+				listA, listB, numNeighbors, redundancy, ratioOfDistance, differenceThreshold, limitSearchRadius, searchRadius ) );
+		final long timeIndexed = System.currentTimeMillis() - time;
+
+		final HashSet< String > onlyExhaustive = new HashSet<>( exhaustive );
+		onlyExhaustive.removeAll( indexed );
+
+		final HashSet< String > onlyIndexed = new HashSet<>( indexed );
+		onlyIndexed.removeAll( exhaustive );
+
+		IOFunctions.println(
+				description + ": exhaustive=" + exhaustive.size() + " (" + timeExhaustive + " ms), indexed=" + indexed.size() + " (" + timeIndexed + " ms), " +
+				"only exhaustive=" + onlyExhaustive.size() + ", only indexed=" + onlyIndexed.size() );
+
+		return onlyExhaustive.size() + onlyIndexed.size();
+	}
+
+	protected static HashSet< String > pairs( final List< PointMatchGeneric< InterestPoint > > candidates )
+	{
+		final HashSet< String > pairs = new HashSet<>();
+
+		for ( final PointMatchGeneric< InterestPoint > pm : candidates )
+			pairs.add( pm.getPoint1().getId() + "-" + pm.getPoint2().getId() );
+
+		return pairs;
+	}
+}
@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.registration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalDimensions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.AllToAllRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SpatialIndexOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.AllInRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.ReferenceTimepointRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.TimepointRange;
+
+/**
+ * Compares the overlapping pairs of {@link SpatialIndexOverlap} (used by default, see
+ * BasicRegistrationParameters.useSpatialIndex) to the exhaustive search, i.e. all pairs
+ * followed by {@link PairwiseSetup#removeNonOverlappingPairs}, on random tile configurations.
+ * Then moves some views, re-indexes only them with {@link SpatialIndexOverlap#update(ViewId)} and
+ * compares again (pairs and the overlapping views of each moved view).
+ */
+public class TestSpatialIndexOverlap
+{
+	public static void main( String[] args )
+	{
+		for ( long seed = 0; seed < 20; ++seed )
+			test( seed );
+
+		System.out.println( "SpatialIndexOverlap returns the same pairs as the exhaustive search." );
+	}
+
+	public static void test( final long seed )
+	{
+		final Random rnd = new Random( seed );
+
+		final int numTimepoints = 1 + rnd.nextInt( 4 );
+		final int numSetups = 5 + rnd.nextInt( 60 );
+
+		final HashMap< Integer, BasicViewSetup > setups = new HashMap<>();
+		final HashMap< ViewId, ViewRegistration > registrations = new HashMap<>();
+		final ArrayList< ViewId > views = new ArrayList<>();
+
+		for ( int s = 0; s < numSetups; ++s )
+			setups.put( s, new BasicViewSetup( s, "setup " + s, new FinalDimensions( 50 + rnd.nextInt( 200 ), 50 + rnd.nextInt( 200 ), 10 + rnd.nextInt( 50 ) ), new FinalVoxelDimensions( "px", 1, 1, 1 ) ) );
+
+		for ( int t = 0; t < numTimepoints; ++t )
+			for ( int s = 0; s < numSetups; ++s )
+			{
+				final ViewId viewId = new ViewId( t, s );
+
+				// a rough grid with random offsets, some views are rotated and some are far away
+				final AffineTransform3D transform = new AffineTransform3D();
+
+				if ( rnd.nextInt( 4 ) == 0 )
+					transform.rotate( rnd.nextInt( 3 ), rnd.nextDouble() * Math.PI );
+
+				transform.translate(
+						( s % 8 ) * 150 + rnd.nextGaussian() * 40,
+						( s / 8 ) * 150 + rnd.nextGaussian() * 40,
+						rnd.nextInt( 10 ) == 0 ? 10000 : rnd.nextGaussian() * 20 );
+
+				registrations.put( viewId, new ViewRegistration( t, s, transform ) );
+				views.add( viewId );
+			}
+
+		// group some views of the same timepoint
+		final HashSet< Group< ViewId > > groups = new HashSet<>();
+
+		for ( int i = 0; i + 1 < views.size(); i += 2 )
+			if ( rnd.nextBoolean() )
+			{
+				final Group< ViewId > group = new Group<>();
+				group.getViews().add( views.get( i ) );
+				group.getViews().add( views.get( i + 1 ) );
+				groups.add( group );
+			}
+			else
+			{
+				groups.add( new Group<>( views.get( i ) ) );
+				groups.add( new Group<>( views.get( i + 1 ) ) );
+			}
+
+		if ( views.size() % 2 == 1 )
+			groups.add( new Group<>( views.get( views.size() - 1 ) ) );
+
+		final ArrayList< RangeComparator< ViewId > > comparators = new ArrayList<>();
+		comparators.add( new AllInRange<>() );
+		comparators.add( new TimepointRange<>( 1 ) );
+		comparators.add( new ReferenceTimepointRange<>( 0 ) );
+
+		for ( final RangeComparator< ViewId > comparator : comparators )
+		{
+			final SimpleBoundingBoxOverlap< ViewId > bruteForce = new SimpleBoundingBoxOverlap<>( setups, registrations );
+			final SpatialIndexOverlap< ViewId > spatialIndex = new SpatialIndexOverlap<>( setups, registrations );
+
+			final List< Pair< ViewId, ViewId > > expected = new ArrayList<>();
+
+			for ( final Pair< ViewId, ViewId > pair : AllToAllRange.allPairs( views, groups, comparator ) )
+				if ( bruteForce.overlaps( pair.getA(), pair.getB() ) )
+					expected.add( pair );
+
+			final List< Pair< ViewId, ViewId > > actual = spatialIndex.overlappingPairs( views, groups, comparator );
+
+			if ( expected.size() != actual.size() )
+				throw new RuntimeException( "seed=" + seed + ", " + comparator.getClass().getSimpleName() + ": " + actual.size() + " pairs instead of " + expected.size() );
+
+			for ( int i = 0; i < expected.size(); ++i )
+				if ( !expected.get( i ).getA().equals( actual.get( i ).getA() ) || !expected.get( i ).getB().equals( actual.get( i ).getB() ) )
+					throw new RuntimeException( "seed=" + seed + ", " + comparator.getClass().getSimpleName() + ": pair " + i + " differs, " +
+							Group.pvid( actual.get( i ).getA() ) + "<>" + Group.pvid( actual.get( i ).getB() ) + " instead of " +
+							Group.pvid( expected.get( i ).getA() ) + "<>" + Group.pvid( expected.get( i ).getB() ) );
+
+			System.out.println( "seed=" + seed + ", " + views.size() + " views, " + comparator.getClass().getSimpleName() + ": " + actual.size() + " overlapping pairs, ok." );
+		}
+
+		testUpdate( seed, rnd, setups, registrations, views, groups );
+	}
+
+	/**
+	 * Moves some views of an index that is in use, only these views are updated
+	 */
+	public static void testUpdate(
+			final long seed,
+			final Random rnd,
+			final HashMap< Integer, BasicViewSetup > setups,
+			final HashMap< ViewId, ViewRegistration > registrations,
+			final ArrayList< ViewId > views,
+			final HashSet< Group< ViewId > > groups )
+	{
+		final RangeComparator< ViewId > comparator = new AllInRange<>();
+		final SpatialIndexOverlap< ViewId > spatialIndex = new SpatialIndexOverlap<>( setups, registrations );
+
+		// index all views with the current registrations
+		spatialIndex.overlappingPairs( views, groups, comparator );
+
+		final ArrayList< ViewId > moved = new ArrayList<>();
+
+		for ( final ViewId viewId : views )
+		{
+			if ( rnd.nextInt( 5 ) != 0 )
+				continue;
+
+			// far (beyond other views in x), close or onto another view
+			final AffineTransform3D transform = registrations.get( viewId ).getModel().copy();
+			final int type = rnd.nextInt( 3 );
+
+			if ( type == 0 )
+				transform.translate( ( rnd.nextBoolean() ? 1 : -1 ) * 5000, 0, 0 );
+			else if ( type == 1 )
+				transform.translate( rnd.nextGaussian() * 100, rnd.nextGaussian() * 100, rnd.nextGaussian() * 20 );
+			else
+				transform.set( registrations.get( views.get( rnd.nextInt( views.size() ) ) ).getModel() );
+
+			registrations.put( viewId, new ViewRegistration( viewId.getTimePointId(), viewId.getViewSetupId(), transform ) );
+			spatialIndex.update( viewId );
+			moved.add( viewId );
+		}
+
+		final SimpleBoundingBoxOverlap< ViewId > bruteForce = new SimpleBoundingBoxOverlap<>( setups, registrations );
+
+		final List< Pair< ViewId, ViewId > > expected = new ArrayList<>();
+
+		for ( final Pair< ViewId, ViewId > pair : AllToAllRange.allPairs( views, groups, comparator ) )
+			if ( bruteForce.overlaps( pair.getA(), pair.getB() ) )
+				expected.add( pair );
+
+		final List< Pair< ViewId, ViewId > > actual = spatialIndex.overlappingPairs( views, groups, comparator );
+
+		if ( expected.size() != actual.size() )
+			throw new RuntimeException( "seed=" + seed + ", after update: " + actual.size() + " pairs instead of " + expected.size() );
+
+		for ( int i = 0; i < expected.size(); ++i )
+			if ( !expected.get( i ).getA().equals( actual.get( i ).getA() ) || !expected.get( i ).getB().equals( actual.get( i ).getB() ) )
+				throw new RuntimeException( "seed=" + seed + ", after update: pair " + i + " differs, " +
+						Group.pvid( actual.get( i ).getA() ) + "<>" + Group.pvid( actual.get( i ).getB() ) + " instead of " +
+						Group.pvid( expected.get( i ).getA() ) + "<>" + Group.pvid( expected.get( i ).getB() ) );
+
+		for ( final ViewId viewId : moved )
+		{
+			final HashSet< ViewId > expectedViews = new HashSet<>();
+
+			for ( final ViewId other : views )
+				if ( !other.equals( viewId ) && bruteForce.overlaps( viewId, other ) )
+					expectedViews.add( other );
+
+			final HashSet< ViewId > actualViews = new HashSet<>( spatialIndex.overlappingViews( viewId ) );
+
+			if ( !expectedViews.equals( actualViews ) )
+				throw new RuntimeException( "seed=" + seed + ", after update: view " + Group.pvid( viewId ) + " overlaps with " +
+						actualViews.size() + " views instead of " + expectedViews.size() );
+		}
+
+		System.out.println( "seed=" + seed + ", moved " + moved.size() + " views, updated index: " + actual.size() + " overlapping pairs, ok." );
+	}
+}
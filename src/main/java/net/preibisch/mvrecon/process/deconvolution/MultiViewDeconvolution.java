@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.process.deconvolution;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Vector;
@@ -30,6 +31,9 @@ import ij.CompositeImage;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.numeric.real.FloatType;
@@ -51,7 +55,7 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 	public static int defaultBlendingRange = 12;
 	public static int defaultBlendingBorder = -8;
 	public static int cellDim = 32;
-	public static int maxCacheSize = 10000;
+	public static int maxCacheSize = 10000; // max num cached blocks of input images & weights, 0 means the shared memory budget (BlockCache)
 
 	// for additional smoothing of weights in areas where many views contribute less than 100%
 	public static float maxDiffRange = 0.1f;
@@ -134,6 +138,39 @@ public abstract class MultiViewDeconvolution< C extends ComputeBlockThread >
 		}
 	}
 
+	/**
+	 * Creates a factory for an out-of-core deconvolved image (psi). Cells are kept in a bounded (LRU) cache
+	 * of at most {@code maxMemory} bytes, evicted cells are written to a scratch directory and paged in again
+	 * when the next block copies them. Deconvolution only ever touches the cells of the blocks being processed,
+	 * so the size of psi is no longer limited by the available RAM.
+	 *
+	 * @param cellDim - the cell size of psi (should be smaller than the compute blocks)
+	 * @param maxMemory - the memory budget of the cache in bytes
+	 * @param scratchDirectory - where to store evicted cells, null for the system temp directory
+	 * @return the factory to create psi
+	 */
+	public static ImgFactory< FloatType > createOutOfCorePsiFactory( final int cellDim, final long maxMemory, final Path scratchDirectory )
+	{
+		final long bytesPerCell = (long)cellDim * cellDim * cellDim * 4;
+		final long maxNumCells = Math.max( 1, maxMemory / bytesPerCell );
+
+		DiskCachedCellImgOptions options = DiskCachedCellImgOptions.options()
+				.cellDimensions( cellDim )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( maxNumCells )
+				.dirtyAccesses( true )
+				.deleteTempFilesOnExit( true );
+
+		if ( scratchDirectory != null )
+			options = options.tempDirectory( scratchDirectory );
+
+		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Out-of-core deconvolved image, cell size " + cellDim +
+				", keeping at most " + maxNumCells + " cells (" + ( maxNumCells * bytesPerCell / ( 1024 * 1024 ) ) + " MB) in memory, scratch directory: " +
+				( scratchDirectory == null ? "(system temp)" : scratchDirectory ) );
+
+		return new DiskCachedCellImgFactory<>( new FloatType(), options );
+	}
+
 	public boolean initWasSuccessful() { return max != null; }
 	public Img< FloatType > getPSI() { return psi; }
 	public void setDebug( final boolean debug ) { this.debug = debug; }
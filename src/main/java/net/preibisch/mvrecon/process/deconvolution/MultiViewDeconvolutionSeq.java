@@ -22,9 +22,14 @@
  */
 package net.preibisch.mvrecon.process.deconvolution;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.img.Img;
@@ -35,6 +40,7 @@ import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.process.cuda.Block;
 import net.preibisch.mvrecon.process.deconvolution.init.PsiInitFactory;
 import net.preibisch.mvrecon.process.deconvolution.iteration.ComputeBlockThread.IterationStatistics;
@@ -44,6 +50,25 @@ import net.preibisch.mvrecon.process.fusion.FusionTools;
 
 public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBlockSeqThread >
 {
+	/**
+	 * If true, every block thread prefetches psi, image and weights of its next block while the current block is
+	 * computed, block threads run on a persistent thread pool, and all temporary block images are taken from a pool.
+	 * If false, each batch copies, computes and saves its blocks strictly one after the other (as before).
+	 *
+	 * Off by default until the results have been compared against the sequential path (headless TestDeconvolution).
+	 * Note that it needs per block thread one more psi block and two more image/weight blocks.
+	 */
+	public static boolean pipelined = false;
+
+	// persistent threads driving the block threads, and the threads that prefetch their next blocks
+	ExecutorService blockService, prefetchService;
+
+	// reusable temporary block images (prefetched image/weight blocks and blocks waiting for write-back)
+	final BlockImgPool blockImgPool;
+
+	// per block thread a second psiBlockTmp, the next block's psi is prefetched into it and then swapped in
+	Img< FloatType >[] nextPsiBlocks;
+
 	public MultiViewDeconvolutionSeq(
 			final DeconViews views,
 			final int numIterations,
@@ -52,6 +77,29 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 			final ImgFactory< FloatType > psiFactory )
 	{
 		super( views, numIterations, psiInitFactory, computeBlockFactory, psiFactory );
+
+		// in flight are at most: per block thread the image and weight of the current and the prefetched next block,
+		// and the blocks of two batches waiting for write-back (psi is prefetched into a second psiBlockTmp per thread)
+		int maxBatchSize = 0;
+
+		for ( final DeconView view : views.getViews() )
+			for ( final List< Block > batch : view.getNonInterferingBlocks() )
+				maxBatchSize = Math.max( maxBatchSize, batch.size() );
+
+		this.blockImgPool = new BlockImgPool( computeBlockThreads.get( 0 ).getPsiBlockTmp(), computeBlockThreads.size() * 4 + maxBatchSize * 2 );
+	}
+
+	@Override
+	public void runIterations()
+	{
+		try
+		{
+			super.runIterations();
+		}
+		finally
+		{
+			shutdownThreads();
+		}
 	}
 
 	@Override
@@ -64,6 +112,212 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 
 		IOFunctions.println( "iteration: " + it + " (" + new Date(System.currentTimeMillis()) + ")" );
 
+		final long time = System.currentTimeMillis();
+		final int numBlockImgs = blockImgPool.numCreated();
+
+		boolean success = false;
+
+		try
+		{
+			if ( pipelined )
+				runNextIterationPipelined();
+			else
+				runNextIterationSequential();
+
+			success = true;
+		}
+		finally
+		{
+			// the threads are re-created if another iteration is run
+			if ( !success || it >= numIterations )
+				shutdownThreads();
+		}
+
+		IOFunctions.println( "iteration: " + it + " took " + ( System.currentTimeMillis() - time ) + " ms, allocated " +
+				( blockImgPool.numCreated() - numBlockImgs ) + " new temporary block image(s) (" + blockImgPool.numCreated() + " in total)." );
+	}
+
+	protected void shutdownThreads()
+	{
+		if ( blockService != null )
+			blockService.shutdownNow();
+
+		if ( prefetchService != null )
+			prefetchService.shutdownNow();
+
+		blockService = prefetchService = null;
+
+		// a cancelled prefetch might still write into them
+		nextPsiBlocks = null;
+	}
+
+	protected void runNextIterationPipelined()
+	{
+		final int numThreads = computeBlockThreads.size();
+
+		if ( blockService == null )
+		{
+			blockService = Threads.createFixedExecutorService( numThreads );
+			prefetchService = Threads.createFixedExecutorService( numThreads );
+		}
+
+		if ( nextPsiBlocks == null )
+		{
+			@SuppressWarnings( "unchecked" )
+			final Img< FloatType >[] tmp = new Img[ numThreads ];
+
+			for ( int t = 0; t < numThreads; ++t )
+				tmp[ t ] = blockImgPool.create();
+
+			nextPsiBlocks = tmp;
+		}
+
+		int v = 0;
+
+		for ( final DeconView view : views.getViews() )
+		{
+			final int viewNum = v;
+
+			final int totalNumBlocks = view.getNumBlocks();
+			final Vector< IterationStatistics > stats = new Vector<>();
+
+			int currentTotalBlock = 0;
+
+			// keep the last blocks to be written back to the global psi image once it is not overlapping anymore
+			final Vector< Pair< Pair< Integer, Block >, Img< FloatType > > > previousBlockWritebackQueue = new Vector<>();
+			final Vector< Pair< Pair< Integer, Block >, Img< FloatType > > > currentBlockWritebackQueue = new Vector<>();
+
+			int batch = 0;
+			for ( final List< Block > blocksBatch : view.getNonInterferingBlocks() )
+			{
+				final int numBlocksBefore = currentTotalBlock;
+				final int numBlocksBatch = blocksBatch.size();
+				currentTotalBlock += numBlocksBatch;
+
+				System.out.println( "Processing " + numBlocksBatch + " blocks from batch " + (++batch) + "/" + view.getNonInterferingBlocks().size() );
+
+				// psi does not change while a batch is computed (blocks are written back after the next batch),
+				// so all blocks of a batch can be prefetched while others are being computed
+				final AtomicInteger ai = new AtomicInteger();
+				final ArrayList< Future< Void > > futures = new ArrayList<>();
+
+				for ( int t = 0; t < numThreads; ++t )
+				{
+					final int threadId = t;
+					final ComputeBlockSeqThread blockThread = computeBlockThreads.get( t );
+
+					futures.add( blockService.submit( () ->
+					{
+						int blockId = ai.getAndIncrement();
+
+						Future< PrefetchedBlock > next = null;
+
+						if ( blockId < numBlocksBatch )
+							next = prefetch( view, blocksBatch.get( blockId ), blockId + numBlocksBefore, nextPsiBlocks[ threadId ] );
+
+						while ( next != null )
+						{
+							final PrefetchedBlock current = next.get();
+
+							// the prefetched psi becomes psiBlockTmp, the previous one (already copied to the write-back queue) takes the next block
+							nextPsiBlocks[ threadId ] = blockThread.swapPsiBlockTmp( current.psi );
+
+							// start loading the next block before computing this one
+							blockId = ai.getAndIncrement();
+
+							if ( blockId < numBlocksBatch )
+								next = prefetch( view, blocksBatch.get( blockId ), blockId + numBlocksBefore, nextPsiBlocks[ threadId ] );
+							else
+								next = null;
+
+							long time = System.currentTimeMillis();
+
+							stats.add( blockThread.runIteration(
+									view,
+									current.block,
+									current.img,
+									current.weight,
+									max[ viewNum ],
+									view.getPSF().getKernel1(),
+									view.getPSF().getKernel2() ) );
+
+							blockImgPool.release( current.img );
+							blockImgPool.release( current.weight );
+
+							System.out.println( " block " + current.blockId + ", thread (" + (blockThread.getId()+1) + "/" + numThreads + "), (CPU): compute " + (System.currentTimeMillis() - time) );
+
+							if ( totalNumBlocks == 1 )
+							{
+								current.block.pasteBlock( psi, blockThread.getPsiBlockTmp() );
+							}
+							else
+							{
+								// copy to the writequeue
+								final Img< FloatType > tmp = blockImgPool.get();
+								FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
+								currentBlockWritebackQueue.add( new ValuePair<>( new ValuePair<>( current.blockId, current.block ), tmp ) );
+							}
+						}
+
+						return null;
+					} ) );
+				}
+
+				try
+				{
+					for ( final Future< Void > future : futures )
+						future.get();
+				}
+				catch ( InterruptedException | ExecutionException e )
+				{
+					throw new RuntimeException( "Failed to process blocks of batch " + batch + ": " + e, e );
+				}
+
+				// write back previous list of blocks
+				writeBack( psi, previousBlockWritebackQueue );
+
+				for ( final Pair< Pair< Integer, Block >, Img< FloatType > > writtenBack : previousBlockWritebackQueue )
+					blockImgPool.release( writtenBack.getB() );
+
+				previousBlockWritebackQueue.clear();
+				previousBlockWritebackQueue.addAll( currentBlockWritebackQueue );
+				currentBlockWritebackQueue.clear();
+
+			} // finish one block batch
+
+			// write back last list of blocks
+			writeBack( psi, previousBlockWritebackQueue );
+
+			for ( final Pair< Pair< Integer, Block >, Img< FloatType > > writtenBack : previousBlockWritebackQueue )
+				blockImgPool.release( writtenBack.getB() );
+
+			printStatistics( view, viewNum, stats );
+
+			++v;
+		}// finish view
+	}
+
+	protected Future< PrefetchedBlock > prefetch( final DeconView view, final Block block, final int blockId, final Img< FloatType > psiBlock )
+	{
+		return prefetchService.submit( () ->
+		{
+			final long time = System.currentTimeMillis();
+
+			final Img< FloatType > imgBlock = blockImgPool.get();
+			final Img< FloatType > weightBlock = blockImgPool.get();
+
+			block.copyBlock( Views.extendMirrorSingle( psi ), psiBlock );
+			FusionTools.copyImg( Views.zeroMin( Views.interval( Views.extendZero( view.getImage() ), block ) ), imgBlock, views.getExecutorService(), false );
+			FusionTools.copyImg( Views.zeroMin( Views.interval( Views.extendZero( view.getWeight() ), block ) ), weightBlock, views.getExecutorService(), false );
+
+			System.out.println( " block " + blockId + ", " + Util.printInterval( block ) + ", (CPU): prefetch " + (System.currentTimeMillis() - time) );
+
+			return new PrefetchedBlock( blockId, block, psiBlock, imgBlock, weightBlock );
+		} );
+	}
+
+	protected void runNextIterationSequential()
+	{
 		int v = 0;
 
 		for ( final DeconView view : views.getViews() )
@@ -135,7 +389,7 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 								else
 								{
 									// copy to the writequeue
-									final Img< FloatType > tmp = blockThread.getPsiBlockTmp().factory().create( blockThread.getPsiBlockTmp(), new FloatType() );
+									final Img< FloatType > tmp = blockImgPool.create();
 									FusionTools.copyImg( blockThread.getPsiBlockTmp(), tmp, views.getExecutorService(), false );
 									currentBlockWritebackQueue.add( new ValuePair<>( new ValuePair<>( blockIdOut, blockStruct ), tmp ) );
 
@@ -161,21 +415,85 @@ public class MultiViewDeconvolutionSeq extends MultiViewDeconvolution< ComputeBl
 			// write back last list of blocks
 			writeBack( psi, previousBlockWritebackQueue );
 
-			// accumulate the results from the individual blocks
-			final IterationStatistics is = new IterationStatistics();
+			printStatistics( view, viewNum, stats );
 
-			for ( int i = 0; i < stats.size(); ++i )
-			{
-				is.sumChange += stats.get( i ).sumChange;
-				is.maxChange = Math.max( is.maxChange, stats.get( i ).maxChange );
-			}
+			++v;
+		}// finish view
+	}
+
+	protected void printStatistics( final DeconView view, final int viewNum, final List< IterationStatistics > stats )
+	{
+		// accumulate the results from the individual blocks
+		final IterationStatistics is = new IterationStatistics();
+
+		for ( int i = 0; i < stats.size(); ++i )
+		{
+			is.sumChange += stats.get( i ).sumChange;
+			is.maxChange = Math.max( is.maxChange, stats.get( i ).maxChange );
+		}
 
-			if ( view.getTitle() != null )
-				IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " [" + view + "] --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+		if ( view.getTitle() != null )
+			IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " [" + view + "] --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+		else
+			IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+	}
+
+	protected static class PrefetchedBlock
+	{
+		final int blockId;
+		final Block block;
+		final Img< FloatType > psi, img, weight;
+
+		public PrefetchedBlock( final int blockId, final Block block, final Img< FloatType > psi, final Img< FloatType > img, final Img< FloatType > weight )
+		{
+			this.blockId = blockId;
+			this.block = block;
+			this.psi = psi;
+			this.img = img;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Temporary images of the size of one block, which are reused across blocks, batches and iterations.
+	 * At most maxSize images are kept, more are left to the garbage collector.
+	 */
+	protected static class BlockImgPool
+	{
+		final Img< FloatType > template;
+		final int maxSize;
+		final ArrayDeque< Img< FloatType > > free = new ArrayDeque<>();
+		int numCreated = 0;
+
+		public BlockImgPool( final Img< FloatType > template, final int maxSize )
+		{
+			this.template = template;
+			this.maxSize = maxSize;
+		}
+
+		public synchronized Img< FloatType > get()
+		{
+			if ( free.isEmpty() )
+				return create();
 			else
-				IOFunctions.println( "iteration: " + it + ", view: " + viewNum + " --- sum change: " + is.sumChange + " --- max change per pixel: " + is.maxChange );
+				return free.pop();
+		}
 
-			++v;
-		}// finish view
+		/**
+		 * @return a new image that is not taken from the pool
+		 */
+		public synchronized Img< FloatType > create()
+		{
+			++numCreated;
+			return template.factory().create( template );
+		}
+
+		public synchronized void release( final Img< FloatType > img )
+		{
+			if ( free.size() < maxSize )
+				free.push( img );
+		}
+
+		public synchronized int numCreated() { return numCreated; }
 	}
 }
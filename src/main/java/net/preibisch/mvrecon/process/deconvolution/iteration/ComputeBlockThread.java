@@ -61,6 +61,14 @@ public interface ComputeBlockThread
 	 */
 	public Img< FloatType > getPsiBlockTmp();
 
+	/**
+	 * replaces the Img that provides the copied psiBlock, so a block can be copied into it while another one is computed
+	 *
+	 * @param psiBlock - the Img that replaces the current psiBlockTmp (must have the same block size)
+	 * @return the previous psiBlockTmp, which is not used by this thread anymore
+	 */
+	public Img< FloatType > swapPsiBlockTmp( final Img< FloatType > psiBlock );
+
 	public class IterationStatistics
 	{
 		public double sumChange = 0;
@@ -33,7 +33,7 @@ public abstract class ComputeBlockThreadAbstract implements ComputeBlockThread
 	final float minValue;
 	final int id;
 	final int[] blockSize;
-	final Img< FloatType > psiBlockTmp;
+	Img< FloatType > psiBlockTmp;
 	final ImgFactory< FloatType > blockFactory;
 
 	/**
@@ -81,4 +81,16 @@ public abstract class ComputeBlockThreadAbstract implements ComputeBlockThread
 	 * @return the Img to use in order to provide the copied psiBlock
 	 */
 	public Img< FloatType > getPsiBlockTmp() { return psiBlockTmp; }
+
+	/**
+	 * @param psiBlock - the Img that replaces the current psiBlockTmp (must have the same block size)
+	 * @return the previous psiBlockTmp, which is not used by this thread anymore
+	 */
+	@Override
+	public Img< FloatType > swapPsiBlockTmp( final Img< FloatType > psiBlock )
+	{
+		final Img< FloatType > previous = this.psiBlockTmp;
+		this.psiBlockTmp = psiBlock;
+		return previous;
+	}
 }
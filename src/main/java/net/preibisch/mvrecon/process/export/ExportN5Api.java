@@ -25,7 +25,10 @@ package net.preibisch.mvrecon.process.export;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -74,13 +77,17 @@ import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionExportInterface;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
+import net.preibisch.mvrecon.fiji.plugin.queryXML.GenericLoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.plugin.util.PluginHelper;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.OMEZarrAttibutes;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.n5api.ExportManifest;
 import net.preibisch.mvrecon.process.n5api.N5ApiTools;
 import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
 import net.preibisch.mvrecon.process.n5api.SpimData2Tools;
+import net.preibisch.mvrecon.process.n5api.StreamingPyramid;
 import net.preibisch.mvrecon.process.n5api.SpimData2Tools.InstantiateViewSetupBigStitcher;
 import util.Grid;
 import util.URITools;
@@ -112,6 +119,18 @@ public class ExportN5Api implements ImgExport
 
 	public static boolean defaultAdvancedBlockSize = false;
 
+	// compute s1...sN from in-memory copies of the previous level instead of reading them back from storage
+	public static boolean defaultStreamingPyramid = true;
+
+	// skip blocks that were already written by a previous, interrupted export (see ExportManifest)
+	public static boolean defaultResume = false;
+
+	// only write a job file (see FusionJob), the fusion is performed by one or more FusionJobWorker's
+	public static boolean defaultWriteJobFile = false;
+	public static String defaultJobDirectory = null;
+	public static String defaultJobXML = null;
+	public static int defaultBlocksPerRange = 16;
+
 	public static int defaultBlocksizeFactorX_N5 = 1;
 	public static int defaultBlocksizeFactorY_N5 = 1;
 	public static int defaultBlocksizeFactorZ_N5 = 1;
@@ -126,6 +145,13 @@ public class ExportN5Api implements ImgExport
 
 	//int omeZarrDim = defaultOmeZarrDim;
 	boolean omeZarrOneContainer = defaultOmeZarrOneContainer;
+	boolean streamingPyramid = defaultStreamingPyramid;
+	boolean resume = defaultResume;
+
+	boolean writeJobFile = defaultWriteJobFile;
+	String jobDirectory, jobXML;
+	int blocksPerRange = defaultBlocksPerRange;
+	FusionGUI fusionGUI;
 
 	boolean bdv = defaultBDV;
 	URI xmlOut;
@@ -409,6 +435,12 @@ public class ExportN5Api implements ImgExport
 		IOFunctions.println( "num blocks = " + Grid.create( bb.dimensionsAsLongArray(), blocksize() ).size() + ", size = " + bsX + "x" + bsY + "x" + bsZ );
 		IOFunctions.println( "num compute blocks = " + grid.size() + ", size = " + bsX*bsFactorX + "x" + bsY*bsFactorY + "x" + bsZ*bsFactorZ );
 
+		if ( writeJobFile )
+			return writeJob( bb, title, fusionGroup, mrInfo, grid, currentChannelIndex, currentTPIndex );
+
+		// per-level completion bitmaps, to be able to resume an interrupted export
+		final ExportManifest[] manifests = createManifests( mrInfo, currentChannelIndex, currentTPIndex );
+
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		IJ.showProgress( progress.get(), grid.size() );
 
@@ -421,12 +453,37 @@ public class ExportN5Api implements ImgExport
 
 		long time = System.currentTimeMillis();
 
+		// when resuming, the streaming pyramid would recompute (re-fuse) almost all of s0 to compute the missing
+		// blocks of the coarser levels, so those are computed from the levels that are already written instead
+		final boolean resuming = Arrays.stream( manifests ).anyMatch( m -> m.numCompleted() > 0 );
+
+		if ( streamingPyramid && resuming )
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Resuming a partially written export, computing resolution levels from the written levels instead of in a single pass." );
+
+		if ( streamingPyramid && !resuming && mrInfo.length > 1 )
+		{
+			final boolean success = writeStreamingPyramid( img, mrInfo, manifests, currentChannelIndex, currentTPIndex, myPool );
+
+			myPool.shutdown();
+			try { myPool.awaitTermination( Long.MAX_VALUE, TimeUnit.HOURS); } catch (InterruptedException e) { e.printStackTrace(); }
+
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Saved all resolution levels, took: " + (System.currentTimeMillis() - time ) + " ms." );
+
+			return success;
+		}
+
 		try
 		{
 			myPool.submit(() ->
 				grid.parallelStream().forEach(
 						gridBlock ->
 						{
+							if ( manifests[ 0 ].isComplete( gridBlock ) )
+							{
+								IJ.showProgress( progress.incrementAndGet(), grid.size() );
+								return;
+							}
+
 							try
 							{
 								final long[] blockOffset, blockSize, gridOffset;
@@ -466,6 +523,7 @@ public class ExportN5Api implements ImgExport
 										Views.offsetInterval(source, blockOffset, blockSize);
 
 								N5Utils.saveBlock(sourceGridBlock, driverVolumeWriter, mrInfo[ 0 ].dataset, gridOffset );
+								manifests[ 0 ].markComplete( gridBlock );
 
 								IJ.showProgress( progress.incrementAndGet(), grid.size() );
 							}
@@ -486,6 +544,8 @@ public class ExportN5Api implements ImgExport
 			return false;
 		}
 
+		manifests[ 0 ].flush();
+
 		//System.out.println( "Saved, e.g. view with './n5-view -i " + n5Path + " -d " + n5Dataset );
 		IJ.showProgress( progress.getAndSet( 0 ), grid.size() );
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Saved full resolution, took: " + (System.currentTimeMillis() - time ) + " ms." );
@@ -528,6 +588,12 @@ public class ExportN5Api implements ImgExport
 				myPool.submit( () -> allBlocks.parallelStream().forEach(
 						gridBlock ->
 						{
+							if ( manifests[ s ].isComplete( gridBlock ) )
+							{
+								IJ.showProgress( progress.incrementAndGet(), allBlocks.size() );
+								return;
+							}
+
 							// 5D OME-ZARR CONTAINER
 							if ( storageType == StorageFormat.ZARR && omeZarrOneContainer )
 							{
@@ -548,6 +614,7 @@ public class ExportN5Api implements ImgExport
 										gridBlock );
 							}
 
+							manifests[ s ].markComplete( gridBlock );
 
 							IJ.showProgress( progress.incrementAndGet(), allBlocks.size() );
 						})).get();
@@ -560,6 +627,8 @@ public class ExportN5Api implements ImgExport
 				return false;
 			}
 
+			manifests[ level ].flush();
+
 			IJ.showProgress( progress.getAndSet( 0 ), allBlocks.size() );
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Saved level s " + level + ", took: " + (System.currentTimeMillis() - time ) + " ms." );
 		}
@@ -570,6 +639,200 @@ public class ExportN5Api implements ImgExport
 		return true;
 	}
 
+	/**
+	 * Writes all resolution levels in a single pass (see {@link StreamingPyramid}),
+	 * i.e. s1...sN are computed from in-memory copies of the previous level as soon
+	 * as all of their input blocks were written, instead of reading them back from storage.
+	 */
+	private < T extends RealType< T > & NativeType< T > > boolean writeStreamingPyramid(
+			final RandomAccessibleInterval< T > img,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final ExportManifest[] manifests,
+			final long currentChannelIndex,
+			final long currentTPIndex,
+			final ForkJoinPool myPool )
+	{
+		final int[] computeBlockSize = new int[] {
+				blocksize()[0] * computeBlocksizeFactor()[ 0 ],
+				blocksize()[1] * computeBlocksizeFactor()[ 1 ],
+				blocksize()[2] * computeBlocksizeFactor()[ 2 ] };
+
+		// enough blocks per level for a 3x3x3 neighborhood of compute blocks per thread, blocks that
+		// are still needed by the next level are pinned by StreamingPyramid in addition to this
+		final long maxCacheSize = 27L * Threads.numThreads() * computeBlocksizeFactor()[ 0 ] * computeBlocksizeFactor()[ 1 ] * computeBlocksizeFactor()[ 2 ];
+
+		int numJobs = 0;
+		for ( final MultiResolutionLevelInfo info : mrInfo )
+			numJobs += N5ApiTools.assembleJobs( new long[] { info.dimensions[ 0 ], info.dimensions[ 1 ], info.dimensions[ 2 ] }, blocksize(), computeBlockSize ).size();
+
+		final int totalJobs = numJobs;
+		final AtomicInteger progress = new AtomicInteger( 0 );
+		IJ.showProgress( progress.get(), totalJobs );
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Writing " + mrInfo.length + " resolution levels in a single pass (" + totalJobs + " compute blocks, cache of " + maxCacheSize + " blocks per level)." );
+
+		final T type = img.getType().createVariable();
+
+		final int numFailed;
+
+		try
+		{
+			numFailed = StreamingPyramid.write(
+					img,
+					mrInfo,
+					blocksize(),
+					computeBlockSize,
+					maxCacheSize,
+					( level, levelImg, gridBlock ) ->
+					{
+						if ( manifests[ level ].isComplete( gridBlock ) )
+						{
+							IJ.showProgress( progress.incrementAndGet(), totalJobs );
+							return;
+						}
+
+						final long[] blockOffset, blockSize, gridOffset;
+
+						final RandomAccessible< T > image;
+
+						// 5D OME-ZARR CONTAINER
+						if ( storageType == StorageFormat.ZARR && omeZarrOneContainer )
+						{
+							// gridBlock is 3d, make it 5d
+							blockOffset = new long[] { gridBlock[0][0], gridBlock[0][1], gridBlock[0][2], currentChannelIndex, currentTPIndex };
+							blockSize = new long[] { gridBlock[1][0], gridBlock[1][1], gridBlock[1][2], 1, 1 };
+							gridOffset = new long[] { gridBlock[2][0], gridBlock[2][1], gridBlock[2][2], currentChannelIndex, currentTPIndex }; // because blocksize in C & T is 1
+
+							// the same information is returned no matter which index is queried in C and T
+							image = Views.addDimension( Views.addDimension( levelImg ) );
+						}
+						else
+						{
+							blockOffset = gridBlock[0];
+							blockSize = gridBlock[1];
+							gridOffset = gridBlock[2];
+
+							image = levelImg;
+						}
+
+						final RandomAccessibleInterval< T > sourceGridBlock = Views.offsetInterval( image, blockOffset, blockSize );
+
+						if ( level == 0 )
+							N5Utils.saveBlock( sourceGridBlock, driverVolumeWriter, mrInfo[ level ].dataset, gridOffset );
+						else
+							N5Utils.saveNonEmptyBlock( sourceGridBlock, driverVolumeWriter, mrInfo[ level ].dataset, gridOffset, type );
+
+						manifests[ level ].markComplete( gridBlock );
+
+						IJ.showProgress( progress.incrementAndGet(), totalJobs );
+					},
+					myPool );
+		}
+		catch ( InterruptedException | ExecutionException | RuntimeException e )
+		{
+			IOFunctions.println( "Failed to write HDF5/N5/ZARR multi-resolution pyramid '" + mrInfo[ 0 ].dataset + "'. Error: " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		for ( final ExportManifest manifest : manifests )
+			manifest.flush();
+
+		if ( numFailed > 0 )
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + numFailed + " compute blocks could not be written, run the export again to resume and write them." );
+
+		IJ.showProgress( progress.getAndSet( 0 ), totalJobs );
+
+		return true;
+	}
+
+	/**
+	 * Writes the job file for distributed fusion of this group instead of fusing it,
+	 * the container and its metadata are already set up.
+	 */
+	private boolean writeJob(
+			final Interval bb,
+			final String title,
+			final Group<? extends ViewDescription> fusionGroup,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final List<long[][]> grid,
+			final long currentChannelIndex,
+			final long currentTPIndex )
+	{
+		final FusionJob job = FusionJob.create(
+				jobXML,
+				fusionGroup.getViews(),
+				bb,
+				fusionGUI.getAnisotropyFactor(),
+				fusionGUI.getDownsampling(),
+				fusionGUI.getFusionType(),
+				fusionGUI.getInterpolation(),
+				fusionGUI.getPixelType(),
+				fusionGUI.minIntensity(),
+				fusionGUI.maxIntensity(),
+				fusionGUI.adjustIntensities(),
+				path.toString(),
+				storageType.name(),
+				mrInfo,
+				blocksize(),
+				new int[] {
+						blocksize()[0] * computeBlocksizeFactor()[ 0 ],
+						blocksize()[1] * computeBlocksizeFactor()[ 1 ],
+						blocksize()[2] * computeBlocksizeFactor()[ 2 ] },
+				currentChannelIndex,
+				currentTPIndex,
+				grid,
+				blocksPerRange );
+
+		final Path jobFile = Paths.get( jobDirectory, title + ".json" );
+
+		try
+		{
+			job.save( jobFile );
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Failed to write fusion job '" + jobFile + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Wrote fusion job '" + jobFile + "' (" + grid.size() + " compute blocks in " + job.numRanges() + " ranges)." );
+		IOFunctions.println( "Start one or more workers (on any machine that can access the job file, the XML and the container) with:" );
+		IOFunctions.println( "\tjava -cp <classpath> " + FusionJobWorker.class.getName() + " -j " + jobFile );
+
+		return true;
+	}
+
+	/**
+	 * One manifest per resolution level, stored with the dataset of the level. For a 5D OME-ZARR
+	 * all channels and timepoints share one dataset, so each (c,t) gets its own manifest.
+	 */
+	private ExportManifest[] createManifests(
+			final MultiResolutionLevelInfo[] mrInfo,
+			final long currentChannelIndex,
+			final long currentTPIndex )
+	{
+		final int[] computeBlockSize = new int[] {
+				blocksize()[0] * computeBlocksizeFactor()[ 0 ],
+				blocksize()[1] * computeBlocksizeFactor()[ 1 ],
+				blocksize()[2] * computeBlocksizeFactor()[ 2 ] };
+
+		final String suffix = ( storageType == StorageFormat.ZARR && omeZarrOneContainer ) ? "_c" + currentChannelIndex + "_t" + currentTPIndex : "";
+
+		final ExportManifest[] manifests = new ExportManifest[ mrInfo.length ];
+		for ( int level = 0; level < mrInfo.length; ++level )
+			manifests[ level ] = new ExportManifest(
+					driverVolumeWriter,
+					mrInfo[ level ].dataset,
+					suffix,
+					new long[] { mrInfo[ level ].dimensions[ 0 ], mrInfo[ level ].dimensions[ 1 ], mrInfo[ level ].dimensions[ 2 ] },
+					computeBlockSize,
+					resume );
+
+		return manifests;
+	}
+
 	@Override
 	public boolean queryParameters( final FusionExportInterface fusion)
 	{
@@ -609,6 +872,8 @@ public class ExportN5Api implements ImgExport
 				GUIHelper.smallStatusFont, GUIHelper.neutral );
 
 		gdInit.addCheckbox( "Create multi-resolution pyramid", defaultMultiRes );
+		gdInit.addCheckbox( "Resume interrupted export (skip blocks that were already written)", defaultResume );
+		gdInit.addCheckbox( "Only write a job file for distributed fusion (executed by FusionJobWorker)", defaultWriteJobFile );
 
 		gdInit.showDialog();
 		if ( gdInit.wasCanceled() )
@@ -618,6 +883,8 @@ public class ExportN5Api implements ImgExport
 		this.compression = PluginHelper.parseCompression( gdInit );
 		this.bdv = defaultBDV = gdInit.getNextBoolean();
 		final boolean multiRes = defaultMultiRes = gdInit.getNextBoolean();
+		this.resume = defaultResume = gdInit.getNextBoolean();
+		this.writeJobFile = defaultWriteJobFile = gdInit.getNextBoolean();
 		this.splittingType = fusion.getSplittingType();
 		this.instantiate = new InstantiateViewSetupBigStitcher( splittingType );
 
@@ -631,6 +898,23 @@ public class ExportN5Api implements ImgExport
 		else
 			ext = ".zarr";
 
+		if ( writeJobFile )
+		{
+			if ( storageType == StorageFormat.HDF5 )
+			{
+				IOFunctions.println( "Distributed fusion is not supported for HDF5 (only a single process can write). Stopping." );
+				return false;
+			}
+
+			if ( !FusionGUI.class.isInstance( fusion ) || ((FusionGUI)fusion).getNonRigidParameters().isActive() )
+			{
+				IOFunctions.println( "Distributed fusion is only supported for affine fusion. Stopping." );
+				return false;
+			}
+
+			this.fusionGUI = (FusionGUI)fusion;
+		}
+
 		if ( bdv && storageType == StorageFormat.ZARR )
 		{
 			IOFunctions.println( "BDV-compatible ZARR file not (yet) supported." );
@@ -943,6 +1227,45 @@ public class ExportN5Api implements ImgExport
 			this.downsampling = new int[][] {{1,1,1}}; // no downsampling
 		}
 
+		if ( writeJobFile && !queryJobParameters( fusion ) )
+			return false;
+
+		return true;
+	}
+
+	protected boolean queryJobParameters( final FusionExportInterface fusion )
+	{
+		final GenericDialogPlus gdJob = new GenericDialogPlus( "Distributed fusion job" );
+
+		if ( ( defaultJobDirectory == null || defaultJobDirectory.trim().length() == 0 ) && URITools.isFile( fusion.getSpimData().getBasePathURI() ) )
+			defaultJobDirectory = new File( URITools.fromURI( fusion.getSpimData().getBasePathURI() ), "fusionjobs" ).getAbsolutePath();
+
+		if ( defaultJobXML == null || defaultJobXML.trim().length() == 0 )
+			defaultJobXML = GenericLoadParseQueryXML.defaultXMLURI;
+
+		PluginHelper.addSaveAsDirectoryField( gdJob, "Job_directory (shared by all workers)", defaultJobDirectory == null ? "" : defaultJobDirectory, 80 );
+		gdJob.addFileField( "XML_dataset (loaded by the workers)", defaultJobXML, 80 );
+		gdJob.addNumericField( "Compute_blocks_per_range", defaultBlocksPerRange, 0 );
+
+		gdJob.addMessage(
+				"One job file is written per fused image. Workers claim ranges of compute blocks using lock files\n"
+				+ "in the job directory, the worker that finishes the last range computes the multi-resolution pyramid.\n"
+				+ "Note: the workers load the XML from disk, save the dataset first if it was modified.", GUIHelper.smallStatusFont, GUIHelper.neutral );
+
+		gdJob.showDialog();
+		if ( gdJob.wasCanceled() )
+			return false;
+
+		this.jobDirectory = defaultJobDirectory = gdJob.getNextString().trim();
+		this.jobXML = defaultJobXML = gdJob.getNextString().trim();
+		this.blocksPerRange = defaultBlocksPerRange = Math.max( 1, (int)Math.round( gdJob.getNextNumber() ) );
+
+		if ( jobXML.length() == 0 )
+		{
+			IOFunctions.println( "No XML specified for the fusion job. Stopping." );
+			return false;
+		}
+
 		return true;
 	}
 
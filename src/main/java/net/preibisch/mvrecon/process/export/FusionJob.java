@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI.FusionType;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
+
+/**
+ * A self-describing fusion job: all parameters needed to fuse one group of views into an
+ * existing N5/ZARR container (which was set up including metadata when the job was created),
+ * together with the grid of compute blocks of s0. The grid is split into ranges of
+ * {@link #blocksPerRange} blocks that are claimed by independent {@link FusionJobWorker}s.
+ * <p>
+ * Stored as JSON, all fields are public to be (de)serialized by Gson.
+ */
+public class FusionJob
+{
+	public static int currentVersion = 1;
+
+	public int version = currentVersion;
+
+	// the input
+	public String xml;
+	public int[][] views; // { timepointId, viewSetupId }
+
+	// the fusion parameters (as in Image_Fusion)
+	public long[] min, max; // bounding box (already scaled for anisotropy and downsampling)
+	public double anisotropyFactor = Double.NaN;
+	public double downsampling = Double.NaN;
+	public String fusionType;
+	public int interpolation;
+	public int pixelType; // 0 == 32-bit float, 1 == 16-bit, 2 == 8-bit
+	public double minIntensity, maxIntensity;
+	public boolean adjustIntensities;
+
+	// the output
+	public String container;
+	public String storageFormat;
+	public MultiResolutionLevelInfo[] mrInfo;
+	public int[] blockSize, computeBlockSize;
+	public long channelIndex = -1, timepointIndex = -1; // >= 0 for 5D OME-ZARR's
+
+	// the grid of compute blocks of s0 as returned by N5ApiTools.assembleJobs
+	public long[][][] grid;
+	public int blocksPerRange = 1;
+
+	public FusionJob() {}
+
+	public static FusionJob create(
+			final String xml,
+			final Collection< ? extends ViewId > views,
+			final Interval boundingBox,
+			final double anisotropyFactor,
+			final double downsampling,
+			final FusionType fusionType,
+			final int interpolation,
+			final int pixelType,
+			final double minIntensity,
+			final double maxIntensity,
+			final boolean adjustIntensities,
+			final String container,
+			final String storageFormat,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final int[] blockSize,
+			final int[] computeBlockSize,
+			final long channelIndex,
+			final long timepointIndex,
+			final List< long[][] > grid,
+			final int blocksPerRange )
+	{
+		final FusionJob job = new FusionJob();
+
+		job.xml = xml;
+		job.views = views.stream().map( v -> new int[] { v.getTimePointId(), v.getViewSetupId() } ).toArray( int[][]::new );
+		job.min = boundingBox.minAsLongArray();
+		job.max = boundingBox.maxAsLongArray();
+		job.anisotropyFactor = anisotropyFactor;
+		job.downsampling = downsampling;
+		job.fusionType = fusionType.name();
+		job.interpolation = interpolation;
+		job.pixelType = pixelType;
+		job.minIntensity = minIntensity;
+		job.maxIntensity = maxIntensity;
+		job.adjustIntensities = adjustIntensities;
+		job.container = container;
+		job.storageFormat = storageFormat;
+		job.mrInfo = mrInfo;
+		job.blockSize = blockSize.clone();
+		job.computeBlockSize = computeBlockSize.clone();
+		job.channelIndex = channelIndex;
+		job.timepointIndex = timepointIndex;
+		job.grid = grid.toArray( new long[ grid.size() ][][] );
+		job.blocksPerRange = Math.max( 1, blocksPerRange );
+
+		return job;
+	}
+
+	public List< ViewId > viewIds()
+	{
+		final ArrayList< ViewId > viewIds = new ArrayList<>();
+
+		for ( final int[] v : views )
+			viewIds.add( new ViewId( v[ 0 ], v[ 1 ] ) );
+
+		return viewIds;
+	}
+
+	public Interval boundingBox() { return new FinalInterval( min, max ); }
+
+	public FusionType fusionType() { return FusionType.valueOf( fusionType ); }
+
+	public boolean is5dOMEZARR() { return channelIndex >= 0 && timepointIndex >= 0; }
+
+	public int numRanges() { return ( grid.length + blocksPerRange - 1 ) / blocksPerRange; }
+
+	/**
+	 * @param range - index of the range, 0 &le; range &lt; {@link #numRanges()}
+	 * @return the compute blocks of this range
+	 */
+	public List< long[][] > range( final int range )
+	{
+		final int from = range * blocksPerRange;
+		final int to = Math.min( grid.length, from + blocksPerRange );
+
+		return Arrays.asList( grid ).subList( from, to );
+	}
+
+	public void save( final Path file ) throws IOException
+	{
+		if ( file.getParent() != null )
+			Files.createDirectories( file.getParent() );
+
+		// write to a temporary file first so workers never see a partial job
+		final Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+
+		try ( final Writer writer = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) )
+		{
+			gson().toJson( this, writer );
+		}
+
+		Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	public static FusionJob load( final Path file ) throws IOException
+	{
+		try ( final Reader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) )
+		{
+			final FusionJob job = gson().fromJson( reader, FusionJob.class );
+
+			if ( job.version > currentVersion )
+				throw new IOException( "Fusion job '" + file + "' has version " + job.version + ", only up to " + currentVersion + " is supported." );
+
+			return job;
+		}
+	}
+
+	// NaN is used for 'no downsampling' and 'no anisotropy adjustment'
+	protected static Gson gson()
+	{
+		return new GsonBuilder().serializeSpecialFloatingPointValues().setPrettyPrinting().create();
+	}
+}
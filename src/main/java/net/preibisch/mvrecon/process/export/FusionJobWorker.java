@@ -0,0 +1,563 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.StorageFormat;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.RealUnsignedByteConverter;
+import net.imglib2.converter.RealUnsignedShortConverter;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.process.fusion.blk.BlkAffineFusion;
+import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools;
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
+import util.URITools;
+
+/**
+ * Executes a {@link FusionJob} that was written by {@link ExportN5Api}. Any number of workers
+ * (threads of one JVM, several JVMs on one machine or cluster nodes sharing the storage) can run
+ * on the same job; they claim ranges of compute blocks by atomically creating lock files in the
+ * directory next to the job file. A finished range is marked with a done file. Locks older than
+ * --staleLockMinutes (ranges and pyramid) are re-claimed by exactly one worker; while a worker fuses
+ * a range (or the pyramid) it touches the lock periodically, so only locks of dead workers become stale. The worker that
+ * finds all ranges done computes the multi-resolution pyramid (s1 ... sN), the metadata were
+ * already written when the job was created.
+ */
+public class FusionJobWorker implements Callable< Void >
+{
+	public static String lockDirectorySuffix = ".locks";
+	public static String pyramidLock = "pyramid.lock";
+	public static String finishedMarker = "finished";
+
+	// makes the worker names unique if several workers run in one JVM
+	private static final AtomicInteger workerCount = new AtomicInteger();
+
+	@Option(names = {"-j", "--job"}, required = true, description = "the fusion job file written by the N5-API export, e.g. -j /shared/fused.json")
+	private String jobFile = null;
+
+	@Option(names = {"--staleLockMinutes"}, required = false, description = "locks of ranges (or the pyramid) that are not done after this many minutes are considered stale and re-claimed, e.g. because a worker crashed (default: never)")
+	private long staleLockMinutes = -1;
+
+	@Option(names = {"--noPyramid"}, required = false, description = "do not compute the multi-resolution pyramid when all ranges are done")
+	private boolean noPyramid = false;
+
+	@Option(names = {"--pyramidOnly"}, required = false, description = "only compute the multi-resolution pyramid (all ranges need to be done)")
+	private boolean pyramidOnly = false;
+
+	FusionJob job;
+	Path lockDirectory;
+	long staleLockMillis;
+	String workerName;
+
+	public FusionJobWorker() {}
+
+	public FusionJobWorker( final Path jobFile, final long staleLockMinutes ) throws IOException
+	{
+		init( jobFile, staleLockMinutes );
+	}
+
+	protected void init( final Path jobFile, final long staleLockMinutes ) throws IOException
+	{
+		this.job = FusionJob.load( jobFile );
+		this.lockDirectory = lockDirectory( jobFile );
+		this.staleLockMillis = staleLockMinutes > 0 ? TimeUnit.MINUTES.toMillis( staleLockMinutes ) : -1;
+		this.workerName = ManagementFactory.getRuntimeMXBean().getName() + "#" + workerCount.incrementAndGet(); // pid@hostname#n
+
+		Files.createDirectories( lockDirectory );
+	}
+
+	public static Path lockDirectory( final Path jobFile )
+	{
+		return jobFile.resolveSibling( jobFile.getFileName() + lockDirectorySuffix );
+	}
+
+	@Override
+	public Void call() throws Exception
+	{
+		init( Paths.get( jobFile ), staleLockMinutes );
+
+		if ( !pyramidOnly )
+			work();
+
+		if ( !noPyramid )
+			writePyramid();
+
+		return null;
+	}
+
+	/**
+	 * Claims and fuses ranges of compute blocks until no unclaimed range is left.
+	 *
+	 * @return the number of ranges fused by this worker
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public int work() throws SpimDataException, IOException
+	{
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Worker " + workerName + " loading '" + job.xml + "' ... " );
+
+		final SpimData2 spimData = new XmlIoSpimData2().load( URITools.toURI( job.xml ) );
+		final RandomAccessibleInterval img = Views.zeroMin( fuse( job, spimData ) );
+
+		final N5Writer n5 = URITools.instantiateN5Writer( StorageFormat.valueOf( job.storageFormat ), URITools.toURI( job.container ) );
+		final ForkJoinPool myPool = new ForkJoinPool( Threads.numThreads() );
+
+		final int numRanges = job.numRanges();
+		int count = 0;
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Worker " + workerName + " processing job with " + job.grid.length + " compute blocks in " + numRanges + " ranges." );
+
+		try
+		{
+			for ( int range = 0; range < numRanges; ++range )
+			{
+				if ( isDone( range ) || !claim( range ) )
+					continue;
+
+				final long time = System.currentTimeMillis();
+				final List< long[][] > blocks = job.range( range );
+
+				try ( final Heartbeat heartbeat = new Heartbeat( lockFile( range ) ) )
+				{
+					myPool.submit( () -> blocks.parallelStream().forEach( gridBlock -> writeBlock( img, n5, job, gridBlock ) ) ).get();
+
+					if ( markDone( range ) )
+					{
+						++count;
+						IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Range " + range + "/" + numRanges + " (" + blocks.size() + " blocks) done, took " + ( System.currentTimeMillis() - time ) + " ms." );
+					}
+					else
+					{
+						IOFunctions.println( "Range " + range + " was re-claimed by another worker in the meantime, not marking it as done." );
+					}
+				}
+				catch ( InterruptedException | ExecutionException | RuntimeException e )
+				{
+					IOFunctions.println( "Failed to fuse range " + range + ", releasing it for other workers: " + e );
+					e.printStackTrace();
+					releaseLock( lockFile( range ) );
+				}
+			}
+		}
+		finally
+		{
+			myPool.shutdown();
+			n5.close();
+		}
+
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Worker " + workerName + " fused " + count + " ranges." );
+
+		return count;
+	}
+
+	/**
+	 * Computes s1 ... sN if all ranges are done and no other worker is doing it already.
+	 *
+	 * @return true if the pyramid exists after this call
+	 */
+	public boolean writePyramid() throws IOException
+	{
+		if ( Files.exists( lockDirectory.resolve( finishedMarker ) ) )
+			return true;
+
+		final int numRanges = job.numRanges();
+		final int numDone = numDone();
+
+		if ( numDone < numRanges )
+		{
+			IOFunctions.println( "Not computing the multi-resolution pyramid, " + ( numRanges - numDone ) + " of " + numRanges + " ranges are not done yet." );
+			return false;
+		}
+
+		if ( !claimLock( lockDirectory.resolve( pyramidLock ) ) )
+		{
+			IOFunctions.println( "Multi-resolution pyramid is computed by another worker." );
+			return false;
+		}
+
+		final N5Writer n5 = URITools.instantiateN5Writer( StorageFormat.valueOf( job.storageFormat ), URITools.toURI( job.container ) );
+		final ForkJoinPool myPool = new ForkJoinPool( Threads.numThreads() );
+
+		try ( final Heartbeat heartbeat = new Heartbeat( lockDirectory.resolve( pyramidLock ) ) )
+		{
+			for ( int level = 1; level < job.mrInfo.length; ++level )
+			{
+				final int s = level;
+				final long time = System.currentTimeMillis();
+
+				final List< long[][] > allBlocks = N5ApiTools.assembleJobs(
+						null,
+						new long[] { job.mrInfo[ level ].dimensions[ 0 ], job.mrInfo[ level ].dimensions[ 1 ], job.mrInfo[ level ].dimensions[ 2 ] },
+						job.blockSize,
+						job.computeBlockSize );
+
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Downsampling '" + job.mrInfo[ level - 1 ].dataset + "' to '" + job.mrInfo[ level ].dataset + "' (" + Util.printCoordinates( job.mrInfo[ level ].relativeDownsampling ) + "), num blocks=" + allBlocks.size() );
+
+				myPool.submit( () -> allBlocks.parallelStream().forEach(
+						gridBlock ->
+						{
+							if ( job.is5dOMEZARR() )
+								N5ApiTools.writeDownsampledBlock5dOMEZARR( n5, job.mrInfo[ s ], job.mrInfo[ s - 1 ], gridBlock, job.channelIndex, job.timepointIndex );
+							else
+								N5ApiTools.writeDownsampledBlock( n5, job.mrInfo[ s ], job.mrInfo[ s - 1 ], gridBlock );
+						} ) ).get();
+
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Saved level s" + level + ", took: " + ( System.currentTimeMillis() - time ) + " ms." );
+			}
+
+			Files.write( lockDirectory.resolve( finishedMarker ), workerName.getBytes( StandardCharsets.UTF_8 ) );
+		}
+		catch ( InterruptedException | ExecutionException | RuntimeException e )
+		{
+			IOFunctions.println( "Failed to write the multi-resolution pyramid: " + e );
+			e.printStackTrace();
+			releaseLock( lockDirectory.resolve( pyramidLock ) );
+			return false;
+		}
+		finally
+		{
+			myPool.shutdown();
+			n5.close();
+		}
+
+		return true;
+	}
+
+	/**
+	 * The same fusion as in Image_Fusion (affine only)
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static RandomAccessibleInterval fuse( final FusionJob job, final SpimData2 spimData )
+	{
+		final List< ViewId > views = job.viewIds();
+
+		final Converter conv;
+		final Type type;
+
+		if ( job.pixelType == 2 )
+		{
+			conv = new RealUnsignedByteConverter<>( job.minIntensity, job.maxIntensity );
+			type = new UnsignedByteType();
+		}
+		else if ( job.pixelType == 1 )
+		{
+			conv = new RealUnsignedShortConverter<>( job.minIntensity, job.maxIntensity );
+			type = new UnsignedShortType();
+		}
+		else
+		{
+			conv = null;
+			type = new FloatType();
+		}
+
+		final HashMap< ViewId, AffineTransform3D > registrations =
+				TransformVirtual.adjustAllTransforms(
+						views,
+						spimData.getViewRegistrations().getViewRegistrations(),
+						job.anisotropyFactor,
+						job.downsampling );
+
+		return BlkAffineFusion.init(
+				conv,
+				spimData.getSequenceDescription().getImgLoader(),
+				views,
+				registrations,
+				spimData.getSequenceDescription().getViewDescriptions(),
+				job.fusionType(),
+				job.interpolation,
+				job.adjustIntensities ? spimData.getIntensityAdjustments().getIntensityAdjustments() : null,
+				job.boundingBox(),
+				(RealType & NativeType)type,
+				job.blockSize );
+	}
+
+	/**
+	 * Writes one compute block of s0, same as ExportN5Api
+	 */
+	protected static < T extends RealType< T > & NativeType< T > > void writeBlock(
+			final RandomAccessibleInterval< T > img,
+			final N5Writer n5,
+			final FusionJob job,
+			final long[][] gridBlock )
+	{
+		final long[] blockOffset, blockSize, gridOffset;
+		final RandomAccessible< T > image;
+
+		if ( job.is5dOMEZARR() )
+		{
+			// gridBlock is 3d, make it 5d
+			blockOffset = new long[] { gridBlock[0][0], gridBlock[0][1], gridBlock[0][2], job.channelIndex, job.timepointIndex };
+			blockSize = new long[] { gridBlock[1][0], gridBlock[1][1], gridBlock[1][2], 1, 1 };
+			gridOffset = new long[] { gridBlock[2][0], gridBlock[2][1], gridBlock[2][2], job.channelIndex, job.timepointIndex };
+
+			image = Views.addDimension( Views.addDimension( img ) );
+		}
+		else
+		{
+			blockOffset = gridBlock[0];
+			blockSize = gridBlock[1];
+			gridOffset = gridBlock[2];
+
+			image = img;
+		}
+
+		N5Utils.saveBlock( Views.offsetInterval( image, blockOffset, blockSize ), n5, job.mrInfo[ 0 ].dataset, gridOffset );
+	}
+
+	public boolean isDone( final int range ) { return Files.exists( doneFile( range ) ); }
+
+	public int numDone() throws IOException
+	{
+		int count = 0;
+
+		for ( int range = 0; range < job.numRanges(); ++range )
+			if ( isDone( range ) )
+				++count;
+
+		return count;
+	}
+
+	protected Path lockFile( final int range ) { return lockDirectory.resolve( "range-" + range + ".lock" ); }
+	protected Path doneFile( final int range ) { return lockDirectory.resolve( "range-" + range + ".done" ); }
+
+	/**
+	 * @return true if this worker owns the range now
+	 */
+	protected boolean claim( final int range ) throws IOException
+	{
+		final Path lock = lockFile( range );
+
+		if ( createLock( lock ) )
+			return true;
+
+		// the worker holding the lock might have died
+		return staleLockMillis > 0 && !isDone( range ) && reclaimStaleLock( lock );
+	}
+
+	/**
+	 * @return true if this worker owns the lock now, either because it did not exist or because it was stale
+	 */
+	protected boolean claimLock( final Path lock ) throws IOException
+	{
+		return createLock( lock ) || ( staleLockMillis > 0 && reclaimStaleLock( lock ) );
+	}
+
+	/**
+	 * Takes over a lock that was not modified for staleLockMillis. All workers that see the same stale lock
+	 * (identified by its modification time) compete for creating the same marker file, so only one of them
+	 * replaces the lock. The lock is replaced by atomically moving a worker-unique file onto it, a worker that
+	 * looks at the lock afterwards sees a fresh modification time. Finally the ownership is re-checked.
+	 *
+	 * @return true if this worker owns the lock now
+	 */
+	protected boolean reclaimStaleLock( final Path lock )
+	{
+		try
+		{
+			final FileTime lastModified = Files.getLastModifiedTime( lock );
+
+			if ( System.currentTimeMillis() - lastModified.toMillis() <= staleLockMillis )
+				return false;
+
+			final String owner = new String( Files.readAllBytes( lock ), StandardCharsets.UTF_8 );
+
+			if ( !createLock( lock.resolveSibling( lock.getFileName() + ".stale-" + lastModified.toMillis() ) ) )
+				return false;
+
+			final Path claim = lock.resolveSibling( lock.getFileName() + "." + workerName.replaceAll( "[^a-zA-Z0-9.-]", "_" ) + ".tmp" );
+			Files.write( claim, workerName.getBytes( StandardCharsets.UTF_8 ) );
+
+			try
+			{
+				Files.move( claim, lock, StandardCopyOption.ATOMIC_MOVE );
+			}
+			finally
+			{
+				Files.deleteIfExists( claim );
+			}
+
+			if ( !ownsLock( lock ) )
+				return false;
+
+			IOFunctions.println( "Re-claimed stale lock '" + lock.getFileName() + "' (" + owner + ")." );
+
+			return true;
+		}
+		catch ( IOException e )
+		{
+			// lock was removed in the meantime, or the filesystem cannot replace it atomically
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the lock exists and was written by this worker
+	 */
+	protected boolean ownsLock( final Path lock )
+	{
+		try
+		{
+			return workerName.equals( new String( Files.readAllBytes( lock ), StandardCharsets.UTF_8 ) );
+		}
+		catch ( IOException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the lock if this worker still owns it, it might have been re-claimed by another worker
+	 */
+	protected void releaseLock( final Path lock ) throws IOException
+	{
+		if ( ownsLock( lock ) )
+			Files.deleteIfExists( lock );
+	}
+
+	/**
+	 * Marks the range as done if this worker still owns its lock, it might have been re-claimed by another worker
+	 *
+	 * @return true if the range was marked as done
+	 */
+	protected boolean markDone( final int range ) throws IOException
+	{
+		if ( !ownsLock( lockFile( range ) ) )
+			return false;
+
+		Files.write( doneFile( range ), workerName.getBytes( StandardCharsets.UTF_8 ) );
+		return true;
+	}
+
+	/**
+	 * Updates the modification time of the lock if this worker still owns it, so it does not become stale
+	 */
+	protected void touchLock( final Path lock )
+	{
+		try
+		{
+			if ( ownsLock( lock ) )
+				Files.setLastModifiedTime( lock, FileTime.fromMillis( System.currentTimeMillis() ) );
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Could not touch lock '" + lock.getFileName() + "': " + e );
+		}
+	}
+
+	/**
+	 * Touches a lock every quarter of staleLockMillis while it is open (nothing happens if locks never become stale)
+	 */
+	protected class Heartbeat implements AutoCloseable
+	{
+		final ScheduledExecutorService service;
+
+		public Heartbeat( final Path lock )
+		{
+			if ( staleLockMillis <= 0 )
+			{
+				this.service = null;
+				return;
+			}
+
+			final long period = Math.max( 1, staleLockMillis / 4 );
+
+			this.service = Executors.newSingleThreadScheduledExecutor( r ->
+			{
+				final Thread t = new Thread( r, "heartbeat " + lock.getFileName() );
+				t.setDaemon( true );
+				return t;
+			} );
+
+			this.service.scheduleAtFixedRate( () -> touchLock( lock ), period, period, TimeUnit.MILLISECONDS );
+		}
+
+		@Override
+		public void close()
+		{
+			if ( service != null )
+				service.shutdownNow();
+		}
+	}
+
+	/**
+	 * Atomically creates the lock file, also on shared filesystems
+	 */
+	protected boolean createLock( final Path lock ) throws IOException
+	{
+		try
+		{
+			Files.write( lock, workerName.getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+			return true;
+		}
+		catch ( FileAlreadyExistsException e )
+		{
+			return false;
+		}
+	}
+
+	public static final void main( final String... args )
+	{
+		IOFunctions.printIJLog = false;
+		new CommandLine( new FusionJobWorker() ).execute( args );
+	}
+}
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -63,7 +64,9 @@ import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.cache.img.RandomAccessibleCacheLoader;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
@@ -73,6 +76,7 @@ import net.imglib2.converter.RealTypeConverters;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
@@ -90,6 +94,7 @@ import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.cache.BlockCache;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI.FusionType;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.ViewSetupUtils;
@@ -99,8 +104,10 @@ import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.export.DisplayImage;
 import net.preibisch.mvrecon.process.fusion.intensityadjust.IntensityAdjuster;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyFusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.FusedCellLoader;
 import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval;
 import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval.Fusion;
+import net.preibisch.mvrecon.process.fusion.transformed.FusionKernel;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformView;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformWeight;
@@ -786,12 +793,30 @@ public class FusionTools
 		return cacheRandomAccessibleInterval( input, -1, type, cellDim );
 	}
 
+	/**
+	 * @param input - the image to cache
+	 * @param maxCacheSize - the maximal number of cells, &lt;= 0 or &gt;= Integer.MAX_VALUE means unbounded, which uses the shared {@link BlockCache} if it is enabled
+	 * @param type - the pixel type
+	 * @param cellDim - the cell size
+	 * @return the cached image
+	 */
 	public static < T extends NativeType< T >, A extends ArrayDataAccess< A > > RandomAccessibleInterval< T > cacheRandomAccessibleInterval(
 			final RandomAccessibleInterval< T > input,
 			final long maxCacheSize,
 			final T type,
 			final int... cellDim )
 	{
+		if ( BlockCache.enabled && ( maxCacheSize <= 0 || maxCacheSize >= Integer.MAX_VALUE ) )
+		{
+			final CellGrid grid = new CellGrid( input.dimensionsAsLongArray(), cellDim );
+			final Set< AccessFlags > flags = AccessFlags.setOf( AccessFlags.VOLATILE );
+			final CacheLoader< Long, Cell< A > > loader = cacheLoader( grid, input, flags );
+			final Cache< Long, Cell< A > > cache = BlockCache.getInstance().< A >newCellCache( "FusionTools.cache" ).withLoader( loader );
+			final A accessType = ArrayDataAccessFactory.get( type, flags );
+
+			return translateIfNecessary( input, new CachedCellImg<>( grid, type, cache, accessType ) );
+		}
+
 		final ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options()
 				.cellDimensions( cellDim )
 				.cacheType( maxCacheSize > 0 ? CacheType.BOUNDED : CacheType.SOFTREF )
@@ -799,15 +824,29 @@ public class FusionTools
 		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory( options );
 
 		final long[] dim = input.dimensionsAsLongArray();
-		final CacheLoader< Long, Cell< A > > loader = RandomAccessibleCacheLoader.get(
+		final CacheLoader< Long, Cell< A > > loader = cacheLoader(
 				new CellGrid( dim, cellDim ),
-				input.view().zeroMin(),
+				input,
 				AccessFlags.setOf( AccessFlags.VOLATILE ) );
 		final RandomAccessibleInterval<T> copy = factory.createWithCacheLoader( dim, type, loader );
 
 		return translateIfNecessary( input, copy );
 	}
 
+	/**
+	 * Virtually fused images are computed cell by cell using the {@link FusionKernel}, everything else is copied pixel by pixel.
+	 */
+	protected static < T extends NativeType< T >, A extends ArrayDataAccess< A > > CacheLoader< Long, Cell< A > > cacheLoader(
+			final CellGrid grid,
+			final RandomAccessibleInterval< T > input,
+			final Set< AccessFlags > flags )
+	{
+		if ( input instanceof FusedRandomAccessibleInterval && flags.contains( AccessFlags.VOLATILE ) && !flags.contains( AccessFlags.DIRTY ) )
+			return new FusedCellLoader<>( grid, (FusedRandomAccessibleInterval)input );
+		else
+			return RandomAccessibleCacheLoader.get( grid, input.view().zeroMin(), flags );
+	}
+
 	public static < T extends Type< T > > RandomAccessibleInterval< T > copyImg( final RandomAccessibleInterval< T > input, final ImgFactory< T > factory, final T type, final ExecutorService service  )
 	{
 		return copyImg( input, factory, type, service, false );
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.blk;
+
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Helpers to treat 2D views (single-plane, size 1 in Z) with their 3D
+ * registrations in the block-based fusion.
+ */
+public class Affine2D
+{
+	/**
+	 * Get the 2D transform that corresponds to the given 3D {@code transform}
+	 * of a 2D view. It maps output position {@code (x,y)} to input position
+	 * {@code (x',y')}, where {@code (x',y',z') = transform^-1 (x,y,0)}, i.e.
+	 * it is the XY part of the inverse (including the contribution of the
+	 * Z translation), same as {@code TransformedInputRandomAccess2d}.
+	 *
+	 * @param transform
+	 * 		3D transform from input to output
+	 *
+	 * @return 2D transform from input to output
+	 */
+	public static AffineTransform2D flatten( final AffineTransform3D transform )
+	{
+		final AffineTransform3D inv = transform.inverse();
+		final AffineTransform2D inv2d = new AffineTransform2D();
+		inv2d.set(
+				inv.get( 0, 0 ), inv.get( 0, 1 ), inv.get( 0, 3 ),
+				inv.get( 1, 0 ), inv.get( 1, 1 ), inv.get( 1, 3 ) );
+
+		return inv2d.inverse();
+	}
+
+	/**
+	 * Get a 3D transform that is equivalent to the given 2D or 3D {@code transform}
+	 * in X and Y, and identity in Z.
+	 *
+	 * @param transform
+	 * 		2D or 3D transform
+	 *
+	 * @return 3D transform
+	 */
+	static AffineTransform3D embed( final AffineGet transform )
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		if ( transform.numDimensions() == 3 )
+		{
+			t.set( transform.getRowPackedCopy() );
+		}
+		else if ( transform.numDimensions() == 2 )
+		{
+			t.set(
+					transform.get( 0, 0 ), transform.get( 0, 1 ), 0, transform.get( 0, 2 ),
+					transform.get( 1, 0 ), transform.get( 1, 1 ), 0, transform.get( 1, 2 ),
+					0, 0, 1, 0 );
+		}
+		else
+		{
+			throw new IllegalArgumentException( "Only 2D and 3D transforms are supported." );
+		}
+		return t;
+	}
+
+	private Affine2D()
+	{}
+}
@@ -27,13 +27,14 @@ import java.util.Arrays;
 import net.imglib2.Interval;
 import net.imglib2.algorithm.blocks.BlockSupplier;
 import net.imglib2.blocks.BlockInterval;
+import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
 
 class Blending
 {
 	/**
-	 * Conceptually,the given {@code interval} is filled with blending weights, then transformed with {@code transform}.
+	 * Conceptually,the given 2D or 3D {@code interval} is filled with blending weights, then transformed with {@code transform}.
 	 * <p>
 	 * Blending weights are {@code 0 <= w <= 1}.
 	 * <p>
@@ -50,7 +51,7 @@ class Blending
 			final Interval interval,
 			final float[] border,
 			final float[] blending,
-			final AffineTransform3D transform )
+			final AffineGet transform )
 	{
 		return new BlendingBlockSupplier( interval, border, blending, transform );
 	}
@@ -64,37 +65,37 @@ class Blending
 		 */
 		private final double[] d0;
 
-		private final int n = 3;
+		private final int n;
 
 		/**
 		 * min border distance.
 		 * for {@code x<b0: w(x)=0}.
 		 */
-		private final float[] b0 = new float[ n ];
+		private final float[] b0;
 
 		/**
 		 * min border+blend distance.
 		 * for {@code b0<x<b1: w(x)=fn(x-b0)}.
 		 */
-		private final float[] b1 = new float[ n ];
+		private final float[] b1;
 
 		/**
 		 * max border+blend distance.
 		 * for {@code b1<x<b2: w(x)=1}.
 		 */
-		private final float[] b2 = new float[ n ];
+		private final float[] b2;
 
 		/**
 		 * max border distance.
 		 * for {@code b2<x<b3: w(x)=fn(b3-x)}.
 		 * for {@code b3<x: w(x)=0}.
 		 */
-		private final float[] b3 = new float[ n ];
+		private final float[] b3;
 
 		private final float[] blending;
 
 		/**
-		 * Conceptually,the given {@code interval} is filled with blending weights, then transformed with {@code transform}.
+		 * Conceptually,the given 2D or 3D {@code interval} is filled with blending weights, then transformed with {@code transform}.
 		 * <p>
 		 * Blending weights are {@code 0 <= w <= 1}.
 		 * <p>
@@ -111,31 +112,26 @@ class Blending
 				final Interval interval,
 				final float[] border,
 				final float[] blending,
-				final AffineTransform3D transform )
+				final AffineGet transform )
 		{
+			n = transform.numDimensions();
+			b0 = new float[ n ];
+			b1 = new float[ n ];
+			b2 = new float[ n ];
+			b3 = new float[ n ];
+
 			// concatenate shift-to-interval-min to transform
+			// (2D transforms are embedded into 3D, with identity in Z)
+			final double[] min = new double[ 3 ];
+			for ( int d = 0; d < n; ++d )
+				min[ d ] = interval.min( d );
 			t = new AffineTransform3D();
-			t.translate( interval.minAsDoubleArray() );
-			t.preConcatenate( transform );
+			t.translate( min );
+			t.preConcatenate( Affine2D.embed( transform ) );
 
 			d0 = t.inverse().d( 0 ).positionAsDoubleArray();
 
-			for ( int d = 0; d < n; ++d )
-			{
-				final int dim = ( int ) interval.dimension( d );
-				b0[ d ] = border[ d ];
-				b1[ d ] = border[ d ] + blending[ d ];
-				b2[ d ] = dim - 1 - border[ d ] - blending[ d ];
-				b3[ d ] = dim - 1 - border[ d ];
-
-				if ( b1[ d ] > b2[ d ] ) // there is no "inside region" where w=1
-				{
-					b1[ d ] = ( b1[ d ] + b2[ d ] ) / 2;
-					b2[ d ] = b1[ d ];
-				}
-
-				// TODO handle the case where border is so big that w=0 everywhere
-			}
+			computeBounds( interval, border, blending, b0, b1, b2, b3 );
 
 			this.blending = blending.clone();
 		}
@@ -156,10 +152,10 @@ class Blending
 			final float[] weights = ( float[] ) dest;
 			final long x0 = srcPos[ 0 ];
 			final long y0 = srcPos[ 1 ];
-			final long z0 = srcPos[ 2 ];
+			final long z0 = n > 2 ? srcPos[ 2 ] : 0;
 			final int sx = size[ 0 ];
 			final int sy = size[ 1 ];
-			final int sz = size[ 2 ];
+			final int sz = n > 2 ? size[ 2 ] : 1;
 			final double[] p = { x0, 0, 0 };
 			for ( int z = 0; z < sz; ++z )
 			{
@@ -188,7 +184,6 @@ class Blending
 		@Override
 		public int numDimensions()
 		{
-			// TODO: do we need 2D ????
 			return n;
 		}
 
@@ -208,12 +203,12 @@ class Blending
 				final int length,
 				double[] transformed_start_pos )
 		{
-			final double[] pos = new double[ n ];
+			final double[] pos = new double[ 3 ];
 			t.applyInverse( pos, transformed_start_pos );
 			Arrays.fill( weights, offset, offset + length, 1 );
 			int from = 0;
 			int to = length;
-			for ( int d = 0; d < 3; ++d )
+			for ( int d = 0; d < n; ++d )
 			{
 				final float l0 = ( float ) pos[ d ];
 				final float dd = ( float ) d0[ d ];
@@ -265,57 +260,97 @@ class Blending
 				to = b3di;
 			}
 		}
+	}
 
-		private static float computeWeight(
-				final float l,
-				final float blending,
-				final float b0,
-				final float b1,
-				final float b2,
-				final float b3 )
+	/**
+	 * Compute the bounds of the blending regions in each dimension (relative to the {@code interval} min).
+	 * <ul>
+	 * <li>for {@code x<b0: w(x)=0}.</li>
+	 * <li>for {@code b0<x<b1: w(x)=fn(x-b0)}.</li>
+	 * <li>for {@code b1<x<b2: w(x)=1}.</li>
+	 * <li>for {@code b2<x<b3: w(x)=fn(b3-x)}.</li>
+	 * <li>for {@code b3<x: w(x)=0}.</li>
+	 * </ul>
+	 */
+	static void computeBounds(
+			final Interval interval,
+			final float[] border,
+			final float[] blending,
+			final float[] b0,
+			final float[] b1,
+			final float[] b2,
+			final float[] b3 )
+	{
+		for ( int d = 0; d < b0.length; ++d )
 		{
-			if ( l < b0 )
-				return 0;
-			else if ( l < b1 )
-				return Lookup.get( ( l - b0 ) / blending );
-			else if ( l < b2 )
-				return 1;
-			else if ( l < b3 )
-				return Lookup.get( ( b3 - l ) / blending );
-			else
-				return 0;
+			final int dim = ( int ) interval.dimension( d );
+			b0[ d ] = border[ d ];
+			b1[ d ] = border[ d ] + blending[ d ];
+			b2[ d ] = dim - 1 - border[ d ] - blending[ d ];
+			b3[ d ] = dim - 1 - border[ d ];
+
+			if ( b1[ d ] > b2[ d ] ) // there is no "inside region" where w=1
+			{
+				b1[ d ] = ( b1[ d ] + b2[ d ] ) / 2;
+				b2[ d ] = b1[ d ];
+			}
+
+			// TODO handle the case where border is so big that w=0 everywhere
 		}
+	}
 
-		/**
-		 * Lookup table for blending weight function
-		 * {@code fn(x) = (Math.cos((1 - x) * Math.PI) + 1) / 2}
-		 */
-		private static final class Lookup
-		{
-			private static final int n = 30;
+	/**
+	 * Blending weight at position {@code l} (relative to the interval min) in one dimension.
+	 */
+	static float computeWeight(
+			final float l,
+			final float blending,
+			final float b0,
+			final float b1,
+			final float b2,
+			final float b3 )
+	{
+		if ( l < b0 )
+			return 0;
+		else if ( l < b1 )
+			return Lookup.get( ( l - b0 ) / blending );
+		else if ( l < b2 )
+			return 1;
+		else if ( l < b3 )
+			return Lookup.get( ( b3 - l ) / blending );
+		else
+			return 0;
+	}
+
+	/**
+	 * Lookup table for blending weight function
+	 * {@code fn(x) = (Math.cos((1 - x) * Math.PI) + 1) / 2}
+	 */
+	private static final class Lookup
+	{
+		private static final int n = 30;
 
-			// static lookup table for the blending function
-			// size of the array is n + 2
-			private static final float[] lookUp = createLookup( n );
+		// static lookup table for the blending function
+		// size of the array is n + 2
+		private static final float[] lookUp = createLookup( n );
 
-			private static float[] createLookup( final int n )
+		private static float[] createLookup( final int n )
+		{
+			final float[] lookup = new float[ n + 2 ];
+			for ( int i = 0; i <= n; i++ )
 			{
-				final float[] lookup = new float[ n + 2 ];
-				for ( int i = 0; i <= n; i++ )
-				{
-					final double d = ( double ) i / n;
-					lookup[ i ] = ( float ) ( ( Math.cos( ( 1 - d ) * Math.PI ) + 1 ) / 2 );
-				}
-				lookup[ n + 1 ] = lookup[ n ];
-				return lookup;
+				final double d = ( double ) i / n;
+				lookup[ i ] = ( float ) ( ( Math.cos( ( 1 - d ) * Math.PI ) + 1 ) / 2 );
 			}
+			lookup[ n + 1 ] = lookup[ n ];
+			return lookup;
+		}
 
-			static float get( final float d )
-			{
-				final int i = ( int ) ( d * n );
-				final float s = ( d * n ) - i;
-				return lookUp[ i ] * (1.0f - s) + lookUp[ i + 1 ] * s;
-			}
+		static float get( final float d )
+		{
+			final int i = ( int ) ( d * n );
+			final float s = ( d * n ) - i;
+			return lookUp[ i ] * (1.0f - s) + lookUp[ i + 1 ] * s;
 		}
 	}
 }
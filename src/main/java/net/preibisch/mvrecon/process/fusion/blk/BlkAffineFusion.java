@@ -50,6 +50,7 @@ import net.imglib2.algorithm.blocks.transform.Transform.Interpolation;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.RealUnsignedByteConverter;
 import net.imglib2.converter.RealUnsignedShortConverter;
+import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -65,6 +66,7 @@ import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyAffineFusion;
 import net.preibisch.mvrecon.process.fusion.lazy.LazyFusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.weights.ContentBasedRealRandomAccessible;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class BlkAffineFusion
@@ -89,7 +91,7 @@ public class BlkAffineFusion
 				.filter( BasicViewSetup::hasSize )
 				.allMatch( vs -> vs.getSize().dimension( 2 ) == 1 );
 
-		if ( !supports( is2d, fusionType, intensityAdjustments ) )
+		if ( !supports( fusionType ) )
 		{
 			IOFunctions.println( "BlkAffineFusion: Fusion method not supported (yet). Falling back to LazyAffineFusion." );
 			return LazyAffineFusion.init( converter, imgloader, viewIds, viewRegistrations, viewDescriptions, fusionType, interpolationMethod, intensityAdjustments, fusionInterval, type, blockSize );
@@ -128,12 +130,34 @@ public class BlkAffineFusion
 			final double[] usedDownsampleFactors = new double[ 3 ];
 			RandomAccessibleInterval inputImg = DownsampleTools.openDownsampled( imgloader, viewId, model, usedDownsampleFactors );
 
-			final AffineTransform3D transform = concatenateBoundingBoxOffset( model, fusionInterval );
+			final AffineTransform3D transform3d = concatenateBoundingBoxOffset( model, fusionInterval );
+
+			// 2D views are fused as 2D images, with their registrations reduced to 2D
+			final RandomAccessibleInterval viewImg;
+			final RandomAccessible extendedViewImg;
+			final AffineGet transform;
+			if ( is2d )
+			{
+				viewImg = Views.hyperSlice( inputImg, 2, inputImg.min( 2 ) );
+				extendedViewImg = Views.hyperSlice( extendInput( inputImg ), 2, inputImg.min( 2 ) );
+				transform = Affine2D.flatten( transform3d );
+			}
+			else
+			{
+				viewImg = inputImg;
+				extendedViewImg = extendInput( inputImg );
+				transform = transform3d;
+			}
 
 			final BlockSupplier< FloatType > viewBlocks = transformedBlocks(
-					Cast.unchecked( inputImg ),
+					Cast.unchecked( extendedViewImg ),
 					transform, interpolation );
-			images.add( viewBlocks );
+
+			// intensity adjustment is linear, so it can be applied after interpolation
+			if ( intensityAdjustments != null && intensityAdjustments.containsKey( viewId ) )
+				images.add( viewBlocks.andThen( LinearRange.intensityAdjustment( intensityAdjustments.get( viewId ) ) ) );
+			else
+				images.add( viewBlocks );
 
 			// instantiate blending if necessary
 			final float[] blending = Util.getArrayFromValue( FusionTools.defaultBlendingRange, 3 );
@@ -145,20 +169,28 @@ public class BlkAffineFusion
 			switch ( fusionType )
 			{
 			case AVG:
-				weights.add( Masking.create( inputImg, border, transform ).andThen( Convert.convert( new FloatType() ) ) );
+				weights.add( Masking.create( viewImg, border, transform ).andThen( Convert.convert( new FloatType() ) ) );
 				break;
 			case AVG_BLEND:
-				weights.add( Blending.create( inputImg, border, blending, transform ) );
+				weights.add( Blending.create( viewImg, border, blending, transform ) );
 				break;
 			case MAX:
 			case FIRST_LOW:
-				masks.add( Masking.create( inputImg, border, transform ) );
+				masks.add( Masking.create( viewImg, border, transform ) );
 				break;
 			case FIRST_HIGH:
-				masks.add( Masking.create( inputImg, border, transform ) );
+				masks.add( Masking.create( viewImg, border, transform ) );
 				break;
 			case AVG_CONTENT:
+				weights.add( CombineWeights.mul(
+						Masking.create( viewImg, border, transform ).andThen( Convert.convert( new FloatType() ) ),
+						contentBased( viewImg, viewDescriptions.get( viewId ), usedDownsampleFactors, transform ) ) );
+				break;
 			case AVG_BLEND_CONTENT:
+				weights.add( CombineWeights.mul(
+						Blending.create( viewImg, border, blending, transform ),
+						contentBased( viewImg, viewDescriptions.get( viewId ), usedDownsampleFactors, transform ) ) );
+				break;
 			default:
 				// should never happen
 				throw new IllegalStateException();
@@ -170,6 +202,8 @@ public class BlkAffineFusion
 		{
 		case AVG:
 		case AVG_BLEND:
+		case AVG_CONTENT:
+		case AVG_BLEND_CONTENT:
 			floatBlocks = WeightedAverage.of( images, weights, overlap );
 			break;
 		case MAX:
@@ -181,21 +215,38 @@ public class BlkAffineFusion
 		case FIRST_HIGH:
 			floatBlocks = FirstWinsHighest.of( images, masks, overlap );
 			break;
-		case AVG_CONTENT:
-		case AVG_BLEND_CONTENT:
 		default:
 			// should never happen
 			throw new IllegalStateException();
 		}
 
-		final BlockSupplier< T > blocks = convertToOutputType(
-				floatBlocks,
-				converter, type )
-				.tile( 32 );
-		return BlockAlgoUtils.cellImg( blocks, fusionInterval.dimensionsAsLongArray(), blockSize );
+		if ( is2d )
+		{
+			final BlockSupplier< T > blocks = convertToOutputType(
+					floatBlocks,
+					converter, type )
+					.tile( 128 );
+
+			final int[] blockSize2d = ( blockSize == null )
+					? LazyFusionTools.defaultBlockSize2d
+					: new int[] { blockSize[ 0 ], blockSize[ 1 ] };
+
+			// the fused 2D image is constant along Z (see FusionTools.fuseVirtual)
+			return Views.addDimension(
+					BlockAlgoUtils.cellImg( blocks, new long[] { fusionInterval.dimension( 0 ), fusionInterval.dimension( 1 ) }, blockSize2d ),
+					0, fusionInterval.dimension( 2 ) - 1 );
+		}
+		else
+		{
+			final BlockSupplier< T > blocks = convertToOutputType(
+					floatBlocks,
+					converter, type )
+					.tile( 32 );
+			return BlockAlgoUtils.cellImg( blocks, fusionInterval.dimensionsAsLongArray(), blockSize );
+		}
 	}
 
-	private static < T extends NativeType< T > > BlockSupplier< T > convertToOutputType(
+	static < T extends NativeType< T > > BlockSupplier< T > convertToOutputType(
 			final BlockSupplier< FloatType > floatBlocks,
 			final Converter< FloatType, T > converter,
 			final T type )
@@ -232,17 +283,38 @@ public class BlkAffineFusion
 		}
 	}
 
-	private static < T extends NativeType< T > > BlockSupplier< FloatType > transformedBlocks(
-			final RandomAccessibleInterval< T > inputImg,
-			final AffineTransform3D transform,
+	private static BlockSupplier< FloatType > contentBased(
+			final RandomAccessibleInterval< ? > inputImg,
+			final BasicViewDescription< ? > viewDescription,
+			final double[] usedDownsampleFactors,
+			final AffineGet transform )
+	{
+		final int n = inputImg.numDimensions();
+		final double[] sigma1 = Util.getArrayFromValue( FusionTools.defaultContentBasedSigma1, n );
+		final double[] sigma2 = Util.getArrayFromValue( FusionTools.defaultContentBasedSigma2, n );
+
+		// adjust for downsampling of the input image
+		FusionTools.adjustContentBased( viewDescription, sigma1, sigma2, usedDownsampleFactors );
+
+		return ContentBased.create(
+				Cast.unchecked( inputImg ),
+				sigma1, sigma2,
+				ContentBasedRealRandomAccessible.defaultScale,
+				n == 2 ? LazyFusionTools.defaultBlockSize2d : LazyFusionTools.defaultBlockSize3d,
+				transform );
+	}
+
+	static < T extends NativeType< T > > BlockSupplier< FloatType > transformedBlocks(
+			final RandomAccessible< T > extendedInputImg,
+			final AffineGet transform,
 			final Interpolation interpolation )
 	{
-		return BlockSupplier.of( extendInput( inputImg ) )
+		return BlockSupplier.of( extendedInputImg )
 				.andThen( Convert.convert( new FloatType() ) )
 				.andThen( Transform.affine( transform, interpolation ) );
 	}
 
-	private static < T extends NativeType< T > > RandomAccessible< T > extendInput(
+	static < T extends NativeType< T > > RandomAccessible< T > extendInput(
 			final RandomAccessible< T > input )
 	{
 		if ( input instanceof IntervalView )
@@ -265,7 +337,7 @@ public class BlkAffineFusion
 		}
 	}
 
-	private static AffineTransform3D concatenateBoundingBoxOffset(
+	static AffineTransform3D concatenateBoundingBoxOffset(
 			final AffineTransform3D transformFromSource,
 			final Interval boundingBoxInTarget )
 	{
@@ -280,13 +352,8 @@ public class BlkAffineFusion
 
 
 	private static boolean supports(
-			final boolean is2d,
-			final FusionType fusionType,
-			final Map< ViewId, AffineModel1D > intensityAdjustments )
+			final FusionType fusionType )
 	{
-		if ( is2d )
-			return false; // TODO
-
 		switch ( fusionType )
 		{
 		case AVG_BLEND:
@@ -294,15 +361,11 @@ public class BlkAffineFusion
 		case FIRST_HIGH:
 		case MAX:
 		case AVG:
-			break;
 		case AVG_CONTENT:
 		case AVG_BLEND_CONTENT:
-			return false; // TODO
+			break;
 		}
 
-		if ( intensityAdjustments != null )
-			return false; // TODO
-
 		return true;
 	}
 }
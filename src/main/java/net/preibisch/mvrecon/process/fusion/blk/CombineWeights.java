@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.blk;
+
+import static net.imglib2.type.PrimitiveType.FLOAT;
+import static net.imglib2.util.Util.safeInt;
+
+import net.imglib2.Interval;
+import net.imglib2.algorithm.blocks.AbstractBlockSupplier;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.blocks.BlockInterval;
+import net.imglib2.blocks.TempArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
+
+class CombineWeights
+{
+	/**
+	 * Multiply the weights of {@code weights0} and {@code weights1} per pixel.
+	 * (e.g., blending and content-based weights)
+	 *
+	 * @param weights0
+	 * @param weights1
+	 */
+	public static BlockSupplier< FloatType > mul(
+			final BlockSupplier< FloatType > weights0,
+			final BlockSupplier< FloatType > weights1 )
+	{
+		return new MulBlockSupplier( weights0, weights1 );
+	}
+
+	private static class MulBlockSupplier extends AbstractBlockSupplier< FloatType >
+	{
+		private final BlockSupplier< FloatType > weights0;
+
+		private final BlockSupplier< FloatType > weights1;
+
+		private final TempArray< float[] > tempArray;
+
+		MulBlockSupplier(
+				final BlockSupplier< FloatType > weights0,
+				final BlockSupplier< FloatType > weights1 )
+		{
+			this.weights0 = weights0;
+			this.weights1 = weights1;
+			tempArray = TempArray.forPrimitiveType( FLOAT );
+		}
+
+		private MulBlockSupplier( final MulBlockSupplier s )
+		{
+			weights0 = s.weights0.independentCopy();
+			weights1 = s.weights1.independentCopy();
+			tempArray = TempArray.forPrimitiveType( FLOAT );
+		}
+
+		@Override
+		public void copy( final Interval interval, final Object dest )
+		{
+			final BlockInterval blockInterval = BlockInterval.asBlockInterval( interval );
+			final int len = safeInt( Intervals.numElements( blockInterval.size() ) );
+			final float[] tmp = tempArray.get( len );
+			final float[] fdest = Cast.unchecked( dest );
+
+			weights0.copy( blockInterval, fdest );
+			weights1.copy( blockInterval, tmp );
+			for ( int x = 0; x < len; ++x )
+				fdest[ x ] *= tmp[ x ];
+		}
+
+		@Override
+		public BlockSupplier< FloatType > independentCopy()
+		{
+			return new MulBlockSupplier( this );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return weights0.numDimensions();
+		}
+
+		private static final FloatType type = new FloatType();
+
+		@Override
+		public FloatType getType()
+		{
+			return type;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.blk;
+
+import static net.imglib2.type.PrimitiveType.FLOAT;
+import static net.imglib2.util.Util.safeInt;
+
+import java.util.Arrays;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.AbstractBlockSupplier;
+import net.imglib2.algorithm.blocks.BlockAlgoUtils;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.algorithm.blocks.convert.Convert;
+import net.imglib2.algorithm.blocks.transform.Transform;
+import net.imglib2.blocks.BlockInterval;
+import net.imglib2.blocks.TempArray;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+class ContentBased
+{
+	/**
+	 * Content-based (entropy-like) weights {@code w = G( ( I - G( I, sigma1 ) )^2, sigma2 ) / scale},
+	 * computed in input space and then transformed with {@code transform}.
+	 * <p>
+	 * Weights are computed lazily for each input cell (of size {@code cellSize}) that is touched by a requested
+	 * output block, in two cached steps: {@code ( I - G( I, sigma1 ) )^2} from the mirrored input, and its Gaussian
+	 * from the mirrored squared difference image. This is the same border handling as
+	 * {@code ContentBasedRealRandomAccessible}. Computed cells are cached, so that neighbouring output blocks can share them.
+	 * <p>
+	 * Outside of the input image, weights are {@code w=0}.
+	 *
+	 * @param inputImg
+	 * 		the (downsampled) input image
+	 * @param sigma1
+	 * 		sigma of the first Gaussian (in input pixels)
+	 * @param sigma2
+	 * 		sigma of the second Gaussian (in input pixels)
+	 * @param scale
+	 * 		weights are divided by {@code scale} to put them into a "reasonable" range
+	 * @param cellSize
+	 * 		cell size of the cached input-space weights
+	 * @param transform
+	 * 		transforms input coordinates to output coordinates (2D or 3D, same as {@code inputImg})
+	 */
+	public static < T extends RealType< T > & NativeType< T > > BlockSupplier< FloatType > create(
+			final RandomAccessibleInterval< T > inputImg,
+			final double[] sigma1,
+			final double[] sigma2,
+			final float scale,
+			final int[] cellSize,
+			final AffineGet transform )
+	{
+		final BlockSupplier< FloatType > input = BlockSupplier.of( Views.extendMirrorDouble( Views.zeroMin( inputImg ) ) )
+				.andThen( Convert.convert( new FloatType() ) );
+
+		final int n = inputImg.numDimensions();
+		final float[][] kernel1 = new float[ n ][];
+		final float[][] kernel2 = new float[ n ][];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			kernel1[ d ] = halfKernel( sigma1[ d ] );
+			kernel2[ d ] = halfKernel( sigma2[ d ] );
+		}
+
+		// ( I - G( I, sigma1 ) )^2
+		final RandomAccessibleInterval< FloatType > diff =
+				BlockAlgoUtils.cellImg(
+						new ContentBasedBlockSupplier( input, kernel1, true, 1.0f ),
+						inputImg.dimensionsAsLongArray(),
+						cellSize );
+
+		// G( ( I - G( I, sigma1 ) )^2, sigma2 ) / scale
+		final RandomAccessibleInterval< FloatType > entropy = Views.translate(
+				BlockAlgoUtils.cellImg(
+						new ContentBasedBlockSupplier( BlockSupplier.of( Views.extendMirrorDouble( diff ) ), kernel2, false, scale ),
+						inputImg.dimensionsAsLongArray(),
+						cellSize ),
+				inputImg.minAsLongArray() );
+
+		return BlockSupplier.of( Views.extendZero( entropy ) )
+				.andThen( Transform.affine( transform, Transform.Interpolation.NLINEAR ) );
+	}
+
+	/**
+	 * Either computes {@code ( I - G( I, sigma ) )^2} ({@code squaredDifference}) or {@code G( I, sigma ) / scale}
+	 * of the input, from a source block that is expanded by the halo of the Gaussian.
+	 */
+	private static class ContentBasedBlockSupplier extends AbstractBlockSupplier< FloatType >
+	{
+		private final int n;
+
+		private final BlockSupplier< FloatType > input;
+
+		/**
+		 * half-kernels (including center) of the Gaussian, for every dimension
+		 */
+		private final float[][] kernel;
+
+		private final boolean squaredDifference;
+
+		private final float scale;
+
+		/**
+		 * number of pixels that the source block must be expanded by (on each side) to compute the target block
+		 */
+		private final int[] halo;
+
+		private final TempArray< float[] >[] tempArrays;
+
+		ContentBasedBlockSupplier(
+				final BlockSupplier< FloatType > input,
+				final float[][] kernel,
+				final boolean squaredDifference,
+				final float scale )
+		{
+			this.n = input.numDimensions();
+			this.input = input;
+			this.kernel = kernel;
+			this.squaredDifference = squaredDifference;
+			this.scale = scale;
+
+			halo = new int[ n ];
+			Arrays.setAll( halo, d -> kernel[ d ].length - 1 );
+
+			tempArrays = Cast.unchecked( new TempArray[ 3 ] );
+			Arrays.setAll( tempArrays, i -> TempArray.forPrimitiveType( FLOAT ) );
+		}
+
+		private ContentBasedBlockSupplier( final ContentBasedBlockSupplier s )
+		{
+			n = s.n;
+			input = s.input.independentCopy();
+			kernel = s.kernel;
+			squaredDifference = s.squaredDifference;
+			scale = s.scale;
+			halo = s.halo;
+			tempArrays = Cast.unchecked( new TempArray[ 3 ] );
+			Arrays.setAll( tempArrays, i -> TempArray.forPrimitiveType( FLOAT ) );
+		}
+
+		@Override
+		public void copy( final Interval interval, final Object dest )
+		{
+			final BlockInterval blockInterval = BlockInterval.asBlockInterval( interval );
+			final long[] pos = blockInterval.min();
+			final int[] size = blockInterval.size();
+
+			// source block, expanded by the halo of the Gaussian
+			final long[] srcPos = new long[ n ];
+			final int[] srcSize = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				srcPos[ d ] = pos[ d ] - halo[ d ];
+				srcSize[ d ] = size[ d ] + 2 * halo[ d ];
+			}
+
+			final float[] src = tempArrays[ 0 ].get( safeInt( Intervals.numElements( srcSize ) ) );
+			input.copy( FinalInterval.createMinSize( srcPos, Util.int2long( srcSize ) ), src );
+
+			final float[] fdest = Cast.unchecked( dest );
+			final int[] tmpSize = srcSize.clone();
+
+			if ( squaredDifference )
+			{
+				// G( I, sigma ), on the source block shrunk by the halo
+				final int gIndex = gauss( 0, src, tmpSize, kernel, 0, null );
+
+				// ( I - G( I, sigma ) )^2
+				squaredDifference( src, srcSize, halo, tempArrays[ gIndex ].get( 0 ), tmpSize, fdest );
+			}
+			else
+			{
+				// G( I, sigma ) / scale
+				gauss( 0, src, tmpSize, kernel, -1, fdest );
+
+				if ( scale != 1.0f )
+				{
+					final int len = safeInt( Intervals.numElements( size ) );
+					final float s = 1.0f / scale;
+					for ( int i = 0; i < len; ++i )
+						fdest[ i ] *= s;
+				}
+			}
+		}
+
+		/**
+		 * Separable Gaussian convolution of {@code src}, keeping only the
+		 * pixels for which the kernel is completely inside {@code src}.
+		 * {@code size} is updated to the size of the result.
+		 * Intermediate results alternate between the temporary arrays
+		 * that neither hold the current input nor are {@code reserved}.
+		 *
+		 * @param srcIndex
+		 * 		index of the temporary array holding {@code src}
+		 * @param src
+		 * 		source data
+		 * @param size
+		 * 		size of source data, is updated to the size of the result
+		 * @param kernel
+		 * 		half-kernels for every dimension
+		 * @param reserved
+		 * 		index of a temporary array that must not be overwritten, or -1
+		 * @param dest
+		 * 		array to write the final result to, or {@code null} to use a temporary array
+		 *
+		 * @return index of the temporary array holding the result, or -1 if the result was written to {@code dest}
+		 */
+		private int gauss( final int srcIndex, final float[] src, final int[] size, final float[][] kernel, final int reserved, final float[] dest )
+		{
+			int inIndex = srcIndex;
+			float[] in = src;
+			for ( int d = 0; d < n; ++d )
+			{
+				final int r = kernel[ d ].length - 1;
+				final int[] outSize = size.clone();
+				outSize[ d ] -= 2 * r;
+
+				final int outIndex;
+				final float[] out;
+				if ( d == n - 1 && dest != null )
+				{
+					outIndex = -1;
+					out = dest;
+				}
+				else
+				{
+					int i = 0;
+					while ( i == inIndex || i == reserved )
+						++i;
+					outIndex = i;
+					out = tempArrays[ outIndex ].get( safeInt( Intervals.numElements( outSize ) ) );
+				}
+
+				convolve( in, size, d, kernel[ d ], out );
+				System.arraycopy( outSize, 0, size, 0, n );
+				inIndex = outIndex;
+				in = out;
+			}
+			return inIndex;
+		}
+
+		/**
+		 * Convolve {@code src} in dimension {@code d} with the symmetric kernel given by {@code halfKernel}.
+		 * Only the pixels for which the kernel is completely inside {@code src} are written to {@code dest},
+		 * i.e., {@code dest} is {@code 2*(halfKernel.length-1)} smaller in dimension {@code d}.
+		 */
+		private static void convolve( final float[] src, final int[] size, final int d, final float[] halfKernel, final float[] dest )
+		{
+			final int r = halfKernel.length - 1;
+
+			int inner = 1;
+			for ( int k = 0; k < d; ++k )
+				inner *= size[ k ];
+			int outer = 1;
+			for ( int k = d + 1; k < size.length; ++k )
+				outer *= size[ k ];
+
+			final int srcLine = size[ d ];
+			final int destLine = srcLine - 2 * r;
+
+			for ( int o = 0; o < outer; ++o )
+			{
+				for ( int j = 0; j < destLine; ++j )
+				{
+					final int destOffset = ( o * destLine + j ) * inner;
+					final int srcCenter = ( o * srcLine + j + r ) * inner;
+
+					final float k0 = halfKernel[ 0 ];
+					for ( int i = 0; i < inner; ++i )
+						dest[ destOffset + i ] = k0 * src[ srcCenter + i ];
+
+					for ( int t = 1; t <= r; ++t )
+					{
+						final float kt = halfKernel[ t ];
+						final int srcMinus = srcCenter - t * inner;
+						final int srcPlus = srcCenter + t * inner;
+						for ( int i = 0; i < inner; ++i )
+							dest[ destOffset + i ] += kt * ( src[ srcMinus + i ] + src[ srcPlus + i ] );
+					}
+				}
+			}
+		}
+
+		/**
+		 * Compute {@code diff = (src - g)^2}, where {@code g} is a block of size {@code gSize} located at
+		 * offset {@code gOffset} in the {@code src} block of size {@code srcSize}.
+		 */
+		private static void squaredDifference(
+				final float[] src,
+				final int[] srcSize,
+				final int[] gOffset,
+				final float[] g,
+				final int[] gSize,
+				final float[] diff )
+		{
+			final int n = srcSize.length;
+			final int sx = gSize[ 0 ];
+			final int numLines = safeInt( Intervals.numElements( gSize ) ) / sx;
+			final int[] linePos = new int[ n ];
+			for ( int l = 0; l < numLines; ++l )
+			{
+				// position of the line start in src
+				int srcOffset = 0;
+				for ( int d = n - 1; d >= 0; --d )
+					srcOffset = srcOffset * srcSize[ d ] + linePos[ d ] + gOffset[ d ];
+
+				final int gOffsetLine = l * sx;
+				for ( int x = 0; x < sx; ++x )
+				{
+					final float v = src[ srcOffset + x ] - g[ gOffsetLine + x ];
+					diff[ gOffsetLine + x ] = v * v;
+				}
+
+				// advance to next line
+				for ( int d = 1; d < n; ++d )
+				{
+					if ( ++linePos[ d ] < gSize[ d ] )
+						break;
+					linePos[ d ] = 0;
+				}
+			}
+		}
+
+		/**
+		 * Half-kernel (including center) of a normalized Gaussian, same size as used by {@code Gauss3}.
+		 */
+		private static float[] halfKernel( final double sigma )
+		{
+			final int size = Math.max( 2, ( int ) ( 3 * sigma + 0.5 ) + 1 );
+			final double[] kernel = new double[ size ];
+			final double two_sq_sigma = 2 * sigma * sigma;
+			kernel[ 0 ] = 1;
+			for ( int x = 1; x < size; ++x )
+				kernel[ x ] = Math.exp( -( x * x ) / two_sq_sigma );
+
+			double sum = 0.5 * kernel[ 0 ];
+			for ( int x = 1; x < size; ++x )
+				sum += kernel[ x ];
+			sum *= 2;
+
+			final float[] fkernel = new float[ size ];
+			for ( int x = 0; x < size; ++x )
+				fkernel[ x ] = ( float ) ( kernel[ x ] / sum );
+			return fkernel;
+		}
+
+		@Override
+		public BlockSupplier< FloatType > independentCopy()
+		{
+			return new ContentBasedBlockSupplier( this );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		private static final FloatType type = new FloatType();
+
+		@Override
+		public FloatType getType()
+		{
+			return type;
+		}
+	}
+}
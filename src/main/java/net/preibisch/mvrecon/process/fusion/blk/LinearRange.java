@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.process.fusion.blk;
 
+import mpicbg.models.AffineModel1D;
 import net.imglib2.algorithm.blocks.AbstractDimensionlessBlockProcessor;
 import net.imglib2.algorithm.blocks.BlockProcessor;
 import net.imglib2.algorithm.blocks.DefaultUnaryBlockOperator;
@@ -37,6 +38,22 @@ class LinearRange
 		return new DefaultUnaryBlockOperator<>( type, type, 0, 0, new LinearRangeBlockProcessor( scale, offset ) );
 	}
 
+	/**
+	 * Apply the intensity adjustment {@code model} (see {@code IntensityAdjuster}).
+	 * <p>
+	 * As {@code model} is linear, it can be applied after interpolation, i.e.,
+	 * after the {@code Transform} step, instead of to the input image.
+	 *
+	 * @param model
+	 * 		intensity adjustment
+	 */
+	public static UnaryBlockOperator< FloatType, FloatType > intensityAdjustment( final AffineModel1D model )
+	{
+		final double[] m = new double[ 2 ];
+		model.getMatrix( m );
+		return linearRange( ( float ) m[ 0 ], ( float ) m[ 1 ] );
+	}
+
 	private static class LinearRangeBlockProcessor extends AbstractDimensionlessBlockProcessor< float[], float[] >
 	{
 		private final float scale;
@@ -27,13 +27,14 @@ import java.util.Arrays;
 import net.imglib2.Interval;
 import net.imglib2.algorithm.blocks.BlockSupplier;
 import net.imglib2.blocks.BlockInterval;
+import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 
 class Masking
 {
 	/**
-	 * Conceptually,the given {@code interval} is filled with masking weights, then transformed with {@code transform}.
+	 * Conceptually,the given 2D or 3D {@code interval} is filled with masking weights, then transformed with {@code transform}.
 	 * <p>
 	 * Weights are {@code w=0} for the outermost {@code border} pixels of {@code interval}.
 	 * Weights are {@code w=1} inside {@code border} from the {@code interval} bounds.
@@ -45,7 +46,7 @@ class Masking
 	public static BlockSupplier< UnsignedByteType > create(
 			final Interval interval,
 			final float[] border,
-			final AffineTransform3D transform )
+			final AffineGet transform )
 	{
 		return new MaskingBlockSupplier( interval, border, transform );
 	}
@@ -59,24 +60,24 @@ class Masking
 		 */
 		private final double[] d0;
 
-		private final int n = 3;
+		private final int n;
 
 		/**
 		 * min border distance.
 		 * for {@code x<b0: w(x)=0}.
 		 * for {@code b0<x<b3: w(x)=1}.
 		 */
-		private final float[] b0 = new float[ n ];
+		private final float[] b0;
 
 		/**
 		 * max border distance.
 		 * for {@code b0<x<b3: w(x)=1}.
 		 * for {@code b3<x: w(x)=0}.
 		 */
-		private final float[] b3 = new float[ n ];
+		private final float[] b3;
 
 		/**
-		 * Conceptually,the given {@code interval} is filled with masking weights, then transformed with {@code transform}.
+		 * Conceptually,the given 2D or 3D {@code interval} is filled with masking weights, then transformed with {@code transform}.
 		 * <p>
 		 * Weights are {@code w=0} for the outermost {@code border} pixels of {@code interval}.
 		 * Weights are {@code w=1} inside {@code border} from the {@code interval} bounds.
@@ -88,12 +89,20 @@ class Masking
 		MaskingBlockSupplier(
 				final Interval interval,
 				final float[] border,
-				final AffineTransform3D transform )
+				final AffineGet transform )
 		{
+			n = transform.numDimensions();
+			b0 = new float[ n ];
+			b3 = new float[ n ];
+
 			// concatenate shift-to-interval-min to transform
+			// (2D transforms are embedded into 3D, with identity in Z)
+			final double[] min = new double[ 3 ];
+			for ( int d = 0; d < n; ++d )
+				min[ d ] = interval.min( d );
 			t = new AffineTransform3D();
-			t.translate( interval.minAsDoubleArray() );
-			t.preConcatenate( transform );
+			t.translate( min );
+			t.preConcatenate( Affine2D.embed( transform ) );
 
 			d0 = t.inverse().d( 0 ).positionAsDoubleArray();
 
@@ -123,10 +132,10 @@ class Masking
 			final byte[] weights = ( byte[] ) dest;
 			final long x0 = srcPos[ 0 ];
 			final long y0 = srcPos[ 1 ];
-			final long z0 = srcPos[ 2 ];
+			final long z0 = n > 2 ? srcPos[ 2 ] : 0;
 			final int sx = size[ 0 ];
 			final int sy = size[ 1 ];
-			final int sz = size[ 2 ];
+			final int sz = n > 2 ? size[ 2 ] : 1;
 			final double[] p = { x0, 0, 0 };
 			for ( int z = 0; z < sz; ++z )
 			{
@@ -155,7 +164,6 @@ class Masking
 		@Override
 		public int numDimensions()
 		{
-			// TODO: do we need 2D ????
 			return n;
 		}
 
@@ -175,11 +183,11 @@ class Masking
 				final int length,
 				double[] transformed_start_pos )
 		{
-			final double[] pos = new double[ n ];
+			final double[] pos = new double[ 3 ];
 			t.applyInverse( pos, transformed_start_pos );
 			int b0di = 0;
 			int b3di = length;
-			for ( int d = 0; d < 3; ++d )
+			for ( int d = 0; d < n; ++d )
 			{
 				final float l0 = ( float ) pos[ d ];
 				final float dd = ( float ) d0[ d ];
@@ -0,0 +1,617 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.blk;
+
+import static net.imglib2.algorithm.blocks.transform.Transform.Interpolation.NLINEAR;
+import static net.imglib2.type.PrimitiveType.FLOAT;
+import static net.imglib2.util.Util.safeInt;
+
+import java.util.Arrays;
+
+import mpicbg.models.AffineModel3D;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.AbstractBlockSupplier;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.algorithm.blocks.transform.Transform.Interpolation;
+import net.imglib2.blocks.BlockInterval;
+import net.imglib2.blocks.TempArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.NumericAffineModel3D;
+
+/**
+ * Non-rigid transformation of one view, given by a {@link ModelGrid} of affine
+ * models (world to input coordinates) that are interpolated in world space.
+ * <p>
+ * For each requested output block, the source position of every output pixel
+ * is computed once (per thread) and then shared by the image, blending, and
+ * masking {@code BlockSupplier}s of the view.
+ */
+class NonRigid
+{
+	private static final int n = 3;
+
+	private final RandomAccessibleInterval< NumericAffineModel3D > grid;
+
+	/**
+	 * world position of grid point 0
+	 */
+	private final long[] gridMin;
+
+	/**
+	 * distance between grid points in world coordinates
+	 */
+	private final long[] controlPointDistance;
+
+	/**
+	 * maps the full resolution input to the (downsampled) input image that was opened, or {@code null}
+	 */
+	private final AffineModel3D invertedModelOpener;
+
+	/**
+	 * world position of output pixel 0 (the min of the fusion interval)
+	 */
+	private final long[] offset;
+
+	/**
+	 * the (downsampled) input image interval
+	 */
+	private final Interval inputInterval;
+
+	private final ThreadLocal< SourcePositions > sourcePositions;
+
+	/**
+	 * @param grid
+	 * 		interpolated affine models (world to full resolution input coordinates)
+	 * @param invertedModelOpener
+	 * 		maps the full resolution input to the (downsampled) input image that was opened, or {@code null}
+	 * @param inputInterval
+	 * 		the (downsampled) input image interval
+	 * @param offset
+	 * 		world position of output pixel 0 (the min of the fusion interval)
+	 */
+	NonRigid(
+			final ModelGrid grid,
+			final AffineModel3D invertedModelOpener,
+			final Interval inputInterval,
+			final long[] offset )
+	{
+		this.grid = grid.getGrid();
+		this.gridMin = grid.getMin();
+		this.controlPointDistance = grid.getControlPointDistance();
+		this.invertedModelOpener = invertedModelOpener;
+		this.inputInterval = new FinalInterval( inputInterval );
+		this.offset = offset.clone();
+		this.sourcePositions = ThreadLocal.withInitial( SourcePositions::new );
+	}
+
+	/**
+	 * The input image, non-rigidly transformed into output space.
+	 *
+	 * @param input
+	 * 		the (downsampled, converted to float) input image, must be extended
+	 * @param interpolation
+	 * 		interpolation method
+	 */
+	BlockSupplier< FloatType > images( final BlockSupplier< FloatType > input, final Interpolation interpolation )
+	{
+		return new ImageBlockSupplier( input, interpolation );
+	}
+
+	/**
+	 * Blending weights of the input image (see {@link Blending}), non-rigidly transformed into output space.
+	 */
+	BlockSupplier< FloatType > blending( final float[] border, final float[] blending )
+	{
+		return new BlendingBlockSupplier( border, blending );
+	}
+
+	/**
+	 * Masking weights of the input image (see {@link Masking}), non-rigidly transformed into output space.
+	 */
+	BlockSupplier< UnsignedByteType > masking( final float[] border )
+	{
+		return new MaskingBlockSupplier( border );
+	}
+
+	/**
+	 * Get the source positions (in input image coordinates) of all pixels of the given output block.
+	 * The positions are computed once per thread and output block.
+	 */
+	private SourcePositions sourcePositions( final long[] pos, final int[] size )
+	{
+		final SourcePositions p = sourcePositions.get();
+		if ( !p.isValid( pos, size ) )
+			p.compute( pos, size );
+		return p;
+	}
+
+	private class SourcePositions
+	{
+		private final long[] pos = new long[ n ];
+
+		private final int[] size = new int[ n ];
+
+		private boolean valid = false;
+
+		/**
+		 * source positions, flattened in X,Y,Z order
+		 */
+		double[] x, y, z;
+
+		/**
+		 * bounding box of all source positions, intersected with the input image
+		 */
+		final long[] min = new long[ n ];
+
+		final long[] max = new long[ n ];
+
+		/**
+		 * whether the bounding box of all source positions intersects the input image at all
+		 */
+		boolean intersectsInput;
+
+		boolean isValid( final long[] pos, final int[] size )
+		{
+			return valid && Arrays.equals( this.pos, pos ) && Arrays.equals( this.size, size );
+		}
+
+		void compute( final long[] pos, final int[] size )
+		{
+			System.arraycopy( pos, 0, this.pos, 0, n );
+			System.arraycopy( size, 0, this.size, 0, n );
+
+			final int sx = size[ 0 ];
+			final int sy = size[ 1 ];
+			final int sz = size[ 2 ];
+			final int len = sx * sy * sz;
+			if ( x == null || x.length < len )
+			{
+				x = new double[ len ];
+				y = new double[ len ];
+				z = new double[ len ];
+			}
+
+			// range of grid points that is required for this block
+			final long[] g0 = new long[ n ];
+			final int[] gn = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				final long first = clampGrid( Math.floorDiv( pos[ d ] + offset[ d ] - gridMin[ d ], controlPointDistance[ d ] ), d );
+				final long last = clampGrid( Math.floorDiv( pos[ d ] + size[ d ] - 1 + offset[ d ] - gridMin[ d ], controlPointDistance[ d ] ) + 1, d );
+				g0[ d ] = first;
+				gn[ d ] = ( int ) ( last - first + 1 );
+			}
+
+			final double[] models = gridModels( g0, gn );
+
+			// models interpolated in Y and Z, for all grid points along X
+			final double[] line = new double[ gn[ 0 ] * 12 ];
+			final double[] m = new double[ 12 ];
+
+			Arrays.fill( min, Long.MAX_VALUE );
+			Arrays.fill( max, Long.MIN_VALUE );
+
+			int i = 0;
+			for ( int oz = 0; oz < sz; ++oz )
+			{
+				final double wz = pos[ 2 ] + oz + offset[ 2 ];
+				final double gz = gridPosition( wz, 2, g0, gn );
+				final int iz = Math.max( 0, Math.min( ( int ) gz, gn[ 2 ] - 2 ) );
+				final double fz = gz - iz;
+				final int iz1 = Math.min( iz + 1, gn[ 2 ] - 1 );
+
+				for ( int oy = 0; oy < sy; ++oy )
+				{
+					final double wy = pos[ 1 ] + oy + offset[ 1 ];
+					final double gy = gridPosition( wy, 1, g0, gn );
+					final int iy = Math.max( 0, Math.min( ( int ) gy, gn[ 1 ] - 2 ) );
+					final double fy = gy - iy;
+					final int iy1 = Math.min( iy + 1, gn[ 1 ] - 1 );
+
+					for ( int gx = 0; gx < gn[ 0 ]; ++gx )
+					{
+						final int o00 = ( ( iz * gn[ 1 ] + iy ) * gn[ 0 ] + gx ) * 12;
+						final int o01 = ( ( iz * gn[ 1 ] + iy1 ) * gn[ 0 ] + gx ) * 12;
+						final int o10 = ( ( iz1 * gn[ 1 ] + iy ) * gn[ 0 ] + gx ) * 12;
+						final int o11 = ( ( iz1 * gn[ 1 ] + iy1 ) * gn[ 0 ] + gx ) * 12;
+						final int ol = gx * 12;
+						for ( int k = 0; k < 12; ++k )
+						{
+							final double a = models[ o00 + k ] * ( 1 - fy ) + models[ o01 + k ] * fy;
+							final double b = models[ o10 + k ] * ( 1 - fy ) + models[ o11 + k ] * fy;
+							line[ ol + k ] = a * ( 1 - fz ) + b * fz;
+						}
+					}
+
+					for ( int ox = 0; ox < sx; ++ox, ++i )
+					{
+						final double wx = pos[ 0 ] + ox + offset[ 0 ];
+						final double gx = gridPosition( wx, 0, g0, gn );
+						final int ix = Math.max( 0, Math.min( ( int ) gx, gn[ 0 ] - 2 ) );
+						final double fx = gx - ix;
+						final int ol0 = ix * 12;
+						final int ol1 = Math.min( ix + 1, gn[ 0 ] - 1 ) * 12;
+						for ( int k = 0; k < 12; ++k )
+							m[ k ] = line[ ol0 + k ] * ( 1 - fx ) + line[ ol1 + k ] * fx;
+
+						// m is row-packed
+						final double px = m[ 0 ] * wx + m[ 1 ] * wy + m[ 2 ] * wz + m[ 3 ];
+						final double py = m[ 4 ] * wx + m[ 5 ] * wy + m[ 6 ] * wz + m[ 7 ];
+						final double pz = m[ 8 ] * wx + m[ 9 ] * wy + m[ 10 ] * wz + m[ 11 ];
+						x[ i ] = px;
+						y[ i ] = py;
+						z[ i ] = pz;
+
+						updateBounds( px, 0 );
+						updateBounds( py, 1 );
+						updateBounds( pz, 2 );
+					}
+				}
+			}
+
+			// intersect bounding box (expanded for interpolation) with the input image
+			intersectsInput = true;
+			for ( int d = 0; d < n; ++d )
+			{
+				min[ d ] = Math.max( min[ d ], inputInterval.min( d ) );
+				max[ d ] = Math.min( max[ d ] + 1, inputInterval.max( d ) );
+				if ( min[ d ] > max[ d ] )
+					intersectsInput = false;
+			}
+
+			valid = true;
+		}
+
+		private void updateBounds( final double p, final int d )
+		{
+			final long f = ( long ) Math.floor( p );
+			if ( f < min[ d ] )
+				min[ d ] = f;
+			if ( f > max[ d ] )
+				max[ d ] = f;
+		}
+	}
+
+	/**
+	 * Position in the range of grid points {@code g0 ... g0+gn-1} (relative to {@code g0}),
+	 * clamped to the available grid points.
+	 */
+	private double gridPosition( final double world, final int d, final long[] g0, final int[] gn )
+	{
+		final double g = ( world - gridMin[ d ] ) / controlPointDistance[ d ] - g0[ d ];
+		return Math.max( 0, Math.min( g, gn[ d ] - 1 ) );
+	}
+
+	private long clampGrid( final long g, final int d )
+	{
+		return Math.max( 0, Math.min( g, grid.max( d ) ) );
+	}
+
+	/**
+	 * Get the row-packed affine models (world to (downsampled) input image)
+	 * for the grid points {@code g0 ... g0+gn-1}, flattened in X,Y,Z order.
+	 */
+	private double[] gridModels( final long[] g0, final int[] gn )
+	{
+		final double[] models = new double[ gn[ 0 ] * gn[ 1 ] * gn[ 2 ] * 12 ];
+		final double[] a = new double[ 12 ];
+		final RandomAccess< NumericAffineModel3D > access = grid.randomAccess();
+		final long[] gpos = new long[ n ];
+
+		int o = 0;
+		for ( int gz = 0; gz < gn[ 2 ]; ++gz )
+			for ( int gy = 0; gy < gn[ 1 ]; ++gy )
+				for ( int gx = 0; gx < gn[ 0 ]; ++gx )
+				{
+					gpos[ 0 ] = g0[ 0 ] + gx;
+					gpos[ 1 ] = g0[ 1 ] + gy;
+					gpos[ 2 ] = g0[ 2 ] + gz;
+					access.setPosition( gpos );
+
+					final AffineModel3D model = access.get().getModel().copy();
+					if ( invertedModelOpener != null )
+						model.preConcatenate( invertedModelOpener );
+
+					// toArray() is column-packed
+					model.toArray( a );
+					models[ o++ ] = a[ 0 ];
+					models[ o++ ] = a[ 3 ];
+					models[ o++ ] = a[ 6 ];
+					models[ o++ ] = a[ 9 ];
+					models[ o++ ] = a[ 1 ];
+					models[ o++ ] = a[ 4 ];
+					models[ o++ ] = a[ 7 ];
+					models[ o++ ] = a[ 10 ];
+					models[ o++ ] = a[ 2 ];
+					models[ o++ ] = a[ 5 ];
+					models[ o++ ] = a[ 8 ];
+					models[ o++ ] = a[ 11 ];
+				}
+		return models;
+	}
+
+	private class ImageBlockSupplier extends AbstractBlockSupplier< FloatType >
+	{
+		private final BlockSupplier< FloatType > input;
+
+		private final Interpolation interpolation;
+
+		private final TempArray< float[] > tempArray;
+
+		ImageBlockSupplier( final BlockSupplier< FloatType > input, final Interpolation interpolation )
+		{
+			this.input = input;
+			this.interpolation = interpolation;
+			tempArray = TempArray.forPrimitiveType( FLOAT );
+		}
+
+		private ImageBlockSupplier( final ImageBlockSupplier s )
+		{
+			input = s.input.independentCopy();
+			interpolation = s.interpolation;
+			tempArray = TempArray.forPrimitiveType( FLOAT );
+		}
+
+		@Override
+		public void copy( final Interval interval, final Object dest )
+		{
+			final BlockInterval blockInterval = BlockInterval.asBlockInterval( interval );
+			final int[] size = blockInterval.size();
+			final int len = safeInt( Intervals.numElements( size ) );
+			final float[] fdest = Cast.unchecked( dest );
+
+			final SourcePositions p = sourcePositions( blockInterval.min(), size );
+			if ( !p.intersectsInput )
+			{
+				// weights are 0 everywhere
+				Arrays.fill( fdest, 0, len, 0 );
+				return;
+			}
+
+			// get the input block that covers all source positions
+			final int ssx = ( int ) ( p.max[ 0 ] - p.min[ 0 ] + 1 );
+			final int ssy = ( int ) ( p.max[ 1 ] - p.min[ 1 ] + 1 );
+			final int ssz = ( int ) ( p.max[ 2 ] - p.min[ 2 ] + 1 );
+			final float[] src = tempArray.get( ssx * ssy * ssz );
+			input.copy( FinalInterval.createMinSize( p.min, new long[] { ssx, ssy, ssz } ), src );
+
+			final double minX = p.min[ 0 ];
+			final double minY = p.min[ 1 ];
+			final double minZ = p.min[ 2 ];
+
+			if ( interpolation == NLINEAR )
+			{
+				for ( int i = 0; i < len; ++i )
+				{
+					final double lx = clamp( p.x[ i ] - minX, ssx - 1 );
+					final double ly = clamp( p.y[ i ] - minY, ssy - 1 );
+					final double lz = clamp( p.z[ i ] - minZ, ssz - 1 );
+
+					final int x0 = Math.max( 0, Math.min( ( int ) lx, ssx - 2 ) );
+					final int y0 = Math.max( 0, Math.min( ( int ) ly, ssy - 2 ) );
+					final int z0 = Math.max( 0, Math.min( ( int ) lz, ssz - 2 ) );
+					final float fx = ( float ) ( lx - x0 );
+					final float fy = ( float ) ( ly - y0 );
+					final float fz = ( float ) ( lz - z0 );
+					final int dx = x0 + 1 < ssx ? 1 : 0;
+					final int dy = y0 + 1 < ssy ? ssx : 0;
+					final int dz = z0 + 1 < ssz ? ssx * ssy : 0;
+
+					final int o = ( z0 * ssy + y0 ) * ssx + x0;
+					final float v00 = src[ o ] * ( 1 - fx ) + src[ o + dx ] * fx;
+					final float v01 = src[ o + dy ] * ( 1 - fx ) + src[ o + dy + dx ] * fx;
+					final float v10 = src[ o + dz ] * ( 1 - fx ) + src[ o + dz + dx ] * fx;
+					final float v11 = src[ o + dz + dy ] * ( 1 - fx ) + src[ o + dz + dy + dx ] * fx;
+					final float v0 = v00 * ( 1 - fy ) + v01 * fy;
+					final float v1 = v10 * ( 1 - fy ) + v11 * fy;
+					fdest[ i ] = v0 * ( 1 - fz ) + v1 * fz;
+				}
+			}
+			else
+			{
+				for ( int i = 0; i < len; ++i )
+				{
+					final int x0 = ( int ) Math.round( clamp( p.x[ i ] - minX, ssx - 1 ) );
+					final int y0 = ( int ) Math.round( clamp( p.y[ i ] - minY, ssy - 1 ) );
+					final int z0 = ( int ) Math.round( clamp( p.z[ i ] - minZ, ssz - 1 ) );
+					fdest[ i ] = src[ ( z0 * ssy + y0 ) * ssx + x0 ];
+				}
+			}
+		}
+
+		@Override
+		public BlockSupplier< FloatType > independentCopy()
+		{
+			return new ImageBlockSupplier( this );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public FloatType getType()
+		{
+			return floatType;
+		}
+	}
+
+	private class BlendingBlockSupplier extends AbstractBlockSupplier< FloatType >
+	{
+		private final float[] blending;
+
+		private final float[] b0 = new float[ n ];
+
+		private final float[] b1 = new float[ n ];
+
+		private final float[] b2 = new float[ n ];
+
+		private final float[] b3 = new float[ n ];
+
+		BlendingBlockSupplier( final float[] border, final float[] blending )
+		{
+			this.blending = blending.clone();
+			Blending.computeBounds( inputInterval, border, blending, b0, b1, b2, b3 );
+		}
+
+		@Override
+		public void copy( final Interval interval, final Object dest )
+		{
+			final BlockInterval blockInterval = BlockInterval.asBlockInterval( interval );
+			final int[] size = blockInterval.size();
+			final int len = safeInt( Intervals.numElements( size ) );
+			final float[] fdest = Cast.unchecked( dest );
+
+			final SourcePositions p = sourcePositions( blockInterval.min(), size );
+			if ( !p.intersectsInput )
+			{
+				Arrays.fill( fdest, 0, len, 0 );
+				return;
+			}
+
+			final double minX = inputInterval.min( 0 );
+			final double minY = inputInterval.min( 1 );
+			final double minZ = inputInterval.min( 2 );
+			for ( int i = 0; i < len; ++i )
+			{
+				final float wx = Blending.computeWeight( ( float ) ( p.x[ i ] - minX ), blending[ 0 ], b0[ 0 ], b1[ 0 ], b2[ 0 ], b3[ 0 ] );
+				final float wy = Blending.computeWeight( ( float ) ( p.y[ i ] - minY ), blending[ 1 ], b0[ 1 ], b1[ 1 ], b2[ 1 ], b3[ 1 ] );
+				final float wz = Blending.computeWeight( ( float ) ( p.z[ i ] - minZ ), blending[ 2 ], b0[ 2 ], b1[ 2 ], b2[ 2 ], b3[ 2 ] );
+				fdest[ i ] = wx * wy * wz;
+			}
+		}
+
+		@Override
+		public BlockSupplier< FloatType > threadSafe()
+		{
+			return this;
+		}
+
+		@Override
+		public BlockSupplier< FloatType > independentCopy()
+		{
+			return this;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public FloatType getType()
+		{
+			return floatType;
+		}
+	}
+
+	private class MaskingBlockSupplier extends AbstractBlockSupplier< UnsignedByteType >
+	{
+		private final float[] b0 = new float[ n ];
+
+		private final float[] b3 = new float[ n ];
+
+		MaskingBlockSupplier( final float[] border )
+		{
+			for ( int d = 0; d < n; ++d )
+			{
+				b0[ d ] = border[ d ];
+				b3[ d ] = inputInterval.dimension( d ) - 1 - border[ d ];
+			}
+		}
+
+		@Override
+		public void copy( final Interval interval, final Object dest )
+		{
+			final BlockInterval blockInterval = BlockInterval.asBlockInterval( interval );
+			final int[] size = blockInterval.size();
+			final int len = safeInt( Intervals.numElements( size ) );
+			final byte[] bdest = Cast.unchecked( dest );
+
+			final SourcePositions p = sourcePositions( blockInterval.min(), size );
+			if ( !p.intersectsInput )
+			{
+				Arrays.fill( bdest, 0, len, ( byte ) 0 );
+				return;
+			}
+
+			final double minX = inputInterval.min( 0 );
+			final double minY = inputInterval.min( 1 );
+			final double minZ = inputInterval.min( 2 );
+			for ( int i = 0; i < len; ++i )
+			{
+				final double lx = p.x[ i ] - minX;
+				final double ly = p.y[ i ] - minY;
+				final double lz = p.z[ i ] - minZ;
+				final boolean inside =
+						lx >= b0[ 0 ] && lx <= b3[ 0 ] &&
+						ly >= b0[ 1 ] && ly <= b3[ 1 ] &&
+						lz >= b0[ 2 ] && lz <= b3[ 2 ];
+				bdest[ i ] = inside ? ( byte ) 1 : ( byte ) 0;
+			}
+		}
+
+		@Override
+		public BlockSupplier< UnsignedByteType > threadSafe()
+		{
+			return this;
+		}
+
+		@Override
+		public BlockSupplier< UnsignedByteType > independentCopy()
+		{
+			return this;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public UnsignedByteType getType()
+		{
+			return byteType;
+		}
+	}
+
+	private static double clamp( final double value, final int max )
+	{
+		return Math.max( 0, Math.min( value, max ) );
+	}
+
+	private static final FloatType floatType = new FloatType();
+
+	private static final UnsignedByteType byteType = new UnsignedByteType();
+}
@@ -54,6 +54,8 @@ import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval;
+import net.preibisch.mvrecon.process.fusion.transformed.FusionKernel;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import util.URITools;
 
@@ -149,6 +151,12 @@ public class LazyAffineFusion<T extends RealType<T> & NativeType<T>> implements
 			final Converter<FloatType, T> converter,
 			final T type )
 	{
+		if ( fused instanceof FusedRandomAccessibleInterval )
+		{
+			finish( (FusedRandomAccessibleInterval)fused, output, converter, type );
+			return;
+		}
+
 		final RandomAccessibleInterval<T> converted;
 
 		if ( converter == null && type.getClass().isInstance( new FloatType() ) )
@@ -165,6 +173,37 @@ public class LazyAffineFusion<T extends RealType<T> & NativeType<T>> implements
 			cOut.next().set( cIn.next() );
 	}
 
+	/**
+	 * Computes the entire block at once using the {@link FusionKernel} and writes it to the output
+	 */
+	protected static final <T extends RealType<T>> void finish(
+			final FusedRandomAccessibleInterval fused,
+			final RandomAccessibleInterval<T> output,
+			final Converter<FloatType, T> converter,
+			final T type )
+	{
+		final float[] data = new float[ (int)Intervals.numElements( fused ) ];
+
+		new FusionKernel( fused ).fuse( fused, data );
+
+		final Cursor<T> cOut = Views.flatIterable( output ).cursor();
+		final FloatType value = new FloatType();
+
+		if ( converter == null )
+		{
+			for ( int i = 0; i < data.length; ++i )
+				cOut.next().setReal( data[ i ] );
+		}
+		else
+		{
+			for ( int i = 0; i < data.length; ++i )
+			{
+				value.set( data[ i ] );
+				converter.convert( value, cOut.next() );
+			}
+		}
+	}
+
 	public static final <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> init(
 			final Converter<FloatType, T> converter,
 			final BasicImgLoader imgloader,
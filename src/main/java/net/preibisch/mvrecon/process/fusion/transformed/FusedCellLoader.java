@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.transformed;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
+
+/**
+ * Loads the cells of a cached {@link FusedRandomAccessibleInterval} with the {@link FusionKernel}
+ * instead of copying it pixel by pixel (as RandomAccessibleCacheLoader does). The cells are
+ * defined on the zero-min grid and filled with {@link VolatileFloatArray}s.
+ *
+ * @param <A> - the access type, must be {@link VolatileFloatArray}
+ */
+public class FusedCellLoader< A > implements CacheLoader< Long, Cell< A > >
+{
+	final CellGrid grid;
+	final FusedRandomAccessibleInterval fused;
+	final long[] offset;
+
+	// the kernel holds scratch arrays, one per loading thread
+	final ThreadLocal< FusionKernel > kernel;
+
+	public FusedCellLoader( final CellGrid grid, final FusedRandomAccessibleInterval fused )
+	{
+		this.grid = grid;
+		this.fused = fused;
+		this.offset = fused.minAsLongArray();
+		this.kernel = ThreadLocal.withInitial( () -> new FusionKernel( fused ) );
+	}
+
+	@Override
+	public Cell< A > get( final Long key )
+	{
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+
+		grid.getCellDimensions( key, cellMin, cellDims );
+
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = cellMin[ d ] + offset[ d ];
+			max[ d ] = min[ d ] + cellDims[ d ] - 1;
+		}
+
+		final FinalInterval block = new FinalInterval( min, max );
+		final float[] data = new float[ (int)Intervals.numElements( block ) ];
+
+		kernel.get().fuse( block, data );
+
+		return new Cell<>( cellDims, cellMin, Cast.unchecked( new VolatileFloatArray( data, true ) ) );
+	}
+}
@@ -0,0 +1,369 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.transformed;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInterval.Fusion;
+
+/**
+ * Computes a {@link FusedRandomAccessibleInterval} for an entire block (e.g. a cell of a cached image
+ * or a compute block of the lazy fusion) instead of pixel by pixel. The block is processed in chunks
+ * of lines along dimension 0; for each chunk the weights and intensities of one view after the other
+ * are read into scratch arrays with a single {@link RandomAccess} that only moves along the line,
+ * and the views are then combined with tight loops over primitive arrays.
+ * <p>
+ * Compared to {@link FusedRandomAccess}, {@link FusedRandomAccessMax} and
+ * {@link FusedRandomAccessFirstWins} this avoids advancing all image and weight accesses for every
+ * pixel, and intensities of a view are only read for lines where it has a non-zero weight
+ * (and for FIRST_WINS only for lines that are not already covered). The result is identical.
+ * <p>
+ * An instance holds the scratch arrays and is not thread-safe, use one per thread.
+ */
+public class FusionKernel
+{
+	// upper bound for the number of pixels per chunk, keeps the scratch arrays in the cache
+	public static int defaultChunkSize = 16384;
+
+	final Fusion fusion;
+	final int n, numImages;
+	final RandomAccessible< FloatType >[] images, weights;
+	final int chunkSize;
+
+	final float[] intensity, weight;
+	final double[] sumI, sumW;
+	final boolean[] lineHasData;
+
+	public FusionKernel( final FusedRandomAccessibleInterval fused )
+	{
+		this( fused.getFusion(), fused.numDimensions(), fused.getImages(), fused.getWeights(), defaultChunkSize );
+	}
+
+	@SuppressWarnings("unchecked")
+	public FusionKernel(
+			final Fusion fusion,
+			final int n,
+			final List< ? extends RandomAccessible< FloatType > > images,
+			final List< ? extends RandomAccessible< FloatType > > weights,
+			final int chunkSize )
+	{
+		this.fusion = fusion;
+		this.n = n;
+		this.numImages = images.size();
+		this.chunkSize = Math.max( 1, chunkSize );
+
+		this.images = images.toArray( new RandomAccessible[ numImages ] );
+		this.weights = ( weights == null || weights.size() == 0 ) ? null : weights.toArray( new RandomAccessible[ numImages ] );
+
+		if ( this.weights == null && fusion == Fusion.FIRST_WINS )
+			throw new RuntimeException( "FIRST_WINS fusion requires weights." );
+
+		this.intensity = new float[ this.chunkSize ];
+		this.weight = new float[ this.chunkSize ];
+		this.sumI = new double[ this.chunkSize ];
+		this.sumW = new double[ this.chunkSize ];
+		this.lineHasData = new boolean[ this.chunkSize ];
+	}
+
+	/**
+	 * Fuses the block into a flat array, in flat iteration order of the block (dimension 0 fastest).
+	 *
+	 * @param block - the block in the coordinate system of the images
+	 * @param target - the output, at least Intervals.numElements( block ) long
+	 */
+	public void fuse( final Interval block, final float[] target )
+	{
+		final int lineLength = (int)block.dimension( 0 );
+		final long numPixels = Intervals.numElements( block );
+
+		if ( numPixels > target.length )
+			throw new RuntimeException( "Target array too small: " + target.length + " < " + numPixels );
+
+		final long numLines = numPixels / lineLength;
+
+		// lines per chunk, a single line might be longer than the chunk size
+		final int linesPerChunk = Math.max( 1, chunkSize / lineLength );
+
+		final float[] intensity, weight;
+		final double[] sumI, sumW;
+		final boolean[] lineHasData;
+
+		if ( linesPerChunk * lineLength > chunkSize )
+		{
+			intensity = new float[ lineLength ];
+			weight = new float[ lineLength ];
+			sumI = new double[ lineLength ];
+			sumW = new double[ lineLength ];
+			lineHasData = new boolean[ 1 ];
+		}
+		else
+		{
+			intensity = this.intensity;
+			weight = this.weight;
+			sumI = this.sumI;
+			sumW = this.sumW;
+			lineHasData = this.lineHasData;
+		}
+
+		final long[] lineStart = new long[ n ];
+		final RandomAccess< FloatType >[] ri = randomAccesses( images, block );
+		final RandomAccess< FloatType >[] rw = weights == null ? null : randomAccesses( weights, block );
+
+		for ( long firstLine = 0; firstLine < numLines; firstLine += linesPerChunk )
+		{
+			final int lines = (int)Math.min( linesPerChunk, numLines - firstLine );
+			final int size = lines * lineLength;
+			final int offset = (int)( firstLine * lineLength );
+
+			if ( fusion == Fusion.AVG )
+			{
+				if ( weights == null )
+					avgNoWeights( block, firstLine, lines, lineLength, lineStart, ri, intensity, sumI );
+				else
+					avg( block, firstLine, lines, lineLength, lineStart, ri, rw, intensity, weight, sumI, sumW, lineHasData );
+
+				if ( weights == null )
+					for ( int k = 0; k < size; ++k )
+						target[ offset + k ] = (float)sumI[ k ];
+				else
+					for ( int k = 0; k < size; ++k )
+						target[ offset + k ] = sumW[ k ] > 0 ? (float)( sumI[ k ] / sumW[ k ] ) : 0;
+			}
+			else if ( fusion == Fusion.MAX )
+			{
+				max( block, firstLine, lines, lineLength, lineStart, ri, intensity, sumI );
+
+				for ( int k = 0; k < size; ++k )
+					target[ offset + k ] = (float)sumI[ k ];
+			}
+			else
+			{
+				firstWins( block, firstLine, lines, lineLength, lineStart, ri, rw, intensity, weight, sumI, sumW, lineHasData );
+
+				for ( int k = 0; k < size; ++k )
+					target[ offset + k ] = (float)sumI[ k ];
+			}
+		}
+	}
+
+	protected void avgNoWeights(
+			final Interval block, final long firstLine, final int lines, final int lineLength, final long[] lineStart,
+			final RandomAccess< FloatType >[] ri,
+			final float[] intensity, final double[] sumI )
+	{
+		final int size = lines * lineLength;
+
+		Arrays.fill( sumI, 0, size, 0 );
+
+		for ( int j = 0; j < numImages; ++j )
+		{
+			for ( int l = 0; l < lines; ++l )
+				readLine( ri[ j ], block, firstLine + l, lineStart, intensity, l * lineLength, lineLength );
+
+			for ( int k = 0; k < size; ++k )
+				sumI[ k ] += intensity[ k ];
+		}
+	}
+
+	protected void avg(
+			final Interval block, final long firstLine, final int lines, final int lineLength, final long[] lineStart,
+			final RandomAccess< FloatType >[] ri, final RandomAccess< FloatType >[] rw,
+			final float[] intensity, final float[] weight, final double[] sumI, final double[] sumW, final boolean[] lineHasData )
+	{
+		final int size = lines * lineLength;
+
+		Arrays.fill( sumI, 0, size, 0 );
+		Arrays.fill( sumW, 0, size, 0 );
+
+		for ( int j = 0; j < numImages; ++j )
+		{
+			// weights first, intensities are only needed where a weight is non-zero
+			if ( !readWeights( rw[ j ], block, firstLine, lines, lineLength, lineStart, weight, lineHasData ) )
+				continue;
+
+			for ( int l = 0; l < lines; ++l )
+			{
+				if ( !lineHasData[ l ] )
+					continue;
+
+				final int o = l * lineLength;
+
+				readLine( ri[ j ], block, firstLine + l, lineStart, intensity, o, lineLength );
+
+				for ( int k = o; k < o + lineLength; ++k )
+				{
+					final float w = weight[ k ];
+
+					if ( w != 0 )
+					{
+						sumI[ k ] += (double)intensity[ k ] * w;
+						sumW[ k ] += w;
+					}
+				}
+			}
+		}
+	}
+
+	protected void max(
+			final Interval block, final long firstLine, final int lines, final int lineLength, final long[] lineStart,
+			final RandomAccess< FloatType >[] ri,
+			final float[] intensity, final double[] max )
+	{
+		final int size = lines * lineLength;
+
+		Arrays.fill( max, 0, size, 0 );
+
+		for ( int j = 0; j < numImages; ++j )
+		{
+			for ( int l = 0; l < lines; ++l )
+				readLine( ri[ j ], block, firstLine + l, lineStart, intensity, l * lineLength, lineLength );
+
+			for ( int k = 0; k < size; ++k )
+				max[ k ] = Math.max( max[ k ], intensity[ k ] );
+		}
+	}
+
+	protected void firstWins(
+			final Interval block, final long firstLine, final int lines, final int lineLength, final long[] lineStart,
+			final RandomAccess< FloatType >[] ri, final RandomAccess< FloatType >[] rw,
+			final float[] intensity, final float[] weight, final double[] value, final double[] covered, final boolean[] lineHasData )
+	{
+		final int size = lines * lineLength;
+
+		Arrays.fill( value, 0, size, 0 );
+		Arrays.fill( covered, 0, size, 0 );
+
+		// number of pixels of the chunk that are not yet covered by a view
+		int remaining = size;
+
+		for ( int j = 0; j < numImages && remaining > 0; ++j )
+		{
+			if ( !readWeights( rw[ j ], block, firstLine, lines, lineLength, lineStart, weight, lineHasData ) )
+				continue;
+
+			for ( int l = 0; l < lines; ++l )
+			{
+				if ( !lineHasData[ l ] )
+					continue;
+
+				final int o = l * lineLength;
+
+				// is there anything left to fill in this line
+				boolean needed = false;
+
+				for ( int k = o; k < o + lineLength && !needed; ++k )
+					needed = covered[ k ] == 0 && weight[ k ] > 0;
+
+				if ( !needed )
+					continue;
+
+				readLine( ri[ j ], block, firstLine + l, lineStart, intensity, o, lineLength );
+
+				for ( int k = o; k < o + lineLength; ++k )
+				{
+					// first one with data wins
+					if ( covered[ k ] == 0 && weight[ k ] > 0 )
+					{
+						value[ k ] = intensity[ k ];
+						covered[ k ] = 1;
+						--remaining;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if any weight of the chunk is non-zero, lineHasData is set per line
+	 */
+	protected static boolean readWeights(
+			final RandomAccess< FloatType > rw,
+			final Interval block, final long firstLine, final int lines, final int lineLength, final long[] lineStart,
+			final float[] weight, final boolean[] lineHasData )
+	{
+		boolean any = false;
+
+		for ( int l = 0; l < lines; ++l )
+		{
+			final int o = l * lineLength;
+
+			readLine( rw, block, firstLine + l, lineStart, weight, o, lineLength );
+
+			boolean hasData = false;
+
+			for ( int k = o; k < o + lineLength; ++k )
+				hasData |= weight[ k ] != 0;
+
+			lineHasData[ l ] = hasData;
+			any |= hasData;
+		}
+
+		return any;
+	}
+
+	protected static void readLine(
+			final RandomAccess< FloatType > ra,
+			final Interval block,
+			final long line,
+			final long[] lineStart,
+			final float[] target,
+			final int offset,
+			final int lineLength )
+	{
+		// position of the first pixel of the line (flat line index -> position in dimensions 1...n-1)
+		long l = line;
+		lineStart[ 0 ] = block.min( 0 );
+
+		for ( int d = 1; d < lineStart.length; ++d )
+		{
+			final long dim = block.dimension( d );
+			lineStart[ d ] = block.min( d ) + l % dim;
+			l /= dim;
+		}
+
+		ra.setPosition( lineStart );
+
+		for ( int k = 0; k < lineLength; ++k )
+		{
+			target[ offset + k ] = ra.get().get();
+			ra.fwd( 0 );
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static RandomAccess< FloatType >[] randomAccesses( final RandomAccessible< FloatType >[] imgs, final Interval block )
+	{
+		final RandomAccess< FloatType >[] ras = new RandomAccess[ imgs.length ];
+
+		for ( int j = 0; j < imgs.length; ++j )
+			ras[ j ] = imgs[ j ].randomAccess( block );
+
+		return ras;
+	}
+}
@@ -140,6 +140,21 @@ public class ModelGrid implements RealRandomAccessible< NumericAffineModel3D >
 
 	public double getAlpha() { return alpha; }
 
+	/**
+	 * @return the grid of models, zero-min (the world position of grid point {@code i} is {@code i * controlPointDistance + min})
+	 */
+	public RandomAccessibleInterval< NumericAffineModel3D > getGrid() { return grid; }
+
+	/**
+	 * @return the world position of grid point {@code 0}
+	 */
+	public long[] getMin() { return min; }
+
+	/**
+	 * @return the distance between grid points in world coordinates
+	 */
+	public long[] getControlPointDistance() { return controlPointDistance; }
+
 	protected static final void getWorldCoordinates( final double[] pos, final Localizable l, final long[] min, final long[] controlPointDistance, final int n )
 	{
 		for ( int d = 0; d < n; ++d )
@@ -22,13 +22,21 @@
  */
 package net.preibisch.mvrecon.process.interestpointdetection.methods.dog;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Dimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
@@ -41,6 +49,7 @@ import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 
@@ -122,7 +131,33 @@ public class DoG
 		return ips;
 	}
 
+	/**
+	 * If true, several views are processed concurrently on one shared work-stealing pool
+	 * (loading, Gaussian blurring and peak finding of different views overlap), otherwise
+	 * one view after the other. Views are always processed sequentially when using CUDA.
+	 */
+	public static boolean parallelViews = true;
+
+	/**
+	 * Fraction of the maximal heap size that views being processed concurrently may occupy
+	 */
+	public static double memoryFraction = 0.5;
+
+	/**
+	 * Estimated bytes per (downsampled) pixel of a view while it is processed: the loaded
+	 * image (which is not virtual) plus the two cached Gaussian convolutions (FloatType).
+	 */
+	public static int bytesPerPixel = 12;
+
 	public static void addInterestPoints( final HashMap< ViewId, List< InterestPoint > > interestPoints, final DoGParameters dog )
+	{
+		if ( parallelViews && dog.cuda == null && dog.toProcess.size() > 1 )
+			addInterestPointsParallel( interestPoints, dog );
+		else
+			addInterestPointsSequential( interestPoints, dog );
+	}
+
+	protected static void addInterestPointsSequential( final HashMap< ViewId, List< InterestPoint > > interestPoints, final DoGParameters dog )
 	{
 		if ( dog.showProgress() )
 			IJ.showProgress( dog.showProgressMin );
@@ -143,50 +178,12 @@ public class DoG
 
 				final ExecutorService service = Threads.createFixedExecutorService( Threads.numThreads() );
 
-				// downsampling is not virtual!
-				@SuppressWarnings({"rawtypes" })
-				final Pair<RandomAccessibleInterval, AffineTransform3D> input =
-						DownsampleTools.openAndDownsample(
-								dog.imgloader,
-								vd,
-								new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ },
-								false );
-
-				List< InterestPoint > ips = DoGImgLib2.computeDoG(
-							(RandomAccessible)Views.extendMirrorSingle( input.getA() ),
-							null, // mask
-							new FinalInterval( input.getA() ),
-							dog.sigma,
-							dog.threshold,
-							dog.localization,
-							dog.findMin,
-							dog.findMax,
-							dog.minIntensity,
-							dog.maxIntensity,
-							DoGImgLib2.blockSize,
-							service,
-							dog.cuda,
-							dog.deviceCUDA,
-							dog.accurateCUDA,
-							dog.percentGPUMem );
+				interestPoints.put( vd, detect( vd, dog, service ) );
 
 				service.shutdown();
-
-				if ( dog.limitDetections )
-					ips = InterestPointTools.limitList( dog.maxDetections, dog.maxDetectionsTypeIndex, ips );
-
-				DownsampleTools.correctForDownsampling( ips, input.getB() );
-
-				interestPoints.put( vd, ips );
 			} catch ( Exception e )
 			{
-				IOFunctions.println( "An error occured (DOG): " + e );
-				IOFunctions.println( "Failed to segment angleId: "
-						+ vd.getViewSetup().getAngle().getId() + " channelId: "
-						+ vd.getViewSetup().getChannel().getId() + " illumId: "
-						+ vd.getViewSetup().getIllumination().getId()
-						+ ". Continuing with next one." );
-				e.printStackTrace();
+				printError( vd, e );
 			}
 
 			if ( dog.showProgress() )
@@ -197,4 +194,164 @@ public class DoG
 		if ( dog.showProgress() )
 			IJ.showProgress( dog.showProgressMax );
 	}
+
+	/**
+	 * Processes all views on one shared {@link ForkJoinPool}. Views are submitted in order as long as their
+	 * estimated memory fits into {@link #memoryFraction} of the heap (a single view that is larger than the
+	 * budget is processed alone). All parallel steps within a view (min/max, lazy Gaussian blocks, peak finding
+	 * and localization) run as tasks of the same pool, so idle threads steal work from other views.
+	 */
+	protected static void addInterestPointsParallel( final HashMap< ViewId, List< InterestPoint > > interestPoints, final DoGParameters dog )
+	{
+		if ( dog.showProgress() )
+			IJ.showProgress( dog.showProgressMin );
+
+		final long start = System.currentTimeMillis();
+
+		final int budgetMB = (int)Math.max( 1, Math.min( Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() * memoryFraction / ( 1024 * 1024 ) ) );
+		final Semaphore memory = new Semaphore( budgetMB );
+
+		final ForkJoinPool pool = new ForkJoinPool( Threads.numThreads() );
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		final AtomicInteger count = new AtomicInteger( 1 );
+
+		final boolean silent = DoGImgLib2.silent;
+
+		// the per-view output of DoGImgLib2 would be interleaved
+		DoGImgLib2.silent = true;
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Detecting interest points in " + dog.toProcess.size() +
+				" views using " + pool.getParallelism() + " threads and up to " + budgetMB + " MB." );
+
+		try
+		{
+			for ( final ViewDescription vd : dog.toProcess )
+			{
+				if ( !vd.isPresent() )
+					continue;
+
+				final int permits = Math.min( budgetMB, estimateMB( vd, dog ) );
+
+				// blocks the submitting thread only, not the workers
+				memory.acquire( permits );
+
+				futures.add( pool.submit( () ->
+				{
+					try
+					{
+						final long t0 = System.currentTimeMillis();
+
+						final List< InterestPoint > ips = detect( vd, dog, pool );
+
+						synchronized ( interestPoints )
+						{
+							interestPoints.put( vd, ips );
+						}
+
+						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): " + Group.pvid( vd ) + ": " + ips.size() +
+								" interest points, took " + ( System.currentTimeMillis() - t0 ) + " ms." );
+					}
+					catch ( Exception e )
+					{
+						printError( vd, e );
+					}
+					finally
+					{
+						memory.release( permits );
+
+						if ( dog.showProgress() )
+							IJ.showProgress( dog.showProgressMin +
+									( (double)(count.getAndIncrement()) / (double)dog.toProcess.size() ) / ( dog.showProgressMax - dog.showProgressMin ) );
+					}
+				} ) );
+			}
+
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to detect interest points: " + e );
+			e.printStackTrace();
+		}
+		finally
+		{
+			pool.shutdown();
+			DoGImgLib2.silent = silent;
+		}
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Detection in " + dog.toProcess.size() + " views took " +
+				( System.currentTimeMillis() - start ) + " ms." );
+
+		if ( dog.showProgress() )
+			IJ.showProgress( dog.showProgressMax );
+	}
+
+	protected static List< InterestPoint > detect( final ViewDescription vd, final DoGParameters dog, final ExecutorService service )
+	{
+		// downsampling is not virtual!
+		@SuppressWarnings({"rawtypes" })
+		final Pair<RandomAccessibleInterval, AffineTransform3D> input =
+				DownsampleTools.openAndDownsample(
+						dog.imgloader,
+						vd,
+						new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ },
+						false );
+
+		@SuppressWarnings("unchecked")
+		List< InterestPoint > ips = DoGImgLib2.computeDoG(
+					(RandomAccessible)Views.extendMirrorSingle( input.getA() ),
+					null, // mask
+					new FinalInterval( input.getA() ),
+					dog.sigma,
+					dog.threshold,
+					dog.localization,
+					dog.findMin,
+					dog.findMax,
+					dog.minIntensity,
+					dog.maxIntensity,
+					DoGImgLib2.blockSize,
+					service,
+					dog.cuda,
+					dog.deviceCUDA,
+					dog.accurateCUDA,
+					dog.percentGPUMem );
+
+		if ( dog.limitDetections )
+			ips = InterestPointTools.limitList( dog.maxDetections, dog.maxDetectionsTypeIndex, ips );
+
+		DownsampleTools.correctForDownsampling( ips, input.getB() );
+
+		return ips;
+	}
+
+	protected static int estimateMB( final ViewDescription vd, final DoGParameters dog )
+	{
+		final Dimensions size;
+
+		if ( vd.getViewSetup().hasSize() )
+			size = vd.getViewSetup().getSize();
+		else
+			size = dog.imgloader.getSetupImgLoader( vd.getViewSetupId() ).getImageSize( vd.getTimePointId() );
+
+		// downsampleXY <= 0 chooses the downsampling automatically, assume none
+		final long[] ds = new long[] { Math.max( 1, dog.downsampleXY ), Math.max( 1, dog.downsampleXY ), Math.max( 1, dog.downsampleZ ) };
+
+		long numPixels = 1;
+		for ( int d = 0; d < size.numDimensions(); ++d )
+			numPixels *= Math.max( 1, size.dimension( d ) / ds[ Math.min( d, ds.length - 1 ) ] );
+
+		return (int)Math.max( 1, Math.min( Integer.MAX_VALUE, numPixels * bytesPerPixel / ( 1024 * 1024 ) ) );
+	}
+
+	private static void printError( final ViewDescription vd, final Exception e )
+	{
+		IOFunctions.println( "An error occured (DOG): " + e );
+		IOFunctions.println( "Failed to segment angleId: "
+				+ vd.getViewSetup().getAngle().getId() + " channelId: "
+				+ vd.getViewSetup().getChannel().getId() + " illumId: "
+				+ vd.getViewSetup().getIllumination().getId()
+				+ ". Continuing with next one." );
+		e.printStackTrace();
+	}
 }
@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import bdv.BigDataViewer;
 import mpicbg.models.AbstractAffineModel3D;
@@ -71,6 +72,8 @@ import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsN5;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.PackedInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximal;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -711,10 +714,22 @@ public class TransformationTools
 			final boolean transform )
 	{
 		final HashMap< String, List< InterestPoint > > lists = new HashMap<>();
+		final AffineTransform3D t = transform ? getTransform( viewId, registrations ) : null;
 
 		labelMap.get( viewId ).forEach( ( label, weight ) -> {
 
-			final List< InterestPoint > listLocal = interestpoints.get( viewId ).getInterestPointList( label ).getInterestPointsCopy();
+			final List< InterestPoint > listLocal = loadInterestPoints( interestpoints.get( viewId ).getInterestPointList( label ), t, null );
+
+			if ( listLocal == null )
+			{
+				if ( ViewId.class.isInstance( viewId ))
+					IOFunctions.println( "WARNING: no interestpoints could be loaded for " + Group.pvid( (ViewId)viewId ) + ", label '" + label + "'" );
+				else
+					IOFunctions.println( "WARNING: no interestpoints could be loaded for " + viewId + ", label '" + label + "'" );
+
+				lists.put( label, new ArrayList<>() );
+				return;
+			}
 
 			lists.put( label, listLocal );
 
@@ -727,15 +742,7 @@ public class TransformationTools
 			}
 		});
 
-		if ( transform )
-		{
-			final AffineTransform3D t = getTransform( viewId, registrations );
-			return applyTransformation( lists, t );
-		}
-		else
-		{
-			return lists;
-		}
+		return lists;
 	}
 
 	/* call this method to load interestpoints and apply current transformation */
@@ -757,10 +764,16 @@ public class TransformationTools
 			final boolean transform )
 	{
 		final InterestPoints ipList = interestpoints.get( viewId ).getInterestPointList( labelMap.get( viewId ) );
-		final List< InterestPoint > allPoints = ipList.getInterestPointsCopy();
-		final ArrayList< InterestPoint > corrPoints = new ArrayList<>();
 
-		if ( allPoints == null )
+		// keep only those interest points who have correspondences
+		final HashSet< Integer > idSet = new HashSet<>();
+
+		for ( final CorrespondingInterestPoints cip : ipList.getCorrespondingInterestPointsCopy() )
+			idSet.add( cip.getDetectionId() );
+
+		final List< InterestPoint > corrPoints = loadInterestPoints( ipList, transform ? getTransform( viewId, registrations ) : null, idSet );
+
+		if ( corrPoints == null )
 		{
 			if ( ViewId.class.isInstance( viewId  ))
 				IOFunctions.println( "WARNING: no interestpoints could be loaded for " + Group.pvid( (ViewId)viewId ) + ", label '" + labelMap.get( viewId ) + "'" );
@@ -770,25 +783,63 @@ public class TransformationTools
 			return new ArrayList<>();
 		}
 
-		// keep only those interest points who have correspondences
-		final HashSet< Integer > idSet = new HashSet<>();
+		return corrPoints;
+	}
 
-		for ( final CorrespondingInterestPoints cip : ipList.getCorrespondingInterestPointsCopy() )
-			idSet.add( cip.getDetectionId() );
+	/**
+	 * Loads (a subset of) the interest points and applies a transformation. Interest points stored in N5 are read
+	 * through {@link PackedInterestPoints} (which is loaded once per view and label), so the full list is neither
+	 * cached in the {@link InterestPoints} object nor copied, only the returned (transformed, selected) points are created.
+	 *
+	 * @param ipList - the interest points
+	 * @param t - the transformation to apply, or null
+	 * @param ids - the ids of the interest points to keep, or null for all
+	 * @return the interest points, or null if they could not be loaded
+	 */
+	public static List< InterestPoint > loadInterestPoints( final InterestPoints ipList, final AffineTransform3D t, final Set< Integer > ids )
+	{
+		if ( ipList instanceof InterestPointsN5 )
+		{
+			final PackedInterestPoints table = ( (InterestPointsN5)ipList ).getPackedInterestPoints( false );
 
-		for ( final InterestPoint ip : allPoints )
-			if ( idSet.contains( ip.getId() ) )
-				corrPoints.add( ip );
+			if ( table == null )
+				return null;
 
-		if ( transform )
-		{
-			final AffineTransform3D t = getTransform( viewId, registrations );
-			return applyTransformation( corrPoints, t );
-		}
-		else
-		{
-			return corrPoints;
+			final ArrayList< InterestPoint > list = new ArrayList<>( ids == null ? table.size() : ids.size() );
+			final double[] l = new double[ table.numDimensions() ];
+
+			for ( int i = 0; i < table.size(); ++i )
+			{
+				if ( ids != null && !ids.contains( table.getId( i ) ) )
+					continue;
+
+				table.getL( i, l );
+
+				final double[] w = new double[ l.length ];
+
+				if ( t == null )
+					System.arraycopy( l, 0, w, 0, l.length );
+				else
+					t.apply( l, w );
+
+				list.add( new InterestPoint( table.getId( i ), w ) );
+			}
+
+			return list;
 		}
+
+		final List< InterestPoint > allPoints = ipList.getInterestPointsCopy();
+
+		if ( allPoints == null )
+			return null;
+
+		final ArrayList< InterestPoint > list = new ArrayList<>();
+
+		for ( final InterestPoint ip : allPoints )
+			if ( ids == null || ids.contains( ip.getId() ) )
+				list.add( ip );
+
+		return t == null ? list : applyTransformation( list, t );
 	}
 
 	public static <V> AffineTransform3D getTransform( final V viewId, final Map< V, ViewRegistration > registrations )
@@ -28,18 +28,17 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import mpicbg.models.Affine3D;
 import mpicbg.models.AffineModel3D;
-import mpicbg.models.ErrorStatistic;
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.Model;
 import mpicbg.models.NotEnoughDataPointsException;
 import mpicbg.models.RigidModel3D;
 import mpicbg.models.Tile;
 import mpicbg.models.TileConfiguration;
-import mpicbg.models.TileUtil;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
@@ -47,6 +46,7 @@ import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SolverStatistics;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 /**
@@ -109,7 +109,7 @@ public class GlobalOpt
 
 			System.out.println( "new code ... ");
 
-			tc.optimizeSilently(new ErrorStatistic( cs.getMaxPlateauWidth() + 1 ), cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+			final SolverStatistics stats = cs.getSolver().solve( tc, orderedTiles( views, map, tc ), cs );
 			//tc.optimize( cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
 
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + 
@@ -117,6 +117,7 @@ public class GlobalOpt
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Min Error: " + tc.getMinError() + "px" );
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Max Error: " + tc.getMaxError() + "px" );
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    " + stats );
 		}
 		catch (NotEnoughDataPointsException e)
 		{
@@ -182,6 +183,31 @@ public class GlobalOpt
 		return new ValuePair<>( map, groups );
 	}
 
+	/**
+	 * @param views - all views, sorted
+	 * @param map - the tile of each view
+	 * @param tc - the tile configuration
+	 * @param <M> model type
+	 * @return all tiles of the tile configuration in the order of the views (for deterministic results)
+	 */
+	public static < M extends Model< M > > ArrayList< Tile< ? > > orderedTiles(
+			final List< ViewId > views,
+			final HashMap< ViewId, Tile< M > > map,
+			final TileConfiguration tc )
+	{
+		final LinkedHashSet< Tile< ? > > tiles = new LinkedHashSet<>();
+
+		for ( final ViewId viewId : views )
+		{
+			final Tile< M > tile = map.get( viewId );
+
+			if ( tc.getTiles().contains( tile ) )
+				tiles.add( tile );
+		}
+
+		return new ArrayList<>( tiles );
+	}
+
 	protected static < M extends Model< M > > TileConfiguration addAndFixTiles(
 			final Collection< ViewId > views,
 			final HashMap< ViewId, Tile< M > > map,
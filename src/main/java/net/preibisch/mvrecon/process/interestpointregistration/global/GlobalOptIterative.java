@@ -27,14 +27,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import mpicbg.models.Affine3D;
-import mpicbg.models.ErrorStatistic;
 import mpicbg.models.Model;
 import mpicbg.models.RigidModel3D;
 import mpicbg.models.Tile;
 import mpicbg.models.TileConfiguration;
-import mpicbg.models.TileUtil;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
@@ -42,6 +43,7 @@ import net.preibisch.mvrecon.process.interestpointregistration.TransformationToo
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.IterativeConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.linkremoval.LinkRemovalStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SolverStatistics;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class GlobalOptIterative
@@ -103,25 +105,50 @@ public class GlobalOptIterative
 		// now perform the global optimization
 		boolean finished = false;
 
+		// the tiles that are re-optimized in the current round, all in the first round
+		ArrayList< Tile< ? > > affected = null;
+
 		while (!finished)
 		{
 			try 
 			{
-				int unaligned = tc.preAlign().size();
-				if ( unaligned > 0 )
-					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
+				final SolverStatistics stats;
+
+				if ( affected == null || !ics.useWarmStart() )
+				{
+					int unaligned = tc.preAlign().size();
+					if ( unaligned > 0 )
+						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
+					else
+						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+
+					stats = ics.getSolver().solve( tc, GlobalOpt.orderedTiles( views, map, tc ), ics );
+				}
 				else
-					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+				{
+					// warm start: keep the current models, only re-optimize the connected components affected by the link removal
+					final ArrayList< Tile< ? > > component = affectedComponents( affected, GlobalOpt.orderedTiles( views, map, tc ) );
+					final TileConfiguration tcComponent = new TileConfiguration();
+
+					tcComponent.addTiles( component );
+
+					for ( final Tile< ? > tile : component )
+						if ( tc.getFixedTiles().contains( tile ) )
+							tcComponent.fixTile( tile );
+
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): warm start, re-optimizing " + component.size() + " of " + tc.getTiles().size() + " tiles" );
+
+					stats = ics.getSolver().solve( tcComponent, component, ics );
 
-				tc.optimizeSilently(new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ), ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth() );
-				/*TileUtil.optimizeConcurrently(
-						new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
-						tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());*/
+					// errors of all tiles for the convergence test
+					tc.computeError();
+				}
 
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + tc.getTiles().size());
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Min Error: " + tc.getMinError() + "px" );
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Max Error: " + tc.getMaxError() + "px" );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    " + stats );
 
 				// give some time for the output
 				try { Thread.sleep( 50 ); } catch ( Exception e) {}
@@ -138,15 +165,25 @@ public class GlobalOptIterative
 			// re-do if errors are too big
 			if ( !ics.isConverged( tc ) )
 			{
-				finished = false;
+				affected = new ArrayList<>();
 
-				// if we cannot remove any link, then we are finished too
-				final Pair< Group< ViewId >, Group< ViewId > > removed = lms.removeLink( tc, map );
+				// remove up to linksPerRound of the worst links before optimizing again
+				for ( int l = 0; l < ics.getLinksPerRound(); ++l )
+				{
+					final Pair< Group< ViewId >, Group< ViewId > > removed = lms.removeLink( tc, map );
+
+					if ( removed == null )
+						break;
+
+					if ( removedInconsistentPairs != null )
+						removedInconsistentPairs.add( removed );
+
+					affected.add( map.get( removed.getA().iterator().next() ) );
+					affected.add( map.get( removed.getB().iterator().next() ) );
+				}
 
-				if ( removed == null )
-					finished = true;
-				else if ( removedInconsistentPairs != null )
-					removedInconsistentPairs.add( removed );
+				// if we cannot remove any link, then we are finished too
+				finished = affected.size() == 0;
 			}
 		}
 
@@ -167,4 +204,30 @@ public class GlobalOptIterative
 
 		return map;
 	}
+
+	/**
+	 * @param affected - tiles whose links changed
+	 * @param tiles - all tiles in a deterministic order
+	 * @return all tiles that are connected to any of the affected tiles, in the same order
+	 */
+	protected static ArrayList< Tile< ? > > affectedComponents( final Collection< Tile< ? > > affected, final List< Tile< ? > > tiles )
+	{
+		final HashSet< Tile< ? > > component = new HashSet<>();
+
+		for ( final Set< Tile< ? > > connected : Tile.identifyConnectedGraphs( tiles ) )
+			for ( final Tile< ? > tile : affected )
+				if ( connected.contains( tile ) )
+				{
+					component.addAll( connected );
+					break;
+				}
+
+		final ArrayList< Tile< ? > > ordered = new ArrayList<>();
+
+		for ( final Tile< ? > tile : tiles )
+			if ( component.contains( tile ) )
+				ordered.add( tile );
+
+		return ordered;
+	}
 }
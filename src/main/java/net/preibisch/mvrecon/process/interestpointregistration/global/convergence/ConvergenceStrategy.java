@@ -22,12 +22,18 @@
  */
 package net.preibisch.mvrecon.process.interestpointregistration.global.convergence;
 
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SerialTileSolver;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.TileSolver;
+
 public class ConvergenceStrategy
 {
 	double maxAllowedError;
 	int maxIterations;
 	int maxPlateauwidth;
 
+	// how the tiles are optimized
+	TileSolver solver = new SerialTileSolver();
+
 	public ConvergenceStrategy( final double maxAllowedError )
 	{
 		this( maxAllowedError, 10000, 200 );
@@ -46,4 +52,7 @@ public class ConvergenceStrategy
 	public double getMaxError() { return maxAllowedError; }
 	public int getMaxIterations() { return maxIterations; }
 	public int getMaxPlateauWidth() { return maxPlateauwidth; }
+	public TileSolver getSolver() { return solver; }
+
+	public void setSolver( final TileSolver solver ) { this.solver = solver; }
 }
@@ -26,6 +26,12 @@ import mpicbg.models.TileConfiguration;
 
 public abstract class IterativeConvergenceStrategy extends ConvergenceStrategy
 {
+	// keep the current models after removing links and only re-optimize the affected connected components
+	boolean warmStart = false;
+
+	// how many of the worst links are removed before optimizing again
+	int linksPerRound = 1;
+
 	public IterativeConvergenceStrategy( 
 			final double maxAllowedError,
 			final int maxIterations,
@@ -40,4 +46,10 @@ public abstract class IterativeConvergenceStrategy extends ConvergenceStrategy
 	}
 
 	public abstract boolean isConverged( final TileConfiguration tc );
+
+	public boolean useWarmStart() { return warmStart; }
+	public int getLinksPerRound() { return linksPerRound; }
+
+	public void setWarmStart( final boolean warmStart ) { this.warmStart = warmStart; }
+	public void setLinksPerRound( final int linksPerRound ) { this.linksPerRound = Math.max( 1, linksPerRound ); }
 }
@@ -0,0 +1,263 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.models.ErrorStatistic;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+
+/**
+ * Multi-threaded version of the iterative relaxation of {@link TileConfiguration} with the same
+ * convergence criteria. The tiles are colored such that no two connected tiles share a color
+ * (greedy, in the given order). Tiles of one color only read the points of other colors, so they
+ * can be fit and applied in parallel; the colors are processed one after another. This is a
+ * Gauss-Seidel iteration with a fixed order, so the result does not depend on the number of
+ * threads or their scheduling (unlike TileUtil.optimizeConcurrently).
+ */
+public class ConcurrentTileSolver implements TileSolver
+{
+	final int numThreads;
+
+	public ConcurrentTileSolver( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	public ConcurrentTileSolver()
+	{
+		this( Threads.numThreads() );
+	}
+
+	@Override
+	public SolverStatistics solve(
+			final TileConfiguration tc,
+			final List< ? extends Tile< ? > > tiles,
+			final ConvergenceStrategy cs ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final long time = System.currentTimeMillis();
+
+		final int maxIterations = cs.getMaxIterations();
+		final int maxPlateauwidth = cs.getMaxPlateauWidth();
+		final double maxAllowedError = cs.getMaxError();
+
+		final List< List< Tile< ? > > > colors = color( tiles, tc.getFixedTiles() );
+		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
+		final double[] distances = new double[ tiles.size() ];
+
+		final ExecutorService service = Threads.createFixedExecutorService( numThreads );
+
+		int i = 0;
+
+		try
+		{
+			boolean proceed = i < maxIterations;
+
+			while ( proceed )
+			{
+				for ( final List< Tile< ? > > color : colors )
+					fitAndApply( color, service );
+
+				updateCost( tiles, distances, service );
+
+				// summed in a fixed order to be deterministic
+				double error = 0;
+				for ( final double d : distances )
+					error += d;
+				error /= distances.length;
+
+				observer.add( error );
+
+				// same criteria as TileConfiguration.optimizeSilently()
+				if ( i > maxPlateauwidth )
+				{
+					proceed = error > maxAllowedError;
+
+					int d = maxPlateauwidth;
+					while ( !proceed && d >= 1 )
+					{
+						try
+						{
+							proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+						}
+						catch ( final Exception e )
+						{
+							e.printStackTrace();
+						}
+
+						d /= 2;
+					}
+				}
+
+				proceed &= ++i < maxIterations;
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		// update avg, min and max error of the TileConfiguration
+		tc.computeError();
+
+		return new SolverStatistics( getClass().getSimpleName() + " (" + colors.size() + " colors, " + numThreads + " threads)", tc, i, maxIterations, System.currentTimeMillis() - time );
+	}
+
+	/**
+	 * Greedy coloring of all tiles that are not fixed, in the given order.
+	 *
+	 * @param tiles - all tiles
+	 * @param fixedTiles - the fixed tiles (not part of any color)
+	 * @return lists of tiles where no two tiles of one list are connected
+	 */
+	public static List< List< Tile< ? > > > color( final List< ? extends Tile< ? > > tiles, final Set< Tile< ? > > fixedTiles )
+	{
+		final HashMap< Tile< ? >, Integer > colorOf = new HashMap<>();
+		final ArrayList< List< Tile< ? > > > colors = new ArrayList<>();
+
+		for ( final Tile< ? > tile : tiles )
+		{
+			if ( fixedTiles.contains( tile ) )
+				continue;
+
+			final HashSet< Integer > used = new HashSet<>();
+
+			for ( final Tile< ? > connected : tile.getConnectedTiles() )
+			{
+				final Integer c = colorOf.get( connected );
+
+				if ( c != null )
+					used.add( c );
+			}
+
+			int c = 0;
+			while ( used.contains( c ) )
+				++c;
+
+			if ( c == colors.size() )
+				colors.add( new ArrayList<>() );
+
+			colors.get( c ).add( tile );
+			colorOf.put( tile, c );
+		}
+
+		return colors;
+	}
+
+	protected void fitAndApply( final List< Tile< ? > > tiles, final ExecutorService service ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final int numTasks = Math.min( tiles.size(), numThreads );
+
+		if ( numTasks <= 1 )
+		{
+			for ( final Tile< ? > tile : tiles )
+			{
+				tile.fitModel();
+				tile.apply();
+			}
+
+			return;
+		}
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int task = t;
+
+			tasks.add( () ->
+			{
+				for ( int j = task; j < tiles.size(); j += numTasks )
+				{
+					final Tile< ? > tile = tiles.get( j );
+					tile.fitModel();
+					tile.apply();
+				}
+
+				return null;
+			});
+		}
+
+		invokeAll( tasks, service );
+	}
+
+	protected void updateCost( final List< ? extends Tile< ? > > tiles, final double[] distances, final ExecutorService service ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final int numTasks = Math.min( tiles.size(), numThreads );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int task = t;
+
+			tasks.add( () ->
+			{
+				for ( int j = task; j < tiles.size(); j += numTasks )
+				{
+					final Tile< ? > tile = tiles.get( j );
+					tile.updateCost();
+					distances[ j ] = tile.getDistance();
+				}
+
+				return null;
+			});
+		}
+
+		invokeAll( tasks, service );
+	}
+
+	protected static void invokeAll( final List< Callable< Void > > tasks, final ExecutorService service ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof NotEnoughDataPointsException )
+				throw (NotEnoughDataPointsException)e.getCause();
+			else if ( e.getCause() instanceof IllDefinedDataPointsException )
+				throw (IllDefinedDataPointsException)e.getCause();
+			else
+				throw new RuntimeException( e.getCause() );
+		}
+		catch ( final InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
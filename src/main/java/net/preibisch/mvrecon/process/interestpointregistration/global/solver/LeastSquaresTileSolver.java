@@ -0,0 +1,556 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import mpicbg.models.Affine3D;
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import mpicbg.models.TranslationModel3D;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+
+/**
+ * Direct (non-iterative on the tile level) solver that minimizes the weighted sum of squared
+ * distances of all point matches of all tiles. The unknowns are the translations (for a
+ * {@link TranslationModel3D}) or the 3x4 affine matrices of all tiles that are not fixed. Each
+ * row of the affine (x,y,z) decouples into an independent linear system that shares the same
+ * sparse normal matrix, which is solved by conjugate gradients with a block-Jacobi preconditioner.
+ * <p>
+ * The result is exact for {@link TranslationModel3D} and {@link AffineModel3D}. For all other
+ * {@link Affine3D} models (e.g. rigid or regularized models) the affine solution is linearised
+ * onto the model by fitting it to the affine-transformed points of each tile, followed by a
+ * refinement with another {@link TileSolver} (which converges quickly from there).
+ * <p>
+ * A small Tikhonov regularization towards the current (pre-aligned) models keeps the system
+ * well-defined for connected components without a fixed tile.
+ */
+public class LeastSquaresTileSolver implements TileSolver
+{
+	public static double regularization = 1e-6;
+	public static double tolerance = 1e-10;
+
+	final TileSolver refinement;
+
+	/**
+	 * @param refinement - solver used after linearising non-affine models, or for models that are not {@link Affine3D}
+	 */
+	public LeastSquaresTileSolver( final TileSolver refinement )
+	{
+		this.refinement = refinement;
+	}
+
+	public LeastSquaresTileSolver()
+	{
+		this( new ConcurrentTileSolver() );
+	}
+
+	@Override
+	public SolverStatistics solve(
+			final TileConfiguration tc,
+			final List< ? extends Tile< ? > > tiles,
+			final ConvergenceStrategy cs ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final long time = System.currentTimeMillis();
+
+		if ( tiles.size() == 0 || !( tiles.get( 0 ).getModel() instanceof Affine3D ) )
+		{
+			IOFunctions.println( "LeastSquaresTileSolver: only Affine3D models are supported, using " + refinement.getClass().getSimpleName() );
+			return refinement.solve( tc, tiles, cs );
+		}
+
+		final boolean translation = tiles.get( 0 ).getModel() instanceof TranslationModel3D;
+		final int k = translation ? 1 : 4;
+
+		// index all tiles that are optimized
+		final IdentityHashMap< Tile< ? >, Integer > index = new IdentityHashMap<>();
+		final ArrayList< Tile< ? > > free = new ArrayList<>();
+
+		for ( final Tile< ? > tile : tiles )
+			if ( !tc.getFixedTiles().contains( tile ) )
+			{
+				index.put( tile, free.size() );
+				free.add( tile );
+			}
+
+		if ( free.size() == 0 )
+		{
+			tc.computeError();
+			return new SolverStatistics( getClass().getSimpleName(), tc, 0, 0, System.currentTimeMillis() - time );
+		}
+
+		// every point belongs to the tile where it is p1 (flipped matches share the points)
+		final IdentityHashMap< Point, Tile< ? > > owner = new IdentityHashMap<>();
+
+		for ( final Tile< ? > tile : tiles )
+			for ( final PointMatch pm : tile.getMatches() )
+				owner.put( pm.getP1(), tile );
+
+		final BlockMatrix matrix = new BlockMatrix( free.size(), k );
+		final double[][] b = new double[ 3 ][ free.size() * k ];
+		final double[][] x = new double[ 3 ][ free.size() * k ];
+
+		final double[] phiP = new double[ k ];
+		final double[] phiQ = new double[ k ];
+
+		for ( int i = 0; i < free.size(); ++i )
+		{
+			final Tile< ? > tile = free.get( i );
+
+			for ( final PointMatch pm : tile.getMatches() )
+			{
+				final Tile< ? > other = owner.get( pm.getP2() );
+
+				if ( other == null || other == tile )
+					continue;
+
+				final double w = pm.getWeight();
+				final double[] p = pm.getP1().getL();
+				final double[] q = pm.getP2().getL();
+
+				phi( p, phiP );
+				phi( q, phiQ );
+
+				matrix.addDiag( i, w, phiP, phiP );
+
+				final Integer j = index.get( other );
+
+				if ( j != null )
+					matrix.addOffDiag( i, j, -w, phiP, phiQ );
+
+				final double[][] a = ( j == null ) ? params( other.getModel(), translation ) : null;
+
+				for ( int r = 0; r < 3; ++r )
+				{
+					// known part of the residual
+					double c = translation ? q[ r ] - p[ r ] : 0;
+
+					if ( a != null )
+						c += dot( a[ r ], phiQ );
+
+					for ( int m = 0; m < k; ++m )
+						b[ r ][ i * k + m ] += w * phiP[ m ] * c;
+				}
+			}
+		}
+
+		// regularize towards the current models
+		for ( int i = 0; i < free.size(); ++i )
+		{
+			final double lambda = regularization * matrix.trace( i ) / k + 1e-12;
+			final double[][] a = params( free.get( i ).getModel(), translation );
+
+			matrix.addIdentity( i, lambda );
+
+			for ( int r = 0; r < 3; ++r )
+				for ( int m = 0; m < k; ++m )
+				{
+					b[ r ][ i * k + m ] += lambda * a[ r ][ m ];
+					x[ r ][ i * k + m ] = a[ r ][ m ];
+				}
+		}
+
+		matrix.finish();
+
+		int iterations = 0;
+
+		for ( int r = 0; r < 3; ++r )
+			iterations = Math.max( iterations, matrix.conjugateGradients( x[ r ], b[ r ], 2 * x[ r ].length + 100, tolerance ) );
+
+		// set the models
+		boolean exact = true;
+
+		for ( int i = 0; i < free.size(); ++i )
+		{
+			final double[][] a = new double[ 3 ][ k ];
+
+			for ( int r = 0; r < 3; ++r )
+				for ( int m = 0; m < k; ++m )
+					a[ r ][ m ] = x[ r ][ i * k + m ];
+
+			exact &= setModel( free.get( i ), a, translation );
+		}
+
+		for ( final Tile< ? > tile : tiles )
+			tile.apply();
+
+		tc.computeError();
+
+		if ( exact )
+			return new SolverStatistics( getClass().getSimpleName() + " (" + ( translation ? "translation" : "affine" ) + ", " + free.size() * k * 3 + " unknowns)", tc, iterations, 2 * free.size() * k + 100, System.currentTimeMillis() - time );
+
+		final SolverStatistics refined = refinement.solve( tc, tiles, cs );
+
+		return new SolverStatistics(
+				getClass().getSimpleName() + " (linearised, " + free.size() * k * 3 + " unknowns, " + iterations + " CG iterations) + " + refined.getSolver(),
+				tc, refined.getIterations(), cs.getMaxIterations(), System.currentTimeMillis() - time );
+	}
+
+	protected static void phi( final double[] l, final double[] phi )
+	{
+		if ( phi.length == 1 )
+		{
+			phi[ 0 ] = 1;
+		}
+		else
+		{
+			phi[ 0 ] = l[ 0 ];
+			phi[ 1 ] = l[ 1 ];
+			phi[ 2 ] = l[ 2 ];
+			phi[ 3 ] = 1;
+		}
+	}
+
+	protected static double dot( final double[] a, final double[] b )
+	{
+		double sum = 0;
+
+		for ( int m = 0; m < a.length; ++m )
+			sum += a[ m ] * b[ m ];
+
+		return sum;
+	}
+
+	/**
+	 * @return the parameters of the model, for each row either the translation or the full row of the affine matrix
+	 */
+	protected static double[][] params( final Model< ? > model, final boolean translation )
+	{
+		final double[][] m = new double[ 3 ][ 4 ];
+		( (Affine3D< ? >)model ).toMatrix( m );
+
+		if ( !translation )
+			return m;
+
+		return new double[][] { { m[ 0 ][ 3 ] }, { m[ 1 ][ 3 ] }, { m[ 2 ][ 3 ] } };
+	}
+
+	/**
+	 * @return true if the model could be set exactly, false if it was fit to the transformed points
+	 */
+	protected static boolean setModel( final Tile< ? > tile, final double[][] a, final boolean translation ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final Model< ? > model = tile.getModel();
+
+		if ( translation )
+		{
+			( (TranslationModel3D)model ).set( a[ 0 ][ 0 ], a[ 1 ][ 0 ], a[ 2 ][ 0 ] );
+			return true;
+		}
+		else if ( model instanceof AffineModel3D )
+		{
+			( (AffineModel3D)model ).set(
+					a[ 0 ][ 0 ], a[ 0 ][ 1 ], a[ 0 ][ 2 ], a[ 0 ][ 3 ],
+					a[ 1 ][ 0 ], a[ 1 ][ 1 ], a[ 1 ][ 2 ], a[ 1 ][ 3 ],
+					a[ 2 ][ 0 ], a[ 2 ][ 1 ], a[ 2 ][ 2 ], a[ 2 ][ 3 ] );
+			return true;
+		}
+		else
+		{
+			// linearise: fit the model to the points of the tile transformed by the affine
+			final ArrayList< PointMatch > matches = new ArrayList<>();
+
+			for ( final PointMatch pm : tile.getMatches() )
+			{
+				final double[] l = pm.getP1().getL();
+				final double[] target = new double[ 3 ];
+
+				for ( int r = 0; r < 3; ++r )
+					target[ r ] = a[ r ][ 0 ] * l[ 0 ] + a[ r ][ 1 ] * l[ 1 ] + a[ r ][ 2 ] * l[ 2 ] + a[ r ][ 3 ];
+
+				matches.add( new PointMatch( new Point( l.clone() ), new Point( target ) ) );
+			}
+
+			model.fit( matches );
+
+			return false;
+		}
+	}
+
+	/**
+	 * Symmetric sparse matrix of k x k blocks, one block row per tile
+	 */
+	protected static class BlockMatrix
+	{
+		final int n, k;
+		final double[][] diag;
+		final ArrayList< HashMap< Integer, double[] > > offDiagMap = new ArrayList<>();
+
+		int[][] neighbors;
+		double[][][] offDiag;
+		double[][] invDiag;
+
+		public BlockMatrix( final int n, final int k )
+		{
+			this.n = n;
+			this.k = k;
+			this.diag = new double[ n ][ k * k ];
+
+			for ( int i = 0; i < n; ++i )
+				offDiagMap.add( new HashMap<>() );
+		}
+
+		public void addDiag( final int i, final double w, final double[] u, final double[] v )
+		{
+			add( diag[ i ], w, u, v );
+		}
+
+		public void addOffDiag( final int i, final int j, final double w, final double[] u, final double[] v )
+		{
+			add( offDiagMap.get( i ).computeIfAbsent( j, key -> new double[ k * k ] ), w, u, v );
+		}
+
+		public void addIdentity( final int i, final double lambda )
+		{
+			for ( int m = 0; m < k; ++m )
+				diag[ i ][ m * k + m ] += lambda;
+		}
+
+		public double trace( final int i )
+		{
+			double trace = 0;
+
+			for ( int m = 0; m < k; ++m )
+				trace += diag[ i ][ m * k + m ];
+
+			return trace;
+		}
+
+		protected void add( final double[] block, final double w, final double[] u, final double[] v )
+		{
+			for ( int a = 0; a < k; ++a )
+				for ( int c = 0; c < k; ++c )
+					block[ a * k + c ] += w * u[ a ] * v[ c ];
+		}
+
+		/**
+		 * converts to arrays and computes the preconditioner, call after assembly
+		 */
+		public void finish()
+		{
+			neighbors = new int[ n ][];
+			offDiag = new double[ n ][][];
+			invDiag = new double[ n ][];
+
+			for ( int i = 0; i < n; ++i )
+			{
+				final HashMap< Integer, double[] > map = offDiagMap.get( i );
+
+				neighbors[ i ] = new int[ map.size() ];
+				offDiag[ i ] = new double[ map.size() ][];
+
+				int e = 0;
+				for ( final Entry< Integer, double[] > entry : map.entrySet() )
+				{
+					neighbors[ i ][ e ] = entry.getKey();
+					offDiag[ i ][ e++ ] = entry.getValue();
+				}
+
+				invDiag[ i ] = invert( diag[ i ], k );
+			}
+
+			offDiagMap.clear();
+		}
+
+		public void multiply( final double[] x, final double[] y )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				final int o = i * k;
+
+				for ( int a = 0; a < k; ++a )
+				{
+					double sum = 0;
+
+					for ( int c = 0; c < k; ++c )
+						sum += diag[ i ][ a * k + c ] * x[ o + c ];
+
+					for ( int e = 0; e < neighbors[ i ].length; ++e )
+					{
+						final int oj = neighbors[ i ][ e ] * k;
+						final double[] block = offDiag[ i ][ e ];
+
+						for ( int c = 0; c < k; ++c )
+							sum += block[ a * k + c ] * x[ oj + c ];
+					}
+
+					y[ o + a ] = sum;
+				}
+			}
+		}
+
+		public void precondition( final double[] r, final double[] z )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				final int o = i * k;
+
+				for ( int a = 0; a < k; ++a )
+				{
+					double sum = 0;
+
+					for ( int c = 0; c < k; ++c )
+						sum += invDiag[ i ][ a * k + c ] * r[ o + c ];
+
+					z[ o + a ] = sum;
+				}
+			}
+		}
+
+		/**
+		 * Preconditioned conjugate gradients
+		 *
+		 * @param x - initial guess, contains the solution afterwards
+		 * @param b - right hand side
+		 * @param maxIterations - maximal number of iterations
+		 * @param tolerance - relative residual
+		 * @return number of iterations
+		 */
+		public int conjugateGradients( final double[] x, final double[] b, final int maxIterations, final double tolerance )
+		{
+			final int m = x.length;
+
+			final double[] r = new double[ m ];
+			final double[] z = new double[ m ];
+			final double[] p = new double[ m ];
+			final double[] q = new double[ m ];
+
+			multiply( x, q );
+
+			for ( int i = 0; i < m; ++i )
+				r[ i ] = b[ i ] - q[ i ];
+
+			precondition( r, z );
+			System.arraycopy( z, 0, p, 0, m );
+
+			double rz = dot( r, z );
+			final double bNorm = Math.max( Math.sqrt( dot( b, b ) ), 1e-300 );
+
+			int it = 0;
+
+			while ( it < maxIterations && Math.sqrt( dot( r, r ) ) > tolerance * bNorm )
+			{
+				multiply( p, q );
+
+				final double pq = dot( p, q );
+
+				if ( pq <= 0 )
+					break;
+
+				final double alpha = rz / pq;
+
+				for ( int i = 0; i < m; ++i )
+				{
+					x[ i ] += alpha * p[ i ];
+					r[ i ] -= alpha * q[ i ];
+				}
+
+				precondition( r, z );
+
+				final double rzNew = dot( r, z );
+				final double beta = rzNew / rz;
+				rz = rzNew;
+
+				for ( int i = 0; i < m; ++i )
+					p[ i ] = z[ i ] + beta * p[ i ];
+
+				++it;
+			}
+
+			return it;
+		}
+
+		/**
+		 * Gauss-Jordan inversion of a small k x k matrix with partial pivoting
+		 */
+		protected static double[] invert( final double[] matrix, final int k )
+		{
+			final double[] a = matrix.clone();
+			final double[] inv = new double[ k * k ];
+
+			for ( int i = 0; i < k; ++i )
+				inv[ i * k + i ] = 1;
+
+			for ( int c = 0; c < k; ++c )
+			{
+				int pivot = c;
+
+				for ( int r = c + 1; r < k; ++r )
+					if ( Math.abs( a[ r * k + c ] ) > Math.abs( a[ pivot * k + c ] ) )
+						pivot = r;
+
+				if ( Math.abs( a[ pivot * k + c ] ) < 1e-300 )
+				{
+					// singular block, no preconditioning for this tile
+					final double[] identity = new double[ k * k ];
+
+					for ( int i = 0; i < k; ++i )
+						identity[ i * k + i ] = 1;
+
+					return identity;
+				}
+
+				if ( pivot != c )
+					for ( int m = 0; m < k; ++m )
+					{
+						double tmp = a[ c * k + m ]; a[ c * k + m ] = a[ pivot * k + m ]; a[ pivot * k + m ] = tmp;
+						tmp = inv[ c * k + m ]; inv[ c * k + m ] = inv[ pivot * k + m ]; inv[ pivot * k + m ] = tmp;
+					}
+
+				final double d = a[ c * k + c ];
+
+				for ( int m = 0; m < k; ++m )
+				{
+					a[ c * k + m ] /= d;
+					inv[ c * k + m ] /= d;
+				}
+
+				for ( int r = 0; r < k; ++r )
+					if ( r != c )
+					{
+						final double f = a[ r * k + c ];
+
+						if ( f != 0 )
+							for ( int m = 0; m < k; ++m )
+							{
+								a[ r * k + m ] -= f * a[ c * k + m ];
+								inv[ r * k + m ] -= f * inv[ c * k + m ];
+							}
+					}
+			}
+
+			return inv;
+		}
+	}
+}
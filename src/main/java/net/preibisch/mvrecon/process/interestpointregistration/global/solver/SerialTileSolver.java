@@ -0,0 +1,52 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.List;
+
+import mpicbg.models.ErrorStatistic;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+
+/**
+ * The single-threaded iterative relaxation of {@link TileConfiguration}.
+ */
+public class SerialTileSolver implements TileSolver
+{
+	@Override
+	public SolverStatistics solve(
+			final TileConfiguration tc,
+			final List< ? extends Tile< ? > > tiles,
+			final ConvergenceStrategy cs ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final long time = System.currentTimeMillis();
+
+		tc.optimizeSilently( new ErrorStatistic( cs.getMaxPlateauWidth() + 1 ), cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+
+		// TileConfiguration does not report the number of iterations
+		return new SolverStatistics( getClass().getSimpleName(), tc, -1, cs.getMaxIterations(), System.currentTimeMillis() - time );
+	}
+}
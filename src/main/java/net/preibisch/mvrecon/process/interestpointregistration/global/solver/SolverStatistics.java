@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import mpicbg.models.TileConfiguration;
+
+/**
+ * Convergence statistics of one run of a {@link TileSolver}.
+ */
+public class SolverStatistics
+{
+	final String solver;
+	final int numTiles, numFixedTiles;
+	final int iterations, maxIterations; // iterations < 0 if unknown
+	final long timeMillis;
+	final double avgError, minError, maxError;
+
+	public SolverStatistics(
+			final String solver,
+			final TileConfiguration tc,
+			final int iterations,
+			final int maxIterations,
+			final long timeMillis )
+	{
+		this.solver = solver;
+		this.numTiles = tc.getTiles().size();
+		this.numFixedTiles = tc.getFixedTiles().size();
+		this.iterations = iterations;
+		this.maxIterations = maxIterations;
+		this.timeMillis = timeMillis;
+		this.avgError = tc.getError();
+		this.minError = tc.getMinError();
+		this.maxError = tc.getMaxError();
+	}
+
+	public String getSolver() { return solver; }
+	public int getNumTiles() { return numTiles; }
+	public int getNumFixedTiles() { return numFixedTiles; }
+	public int getIterations() { return iterations; }
+	public long getTimeMillis() { return timeMillis; }
+	public double getAvgError() { return avgError; }
+	public double getMinError() { return minError; }
+	public double getMaxError() { return maxError; }
+
+	/**
+	 * @return true if the solver stopped before reaching the maximal number of iterations (false if unknown)
+	 */
+	public boolean converged() { return iterations >= 0 && iterations < maxIterations; }
+
+	@Override
+	public String toString()
+	{
+		return "Solver=" + solver + ", " + numTiles + " tiles (" + numFixedTiles + " fixed), " +
+				( iterations < 0 ? "" : iterations + " iterations (" + ( converged() ? "converged" : "stopped at max iterations" ) + "), " ) +
+				timeMillis + " ms";
+	}
+}
@@ -0,0 +1,50 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.List;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+
+/**
+ * Optimizes the models of all tiles of a {@link TileConfiguration} that are not fixed.
+ */
+public interface TileSolver
+{
+	/**
+	 * @param tc - the tile configuration (already pre-aligned), tc.getError() must be up-to-date afterwards
+	 * @param tiles - all tiles of the tile configuration in a deterministic order
+	 * @param cs - the convergence criteria
+	 * @return statistics of the optimization
+	 * @throws NotEnoughDataPointsException if a model cannot be fit
+	 * @throws IllDefinedDataPointsException if a model cannot be fit
+	 */
+	public SolverStatistics solve(
+			TileConfiguration tc,
+			List< ? extends Tile< ? > > tiles,
+			ConvergenceStrategy cs ) throws NotEnoughDataPointsException, IllDefinedDataPointsException;
+}
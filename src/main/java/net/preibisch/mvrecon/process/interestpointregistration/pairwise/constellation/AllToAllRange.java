@@ -30,6 +30,8 @@ import java.util.Set;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SpatialIndexOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
 
 public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator< V > > extends PairwiseSetup< V >
@@ -51,6 +53,17 @@ public class AllToAllRange< V extends Comparable< V >, R extends RangeComparator
 		return allPairs( views, groups, rangeComparator );
 	}
 
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	@Override
+	protected List< Pair< V, V > > definePairsAbstract( final OverlapDetection< V > ovlp )
+	{
+		// a SpatialIndexOverlap only exists for ViewIds, so V is a ViewId here
+		if ( ovlp instanceof SpatialIndexOverlap )
+			return ( (SpatialIndexOverlap)ovlp ).overlappingPairs( views, groups, (RangeComparator)rangeComparator );
+		else
+			return super.definePairsAbstract( ovlp );
+	}
+
 	@Override
 	public List< V > getDefaultFixedViews() { return new ArrayList<>(); }
 
@@ -35,6 +35,7 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SpatialIndexOverlap;
 
 public abstract class PairwiseSetup< V extends Comparable< V > >
 {
@@ -93,12 +94,47 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 		return removed;
 	}
 
+	/**
+	 * Given a list of views and their grouping, identify all pairs that need to be compared and overlap,
+	 * replaces definePairs() followed by removeNonOverlappingPairs(). Implementations of {@link OverlapDetection}
+	 * that use a spatial index (e.g. {@link SpatialIndexOverlap}) only generate candidate pairs instead of
+	 * testing all pairs.
+	 * 
+	 * @param ovlp - implementation of {@link OverlapDetection}
+	 * @return - redundant pairs that were removed
+	 */
+	public ArrayList< Pair< V, V > > definePairs( final OverlapDetection< V > ovlp )
+	{
+		// define all overlapping pairs
+		this.pairs = definePairsAbstract( ovlp );
+
+		// removed those who were in the same group
+		final ArrayList< Pair< V, V > > removed = removeRedundantPairs( pairs, groups );
+
+		// return the removed ones
+		return removed;
+	}
+
 	/**
 	 * abstract method called by the public definePairs method
 	 * @return - the list of pairs
 	 */
 	protected abstract List< Pair< V, V > > definePairsAbstract();
 
+	/**
+	 * method called by the public definePairs( ovlp ) method, override if the strategy can make use of a spatial index
+	 * @param ovlp - implementation of {@link OverlapDetection}
+	 * @return - the list of overlapping pairs
+	 */
+	protected List< Pair< V, V > > definePairsAbstract( final OverlapDetection< V > ovlp )
+	{
+		final List< Pair< V, V > > pairs = definePairsAbstract();
+
+		removeNonOverlappingPairs( pairs, ovlp );
+
+		return pairs;
+	}
+
 	/**
 	 * Remove pairs that are not overlapping
 	 * 
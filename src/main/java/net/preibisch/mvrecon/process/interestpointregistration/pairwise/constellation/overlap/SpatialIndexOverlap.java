@@ -0,0 +1,432 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.spim.data.generic.AbstractSpimData;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.AllToAllRange;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.range.RangeComparator;
+
+/**
+ * Same overlap criterion as {@link SimpleBoundingBoxOverlap}, but the transformed bounding boxes are
+ * computed only once (in parallel) and kept in a spatial index: one list per timepoint that is sorted
+ * by the minimum in x. Candidate pairs are found by sweeping these lists (sweep and prune), i.e. only
+ * views whose x-extent intersects are tested instead of all n^2 pairs. Timepoints (and pairs of
+ * timepoints) are processed in parallel.
+ * <p>
+ * The bounding boxes are cached, if the registration of a view changes call {@link #update(ViewId)},
+ * which only re-indexes this view; {@link #overlappingViews(ViewId)} and
+ * {@link #overlappingPairs(List, Collection, RangeComparator)} then use its new bounding box.
+ */
+public class SpatialIndexOverlap< V extends ViewId > extends SimpleBoundingBoxOverlap< V >
+{
+	final ConcurrentHashMap< V, BoundingBox > boxes = new ConcurrentHashMap<>();
+
+	// the indexed views of each timepoint, sorted by the minimum of their bounding box in x
+	final HashMap< Integer, ArrayList< V > > index = new HashMap<>();
+
+	final Comparator< V > minX = ( v1, v2 ) -> Integer.compare( boxes.get( v1 ).getMin()[ 0 ], boxes.get( v2 ).getMin()[ 0 ] );
+
+	int numThreads = Threads.numThreads();
+
+	public SpatialIndexOverlap( final AbstractSpimData< ? extends AbstractSequenceDescription< ? extends BasicViewSetup, ?, ? > > spimData )
+	{
+		super( spimData );
+	}
+
+	public SpatialIndexOverlap( final SequenceDescription sd, final ViewRegistrations vrs )
+	{
+		super( sd, vrs );
+	}
+
+	public SpatialIndexOverlap( final Map< Integer, ? extends BasicViewSetup > viewSetups, final Map< ViewId, ViewRegistration >  vrs )
+	{
+		super( viewSetups, vrs );
+	}
+
+	public void setNumThreads( final int numThreads ) { this.numThreads = Math.max( 1, numThreads ); }
+
+	@Override
+	public boolean overlaps( final V view1, final V view2 )
+	{
+		return overlaps( boundingBox( view1 ), boundingBox( view2 ) );
+	}
+
+	/**
+	 * @param view - the view
+	 * @return the cached, transformed bounding box of the view (computed if necessary)
+	 */
+	public BoundingBox boundingBox( final V view )
+	{
+		return boxes.computeIfAbsent( view, v ->
+		{
+			final BoundingBox bb = getBoundingBox( vss.get( v.getViewSetupId() ), vrs.get( v ) );
+
+			if ( bb == null )
+				throw new RuntimeException( "view " + Group.pvid( v ) + " has no image size" );
+
+			return bb;
+		});
+	}
+
+	/**
+	 * Adds views to the index, bounding boxes that are not cached yet are computed in parallel.
+	 *
+	 * @param views - the views to index (views that are already indexed are ignored)
+	 */
+	public synchronized void index( final Collection< ? extends V > views )
+	{
+		final ArrayList< V > missing = new ArrayList<>();
+
+		for ( final V view : views )
+			if ( !boxes.containsKey( view ) )
+				missing.add( view );
+
+		if ( missing.size() > 0 )
+		{
+			final int numTasks = Math.min( missing.size(), numThreads * 4 );
+			final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+			for ( int t = 0; t < numTasks; ++t )
+			{
+				final int task = t;
+
+				tasks.add( () ->
+				{
+					for ( int i = task; i < missing.size(); i += numTasks )
+						boundingBox( missing.get( i ) );
+
+					return null;
+				});
+			}
+
+			invokeAll( tasks );
+		}
+
+		final HashMap< Integer, ArrayList< V > > byTimepoint = new HashMap<>();
+
+		for ( final V view : views )
+			byTimepoint.computeIfAbsent( view.getTimePointId(), tp -> new ArrayList<>() ).add( view );
+
+		for ( final Entry< Integer, ArrayList< V > > entry : byTimepoint.entrySet() )
+		{
+			final ArrayList< V > list = index.computeIfAbsent( entry.getKey(), tp -> new ArrayList<>() );
+			final HashSet< V > present = new HashSet<>( list );
+
+			boolean added = false;
+
+			for ( final V view : entry.getValue() )
+				if ( present.add( view ) )
+				{
+					list.add( view );
+					added = true;
+				}
+
+			// only timepoints that received new views need to be sorted
+			if ( added )
+				Collections.sort( list, minX );
+		}
+	}
+
+	/**
+	 * Re-computes the bounding box of a view, e.g. after its registration changed. If the view was
+	 * indexed it is moved to its new position in the index, all other views remain untouched.
+	 *
+	 * @param view - the view
+	 * @return the new bounding box
+	 */
+	public synchronized BoundingBox update( final V view )
+	{
+		final ArrayList< V > list = index.get( view.getTimePointId() );
+		final boolean indexed = list != null && list.remove( view );
+
+		boxes.remove( view );
+		final BoundingBox bb = boundingBox( view );
+
+		if ( indexed )
+		{
+			final int i = Collections.binarySearch( list, view, minX );
+			list.add( i < 0 ? -i - 1 : i, view );
+		}
+
+		return bb;
+	}
+
+	/**
+	 * @param view - the view (does not need to be indexed)
+	 * @return all indexed views (of all timepoints) that overlap with the view
+	 */
+	public synchronized List< V > overlappingViews( final V view )
+	{
+		final BoundingBox bb = boundingBox( view );
+		final ArrayList< V > overlapping = new ArrayList<>();
+
+		for ( final ArrayList< V > list : index.values() )
+			for ( final V other : list )
+			{
+				final BoundingBox bbOther = boxes.get( other );
+
+				// the list is sorted, all following views start to the right of the view
+				if ( bbOther.getMin()[ 0 ] > bb.getMax()[ 0 ] )
+					break;
+
+				if ( !other.equals( view ) && overlaps( bb, bbOther ) )
+					overlapping.add( other );
+			}
+
+		return overlapping;
+	}
+
+	/**
+	 * Finds all pairs of views that overlap, are not part of the same group and are in range. Returns
+	 * the same pairs in the same order as {@link AllToAllRange#allPairs(List, Collection, RangeComparator)}
+	 * followed by {@link PairwiseSetup#removeNonOverlappingPairs(List, OverlapDetection)}, but only tests
+	 * candidate pairs. A pair of timepoints is skipped entirely if its first views are not in range, which
+	 * is correct for all {@link RangeComparator}s that only depend on the timepoints.
+	 *
+	 * @param views - the views (will be indexed)
+	 * @param groups - the groups, pairs within the same group are not returned
+	 * @param rangeComparator - which pairs of views should be compared
+	 * @return the overlapping pairs
+	 */
+	public List< Pair< V, V > > overlappingPairs(
+			final List< ? extends V > views,
+			final Collection< ? extends Group< V > > groups,
+			final RangeComparator< V > rangeComparator )
+	{
+		index( views );
+
+		final HashMap< V, Integer > position = new HashMap<>();
+
+		for ( int i = 0; i < views.size(); ++i )
+			position.put( views.get( i ), i );
+
+		// avoid iterating all groups for every candidate pair
+		final HashMap< V, ArrayList< Group< V > > > memberOf = new HashMap<>();
+
+		if ( groups != null )
+			for ( final Group< V > group : groups )
+				for ( final V view : group )
+					memberOf.computeIfAbsent( view, v -> new ArrayList<>() ).add( group );
+
+		// the views of the query per timepoint, sorted as in the index
+		final ArrayList< ArrayList< V > > lists = new ArrayList<>();
+
+		synchronized ( this )
+		{
+			for ( final ArrayList< V > list : index.values() )
+			{
+				final ArrayList< V > local = new ArrayList<>();
+
+				for ( final V view : list )
+					if ( position.containsKey( view ) )
+						local.add( view );
+
+				if ( local.size() > 0 )
+					lists.add( local );
+			}
+		}
+
+		final ArrayList< Callable< List< int[] > > > tasks = new ArrayList<>();
+
+		for ( int a = 0; a < lists.size(); ++a )
+		{
+			final ArrayList< V > listA = lists.get( a );
+
+			tasks.add( () -> sweep( listA, null, position, memberOf, rangeComparator ) );
+
+			for ( int b = a + 1; b < lists.size(); ++b )
+			{
+				final ArrayList< V > listB = lists.get( b );
+
+				if ( inRange( listA.get( 0 ), listB.get( 0 ), position, rangeComparator ) )
+					tasks.add( () -> sweep( listA, listB, position, memberOf, rangeComparator ) );
+			}
+		}
+
+		final ArrayList< int[] > candidates = new ArrayList<>();
+
+		for ( final List< int[] > result : invokeAll( tasks ) )
+			candidates.addAll( result );
+
+		// same order as the exhaustive search
+		Collections.sort( candidates, ( c1, c2 ) -> c1[ 0 ] == c2[ 0 ] ? Integer.compare( c1[ 1 ], c2[ 1 ] ) : Integer.compare( c1[ 0 ], c2[ 0 ] ) );
+
+		final ArrayList< Pair< V, V > > pairs = new ArrayList<>( candidates.size() );
+
+		for ( final int[] c : candidates )
+			pairs.add( new ValuePair< V, V >( views.get( c[ 0 ] ), views.get( c[ 1 ] ) ) );
+
+		return pairs;
+	}
+
+	/**
+	 * Sweeps over views sorted by their minimum in x, a view is only tested against the following
+	 * views that start before it ends.
+	 *
+	 * @param listA - sorted views
+	 * @param listB - sorted views, if not null only pairs between listA and listB are returned
+	 * @return the positions of the overlapping pairs, lower position first
+	 */
+	protected List< int[] > sweep(
+			final List< V > listA,
+			final List< V > listB,
+			final Map< V, Integer > position,
+			final Map< V, ArrayList< Group< V > > > memberOf,
+			final RangeComparator< V > rangeComparator )
+	{
+		final List< V > sorted;
+		final boolean[] isB;
+
+		if ( listB == null )
+		{
+			sorted = listA;
+			isB = null;
+		}
+		else
+		{
+			// merge both sorted lists
+			sorted = new ArrayList<>( listA.size() + listB.size() );
+			isB = new boolean[ listA.size() + listB.size() ];
+
+			int a = 0, b = 0;
+
+			while ( a < listA.size() || b < listB.size() )
+			{
+				if ( b == listB.size() || ( a < listA.size() && minX.compare( listA.get( a ), listB.get( b ) ) <= 0 ) )
+				{
+					sorted.add( listA.get( a++ ) );
+				}
+				else
+				{
+					isB[ sorted.size() ] = true;
+					sorted.add( listB.get( b++ ) );
+				}
+			}
+		}
+
+		final ArrayList< int[] > candidates = new ArrayList<>();
+
+		for ( int i = 0; i < sorted.size() - 1; ++i )
+		{
+			final V viewI = sorted.get( i );
+			final BoundingBox bbI = boxes.get( viewI );
+
+			for ( int j = i + 1; j < sorted.size(); ++j )
+			{
+				final V viewJ = sorted.get( j );
+				final BoundingBox bbJ = boxes.get( viewJ );
+
+				// all following views start to the right of view i
+				if ( bbJ.getMin()[ 0 ] > bbI.getMax()[ 0 ] )
+					break;
+
+				if ( ( isB == null || isB[ i ] != isB[ j ] ) && overlaps( bbI, bbJ ) )
+				{
+					final int posI = position.get( viewI );
+					final int posJ = position.get( viewJ );
+
+					final V first = posI < posJ ? viewI : viewJ;
+					final V second = posI < posJ ? viewJ : viewI;
+
+					if ( !sameGroup( first, second, memberOf ) && rangeComparator.inRange( first, second ) )
+						candidates.add( new int[] { Math.min( posI, posJ ), Math.max( posI, posJ ) } );
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	protected static < V > boolean inRange( final V viewA, final V viewB, final Map< V, Integer > position, final RangeComparator< V > rangeComparator )
+	{
+		if ( position.get( viewA ) < position.get( viewB ) )
+			return rangeComparator.inRange( viewA, viewB );
+		else
+			return rangeComparator.inRange( viewB, viewA );
+	}
+
+	protected static < V > boolean sameGroup( final V viewA, final V viewB, final Map< V, ArrayList< Group< V > > > memberOf )
+	{
+		final ArrayList< Group< V > > groups = memberOf.get( viewA );
+
+		if ( groups != null )
+			for ( final Group< V > group : groups )
+				if ( group.contains( viewB ) )
+					return true;
+
+		return false;
+	}
+
+	protected < T > List< T > invokeAll( final List< Callable< T > > tasks )
+	{
+		final ArrayList< T > results = new ArrayList<>();
+
+		if ( tasks.size() == 0 )
+			return results;
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.min( numThreads, tasks.size() ) );
+
+		try
+		{
+			for ( final Future< T > future : service.invokeAll( tasks ) )
+				results.add( future.get() );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to compute overlapping views: " + e, e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return results;
+	}
+}
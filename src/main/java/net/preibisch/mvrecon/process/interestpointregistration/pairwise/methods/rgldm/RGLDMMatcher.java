@@ -23,10 +23,13 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import mpicbg.models.Point;
 import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.AbstractPointDescriptor;
@@ -39,6 +42,14 @@ import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.Squar
 
 public class RGLDMMatcher< I extends InterestPoint >
 {
+	/**
+	 * If true, candidate descriptors are looked up in KD-trees (over the descriptor vectors, or over the
+	 * basis points if the search radius is limited) instead of comparing every pair of descriptors.
+	 * Both searches should yield the same correspondences, except where rounding or exact ties change
+	 * which descriptor is best/second best (see {@code TestRGLDMIndexedSearch}), so it is off by default.
+	 */
+	public static boolean useIndexedSearch = false;
+
 	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
 			final ArrayList< I > nodeListA,
 			final ArrayList< I > nodeListB,
@@ -54,7 +65,7 @@ public class RGLDMMatcher< I extends InterestPoint >
 		final KDTree< I > treeB = new KDTree< I >( nodeListB, nodeListB );
 		
 		/* extract point descriptors */
-		final Matcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
+		final SubsetMatcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
 		final int numRequiredNeighbors = matcher.getRequiredNumNeighbors();
 		
 		final SimilarityMeasure similarityMeasure = new SquareDistance();
@@ -62,7 +73,207 @@ public class RGLDMMatcher< I extends InterestPoint >
 		final ArrayList< SimplePointDescriptor< I > > descriptorsA = createSimplePointDescriptors( treeA, nodeListA, numRequiredNeighbors, matcher, similarityMeasure );
 		final ArrayList< SimplePointDescriptor< I > > descriptorsB = createSimplePointDescriptors( treeB, nodeListB, numRequiredNeighbors, matcher, similarityMeasure );
 
-		return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold, limitSearchRadius, searchRadius );
+		if ( !useIndexedSearch )
+			return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold, limitSearchRadius, searchRadius );
+		else if ( limitSearchRadius )
+			return findCorrespondingDescriptorsInRadius( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold, searchRadius );
+		else
+			return findCorrespondingDescriptorsIndexed( descriptorsA, descriptorsB, matcher, ratioOfDistance, differenceThreshold );
+	}
+
+	/**
+	 * Same result as {@link #findCorrespondingDescriptors} without a search radius, but using a KD-tree.
+	 * <p>
+	 * For every descriptor and every subset of its neighbors (as chosen by the {@link SubsetMatcher}) the
+	 * relative coordinates of the subset are concatenated into one vector. The {@link SquareDistance} of
+	 * two matched subsets is then the squared euclidean distance of their vectors divided by numDimensions,
+	 * and the descriptor distance is the minimum over all pairs of subsets. For each subset of descriptor A
+	 * the numCombinations+1 nearest vectors of B always contain the two closest distinct descriptors of B,
+	 * so best and second best are found exactly and the ratio test is unchanged.
+	 */
+	protected static < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptorsIndexed(
+			final ArrayList< SimplePointDescriptor< I > > descriptorsA,
+			final ArrayList< SimplePointDescriptor< I > > descriptorsB,
+			final SubsetMatcher matcher,
+			final double nTimesBetter,
+			final double differenceThreshold )
+	{
+		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
+
+		// there must be a second best descriptor
+		if ( descriptorsA.size() == 0 || descriptorsB.size() < 2 )
+			return correspondenceCandidates;
+
+		final int[][] subsets = matcher.getNeighbors();
+		final int numCombinations = subsets.length;
+		final int numDimensions = descriptorsB.get( 0 ).numDimensions();
+
+		final ArrayList< RealPoint > vectorsB = new ArrayList<>( descriptorsB.size() * numCombinations );
+		final ArrayList< Integer > indicesB = new ArrayList<>( descriptorsB.size() * numCombinations );
+
+		for ( int j = 0; j < descriptorsB.size(); ++j )
+			for ( final int[] subset : subsets )
+			{
+				vectorsB.add( subsetVector( descriptorsB.get( j ), subset ) );
+				indicesB.add( j );
+			}
+
+		final KDTree< Integer > tree = new KDTree<>( indicesB, vectorsB );
+		final int k = numCombinations + 1;
+		final KNearestNeighborSearchOnKDTree< Integer > search = new KNearestNeighborSearchOnKDTree<>( tree, k );
+
+		for ( final SimplePointDescriptor< I > descriptorA : descriptorsA )
+		{
+			double bestDifference = Double.MAX_VALUE;
+			double secondBestDifference = Double.MAX_VALUE;
+
+			int bestMatch = -1;
+			int secondBestMatch = -1;
+
+			for ( final int[] subset : subsets )
+			{
+				search.search( subsetVector( descriptorA, subset ) );
+
+				for ( int i = 0; i < k; ++i )
+				{
+					final int j = search.getSampler( i ).get();
+					final double difference = search.getSquareDistance( i ) / numDimensions;
+
+					if ( j == bestMatch )
+					{
+						bestDifference = Math.min( bestDifference, difference );
+						continue;
+					}
+					else if ( j == secondBestMatch )
+					{
+						secondBestDifference = Math.min( secondBestDifference, difference );
+					}
+					else if ( difference < secondBestDifference )
+					{
+						secondBestDifference = difference;
+						secondBestMatch = j;
+					}
+
+					if ( secondBestDifference < bestDifference )
+					{
+						final double tmpDiff = secondBestDifference;
+						final int tmpMatch = secondBestMatch;
+
+						secondBestDifference = bestDifference;
+						secondBestMatch = bestMatch;
+
+						bestDifference = tmpDiff;
+						bestMatch = tmpMatch;
+					}
+				}
+			}
+
+			if ( bestDifference < differenceThreshold && bestDifference * nTimesBetter < secondBestDifference && secondBestDifference != Double.MAX_VALUE )
+			{
+				// add correspondence for the two basis points of the descriptor
+				correspondenceCandidates.add( new PointMatchGeneric< I >( descriptorA.getBasisPoint(), descriptorsB.get( bestMatch ).getBasisPoint() ) );
+			}
+		}
+
+		return correspondenceCandidates;
+	}
+
+	/**
+	 * Same result as {@link #findCorrespondingDescriptors} with a limited search radius, but only the
+	 * descriptors whose basis points are within {@code searchRadius} (found using a KD-tree) are compared.
+	 */
+	protected static < I extends InterestPoint, D extends AbstractPointDescriptor< I , D > > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptorsInRadius(
+			final ArrayList< D > descriptorsA,
+			final ArrayList< D > descriptorsB,
+			final double nTimesBetter,
+			final double differenceThreshold,
+			final double searchRadius )
+	{
+		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
+
+		// there must be a second best descriptor
+		if ( descriptorsA.size() == 0 || descriptorsB.size() < 2 )
+			return correspondenceCandidates;
+
+		// Point.distance() uses world coordinates
+		final ArrayList< RealPoint > basisPointsB = new ArrayList<>( descriptorsB.size() );
+		final ArrayList< Integer > indicesB = new ArrayList<>( descriptorsB.size() );
+
+		for ( int j = 0; j < descriptorsB.size(); ++j )
+		{
+			basisPointsB.add( new RealPoint( descriptorsB.get( j ).getBasisPoint().getW() ) );
+			indicesB.add( j );
+		}
+
+		final KDTree< Integer > tree = new KDTree<>( indicesB, basisPointsB );
+		final RadiusNeighborSearchOnKDTree< Integer > search = new RadiusNeighborSearchOnKDTree<>( tree );
+
+		for ( final D descriptorA : descriptorsA )
+		{
+			search.search( new RealPoint( descriptorA.getBasisPoint().getW() ), searchRadius, false );
+
+			// visit candidates in the same order as the exhaustive search
+			final int[] candidates = new int[ search.numNeighbors() ];
+			for ( int i = 0; i < candidates.length; ++i )
+				candidates[ i ] = search.getSampler( i ).get();
+			Arrays.sort( candidates );
+
+			double bestDifference = Double.MAX_VALUE;
+			double secondBestDifference = Double.MAX_VALUE;
+
+			D bestMatch = null;
+			D secondBestMatch = null;
+
+			for ( final int j : candidates )
+			{
+				final D descriptorB = descriptorsB.get( j );
+
+				if ( Point.distance( descriptorA.getBasisPoint(), descriptorB.getBasisPoint() ) > searchRadius )
+					continue;
+
+				final double difference = descriptorA.descriptorDistance( descriptorB );
+
+				if ( difference < secondBestDifference )
+				{
+					secondBestDifference = difference;
+					secondBestMatch = descriptorB;
+
+					if ( secondBestDifference < bestDifference )
+					{
+						double tmpDiff = secondBestDifference;
+						D tmpMatch = secondBestMatch;
+
+						secondBestDifference = bestDifference;
+						secondBestMatch = bestMatch;
+
+						bestDifference = tmpDiff;
+						bestMatch = tmpMatch;
+					}
+				}
+			}
+
+			if ( bestDifference < differenceThreshold && bestDifference * nTimesBetter < secondBestDifference && secondBestDifference != Double.MAX_VALUE )
+			{
+				// add correspondence for the two basis points of the descriptor
+				correspondenceCandidates.add( new PointMatchGeneric< I >( descriptorA.getBasisPoint(), bestMatch.getBasisPoint() ) );
+			}
+		}
+
+		return correspondenceCandidates;
+	}
+
+	/**
+	 * @return the concatenated relative coordinates of the given subset of descriptor points
+	 */
+	private static RealPoint subsetVector( final AbstractPointDescriptor< ?, ? > descriptor, final int[] subset )
+	{
+		final int n = descriptor.numDimensions();
+		final double[] vector = new double[ subset.length * n ];
+
+		for ( int i = 0; i < subset.length; ++i )
+			System.arraycopy( descriptor.getDescriptorPoint( subset[ i ] ).getW(), 0, vector, i * n, n );
+
+		return RealPoint.wrap( vector );
 	}
 	
 	protected static final < I extends InterestPoint, D extends AbstractPointDescriptor< I , D > > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
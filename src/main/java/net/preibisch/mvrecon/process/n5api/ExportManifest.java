@@ -0,0 +1,211 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.n5api;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * A per-dataset completion bitmap of the compute blocks (jobs) of an export,
+ * stored as attributes of the dataset so an interrupted export can be resumed.
+ * <p>
+ * The jobs are identified by their position in the grid of compute blocks
+ * (see {@link N5ApiTools#assembleJobs}), which does not depend on the order in
+ * which they are processed. Marking a job complete is lock-free; the bitmap is
+ * written to the container every {@code flushInterval} completed jobs and when
+ * {@link #flush()} is called.
+ */
+public class ExportManifest
+{
+	public static String numBlocksKey = "exportManifestNumBlocks";
+	public static String completedKey = "exportManifestCompletedBlocks";
+	public static String dimensionsKey = "exportManifestDimensions";
+	public static String computeBlockSizeKey = "exportManifestComputeBlockSize";
+	public static String datasetKey = "exportManifestDataset";
+
+	final N5Writer n5;
+	final String dataset;
+	final String suffix;
+
+	final long[] dimensions;
+	final int[] computeBlockSize;
+	final long[] numBlocks;
+	final int numJobs;
+
+	final AtomicLongArray completed;
+	final AtomicInteger numCompleted = new AtomicInteger( 0 );
+	final AtomicInteger sinceFlush = new AtomicInteger( 0 );
+	final int flushInterval;
+
+	/**
+	 * @param n5 - the container
+	 * @param dataset - the dataset the manifest is stored with
+	 * @param suffix - appended to the attribute keys, to distinguish several exports into one dataset (e.g. channels/timepoints of a 5D OME-ZARR), can be empty
+	 * @param dimensions - the (3d) dimensions of the exported image
+	 * @param computeBlockSize - the (3d) size of one job
+	 * @param resume - load the existing manifest (if it matches the jobs), otherwise start empty
+	 */
+	public ExportManifest(
+			final N5Writer n5,
+			final String dataset,
+			final String suffix,
+			final long[] dimensions,
+			final int[] computeBlockSize,
+			final boolean resume )
+	{
+		this.n5 = n5;
+		this.dataset = dataset;
+		this.suffix = suffix;
+		this.dimensions = dimensions.clone();
+		this.computeBlockSize = computeBlockSize.clone();
+
+		this.numBlocks = new long[ dimensions.length ];
+		long n = 1;
+		for ( int d = 0; d < dimensions.length; ++d )
+		{
+			numBlocks[ d ] = ( dimensions[ d ] + computeBlockSize[ d ] - 1 ) / computeBlockSize[ d ];
+			n *= numBlocks[ d ];
+		}
+		this.numJobs = Math.toIntExact( n );
+		this.completed = new AtomicLongArray( ( numJobs + 63 ) / 64 );
+		this.flushInterval = Math.max( 1, numJobs / 100 );
+
+		if ( resume )
+			load();
+	}
+
+	/**
+	 * @return the index of the job (as returned by {@link N5ApiTools#assembleJobs}) in the grid of compute blocks
+	 */
+	public int jobIndex( final long[][] gridBlock )
+	{
+		long index = 0;
+		for ( int d = dimensions.length - 1; d >= 0; --d )
+			index = index * numBlocks[ d ] + gridBlock[ 0 ][ d ] / computeBlockSize[ d ];
+		return ( int ) index;
+	}
+
+	public boolean isComplete( final long[][] gridBlock )
+	{
+		final int i = jobIndex( gridBlock );
+		return ( completed.get( i >>> 6 ) & ( 1L << i ) ) != 0;
+	}
+
+	/**
+	 * Mark a job as complete. Only call this after the job was written successfully.
+	 * Thread-safe.
+	 */
+	public void markComplete( final long[][] gridBlock )
+	{
+		final int i = jobIndex( gridBlock );
+		final long bit = 1L << i;
+
+		long word;
+		do
+		{
+			word = completed.get( i >>> 6 );
+			if ( ( word & bit ) != 0 )
+				return;
+		}
+		while ( !completed.compareAndSet( i >>> 6, word, word | bit ) );
+
+		numCompleted.incrementAndGet();
+
+		if ( sinceFlush.incrementAndGet() >= flushInterval )
+		{
+			sinceFlush.set( 0 );
+			flush();
+		}
+	}
+
+	public int numCompleted() { return numCompleted.get(); }
+
+	public int numJobs() { return numJobs; }
+
+	/**
+	 * Write the current state of the manifest to the container.
+	 */
+	public synchronized void flush()
+	{
+		final long[] words = new long[ completed.length() ];
+		for ( int i = 0; i < words.length; ++i )
+			words[ i ] = completed.get( i );
+
+		n5.setAttribute( dataset, completedKey + suffix, words );
+		n5.setAttribute( dataset, numBlocksKey + suffix, numBlocks );
+		n5.setAttribute( dataset, dimensionsKey + suffix, dimensions );
+		n5.setAttribute( dataset, computeBlockSizeKey + suffix, computeBlockSize );
+		n5.setAttribute( dataset, datasetKey + suffix, dataset );
+	}
+
+	protected void load()
+	{
+		final long[] storedNumBlocks, storedDimensions;
+		final int[] storedComputeBlockSize;
+		final String storedDataset;
+		final long[] words;
+
+		try
+		{
+			storedNumBlocks = n5.getAttribute( dataset, numBlocksKey + suffix, long[].class );
+			storedDimensions = n5.getAttribute( dataset, dimensionsKey + suffix, long[].class );
+			storedComputeBlockSize = n5.getAttribute( dataset, computeBlockSizeKey + suffix, int[].class );
+			storedDataset = n5.getAttribute( dataset, datasetKey + suffix, String.class );
+			words = n5.getAttribute( dataset, completedKey + suffix, long[].class );
+		}
+		catch ( Exception e )
+		{
+			IOFunctions.println( "Could not read export manifest of '" + dataset + "', writing all blocks: " + e );
+			return;
+		}
+
+		if ( words == null )
+			return;
+
+		// the same number of blocks is not enough, e.g. a different bounding box or block size can have the same number of jobs
+		if ( !Arrays.equals( storedNumBlocks, numBlocks ) ||
+				!Arrays.equals( storedDimensions, dimensions ) ||
+				!Arrays.equals( storedComputeBlockSize, computeBlockSize ) ||
+				!dataset.equals( storedDataset ) ||
+				words.length != completed.length() )
+		{
+			IOFunctions.println( "Export manifest of '" + dataset + "' does not match the current export, writing all blocks." );
+			return;
+		}
+
+		int count = 0;
+		for ( int i = 0; i < words.length; ++i )
+		{
+			completed.set( i, words[ i ] );
+			count += Long.bitCount( words[ i ] );
+		}
+		numCompleted.set( count );
+
+		IOFunctions.println( "Resuming '" + dataset + "': " + count + " of " + numJobs + " blocks already written." );
+	}
+}
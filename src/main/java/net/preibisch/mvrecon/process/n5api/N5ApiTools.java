@@ -60,13 +60,17 @@ import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.ViewSetup;
 import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.blocks.BlockAlgoUtils;
 import net.imglib2.algorithm.blocks.BlockSupplier;
 import net.imglib2.algorithm.blocks.downsample.Downsample;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -260,7 +264,8 @@ public class N5ApiTools
 		mrInfo[ 0 ] = new MultiResolutionLevelInfo(
 				viewIdToDataset.apply( viewId, 0 ), dimensionsS0.clone(), dataType, relativeDownsampling, downsamplings[ 0 ], blockSize );
 
-		driverVolumeWriter.createDataset(
+		createDatasetIfNecessary(
+				driverVolumeWriter,
 				viewIdToDataset.apply( viewId, 0 ),
 				dimensionsS0,
 				blockSize,
@@ -283,7 +288,8 @@ public class N5ApiTools
 			mrInfo[ level ] = new MultiResolutionLevelInfo(
 					datasetLevel, dim.clone(), dataType, relativeDownsampling, downsamplings[ level ], blockSize );
 
-			driverVolumeWriter.createDataset(
+			createDatasetIfNecessary(
+					driverVolumeWriter,
 					datasetLevel,
 					dim,
 					blockSize,
@@ -298,6 +304,35 @@ public class N5ApiTools
 		return mrInfo;
 	}
 
+	/**
+	 * Creates the dataset, unless it already exists with the same dimensions, block size,
+	 * data type and compression (e.g. when resuming an export). Creating it again would
+	 * replace an existing HDF5 dataset, including the blocks and the {@link ExportManifest}
+	 * that were already written.
+	 */
+	public static void createDatasetIfNecessary(
+			final N5Writer driverVolumeWriter,
+			final String dataset,
+			final long[] dimensions,
+			final int[] blockSize,
+			final DataType dataType,
+			final Compression compression )
+	{
+		if ( driverVolumeWriter.datasetExists( dataset ) )
+		{
+			final DatasetAttributes attributes = driverVolumeWriter.getDatasetAttributes( dataset );
+
+			if ( attributes != null &&
+					Arrays.equals( attributes.getDimensions(), dimensions ) &&
+					Arrays.equals( attributes.getBlockSize(), blockSize ) &&
+					attributes.getDataType() == dataType &&
+					attributes.getCompression().getClass() == compression.getClass() )
+				return;
+		}
+
+		driverVolumeWriter.createDataset( dataset, dimensions, blockSize, dataType, compression );
+	}
+
 	public static String[] exportOptions()
 	{
 		return Arrays.asList(StorageFormat.values()).stream().map(s -> s.name().equals("ZARR") ? "OME-ZARR" : s.name())
@@ -723,6 +758,194 @@ public class N5ApiTools
 		System.out.println( "ViewId " + Group.pvid( viewId ) + ", written block: offset=" + Util.printCoordinates( blockOffset ) + ", dimension=" + Util.printCoordinates( blockSize ) );
 	}
 
+	/**
+	 * @param blockSize - the (3d) block size of the datasets
+	 * @param computeBlockSize - the (3d) size of a compute block, a multiple of blockSize
+	 * @param absoluteDownsampling - the (3d) absolute downsampling of the coarsest level computed from the super-block
+	 * @return the (3d) size of a super-block in s0, i.e. the smallest multiple of one block of the coarsest level
+	 * (in s0 coordinates) that is at least as big as the compute block
+	 */
+	public static int[] superBlockSize( final int[] blockSize, final int[] computeBlockSize, final int[] absoluteDownsampling )
+	{
+		final int[] superBlockSize = new int[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int unit = blockSize[ d ] * absoluteDownsampling[ d ];
+			superBlockSize[ d ] = ( ( Math.max( computeBlockSize[ d ], unit ) + unit - 1 ) / unit ) * unit;
+		}
+
+		return superBlockSize;
+	}
+
+	/**
+	 * @param downsamplings - the absolute downsampling of all levels
+	 * @param blockSize - the (3d) block size of the datasets
+	 * @param computeBlockSize - the (3d) size of a compute block, a multiple of blockSize
+	 * @param bytesPerPixel - bytes per pixel
+	 * @param maxBytes - the memory available to one super-block
+	 * @param dimensions - the (3d) dimensions of s0 of all views that are resaved
+	 * @param minNumSuperBlocks - the minimal number of super-blocks (e.g. the number of threads), coarser levels
+	 * would produce fewer but bigger super-blocks that cannot keep all threads busy
+	 * @return the coarsest level that can be computed from an in-memory super-block that needs at most maxBytes
+	 * (s0 plus s1, which are held at the same time) with at least minNumSuperBlocks super-blocks, at least 0
+	 */
+	public static int superBlockLastLevel(
+			final int[][] downsamplings,
+			final int[] blockSize,
+			final int[] computeBlockSize,
+			final int bytesPerPixel,
+			final long maxBytes,
+			final Collection< long[] > dimensions,
+			final int minNumSuperBlocks )
+	{
+		if ( downsamplings.length == 1 )
+			return 0;
+
+		final int[] relativeDownsampling = computeRelativeDownsampling( downsamplings, 1 );
+		int lastLevel = 0;
+
+		for ( int level = 1; level < downsamplings.length; ++level )
+		{
+			final int[] size = superBlockSize( blockSize, computeBlockSize, downsamplings[ level ] );
+
+			long numPixelsS0 = 1, numPixelsS1 = 1;
+
+			for ( int d = 0; d < 3; ++d )
+			{
+				numPixelsS0 *= size[ d ];
+				numPixelsS1 *= size[ d ] / relativeDownsampling[ d ];
+			}
+
+			if ( ( numPixelsS0 + numPixelsS1 ) * bytesPerPixel > maxBytes )
+				break;
+
+			long numSuperBlocks = 0;
+
+			for ( final long[] dim : dimensions )
+			{
+				long n = 1;
+
+				for ( int d = 0; d < 3; ++d )
+					n *= ( dim[ d ] + size[ d ] - 1 ) / size[ d ];
+
+				numSuperBlocks += n;
+			}
+
+			if ( numSuperBlocks < minNumSuperBlocks )
+				break;
+
+			lastLevel = level;
+		}
+
+		return lastLevel;
+	}
+
+	public static int bytesPerPixel( final DataType dataType )
+	{
+		if ( dataType == UINT8 )
+			return 1;
+		else if ( dataType == UINT16 )
+			return 2;
+		else
+			return 4;
+	}
+
+	/**
+	 * Loads one super-block (as returned by {@link #assembleJobs} with the size from {@link #superBlockSize}) of s0 from the
+	 * source ImgLoader once and writes the corresponding blocks of s0 ... s[lastLevel] from memory, i.e. no level is
+	 * read back from storage. Only the current and the previous level are held in memory.
+	 *
+	 * @param data - the SpimData
+	 * @param n5 - the writer
+	 * @param storageType - N5, HDF5 or ZARR
+	 * @param mrInfo - the multi-resolution pyramid of the view
+	 * @param lastLevel - the coarsest level to write, the super-block must be aligned to its blocks
+	 * @param blockSize - the (3d) block size of the datasets
+	 * @param gridBlock - the super-block, including the ViewId
+	 */
+	public static < T extends NativeType< T > & RealType< T > > void resaveSuperBlock(
+			final SpimData2 data,
+			final N5Writer n5,
+			final StorageFormat storageType,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final int lastLevel,
+			final int[] blockSize,
+			final long[][] gridBlock )
+	{
+		final ViewId viewId = gridBlockToViewId( gridBlock );
+		final DataType dataType = mrInfo[ 0 ].dataType;
+
+		if ( !supportedDataTypes.contains( dataType ) )
+		{
+			n5.close();
+			throw new RuntimeException( "Unsupported pixel type: " + dataType );
+		}
+
+		final SetupImgLoader< ? > imgLoader = data.getSequenceDescription().getImgLoader().getSetupImgLoader( viewId.getViewSetupId() );
+		final RandomAccessibleInterval< T > img = Cast.unchecked( imgLoader.getImage( viewId.getTimePointId() ) );
+		final T type = img.getType().createVariable();
+
+		final long[] min = gridBlock[ 0 ].clone();
+		final long[] size = gridBlock[ 1 ].clone();
+
+		// the only time the source is read
+		RandomAccessibleInterval< T > levelImg = copyBlock( BlockSupplier.of( img ), min, size, type );
+
+		for ( int level = 0; level <= lastLevel; ++level )
+		{
+			if ( level > 0 )
+			{
+				final int[] relativeDownsampling = Arrays.copyOf( mrInfo[ level ].relativeDownsampling, 3 );
+
+				for ( int d = 0; d < 3; ++d )
+				{
+					// the last pixels of a level are dropped if its size is not divisible by the downsampling factor
+					final long max = Math.min( ( min[ d ] + size[ d ] ) / relativeDownsampling[ d ], mrInfo[ level ].dimensions[ d ] );
+					min[ d ] /= relativeDownsampling[ d ];
+					size[ d ] = max - min[ d ];
+				}
+
+				// nothing left of this super-block at this and all coarser levels
+				if ( Arrays.stream( size ).anyMatch( s -> s <= 0 ) )
+					break;
+
+				levelImg = copyBlock(
+						BlockSupplier.of( Views.extendBorder( levelImg ) ).andThen( Downsample.downsample( relativeDownsampling ) ),
+						min, size, type );
+			}
+
+			final long[] gridOffset = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				gridOffset[ d ] = min[ d ] / blockSize[ d ];
+
+			// 5D OME-ZARR CONTAINER
+			if ( storageType == StorageFormat.ZARR )
+				N5Utils.saveNonEmptyBlock(
+						Views.addDimension( Views.addDimension( Views.zeroMin( levelImg ), 0, 0 ), 0, 0 ),
+						n5, mrInfo[ level ].dataset, new long[] { gridOffset[ 0 ], gridOffset[ 1 ], gridOffset[ 2 ], 0, 0 }, type );
+			else
+				N5Utils.saveNonEmptyBlock( Views.zeroMin( levelImg ), n5, mrInfo[ level ].dataset, gridOffset, type );
+		}
+
+		System.out.println( "ViewId " + Group.pvid( viewId ) + ", written s0-s" + lastLevel + " of super-block: offset=" + Util.printCoordinates( gridBlock[ 0 ] ) + ", dimension=" + Util.printCoordinates( gridBlock[ 1 ] ) );
+	}
+
+	/**
+	 * @return a copy of the block in an ArrayImg, translated to min
+	 */
+	private static < T extends NativeType< T > > RandomAccessibleInterval< T > copyBlock(
+			final BlockSupplier< T > blocks,
+			final long[] min,
+			final long[] size,
+			final T type )
+	{
+		final ArrayImg< T, ? > copy = new ArrayImgFactory<>( type ).create( size );
+		blocks.copy( FinalInterval.createMinSize( min, size ), ( ( ArrayDataAccess< ? > ) copy.update( null ) ).getCurrentStorageArray() );
+
+		return Views.translate( copy, min );
+	}
+
 	public static Map< Integer, DataType > assembleDataTypes(
 			final AbstractSpimData< ? > data,
 			final Collection< Integer > viewSetupIds )
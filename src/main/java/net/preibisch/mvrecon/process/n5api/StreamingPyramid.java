@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.n5api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.algorithm.blocks.downsample.Downsample;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.n5api.N5ApiTools.MultiResolutionLevelInfo;
+
+/**
+ * Writes a full multi-resolution pyramid (s0 ... sN) in a single pass, without
+ * reading previously written levels back from storage.
+ * <p>
+ * Each level is a lazily computed, in-memory image with a bounded cache: s0
+ * caches the (fused) input image, s1...sN downsample the cached previous level.
+ * The s0 jobs are processed in Z-order (Morton order), so that the recursive
+ * splitting of the parallel stream hands spatially compact regions to each
+ * thread. A job of level s is written as soon as all jobs of level s-1 it
+ * depends on are written, i.e. while its input is still in the cache.
+ * <p>
+ * The cells of a written job stay pinned (strongly referenced, so the bounded
+ * cache cannot drop them) until all jobs of the next level that read them are
+ * written, so no block is computed twice. The bounded cache only holds the
+ * blocks that are in flight.
+ * <p>
+ * A job that fails to write is logged and skipped (it is not marked complete
+ * by the writer, so it is written again when resuming), all other jobs are
+ * still written.
+ */
+public class StreamingPyramid
+{
+	/**
+	 * Writes one job (as returned by {@link N5ApiTools#assembleJobs}) of one level of the pyramid.
+	 */
+	@FunctionalInterface
+	public interface BlockWriter< T >
+	{
+		void write( int level, RandomAccessibleInterval< T > levelImg, long[][] gridBlock ) throws Exception;
+	}
+
+	/**
+	 * @param img - the full resolution image (3d, zero-min)
+	 * @param mrInfo - the multi-resolution pyramid (can be 5d for OME-ZARR, only the first 3 dimensions are used)
+	 * @param blockSize - the (3d) block size of the datasets
+	 * @param computeBlockSize - the (3d) size of one job, a multiple of blockSize
+	 * @param maxCacheSize - max number of blocks cached per level (if &lt;= 0, a soft-reference cache is used)
+	 * @param writer - writes one job of a level
+	 * @param pool - the pool that runs the jobs
+	 * @return the number of jobs that failed to write
+	 */
+	public static < T extends NativeType< T > & RealType< T > > int write(
+			final RandomAccessibleInterval< T > img,
+			final MultiResolutionLevelInfo[] mrInfo,
+			final int[] blockSize,
+			final int[] computeBlockSize,
+			final long maxCacheSize,
+			final BlockWriter< T > writer,
+			final ForkJoinPool pool ) throws InterruptedException, ExecutionException
+	{
+		final int numLevels = mrInfo.length;
+		final T type = img.getType().createVariable();
+
+		// the in-memory pyramid
+		final List< RandomAccessibleInterval< T > > levelImgs = new ArrayList<>( numLevels );
+		levelImgs.add( FusionTools.cacheRandomAccessibleInterval( img, maxCacheSize, type, blockSize ) );
+
+		for ( int level = 1; level < numLevels; ++level )
+		{
+			final BlockSupplier< T > blocks = BlockSupplier.of( levelImgs.get( level - 1 ) )
+					.andThen( Downsample.downsample( Arrays.copyOf( mrInfo[ level ].relativeDownsampling, 3 ) ) );
+			levelImgs.add( cache( blocks, dimensions3d( mrInfo[ level ] ), blockSize, maxCacheSize ) );
+		}
+
+		// the jobs for each level, and for each job the jobs of the next level that depend on it
+		final List< List< Job > > jobs = new ArrayList<>( numLevels );
+		for ( int level = 0; level < numLevels; ++level )
+		{
+			final List< Job > levelJobs = new ArrayList<>();
+			for ( final long[][] gridBlock : N5ApiTools.assembleJobs( dimensions3d( mrInfo[ level ] ), blockSize, computeBlockSize ) )
+				levelJobs.add( new Job( level, gridBlock, computeBlockSize ) );
+			jobs.add( levelJobs );
+		}
+
+		for ( int level = 1; level < numLevels; ++level )
+			linkDependencies( jobs.get( level - 1 ), jobs.get( level ), Arrays.copyOf( mrInfo[ level ].relativeDownsampling, 3 ), dimensions3d( mrInfo[ level - 1 ] ), computeBlockSize );
+
+		final List< Job > s0Jobs = new ArrayList<>( jobs.get( 0 ) );
+		s0Jobs.sort( Comparator.comparingLong( j -> j.mortonCode ) );
+
+		final AtomicInteger numFailed = new AtomicInteger();
+		pool.submit( () -> s0Jobs.parallelStream().forEach( job -> process( job, levelImgs, blockSize, writer, numFailed ) ) ).get();
+
+		return numFailed.get();
+	}
+
+	/**
+	 * Writes the job, then all jobs of the next level(s) that became ready.
+	 */
+	private static < T > void process(
+			final Job job,
+			final List< RandomAccessibleInterval< T > > levelImgs,
+			final int[] blockSize,
+			final BlockWriter< T > writer,
+			final AtomicInteger numFailed )
+	{
+		try
+		{
+			writer.write( job.level, levelImgs.get( job.level ), job.gridBlock );
+		}
+		catch ( Exception e )
+		{
+			// the next level is still computed from the in-memory image
+			IOFunctions.println( "Error writing level " + job.level + " block offset=" + Util.printCoordinates( job.gridBlock[ 0 ] ) + "' ... " );
+			e.printStackTrace();
+			numFailed.incrementAndGet();
+		}
+
+		// keep the input of the next level until it is written
+		if ( !job.parents.isEmpty() )
+			job.pinned = pin( levelImgs.get( job.level ), job.gridBlock, blockSize );
+
+		// the input of this job is not needed anymore once all jobs reading it are written
+		for ( final Job child : job.children )
+			if ( child.pendingParents.decrementAndGet() == 0 )
+				child.pinned = null;
+
+		for ( final Job parent : job.parents )
+			if ( parent.pendingChildren.decrementAndGet() == 0 )
+				process( parent, levelImgs, blockSize, writer, numFailed );
+	}
+
+	/**
+	 * Holds strong references to all cells of a cell image that intersect the job,
+	 * so the cache does not drop them.
+	 */
+	private static List< Object > pin(
+			final RandomAccessibleInterval< ? > levelImg,
+			final long[][] gridBlock,
+			final int[] blockSize )
+	{
+		if ( !( levelImg instanceof AbstractCellImg ) )
+			return null;
+
+		final RandomAccess< ? > cells = ( ( AbstractCellImg< ?, ?, ?, ? > ) levelImg ).getCells().randomAccess();
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = gridBlock[ 0 ][ d ] / blockSize[ d ];
+			max[ d ] = ( gridBlock[ 0 ][ d ] + gridBlock[ 1 ][ d ] - 1 ) / blockSize[ d ];
+		}
+
+		final List< Object > pinned = new ArrayList<>();
+
+		for ( long z = min[ 2 ]; z <= max[ 2 ]; ++z )
+			for ( long y = min[ 1 ]; y <= max[ 1 ]; ++y )
+				for ( long x = min[ 0 ]; x <= max[ 0 ]; ++x )
+				{
+					cells.setPosition( new long[] { x, y, z } );
+					pinned.add( cells.get() );
+				}
+
+		return pinned;
+	}
+
+	/**
+	 * For each job of a level, find the jobs of the previous level it reads from.
+	 * The required region is expanded by one pixel in each direction, which
+	 * conservatively covers the support of the downsampling kernel.
+	 */
+	private static void linkDependencies(
+			final List< Job > children,
+			final List< Job > parents,
+			final int[] relativeDownsampling,
+			final long[] childDimensions,
+			final int[] computeBlockSize )
+	{
+		final Map< List< Long >, Job > childrenByIndex = new HashMap<>();
+		for ( final Job child : children )
+			childrenByIndex.put( child.index(), child );
+
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+
+		for ( final Job parent : parents )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				final long f = relativeDownsampling[ d ];
+				final long from = Math.max( 0, parent.gridBlock[ 0 ][ d ] * f - 1 );
+				final long to = Math.min( childDimensions[ d ] - 1, ( parent.gridBlock[ 0 ][ d ] + parent.gridBlock[ 1 ][ d ] ) * f );
+				min[ d ] = from / computeBlockSize[ d ];
+				max[ d ] = to / computeBlockSize[ d ];
+			}
+
+			for ( long z = min[ 2 ]; z <= max[ 2 ]; ++z )
+				for ( long y = min[ 1 ]; y <= max[ 1 ]; ++y )
+					for ( long x = min[ 0 ]; x <= max[ 0 ]; ++x )
+					{
+						final Job child = childrenByIndex.get( Arrays.asList( x, y, z ) );
+						if ( child != null )
+						{
+							child.parents.add( parent );
+							child.pendingParents.incrementAndGet();
+							parent.children.add( child );
+							parent.pendingChildren.incrementAndGet();
+						}
+					}
+		}
+	}
+
+	private static < T extends NativeType< T > > RandomAccessibleInterval< T > cache(
+			final BlockSupplier< T > blocks,
+			final long[] dimensions,
+			final int[] blockSize,
+			final long maxCacheSize )
+	{
+		final ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options()
+				.cellDimensions( blockSize )
+				.cacheType( maxCacheSize > 0 ? CacheType.BOUNDED : CacheType.SOFTREF )
+				.maxCacheSize( maxCacheSize );
+
+		final BlockSupplier< T > threadSafeBlocks = blocks.threadSafe();
+		return new ReadOnlyCachedCellImgFactory( options ).create(
+				dimensions,
+				blocks.getType(),
+				cell -> threadSafeBlocks.copy( cell, cell.getStorageArray() ) );
+	}
+
+	private static long[] dimensions3d( final MultiResolutionLevelInfo mrInfo )
+	{
+		return new long[] { mrInfo.dimensions[ 0 ], mrInfo.dimensions[ 1 ], mrInfo.dimensions[ 2 ] };
+	}
+
+	private static class Job
+	{
+		final int level;
+		final long[][] gridBlock;
+		final long[] index;
+		final long mortonCode;
+
+		final List< Job > parents = new ArrayList<>();
+		final List< Job > children = new ArrayList<>();
+		final AtomicInteger pendingChildren = new AtomicInteger();
+		final AtomicInteger pendingParents = new AtomicInteger();
+
+		// the cells of this job, while jobs of the next level still need them
+		volatile List< Object > pinned;
+
+		Job( final int level, final long[][] gridBlock, final int[] computeBlockSize )
+		{
+			this.level = level;
+			this.gridBlock = gridBlock;
+			this.index = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				index[ d ] = gridBlock[ 0 ][ d ] / computeBlockSize[ d ];
+			this.mortonCode = mortonCode( index );
+		}
+
+		List< Long > index()
+		{
+			return Arrays.asList( index[ 0 ], index[ 1 ], index[ 2 ] );
+		}
+	}
+
+	/**
+	 * Interleaves the bits of the (3d) grid position, 21 bits per dimension.
+	 */
+	private static long mortonCode( final long[] index )
+	{
+		long code = 0;
+		for ( int bit = 0; bit < 21; ++bit )
+			for ( int d = 0; d < 3; ++d )
+				code |= ( ( index[ d ] >> bit ) & 1L ) << ( 3 * bit + d );
+		return code;
+	}
+}
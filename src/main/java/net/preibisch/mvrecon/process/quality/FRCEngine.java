@@ -0,0 +1,478 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2025 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.quality;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.fft2.FFTMethods;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Computes FRC curves like {@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}, but
+ * using the imglib2 FFT directly on float arrays that are reused for every square (no ImageProcessors, no FHT).
+ * Optionally computes the 3D version (Fourier shell correlation) of two cubes instead of two squares.
+ * <p>
+ * One instance is not thread-safe, use one per thread (see {@link FRCRealRandomAccessible}).
+ */
+public class FRCEngine
+{
+	/**
+	 * the maximal edge length of the cubes when computing 3D FRC's
+	 */
+	public static int max3DLength = 128;
+
+	// the FFT's of a single square/cube are computed by the calling thread
+	private static final ExecutorService sameThread = new SameThreadExecutorService();
+
+	// for the LOESS smoothing and the sampling parameters
+	final FRC frc = new FRC();
+
+	// buffers that are reused as long as the size does not change
+	private int size2d = -1, size3d = -1, taperSize = -1;
+	private float[] taper;
+	private float[] real1, real2, fft1, fft2;
+	private float[] numerator, absFFT1, absFFT2;
+	private float[] real3d1, real3d2, fft3d1, fft3d2;
+
+	public double computeFRC(
+			final RandomAccessible< FloatType > input,
+			final Point location,
+			final int length,
+			final boolean use3D )
+	{
+		return FRCRealRandomAccessible.integral( calculateCurve( input, location, 1, length, use3D ) );
+	}
+
+	/**
+	 * Same as {@link FRCRealRandomAccessible#computeRelativeFRC(RandomAccessible, Point, int, int)}
+	 */
+	public double computeRelativeFRC(
+			final RandomAccessible< FloatType > input,
+			final Point location,
+			final int length,
+			final int relativeFRCDist,
+			final boolean use3D )
+	{
+		final double[][] frcCurve = calculateCurve( input, location, 1, length, use3D );
+
+		try
+		{
+			final double[][] frcCurveDist = frc.getSmoothedCurve( calculateCurve( input, location, relativeFRCDist, length, use3D ) );
+
+			for ( int i = 0; i < frcCurve.length; ++i )
+			{
+				if ( !Double.isFinite( frcCurveDist[ i ][ 1 ] ) || !Double.isFinite( frcCurve[ i ][ 1 ] ) )
+					return 0;
+
+				frcCurve[ i ][ 1 ] = frcCurve[ i ][ 1 ] - frcCurveDist[ i ][ 1 ];
+			}
+
+			return FRCRealRandomAccessible.integral( frcCurve );
+		}
+		catch ( Exception e )
+		{
+			// is thrown if everything is zero
+			return 0;
+		}
+	}
+
+	protected double[][] calculateCurve(
+			final RandomAccessible< FloatType > input,
+			final Point location,
+			final int dz,
+			final int length,
+			final boolean use3D )
+	{
+		final long x = location.getLongPosition( 0 );
+		final long y = location.getLongPosition( 1 );
+		final long z = location.getLongPosition( 2 );
+
+		if ( use3D )
+			return calculateFscCurve( input, x, y, z - dz, z + dz, Math.min( length, max3DLength ) );
+		else
+			return calculateFrcCurve( input, x, y, z - dz, z + dz, length );
+	}
+
+	/**
+	 * Calculate the Fourier Ring Correlation curve of two squares of the size length x length centered at (x,y) in
+	 * the planes z1 and z2, identical to {@link FRC#calculateFrcCurve(ij.process.ImageProcessor, ij.process.ImageProcessor)}
+	 * applied to {@link FRCRealRandomAccessible#getFloatProcessor(RandomAccessible, int, int, int, int)}.
+	 *
+	 * @return An array of triplets representing [][radius,correlation,N]
+	 */
+	public double[][] calculateFrcCurve(
+			final RandomAccessible< FloatType > input,
+			final long x,
+			final long y,
+			final long z1,
+			final long z2,
+			final int length )
+	{
+		// like FRC.pad(), the images are made even
+		final int width = length % 2 == 0 ? length : length + 1;
+		final int size = paddedSize( width, 4 );
+
+		if ( size != size2d )
+		{
+			size2d = size;
+			real1 = new float[ size * size ];
+			real2 = new float[ size * size ];
+			fft1 = new float[ ( size / 2 + 1 ) * size * 2 ];
+			fft2 = new float[ ( size / 2 + 1 ) * size * 2 ];
+			numerator = new float[ size * size ];
+			absFFT1 = new float[ size * size ];
+			absFFT2 = new float[ size * size ];
+		}
+
+		updateTaper( width );
+
+		copyTapered( input, x, y, z1, length, width, size, real1 );
+		copyTapered( input, x, y, z2, length, width, size, real2 );
+
+		fft( real1, fft1, size, size );
+		fft( real2, fft2, size, size );
+
+		// products of the centered complex transforms (like FHT.getComplexTransform()), the negative
+		// frequencies are not stored in the real-to-complex FFT but the products are point-symmetric
+		final int half = size / 2;
+		final int cw = half + 1;
+
+		for ( int cy = 0, i = 0; cy < size; ++cy )
+		{
+			final int ky = cy - half;
+
+			for ( int cx = 0; cx < size; ++cx, ++i )
+			{
+				final int kx = cx - half;
+				final int j;
+
+				if ( kx >= 0 )
+					j = ( ( ( ky + size ) % size ) * cw + kx ) * 2;
+				else
+					j = ( ( ( size - ky ) % size ) * cw - kx ) * 2;
+
+				final float a1 = fft1[ j ], b1 = fft1[ j + 1 ];
+				final float a2 = fft2[ j ], b2 = fft2[ j + 1 ];
+
+				numerator[ i ] = a1 * a2 + b1 * b2;
+				absFFT1[ i ] = a1 * a1 + b1 * b1;
+				absFFT2[ i ] = a2 * a2 + b2 * b2;
+			}
+		}
+
+		// same ring sampling as FRC.calculateFrcCurve()
+		final double centre = size / 2;
+		final double max = ( length / 2 ) - 1;
+
+		final double[][] frcCurve = new double[ (int)max ][ 3 ];
+
+		// Radius zero is always 1
+		frcCurve[ 0 ][ 0 ] = 0;
+		frcCurve[ 0 ][ 1 ] = 1;
+		frcCurve[ 0 ][ 2 ] = 1;
+
+		final double limit = frc.useHalfCircle ? Math.PI : 2 * Math.PI;
+
+		for ( int radius = 1; radius < max; ++radius )
+		{
+			double sum1 = 0;
+			double sum2 = 0;
+			double sum3 = 0;
+
+			final double angleStep = 1 / ( frc.perimeterSamplingFactor * radius );
+
+			double angle = 0D;
+			int numSum = 0;
+
+			while ( angle < limit )
+			{
+				final double px = centre + radius * Math.cos( angle );
+				final double py = centre + radius * Math.sin( angle );
+
+				final int xbase = (int)px;
+				final int ybase = (int)py;
+				final double xFraction = Math.max( 0.0, px - xbase );
+				final double yFraction = Math.max( 0.0, py - ybase );
+
+				final int lowerLeft = ybase * size + xbase;
+
+				sum1 += interpolate( numerator, lowerLeft, size, xFraction, yFraction );
+				sum2 += interpolate( absFFT1, lowerLeft, size, xFraction, yFraction );
+				sum3 += interpolate( absFFT2, lowerLeft, size, xFraction, yFraction );
+
+				numSum++;
+				angle += angleStep;
+			}
+
+			frcCurve[ radius ][ 0 ] = radius;
+			frcCurve[ radius ][ 1 ] = sum1 / Math.sqrt( sum2 * sum3 );
+			frcCurve[ radius ][ 2 ] = numSum;
+		}
+
+		return frcCurve;
+	}
+
+	/**
+	 * Calculate the Fourier Shell Correlation curve (3D FRC) of two cubes of the size length^3 centered at (x,y,z1)
+	 * and (x,y,z2). Shells are one frequency unit wide, the input is tapered in all dimensions like the 2D version.
+	 *
+	 * @return An array of triplets representing [][radius,correlation,N]
+	 */
+	public double[][] calculateFscCurve(
+			final RandomAccessible< FloatType > input,
+			final long x,
+			final long y,
+			final long z1,
+			final long z2,
+			final int length )
+	{
+		final int width = length % 2 == 0 ? length : length + 1;
+		final int size = paddedSize( width, 3 );
+		final int half = size / 2;
+		final int cw = half + 1;
+
+		if ( size != size3d )
+		{
+			size3d = size;
+			real3d1 = new float[ size * size * size ];
+			real3d2 = new float[ size * size * size ];
+			fft3d1 = new float[ cw * size * size * 2 ];
+			fft3d2 = new float[ cw * size * size * 2 ];
+		}
+
+		updateTaper( width );
+
+		copyTapered( input, x, y, z1, length, width, size, real3d1 );
+		copyTapered( input, x, y, z2, length, width, size, real3d2 );
+
+		fft( real3d1, fft3d1, size, size, size );
+		fft( real3d2, fft3d2, size, size, size );
+
+		final int numRadii = Math.max( 1, ( length / 2 ) - 1 );
+		final double[] sum1 = new double[ numRadii ];
+		final double[] sum2 = new double[ numRadii ];
+		final double[] sum3 = new double[ numRadii ];
+		final long[] count = new long[ numRadii ];
+
+		for ( int hz = 0, j = 0; hz < size; ++hz )
+		{
+			final int kz = hz < half ? hz : hz - size;
+
+			for ( int hy = 0; hy < size; ++hy )
+			{
+				final int ky = hy < half ? hy : hy - size;
+
+				for ( int kx = 0; kx < cw; ++kx, j += 2 )
+				{
+					final int r = (int)Math.round( Math.sqrt( kx * kx + ky * ky + kz * kz ) );
+
+					if ( r >= numRadii )
+						continue;
+
+					// all kx except 0 and size/2 also represent their (conjugate) negative frequency
+					final int w = ( kx == 0 || kx == half ) ? 1 : 2;
+
+					final float a1 = fft3d1[ j ], b1 = fft3d1[ j + 1 ];
+					final float a2 = fft3d2[ j ], b2 = fft3d2[ j + 1 ];
+
+					sum1[ r ] += w * ( a1 * a2 + b1 * b2 );
+					sum2[ r ] += w * ( a1 * a1 + b1 * b1 );
+					sum3[ r ] += w * ( a2 * a2 + b2 * b2 );
+					count[ r ] += w;
+				}
+			}
+		}
+
+		final double[][] fscCurve = new double[ numRadii ][ 3 ];
+
+		// Radius zero is always 1
+		fscCurve[ 0 ][ 0 ] = 0;
+		fscCurve[ 0 ][ 1 ] = 1;
+		fscCurve[ 0 ][ 2 ] = 1;
+
+		for ( int r = 1; r < numRadii; ++r )
+		{
+			fscCurve[ r ][ 0 ] = r;
+			fscCurve[ r ][ 1 ] = sum1[ r ] / Math.sqrt( sum2[ r ] * sum3[ r ] );
+			fscCurve[ r ][ 2 ] = count[ r ];
+		}
+
+		return fscCurve;
+	}
+
+	/**
+	 * Copies a square (2D, if data.length == size^2) or cube (3D) from the input, applies the Tukey window of
+	 * {@link FRC#getSquareTaperedImage(ij.process.ImageProcessor)} and pads it with zeros to size.
+	 */
+	protected void copyTapered(
+			final RandomAccessible< FloatType > input,
+			final long x,
+			final long y,
+			final long z,
+			final int length,
+			final int width,
+			final int size,
+			final float[] data )
+	{
+		Arrays.fill( data, 0 );
+
+		final boolean is3d = data.length > size * size;
+
+		// getFloatProcessor() copies [x-length/2, x+length/2-1], the limits at 0 and width-1 of the taper are zero
+		final int to = Math.min( 2 * ( length / 2 ), width - 1 );
+		final long minX = x - length / 2;
+		final long minY = y - length / 2;
+		final long minZ = is3d ? z - length / 2 : z;
+
+		final RandomAccess< FloatType > ra = input.randomAccess();
+
+		for ( int zi = is3d ? 1 : 0; zi < ( is3d ? to : 1 ); ++zi )
+		{
+			final float tz = is3d ? taper[ zi ] : 1;
+			ra.setPosition( minZ + zi, 2 );
+
+			for ( int yi = 1; yi < to; ++yi )
+			{
+				final float tyz = taper[ yi ] * tz;
+				ra.setPosition( minY + yi, 1 );
+				ra.setPosition( minX + 1, 0 );
+
+				for ( int xi = 1, i = ( zi * size + yi ) * size + 1; xi < to; ++xi, ++i )
+				{
+					data[ i ] = ra.get().get() * taper[ xi ] * tyz;
+					ra.fwd( 0 );
+				}
+			}
+		}
+	}
+
+	/**
+	 * in-place real-to-complex FFT of all dimensions (the first dimension of the result has size/2+1 complex values)
+	 */
+	protected static void fft( final float[] real, final float[] complex, final long... dim )
+	{
+		final long[] complexDim = dim.clone();
+		complexDim[ 0 ] = dim[ 0 ] / 2 + 1;
+
+		final ArrayImg< ComplexFloatType, ? > c = ArrayImgs.complexFloats( complex, complexDim );
+
+		FFTMethods.realToComplex( ArrayImgs.floats( real, dim ), c, 0, false, sameThread );
+
+		for ( int d = 1; d < dim.length; ++d )
+			FFTMethods.complexToComplex( c, d, true, false, sameThread );
+	}
+
+	/**
+	 * Same as {@link FRC#getSquareTaperedImage(ij.process.ImageProcessor)}: the next power of two, at least 2^minExp
+	 */
+	protected static int paddedSize( final int size, final int minExp )
+	{
+		for ( int i = minExp; i < 15; i++ )
+		{
+			final int newSize = 1 << i;
+
+			if ( size <= newSize )
+				return newSize;
+		}
+
+		throw new IllegalArgumentException( "FRC size " + size + " is too large." );
+	}
+
+	/**
+	 * Same window function as FRC.getWindowFunction()
+	 */
+	protected void updateTaper( final int size )
+	{
+		if ( taperSize == size )
+			return;
+
+		final int boundary = size / 8;
+		final int upperBoundary = size - boundary;
+
+		taper = new float[ size ];
+		taperSize = size;
+
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( ( i < boundary ) || ( i > size - upperBoundary ) )
+				taper[ i ] = (float) Math.pow( Math.sin( 12.566370614359172D * i / size ), 2.0D );
+			else
+				taper[ i ] = 1;
+		}
+	}
+
+	/**
+	 * Same as FRC.getInterpolatedValues() for one image
+	 */
+	private static double interpolate( final float[] image, final int lowerLeftIndex, final int maxx, final double xFraction, final double yFraction )
+	{
+		final int lowerRightIndex = lowerLeftIndex + 1;
+		final int upperLeftIndex = lowerLeftIndex + maxx;
+		final int upperRightIndex = upperLeftIndex + 1;
+
+		final double lowerLeft = image[ lowerLeftIndex ];
+		final double lowerRight = image[ lowerRightIndex ];
+		final double upperRight = image[ upperLeftIndex ];
+		final double upperLeft = image[ upperRightIndex ];
+
+		final double upperAverage = upperLeft + xFraction * ( upperRight - upperLeft );
+		final double lowerAverage = lowerLeft + xFraction * ( lowerRight - lowerLeft );
+
+		return lowerAverage + yFraction * ( upperAverage - lowerAverage );
+	}
+
+	/**
+	 * Runs all tasks in the calling thread (FFTMethods requires an ExecutorService)
+	 */
+	private static class SameThreadExecutorService extends AbstractExecutorService
+	{
+		@Override
+		public void execute( final Runnable command ) { command.run(); }
+
+		@Override
+		public void shutdown() {}
+
+		@Override
+		public List< Runnable > shutdownNow() { return Collections.emptyList(); }
+
+		@Override
+		public boolean isShutdown() { return false; }
+
+		@Override
+		public boolean isTerminated() { return false; }
+
+		@Override
+		public boolean awaitTermination( final long timeout, final TimeUnit unit ) { return false; }
+	}
+}
@@ -73,12 +73,41 @@ public class FRCRealRandomAccessible< T extends RealType< T > > implements RealR
 
 	public static int relativeFRCDist = 5;
 
+	/**
+	 * compute the FRC's with {@link FRCEngine} (imglib2 FFT, reused buffers) instead of the ImageJ FHT
+	 */
+	public static boolean useFRCEngine = true;
+
+	/**
+	 * number of tasks per thread the locations are distributed to
+	 */
+	public static int tasksPerThread = 4;
+
 	public FRCRealRandomAccessible(
 			final RandomAccessibleInterval< T > input,
 			final List< Point > locations,
 			final int length,
 			final boolean relative,
 			final ExecutorService service )
+	{
+		this( input, locations, length, relative, false, service );
+	}
+
+	/**
+	 * @param input - the image
+	 * @param locations - where to compute the FRC
+	 * @param length - size of the squares (2D) or cubes (3D, at most {@link FRCEngine#max3DLength})
+	 * @param relative - relative FRC (see {@link #computeRelativeFRC(RandomAccessible, Point, int, int)})
+	 * @param use3D - compute the 3D FRC (fourier shell correlation) of cubes instead of squares (requires {@link #useFRCEngine})
+	 * @param service - the ExecutorService or null
+	 */
+	public FRCRealRandomAccessible(
+			final RandomAccessibleInterval< T > input,
+			final List< Point > locations,
+			final int length,
+			final boolean relative,
+			final boolean use3D,
+			final ExecutorService service )
 	{
 		this.n = input.numDimensions();
 
@@ -89,31 +118,57 @@ public class FRCRealRandomAccessible< T extends RealType< T > > implements RealR
 		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
 		final AtomicInteger progress = new AtomicInteger( 0 );
 
-		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " + locations.size()  + " locations, length=" + length + ", relative=" + relative );
+		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " + locations.size()  + " locations, length=" + length + ", relative=" + relative + ", 3D=" + ( use3D && useFRCEngine ) );
+
+		if ( use3D && !useFRCEngine )
+			IOFunctions.println( "3D FRC requires the FRCEngine, computing 2D FRC." );
 
 		IJ.showProgress( 0.01 );
 
-		for ( final Point l : locations )
+		// several locations per task to avoid scheduling overhead
+		final int numTasks = Math.max( 1, Math.min( locations.size(), Threads.numThreads() * tasksPerThread ) );
+		final int batchSize = ( locations.size() + numTasks - 1 ) / numTasks;
+
+		for ( int from = 0; from < locations.size(); from += batchSize )
 		{
+			final List< Point > batch = locations.subList( from, Math.min( locations.size(), from + batchSize ) );
+
 			tasks.add( new Callable< Void >()
 			{
 				@Override
 				public Void call() throws Exception
 				{
-					final double quality;
+					// the buffers of an FRCEngine are reused by all locations of the batch and released with the task
+					// (a ThreadLocal engine would keep them alive as long as the threads of the service)
+					final FRCEngine engine = useFRCEngine ? new FRCEngine() : null;
 
-					if ( relative )
-						quality = computeRelativeFRC( floatInput, l, length, relativeFRCDist );
-					else
-						quality = computeFRC( floatInput, l, length );
-
-					synchronized ( qualityList )
+					for ( final Point l : batch )
 					{
-						qualityList.add( l, new FloatType( (float)quality ) );
+						final double quality;
+
+						if ( engine != null )
+						{
+							if ( relative )
+								quality = engine.computeRelativeFRC( floatInput, l, length, relativeFRCDist, use3D );
+							else
+								quality = engine.computeFRC( floatInput, l, length, use3D );
+						}
+						else
+						{
+							if ( relative )
+								quality = computeRelativeFRC( floatInput, l, length, relativeFRCDist );
+							else
+								quality = computeFRC( floatInput, l, length );
+						}
+
+						synchronized ( qualityList )
+						{
+							qualityList.add( l, new FloatType( (float)quality ) );
+						}
+
+						IJ.showProgress( (double)progress.incrementAndGet() / locations.size() );
 					}
 
-					IJ.showProgress( (double)progress.incrementAndGet() / locations.size() );
-
 					return null;
 				}
 			});
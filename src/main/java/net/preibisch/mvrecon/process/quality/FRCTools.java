@@ -56,6 +56,17 @@ public class FRCTools
 			final int zStepSize,
 			final int fftSize,
 			final boolean relative )
+	{
+		return computeFRC( viewId, imgLoader, zStepSize, fftSize, relative, false );
+	}
+
+	public static FRCRealRandomAccessible< FloatType > computeFRC(
+			final ViewId viewId,
+			final BasicImgLoader imgLoader,
+			final int zStepSize,
+			final int fftSize,
+			final boolean relative,
+			final boolean use3D )
 	{
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Loading view " +  Group.pvid( viewId ) + " ..." );
 
@@ -64,7 +75,7 @@ public class FRCTools
 
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Computing FRC for " +  Group.pvid( viewId ) + " ..." );
 
-		final FRCRealRandomAccessible< FloatType > frc = distributeGridFRC( input, 0.1, zStepSize, fftSize, relative, FRCRealRandomAccessible.relativeFRCDist, null );
+		final FRCRealRandomAccessible< FloatType > frc = distributeGridFRC( input, 0.1, zStepSize, fftSize, relative, use3D, FRCRealRandomAccessible.relativeFRCDist, null );
 		//DisplayImage.getImagePlusInstance( frc.getRandomAccessibleInterval(), true, "Fused, Virtual", Double.NaN, Double.NaN ).show();
 
 		return frc;
@@ -126,6 +137,11 @@ public class FRCTools
 	}
 
 	public static FRCRealRandomAccessible< FloatType > fixedGridFRC( final RandomAccessibleInterval< FloatType > input, final int distanceXY, final int distanceZ, final int fhtSqSize, final boolean relative, final int zMinDist, final ExecutorService service )
+	{
+		return fixedGridFRC( input, distanceXY, distanceZ, fhtSqSize, relative, false, zMinDist, service );
+	}
+
+	public static FRCRealRandomAccessible< FloatType > fixedGridFRC( final RandomAccessibleInterval< FloatType > input, final int distanceXY, final int distanceZ, final int fhtSqSize, final boolean relative, final boolean use3D, final int zMinDist, final ExecutorService service )
 	{
 		final ArrayList< Point > locations = new ArrayList<>();
 
@@ -135,10 +151,15 @@ public class FRCTools
 			for ( final Pair< Long, Long > xy : xyPositions )
 				locations.add( new Point( xy.getA(), xy.getB(), z ) );
 
-		return new FRCRealRandomAccessible<>( input, locations, fhtSqSize, relative, service );
+		return new FRCRealRandomAccessible<>( input, locations, fhtSqSize, relative, use3D, service );
 	}
 
 	public static FRCRealRandomAccessible< FloatType > distributeGridFRC( final RandomAccessibleInterval< FloatType > input, final double overlapTolerance, final int distanceZ, final int fhtSqSize, final boolean relative, final int zMinDist, final ExecutorService service )
+	{
+		return distributeGridFRC( input, overlapTolerance, distanceZ, fhtSqSize, relative, false, zMinDist, service );
+	}
+
+	public static FRCRealRandomAccessible< FloatType > distributeGridFRC( final RandomAccessibleInterval< FloatType > input, final double overlapTolerance, final int distanceZ, final int fhtSqSize, final boolean relative, final boolean use3D, final int zMinDist, final ExecutorService service )
 	{
 		final ArrayList< Point > locations = new ArrayList<>();
 
@@ -149,7 +170,7 @@ public class FRCTools
 			for ( final Pair< Long, Long > xy : xyPositions )
 				locations.add( new Point( xy.getA(), xy.getB(), z ) );
 
-		return new FRCRealRandomAccessible<>( input, locations, fhtSqSize, relative, service );
+		return new FRCRealRandomAccessible<>( input, locations, fhtSqSize, relative, use3D, service );
 	}
 
 	public static ArrayList< Pair< Long, Long > > fixedGridXY( final Interval interval, final long distance )
@@ -67,6 +67,7 @@ import net.imglib2.type.numeric.integer.GenericShortType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.cache.BlockCache;
 
 /**
  * Convenience methods to create lazy evaluated cached cell images with ops or consumers.
@@ -130,12 +131,36 @@ public class Lazy {
 			final Set<AccessFlags> accessFlags,
 			final CellLoader<T> loader) {
 
+		return createImg("Lazy", targetInterval, blockSize, type, accessFlags, loader);
+	}
+
+	/*
+	 * Create a memory {@link CachedCellImg} with a {@link CellLoader}, the cells
+	 * are accounted in the shared {@link BlockCache} under cacheName (if enabled).
+	 *
+	 * @param cacheName
+	 * @param targetInterval
+	 * @param blockSize
+	 * @param type
+	 * @param accessFlags
+	 * @param loader
+	 * @return
+	 */
+	public static <T extends NativeType<T>> CachedCellImg<T, ?> createImg(
+			final String cacheName,
+			final Interval targetInterval,
+			final int[] blockSize,
+			final T type,
+			final Set<AccessFlags> accessFlags,
+			final CellLoader<T> loader) {
+
 		final long[] dimensions = Intervals.dimensionsAsLongArray(targetInterval);
 		final CellGrid grid = new CellGrid(dimensions, blockSize);
 
 		@SuppressWarnings({"unchecked", "rawtypes"})
 		final Cache<Long, Cell<?>> cache =
-				new SoftRefLoaderCache().withLoader(LoadedCellCacheLoader.get(grid, loader, type, accessFlags));
+				(BlockCache.enabled ? BlockCache.getInstance().newCellCache(cacheName) : new SoftRefLoaderCache())
+				.withLoader(LoadedCellCacheLoader.get(grid, loader, type, accessFlags));
 
 		return createImg(grid, cache, type, accessFlags);
 	}